@@ -0,0 +1,126 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.logsentinel.sentineldb.SentinelDBDriver;
+
+/**
+ * Base of the benchmarks that run the same operations against raw H2 and against H2 through the SentinelDB driver.
+ * Each trial uses its own in-memory database with a "customers" table, in which name, email and phone are encrypted
+ * and name is searchable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class DriverBenchmark {
+
+    public static final String RAW = "raw";
+    public static final String SENTINELDB = "sentineldb";
+
+    // the encrypted values are longer than the plaintexts
+    public static final String CREATE_TABLE_QUERY = "CREATE TABLE customers (id INT PRIMARY KEY, name VARCHAR(255), "
+            + "email VARCHAR(255), phone VARCHAR(255), city VARCHAR(100), notes VARCHAR(255))";
+    public static final String INSERT_QUERY = "INSERT INTO customers (id, name, email, phone, city, notes) VALUES (?, ?, ?, ?, ?, ?)";
+
+    @Param({ RAW, SENTINELDB })
+    public String driver;
+
+    /**
+     * The latency of each call to the stubbed SentinelDB and audit log services
+     */
+    @Param({ "0" })
+    public long backendLatencyMicros;
+
+    protected Connection connection;
+    // used for preparing the data, bypassing the driver
+    protected Connection rawConnection;
+
+    @Setup(Level.Trial)
+    public void openConnection() throws SQLException {
+        StubBackends.install(backendLatencyMicros);
+
+        String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        rawConnection = DriverManager.getConnection(url);
+        try (Statement statement = rawConnection.createStatement()) {
+            statement.executeUpdate(CREATE_TABLE_QUERY);
+        }
+        // the table has to exist before connecting, so that the driver adds the lookup columns to it
+        connection = driver.equals(RAW) ? rawConnection : new SentinelDBDriver().connect(url.replace("jdbc:", "jdbc:sentineldb:"), StubBackends.getDriverProperties());
+        setUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeConnection() throws SQLException {
+        tearDown();
+        if (connection != rawConnection) {
+            connection.close();
+        }
+        try (Statement statement = rawConnection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        rawConnection.close();
+    }
+
+    /**
+     * Invoked after the connection is opened
+     */
+    protected void setUp() throws SQLException {
+    }
+
+    /**
+     * Invoked before the connection is closed
+     */
+    protected void tearDown() throws SQLException {
+    }
+
+    /**
+     * Inserts the given number of rows through the tested connection, so that they are encrypted if the driver is used
+     */
+    protected void insertRows(int count) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_QUERY)) {
+            for (int i = 0; i < count; i++) {
+                setRow(statement, i);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    public static void setRow(PreparedStatement statement, int id) throws SQLException {
+        statement.setInt(1, id);
+        statement.setString(2, name(id));
+        statement.setString(3, "customer" + id + "@example.com");
+        statement.setString(4, "+1 555 " + (1000000 + id));
+        statement.setString(5, city(id));
+        statement.setString(6, "Customer since " + (2000 + id % 20));
+    }
+
+    public static String name(int id) {
+        return "Customer " + id;
+    }
+
+    public static String city(int id) {
+        return "City " + id % 100;
+    }
+}
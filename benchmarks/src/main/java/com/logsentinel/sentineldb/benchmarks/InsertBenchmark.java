@@ -0,0 +1,51 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Single-row INSERT of a row with three encrypted columns, one of which is searchable
+ */
+public class InsertBenchmark extends DriverBenchmark {
+
+    private Statement statement;
+    private PreparedStatement preparedStatement;
+    private int nextId;
+
+    @Override
+    protected void setUp() throws SQLException {
+        statement = connection.createStatement();
+        preparedStatement = connection.prepareStatement(INSERT_QUERY);
+    }
+
+    @Override
+    protected void tearDown() throws SQLException {
+        statement.close();
+        preparedStatement.close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteRows() throws SQLException {
+        try (Statement statement = rawConnection.createStatement()) {
+            statement.executeUpdate("TRUNCATE TABLE customers");
+        }
+    }
+
+    @Benchmark
+    public int insertWithStatement() throws SQLException {
+        int id = nextId++;
+        return statement.executeUpdate("INSERT INTO customers (id, name, email, phone, city, notes) VALUES (" + id + ", '"
+                + name(id) + "', 'customer" + id + "@example.com', '+1 555 " + (1000000 + id) + "', '" + city(id) + "', 'Customer')");
+    }
+
+    @Benchmark
+    public int insertWithPreparedStatement() throws SQLException {
+        setRow(preparedStatement, nextId++);
+        return preparedStatement.executeUpdate();
+    }
+}
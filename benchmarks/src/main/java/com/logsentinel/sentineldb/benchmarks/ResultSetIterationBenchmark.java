@@ -0,0 +1,65 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading all rows of a result set with a varying number of encrypted columns. The time is per result set,
+ * so the cost per row is the score divided by the number of rows
+ */
+public class ResultSetIterationBenchmark extends DriverBenchmark {
+
+    @Param({ "1000" })
+    public int rows;
+
+    @Param({ "0", "1", "3" })
+    public int encryptedColumns;
+
+    private PreparedStatement preparedStatement;
+    private int columnCount;
+
+    @Override
+    protected void setUp() throws SQLException {
+        insertRows(rows);
+        String columns;
+        switch (encryptedColumns) {
+        case 0:
+            columns = "id, city, notes";
+            break;
+        case 1:
+            columns = "id, name, city, notes";
+            break;
+        case 3:
+            columns = "id, name, email, phone";
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported number of encrypted columns " + encryptedColumns);
+        }
+        columnCount = columns.split(",").length;
+        preparedStatement = connection.prepareStatement("SELECT " + columns + " FROM customers");
+    }
+
+    @Override
+    protected void tearDown() throws SQLException {
+        preparedStatement.close();
+    }
+
+    @Benchmark
+    public int iterate(Blackhole blackhole) throws SQLException {
+        int count = 0;
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    blackhole.consume(resultSet.getString(i));
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,73 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SELECT by the searchable encrypted column, which the driver rewrites to use the lookup column
+ */
+public class SelectBenchmark extends DriverBenchmark {
+
+    // the number of distinct searched values; each of them is a separate query for a Statement
+    private static final int SEARCHED_VALUES = 100;
+
+    @Param({ "10000" })
+    public int rows;
+
+    private Statement statement;
+    private PreparedStatement preparedStatement;
+    private String[] names;
+    private String[] queries;
+    private int next;
+
+    @Override
+    protected void setUp() throws SQLException {
+        insertRows(rows);
+        statement = connection.createStatement();
+        preparedStatement = connection.prepareStatement("SELECT id, name, email, city FROM customers WHERE name=?");
+        names = new String[SEARCHED_VALUES];
+        queries = new String[SEARCHED_VALUES];
+        for (int i = 0; i < SEARCHED_VALUES; i++) {
+            int id = i * (rows / SEARCHED_VALUES);
+            names[i] = name(id);
+            queries[i] = "SELECT id, name, email, city FROM customers WHERE name='" + names[i] + "'";
+        }
+    }
+
+    @Override
+    protected void tearDown() throws SQLException {
+        statement.close();
+        preparedStatement.close();
+    }
+
+    @Benchmark
+    public void selectWithStatement(Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery(queries[next++ % SEARCHED_VALUES])) {
+            consume(resultSet, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void selectWithPreparedStatement(Blackhole blackhole) throws SQLException {
+        preparedStatement.setString(1, names[next++ % SEARCHED_VALUES]);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            consume(resultSet, blackhole);
+        }
+    }
+
+    private void consume(ResultSet resultSet, Blackhole blackhole) throws SQLException {
+        if (!resultSet.next()) {
+            throw new IllegalStateException("The searched row was not found");
+        }
+        blackhole.consume(resultSet.getInt(1));
+        blackhole.consume(resultSet.getString(2));
+        blackhole.consume(resultSet.getString(3));
+        blackhole.consume(resultSet.getString(4));
+    }
+}
@@ -0,0 +1,95 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.logsentinel.sentineldb.SqlParser;
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.TableMetadata;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+/**
+ * Parsing of queries as generated by ORMs and written by hand. Uncached parsing is what happens the first time
+ * a query is seen (or after the schema changes); afterwards the result is taken from the cache and copied
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlParserBenchmark {
+
+    private static final Map<String, String> CORPUS = new HashMap<>();
+    static {
+        CORPUS.put("hibernateJoin", "select distinct owner0_.id as id1_0_0_, pets1_.id as id1_1_1_, owner0_.first_name as first_na2_0_0_, "
+                + "owner0_.last_name as last_nam3_0_0_, owner0_.address as address4_0_0_, owner0_.city as city5_0_0_, "
+                + "owner0_.telephone as telephon6_0_0_, pets1_.name as name2_1_1_, pets1_.birth_date as birth_da3_1_1_, "
+                + "pets1_.owner_id as owner_id4_1_1_, pets1_.type_id as type_id5_1_1_, pets1_.owner_id as owner_id4_1_0__, "
+                + "pets1_.id as id1_1_0__ from owners owner0_ left outer join pets pets1_ on owner0_.id=pets1_.owner_id "
+                + "where owner0_.last_name like ?");
+        CORPUS.put("selectById", "select owner0_.id as id1_0_0_, owner0_.first_name as first_na2_0_0_, owner0_.last_name as last_nam3_0_0_ "
+                + "from owners owner0_ where owner0_.id=?");
+        CORPUS.put("selectLiteral", "SELECT id, name, email, city FROM customers WHERE name='Customer 42' AND city='City 42'");
+        CORPUS.put("selectSubquery", "SELECT o.id, o.total FROM orders o WHERE o.customer_id IN "
+                + "(SELECT c.id FROM customers c WHERE c.city = ?) ORDER BY o.created_at DESC LIMIT 20");
+        CORPUS.put("insertPrepared", "insert into owners (address, city, first_name, last_name, telephone, id) values (?, ?, ?, ?, ?, ?)");
+        CORPUS.put("insertLiteral", "INSERT INTO customers (id, name, email, phone, city, notes) "
+                + "VALUES (42, 'Customer 42', 'customer42@example.com', '+1 555 1000042', 'City 42', 'Customer since 2002')");
+        CORPUS.put("updatePrepared", "update owners set address=?, city=?, first_name=?, last_name=?, telephone=? where id=?");
+        CORPUS.put("updateLiteral", "UPDATE customers SET email='updated@example.com', phone='+1 555 0000000' WHERE id=42");
+        CORPUS.put("delete", "DELETE FROM visits WHERE pet_id=? AND visit_date < ?");
+    }
+
+    @Param({ "hibernateJoin", "selectById", "selectLiteral", "selectSubquery", "insertPrepared", "insertLiteral",
+            "updatePrepared", "updateLiteral", "delete" })
+    public String query;
+
+    private String sql;
+    private SqlParser parser;
+
+    @Setup(Level.Trial)
+    public void createParser() {
+        sql = CORPUS.get(query);
+
+        TableMetadata tableMetadata = new TableMetadata();
+        Map<String, List<String>> tableColumns = new HashMap<>();
+        tableColumns.put("owners", Arrays.asList("id", "first_name", "last_name", "address", "city", "telephone"));
+        tableColumns.put("pets", Arrays.asList("id", "name", "birth_date", "type_id", "owner_id"));
+        tableColumns.put("visits", Arrays.asList("id", "pet_id", "visit_date", "description"));
+        tableColumns.put("customers", Arrays.asList("id", "name", "email", "phone", "city", "notes"));
+        tableColumns.put("orders", Arrays.asList("id", "customer_id", "total", "created_at"));
+        for (Map.Entry<String, List<String>> entry : tableColumns.entrySet()) {
+            tableMetadata.putTable(new TableDefinition(entry.getKey(), entry.getValue(), Arrays.asList("id")));
+        }
+        parser = new SqlParser(tableMetadata);
+    }
+
+    @Benchmark
+    public SqlParseResult parseUncached() {
+        parser.clearCache();
+        // none of the queries in the corpus needs the connection to select the ids of updated rows
+        return parser.parse(sql, null);
+    }
+
+    @Benchmark
+    public SqlParseResult parseCached() {
+        return parser.parse(sql, null);
+    }
+}
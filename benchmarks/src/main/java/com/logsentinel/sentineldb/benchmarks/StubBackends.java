@@ -0,0 +1,207 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.logsentinel.LogSentinelClient;
+import com.logsentinel.api.AuditLogApi;
+import com.logsentinel.sentineldb.AuditLogService;
+import com.logsentinel.sentineldb.ExternalEncryptionService;
+import com.logsentinel.sentineldb.SentinelDBClient;
+import com.logsentinel.sentineldb.api.ExternalEncryptionApi;
+import com.logsentinel.sentineldb.api.SearchSchemaApi;
+import com.logsentinel.sentineldb.model.ExternalEncryptionResult;
+import com.logsentinel.sentineldb.model.SearchSchema;
+import com.logsentinel.sentineldb.model.SearchSchemaField;
+
+/**
+ * In-process replacements of SentinelDB and the audit log service (Trails). Each call is passed to a {@link Backend},
+ * which by default waits for the configured latency, standing for the network round-trip and the processing time
+ * of the remote service.
+ *
+ * Values are "encrypted" with Base64, and the lookup key of a value is derived from its hash code,
+ * so that the data stored by the driver can be searched and read back.
+ */
+public final class StubBackends {
+
+    public static final String TABLE = "customers";
+    public static final String SEARCHABLE_COLUMN = "name";
+    public static final List<String> ENCRYPTED_COLUMNS = Arrays.asList("name", "email", "phone");
+
+    private static final LongAdder sentinelDBCalls = new LongAdder();
+    private static final LongAdder auditCalls = new LongAdder();
+    private static volatile AuditLogService auditLogService;
+
+    private StubBackends() {
+    }
+
+    /**
+     * Replaces the clients of the driver, affecting the connections opened after that
+     */
+    public static void install(long latencyMicros) {
+        Backend backend = latency(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+        install(backend, backend);
+    }
+
+    /**
+     * Replaces the clients of the driver with ones that pass each call to the given backends
+     */
+    public static void install(Backend sentinelDB, Backend trails) {
+        SentinelDBClient sentinelDBClient = mock(SentinelDBClient.class);
+        ExternalEncryptionApi encryptionApi = new StubExternalEncryptionApi(sentinelDB);
+        SearchSchemaApi schemaApi = new StubSearchSchemaApi();
+        when(sentinelDBClient.getExternalEncryptionActions()).thenReturn(encryptionApi);
+        when(sentinelDBClient.getSchemaActions()).thenReturn(schemaApi);
+        BiFunction<String, String, SentinelDBClient> sentinelDBClientBuilder = (orgId, secret) -> sentinelDBClient;
+        setClientBuilder(ExternalEncryptionService.class, sentinelDBClientBuilder);
+
+        LogSentinelClient logSentinelClient = mock(LogSentinelClient.class);
+        AuditLogApi auditLogApi = mock(AuditLogApi.class);
+        when(auditLogApi.log(any(), any())).thenAnswer(invocation -> {
+            auditCalls.increment();
+            Object action = invocation.getArgument(1);
+            trails.call("log", String.valueOf(action));
+            return null;
+        });
+        when(logSentinelClient.getAuditLogActions()).thenReturn(auditLogApi);
+        Function<AuditLogService, LogSentinelClient> logSentinelClientBuilder = service -> {
+            auditLogService = service;
+            return logSentinelClient;
+        };
+        setClientBuilder(AuditLogService.class, logSentinelClientBuilder);
+    }
+
+    /**
+     * @return a backend that waits for the given time on each call
+     */
+    public static Backend latency(long latencyNanos) {
+        return (operation, payload) -> {
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+        };
+    }
+
+    /**
+     * @return the audit log service created by the last opened driver context, or null if there is none
+     */
+    public static AuditLogService getAuditLogService() {
+        return auditLogService;
+    }
+
+    /**
+     * @return the properties required by the driver in order to use the stubbed services
+     */
+    public static Properties getDriverProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("sentineldbOrganizationId", "benchmark");
+        properties.setProperty("sentineldbSecret", "benchmark");
+        properties.setProperty("sentineldbDatastoreId", UUID.randomUUID().toString());
+        properties.setProperty("trailsOrganizationId", "benchmark");
+        properties.setProperty("trailsSecret", "benchmark");
+        properties.setProperty("trailsApplicationId", "benchmark");
+        return properties;
+    }
+
+    public static long getSentinelDBCalls() {
+        return sentinelDBCalls.sum();
+    }
+
+    public static long getAuditCalls() {
+        return auditCalls.sum();
+    }
+
+    public static String getLookupKey(String plaintext) {
+        return Integer.toHexString(plaintext.hashCode());
+    }
+
+    private static void setClientBuilder(Class<?> serviceClass, Object builder) {
+        try {
+            Field field = serviceClass.getDeclaredField("clientBuilder");
+            field.setAccessible(true);
+            field.set(null, builder);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to replace the client of " + serviceClass.getSimpleName(), ex);
+        }
+    }
+
+    /**
+     * The remote side of the stubbed calls
+     */
+    public interface Backend {
+        /**
+         * Invoked synchronously on each call of a stubbed client. Simulated failures are thrown as runtime exceptions,
+         * the same way the clients report failed requests
+         */
+        void call(String operation, String payload);
+    }
+
+    private static class StubExternalEncryptionApi extends ExternalEncryptionApi {
+        private final Backend backend;
+
+        StubExternalEncryptionApi(Backend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public ExternalEncryptionResult encryptData(UUID datastoreId, String recordId, String recordType, String fieldName,
+                String plaintext) {
+            sentinelDBCalls.increment();
+            backend.call("encrypt", plaintext);
+            ExternalEncryptionResult result = new ExternalEncryptionResult();
+            result.setCiphertext(Base64.getEncoder().encodeToString(plaintext.getBytes(StandardCharsets.UTF_8)));
+            result.setLookupKeys(fieldName.equals(SEARCHABLE_COLUMN)
+                    ? Collections.singletonList(getLookupKey(plaintext)) : Collections.emptyList());
+            return result;
+        }
+
+        @Override
+        public String decryptData(String ciphertext, UUID datastoreId, String recordId, String recordType) {
+            sentinelDBCalls.increment();
+            backend.call("decrypt", ciphertext);
+            // the ciphertext is already the Base64-encoded plaintext
+            return ciphertext;
+        }
+
+        @Override
+        public String getLookupValue(UUID datastoreId, String plaintext) {
+            sentinelDBCalls.increment();
+            backend.call("lookup", plaintext);
+            return getLookupKey(plaintext);
+        }
+    }
+
+    private static class StubSearchSchemaApi extends SearchSchemaApi {
+        @Override
+        public List<SearchSchema> listSearchSchemas() {
+            SearchSchema schema = new SearchSchema();
+            schema.setRecordType(TABLE);
+            List<SearchSchemaField> fields = new ArrayList<>();
+            for (String column : ENCRYPTED_COLUMNS) {
+                SearchSchemaField field = new SearchSchemaField();
+                field.setName(column);
+                field.setIndexed(column.equals(SEARCHABLE_COLUMN));
+                field.setAnalyzed(false);
+                fields.add(field);
+            }
+            schema.setFields(fields);
+            return Collections.singletonList(schema);
+        }
+    }
+}
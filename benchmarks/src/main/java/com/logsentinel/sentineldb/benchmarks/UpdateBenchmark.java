@@ -0,0 +1,49 @@
+package com.logsentinel.sentineldb.benchmarks;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * UPDATE of an encrypted column, by id and by a non-id column. In the latter case the driver runs
+ * a synthetic SELECT on every execution to find the ids of the updated rows
+ */
+public class UpdateBenchmark extends DriverBenchmark {
+
+    @Param({ "10000" })
+    public int rows;
+
+    private Statement statement;
+    private PreparedStatement preparedStatement;
+    private int next;
+
+    @Override
+    protected void setUp() throws SQLException {
+        insertRows(rows);
+        statement = connection.createStatement();
+        preparedStatement = connection.prepareStatement("UPDATE customers SET email=? WHERE id=?");
+    }
+
+    @Override
+    protected void tearDown() throws SQLException {
+        statement.close();
+        preparedStatement.close();
+    }
+
+    @Benchmark
+    public int updateById() throws SQLException {
+        int id = next++ % rows;
+        preparedStatement.setString(1, "updated" + id + "@example.com");
+        preparedStatement.setInt(2, id);
+        return preparedStatement.executeUpdate();
+    }
+
+    @Benchmark
+    public int updateWithoutId() throws SQLException {
+        // the query is the same on every execution, so it is parsed only once, but the affected ids are selected every time
+        return statement.executeUpdate("UPDATE customers SET email='updated@example.com' WHERE city='" + city(7) + "'");
+    }
+}
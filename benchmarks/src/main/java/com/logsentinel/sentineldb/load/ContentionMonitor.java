@@ -0,0 +1,196 @@
+package com.logsentinel.sentineldb.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Finds where the worker threads wait for each other. A sampler takes the stacks of the workers periodically, and
+ * for each worker that is blocked on a monitor or waiting on a lock, attributes the sample to the innermost frame
+ * of the driver. Contention in the shared services (e.g. the encryption service or the audit pipeline) thus shows up
+ * as the driver methods with the most samples.
+ *
+ * In addition, the total blocked and waited times of the workers are taken from the thread MXBean.
+ */
+public class ContentionMonitor {
+
+    private static final String DRIVER_PACKAGE = "com.logsentinel.sentineldb.";
+    private static final String HARNESS_PACKAGE = "com.logsentinel.sentineldb.load.";
+    private static final String BENCHMARKS_PACKAGE = "com.logsentinel.sentineldb.benchmarks.";
+    private static final int MAX_STACK_DEPTH = 64;
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final long samplingIntervalMillis;
+    private final Map<String, LongAdder> sites = new ConcurrentHashMap<>();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder waitingSamples = new LongAdder();
+
+    private volatile long[] threadIds = new long[0];
+    private volatile boolean running;
+    private Thread sampler;
+    private Map<Long, long[]> startTimes = new HashMap<>();
+
+    public ContentionMonitor(long samplingIntervalMillis) {
+        this.samplingIntervalMillis = samplingIntervalMillis;
+        if (threadMXBean.isThreadContentionMonitoringSupported()) {
+            threadMXBean.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    /**
+     * Starts sampling the given threads, discarding the samples of the previous run
+     */
+    public void start(Collection<Thread> threads) {
+        sites.clear();
+        samples.reset();
+        waitingSamples.reset();
+        threadIds = threads.stream().mapToLong(Thread::getId).toArray();
+        startTimes = getBlockedAndWaitedTimes();
+
+        running = true;
+        sampler = new Thread(this::sample, "contention-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public Report stop() throws InterruptedException {
+        running = false;
+        sampler.join();
+
+        long blockedMillis = 0;
+        long waitedMillis = 0;
+        for (Map.Entry<Long, long[]> entry : getBlockedAndWaitedTimes().entrySet()) {
+            long[] start = startTimes.getOrDefault(entry.getKey(), new long[2]);
+            blockedMillis += entry.getValue()[0] - start[0];
+            waitedMillis += entry.getValue()[1] - start[1];
+        }
+
+        Map<String, Long> siteCounts = sites.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum()));
+        return new Report(samples.sum(), waitingSamples.sum(), siteCounts, blockedMillis, waitedMillis,
+                threadMXBean.isThreadContentionMonitoringEnabled());
+    }
+
+    private void sample() {
+        while (running) {
+            for (ThreadInfo info : threadMXBean.getThreadInfo(threadIds, MAX_STACK_DEPTH)) {
+                if (info == null) {
+                    continue;
+                }
+                samples.increment();
+                Thread.State state = info.getThreadState();
+                if (state != Thread.State.BLOCKED && state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING) {
+                    continue;
+                }
+                String frame = findDriverFrame(info.getStackTrace());
+                if (frame == null) {
+                    // waiting outside of the driver, e.g. in the target database
+                    continue;
+                }
+                waitingSamples.increment();
+                String lock = info.getLockName() != null ? info.getLockName().replaceAll("@[0-9a-f]+$", "") : "-";
+                sites.computeIfAbsent(state + " " + frame + " on " + lock, k -> new LongAdder()).increment();
+            }
+            try {
+                Thread.sleep(samplingIntervalMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static String findDriverFrame(StackTraceElement[] stackTrace) {
+        for (StackTraceElement element : stackTrace) {
+            String className = element.getClassName();
+            if (className.startsWith(DRIVER_PACKAGE) && !className.startsWith(HARNESS_PACKAGE)
+                    && !className.startsWith(BENCHMARKS_PACKAGE)) {
+                return className.substring(DRIVER_PACKAGE.length()) + "." + element.getMethodName()
+                        + ":" + element.getLineNumber();
+            }
+        }
+        return null;
+    }
+
+    private Map<Long, long[]> getBlockedAndWaitedTimes() {
+        Map<Long, long[]> times = new HashMap<>();
+        if (!threadMXBean.isThreadContentionMonitoringEnabled()) {
+            return times;
+        }
+        for (ThreadInfo info : threadMXBean.getThreadInfo(threadIds)) {
+            if (info != null) {
+                times.put(info.getThreadId(), new long[] { info.getBlockedTime(), info.getWaitedTime() });
+            }
+        }
+        return times;
+    }
+
+    /**
+     * @return the number of live threads, grouped by their names with the numbers removed (e.g. "pool-N-thread-N")
+     */
+    public static Map<String, Integer> getThreadGroups() {
+        Map<String, Integer> groups = new TreeMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            groups.merge(thread.getName().replaceAll("\\d+", "N"), 1, Integer::sum);
+        }
+        return groups;
+    }
+
+    public static class Report {
+        private final long samples;
+        private final long waitingSamples;
+        private final Map<String, Long> sites;
+        private final long blockedMillis;
+        private final long waitedMillis;
+        private final boolean timesMeasured;
+
+        Report(long samples, long waitingSamples, Map<String, Long> sites, long blockedMillis, long waitedMillis,
+                boolean timesMeasured) {
+            this.samples = samples;
+            this.waitingSamples = waitingSamples;
+            this.sites = sites;
+            this.blockedMillis = blockedMillis;
+            this.waitedMillis = waitedMillis;
+            this.timesMeasured = timesMeasured;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getWaitingSamples() {
+            return waitingSamples;
+        }
+
+        /**
+         * @return the given number of sites with the most samples, in descending order
+         */
+        public List<Map.Entry<String, Long>> getTopSites(int count) {
+            List<Map.Entry<String, Long>> result = new ArrayList<>(sites.entrySet());
+            result.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+            return result.subList(0, Math.min(count, result.size()));
+        }
+
+        public long getBlockedMillis() {
+            return blockedMillis;
+        }
+
+        public long getWaitedMillis() {
+            return waitedMillis;
+        }
+
+        public boolean isTimesMeasured() {
+            return timesMeasured;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.logsentinel.sentineldb.load;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.logsentinel.sentineldb.AuditLogService;
+import com.logsentinel.sentineldb.AuditPipeline;
+import com.logsentinel.sentineldb.DriverMetrics;
+import com.logsentinel.sentineldb.DriverMetrics.PhaseStatistics;
+import com.logsentinel.sentineldb.SentinelDBDriver;
+import com.logsentinel.sentineldb.benchmarks.DriverBenchmark;
+import com.logsentinel.sentineldb.benchmarks.StubBackends;
+import com.logsentinel.sentineldb.load.Workload.Operation;
+import com.logsentinel.sentineldb.proxies.SentinelDBConnection;
+
+/**
+ * Runs a mix of operations with many concurrent threads through the driver on an in-memory H2 database,
+ * with SentinelDB and Trails replaced by local HTTP services with configurable latency, jitter and error rate.
+ * Each thread has its own connection, while all connections share the services of the driver, as they would
+ * in an application with a connection pool.
+ *
+ * For each number of threads, the throughput and the latency percentiles of each operation are reported,
+ * together with the requests to the simulated services, the state of the audit pipeline, the durations
+ * of the phases of query processing as recorded by the driver, the places in the driver where threads wait
+ * for each other, and the live threads.
+ *
+ * <pre>java -cp target/benchmarks.jar com.logsentinel.sentineldb.load.LoadGenerator --threads=64,256,512
+ *     --workload=search-heavy --sentineldbLatency=2 --sentineldbJitter=1 --sentineldbErrorRate=0.001</pre>
+ *
+ * Driver properties can be passed with a "driver." prefix, e.g. --driver.lookupCacheSize=10000
+ *
+ * Queries that fail due to simulated errors are logged by the driver and counted as errors of the operation.
+ */
+public class LoadGenerator {
+
+    private static final String DRIVER_PROPERTY_PREFIX = "driver.";
+    private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+    private final Map<String, String> options;
+    private final Workload workload;
+    private final int rows;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final Path histogramDirectory;
+
+    private SimulatedService sentinelDB;
+    private SimulatedService trails;
+    private String url;
+    private Properties driverProperties;
+    private Connection rawConnection;
+    // kept open during the whole run, so that the services of the driver are shared by all phases
+    private Connection setupConnection;
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        workload = Workload.fromProperty(options.getOrDefault("workload", "read-heavy"));
+        rows = Integer.parseInt(options.getOrDefault("rows", "10000"));
+        warmupMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("warmup", "10")));
+        durationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("duration", "30")));
+        histogramDirectory = options.containsKey("histograms") ? Paths.get(options.get("histograms")) : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String threads : options.getOrDefault("threads", "64,128,256,512").split(",")) {
+            threadCounts.add(Integer.parseInt(threads.trim()));
+        }
+        // the JDK keeps only 5 idle connections per host by default, so most requests would open a new connection
+        int maxThreads = threadCounts.stream().mapToInt(Integer::intValue).max().orElse(1);
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(maxThreads));
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.setUp();
+        try {
+            for (int threads : threadCounts) {
+                generator.runPhase(threads, System.out);
+            }
+        } finally {
+            generator.tearDown();
+        }
+    }
+
+    public void setUp() throws IOException, SQLException, InterruptedException {
+        int backendThreads = Integer.parseInt(options.getOrDefault("backendThreads", "128"));
+        sentinelDB = new SimulatedService("sentineldb",
+                Double.parseDouble(options.getOrDefault("sentineldbLatency", "2")),
+                Double.parseDouble(options.getOrDefault("sentineldbJitter", "1")),
+                Double.parseDouble(options.getOrDefault("sentineldbErrorRate", "0")), backendThreads);
+        trails = new SimulatedService("trails",
+                Double.parseDouble(options.getOrDefault("trailsLatency", "5")),
+                Double.parseDouble(options.getOrDefault("trailsJitter", "2")),
+                Double.parseDouble(options.getOrDefault("trailsErrorRate", "0")), backendThreads);
+        sentinelDB.start();
+        trails.start();
+        StubBackends.install(sentinelDB.backend(), trails.backend());
+
+        String h2Url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+        rawConnection = DriverManager.getConnection(h2Url);
+        try (Statement statement = rawConnection.createStatement()) {
+            statement.executeUpdate(DriverBenchmark.CREATE_TABLE_QUERY);
+        }
+        url = h2Url.replace("jdbc:", "jdbc:sentineldb:");
+        driverProperties = StubBackends.getDriverProperties();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith(DRIVER_PROPERTY_PREFIX)) {
+                driverProperties.setProperty(option.getKey().substring(DRIVER_PROPERTY_PREFIX.length()), option.getValue());
+            }
+        }
+        setupConnection = new SentinelDBDriver().connect(url, driverProperties);
+        insertRows();
+    }
+
+    public void tearDown() throws SQLException {
+        setupConnection.close();
+        try (Statement statement = rawConnection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        rawConnection.close();
+        sentinelDB.stop();
+        trails.stop();
+    }
+
+    private void insertRows() throws SQLException, InterruptedException {
+        System.out.println("Inserting " + rows + " rows");
+        // the rows are inserted in parallel, as each of them takes several calls to the simulated SentinelDB
+        int loaders = Math.min(64, Math.max(1, rows / 100));
+        ExecutorService executor = Executors.newFixedThreadPool(loaders);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int loader = 0; loader < loaders; loader++) {
+            int first = loader;
+            futures.add(executor.submit(() -> {
+                try (Connection connection = new SentinelDBDriver().connect(url, driverProperties);
+                        PreparedStatement statement = connection.prepareStatement(DriverBenchmark.INSERT_QUERY)) {
+                    for (int id = first; id < rows; id += loaders) {
+                        insertWithRetries(statement, id);
+                    }
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Failed to insert the rows", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        nextId.set(rows);
+    }
+
+    private static void insertWithRetries(PreparedStatement statement, int id) throws SQLException {
+        // the simulated services may be configured to fail requests
+        for (int attempt = 1; ; attempt++) {
+            try {
+                DriverBenchmark.setRow(statement, id);
+                statement.executeUpdate();
+                return;
+            } catch (RuntimeException ex) {
+                if (attempt == 10) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    public void runPhase(int threads, PrintStream out) throws SQLException, InterruptedException, IOException {
+        Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+        Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(3));
+            errors.put(operation, new LongAdder());
+        }
+
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(new SentinelDBDriver().connect(url, driverProperties), recorders, errors));
+        }
+        // all connections share the metrics of the driver context
+        DriverMetrics metrics = workers.get(0).connection.unwrap(SentinelDBConnection.class).getMetrics();
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(workers.get(i), "load-worker-" + i);
+            thread.setDaemon(true);
+            workerThreads.add(thread);
+        }
+        workerThreads.forEach(Thread::start);
+
+        Thread.sleep(warmupMillis);
+        // discard the results of the warmup
+        for (Operation operation : Operation.values()) {
+            recorders.get(operation).reset();
+            errors.get(operation).reset();
+        }
+        metrics.reset();
+        long sentinelDBRequests = sentinelDB.getRequests();
+        long sentinelDBErrors = sentinelDB.getErrors();
+        long trailsRequests = trails.getRequests();
+        long trailsErrors = trails.getErrors();
+        sentinelDB.resetMaxInFlight();
+        trails.resetMaxInFlight();
+        AuditPipeline pipeline = getAuditPipeline();
+        long sentEvents = pipeline != null ? pipeline.getSentEvents() : 0;
+        long sentBatches = pipeline != null ? pipeline.getSentBatches() : 0;
+        long droppedEvents = pipeline != null ? pipeline.getDroppedEvents() : 0;
+
+        ContentionMonitor monitor = new ContentionMonitor(10);
+        monitor.start(workerThreads);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        int maxQueueDepth = 0;
+        Map<String, Integer> threadGroups = null;
+        while (System.nanoTime() < end) {
+            Thread.sleep(100);
+            if (pipeline != null) {
+                maxQueueDepth = Math.max(maxQueueDepth, pipeline.getQueueDepth());
+            }
+            if (threadGroups == null && System.nanoTime() > start + (end - start) / 2) {
+                threadGroups = ContentionMonitor.getThreadGroups();
+            }
+        }
+        Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, recorders.get(operation).getIntervalHistogram());
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        ContentionMonitor.Report contention = monitor.stop();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        int liveThreads = threadMXBean.getThreadCount();
+        int peakThreads = threadMXBean.getPeakThreadCount();
+
+        workers.forEach(Worker::stop);
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        for (Worker worker : workers) {
+            worker.close();
+        }
+
+        out.printf("%n=== %d threads, %s, %.1f s ===%n", threads, workload.name().toLowerCase().replace('_', '-'), elapsedSeconds);
+        long totalCount = 0;
+        long totalErrors = 0;
+        for (Operation operation : Operation.values()) {
+            totalCount += histograms.get(operation).getTotalCount();
+            totalErrors += errors.get(operation).sum();
+        }
+        out.printf("Throughput: %.1f ops/s (%d operations, %d errors)%n", totalCount / elapsedSeconds, totalCount, totalErrors);
+        out.printf("%-8s %10s %8s %10s %10s %10s %10s %10s%n", "", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = histograms.get(operation);
+            out.printf("%-8s %10d %8d %10.1f", operation, histogram.getTotalCount(), errors.get(operation).sum(),
+                    histogram.getTotalCount() / elapsedSeconds);
+            for (double percentile : PERCENTILES) {
+                out.printf(" %10.3f", toMillis(histogram.getValueAtPercentile(percentile)));
+            }
+            out.printf(" %10.3f%n", toMillis(histogram.getMaxValue()));
+            writeHistogram(threads, operation, histogram);
+        }
+
+        out.println("Simulated services:");
+        out.printf("  %-10s %10.1f requests/s, %d errors, at most %d in flight%n", sentinelDB.getName(),
+                (sentinelDB.getRequests() - sentinelDBRequests) / elapsedSeconds, sentinelDB.getErrors() - sentinelDBErrors,
+                sentinelDB.getMaxInFlight());
+        out.printf("  %-10s %10.1f requests/s, %d errors, at most %d in flight%n", trails.getName(),
+                (trails.getRequests() - trailsRequests) / elapsedSeconds, trails.getErrors() - trailsErrors,
+                trails.getMaxInFlight());
+
+        if (pipeline != null) {
+            long batches = pipeline.getSentBatches() - sentBatches;
+            long events = pipeline.getSentEvents() - sentEvents;
+            out.printf("Audit pipeline: %.1f events/s in %d batches (%.1f per batch), queue depth at most %d of %d, "
+                    + "%d dropped, lag at most %d ms%n", events / elapsedSeconds, batches, batches > 0 ? (double) events / batches : 0,
+                    maxQueueDepth, pipeline.getQueueCapacity(), pipeline.getDroppedEvents() - droppedEvents,
+                    pipeline.getMaxLagMillis());
+        }
+
+        List<PhaseStatistics> phases = metrics.getStatistics();
+        if (!phases.isEmpty()) {
+            out.println("Driver phases:");
+            out.printf("  %-14s %-12s %-7s %10s %8s %10s %10s %10s%n", "", "table", "kind", "count", "errors", 
+                    "mean ms", "p99 ms", "max ms");
+            for (PhaseStatistics phase : phases) {
+                out.printf("  %-14s %-12s %-7s %10d %8d %10.3f %10.3f %10.3f%n", phase.getPhase(), phase.getTable(),
+                        phase.getKind(), phase.getCount(), phase.getErrors(), phase.getMeanMicros() / 1000,
+                        phase.getP99Micros() / 1000, phase.getMaxMicros() / 1000);
+            }
+        }
+
+        if (contention.isTimesMeasured()) {
+            out.printf("Contention: workers were blocked for %d ms and waited for %d ms in total (%.1f ms per worker per second)%n",
+                    contention.getBlockedMillis(), contention.getWaitedMillis(),
+                    (contention.getBlockedMillis() + contention.getWaitedMillis()) / (double) threads / elapsedSeconds);
+        }
+        out.printf("  %d of %d samples of the workers were blocked or waiting in the driver%n",
+                contention.getWaitingSamples(), contention.getSamples());
+        for (Map.Entry<String, Long> site : contention.getTopSites(10)) {
+            out.printf("  %5.1f%%  %s%n", 100.0 * site.getValue() / contention.getSamples(), site.getKey());
+        }
+
+        out.printf("Threads: %d live, %d peak%n", liveThreads, peakThreads);
+        if (threadGroups != null) {
+            for (Map.Entry<String, Integer> group : threadGroups.entrySet()) {
+                out.printf("  %5d  %s%n", group.getValue(), group.getKey());
+            }
+        }
+        out.flush();
+    }
+
+    private AuditPipeline getAuditPipeline() {
+        AuditLogService auditLogService = StubBackends.getAuditLogService();
+        return auditLogService != null ? auditLogService.getPipeline() : null;
+    }
+
+    private void writeHistogram(int threads, Operation operation, Histogram histogram) throws IOException {
+        if (histogramDirectory == null) {
+            return;
+        }
+        Files.createDirectories(histogramDirectory);
+        Path file = histogramDirectory.resolve(workload.name().toLowerCase() + "-" + threads + "-"
+                + operation.name().toLowerCase() + ".hgrm");
+        try (PrintStream out = new PrintStream(new FileOutputStream(file.toFile()))) {
+            // the values are recorded in nanoseconds and written in milliseconds
+            histogram.outputPercentileDistribution(out, 1e6);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Parses options in the form --name=value
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options should be in the form --name=value, got " + arg);
+            }
+            int separator = arg.indexOf('=');
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private class Worker implements Runnable {
+        private final Connection connection;
+        private final Map<Operation, Recorder> recorders;
+        private final Map<Operation, LongAdder> errors;
+        private final PreparedStatement read;
+        private final PreparedStatement search;
+        private final PreparedStatement insert;
+        private final PreparedStatement update;
+        private volatile boolean running = true;
+
+        Worker(Connection connection, Map<Operation, Recorder> recorders, Map<Operation, LongAdder> errors)
+                throws SQLException {
+            this.connection = connection;
+            this.recorders = recorders;
+            this.errors = errors;
+            read = connection.prepareStatement("SELECT id, name, email, phone, city FROM customers WHERE id=?");
+            search = connection.prepareStatement("SELECT id, name, email, city FROM customers WHERE name=?");
+            insert = connection.prepareStatement(DriverBenchmark.INSERT_QUERY);
+            update = connection.prepareStatement("UPDATE customers SET email=?, phone=? WHERE id=?");
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running) {
+                Operation operation = workload.next(random);
+                long start = System.nanoTime();
+                try {
+                    execute(operation, random);
+                    recorders.get(operation).recordValue(System.nanoTime() - start);
+                } catch (SQLException | RuntimeException ex) {
+                    // failed requests to the simulated services are reported as runtime exceptions
+                    errors.get(operation).increment();
+                }
+            }
+        }
+
+        private void execute(Operation operation, ThreadLocalRandom random) throws SQLException {
+            int id = random.nextInt(rows);
+            switch (operation) {
+            case READ:
+                read.setInt(1, id);
+                consume(read);
+                break;
+            case SEARCH:
+                search.setString(1, DriverBenchmark.name(id));
+                consume(search);
+                break;
+            case INSERT:
+                DriverBenchmark.setRow(insert, nextId.getAndIncrement());
+                insert.executeUpdate();
+                break;
+            case UPDATE:
+                update.setString(1, "updated" + id + "@example.com");
+                update.setString(2, "+1 555 " + random.nextInt(1000000, 2000000));
+                update.setInt(3, id);
+                update.executeUpdate();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+            }
+        }
+
+        private void consume(PreparedStatement statement) throws SQLException {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                int columns = resultSet.getMetaData().getColumnCount();
+                while (resultSet.next()) {
+                    for (int i = 1; i <= columns; i++) {
+                        resultSet.getString(i);
+                    }
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        void close() throws SQLException {
+            read.close();
+            search.close();
+            insert.close();
+            update.close();
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.logsentinel.sentineldb.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.logsentinel.sentineldb.benchmarks.StubBackends.Backend;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP stand-in for a remote service (SentinelDB or Trails). Each request is answered after the configured
+ * latency, varied uniformly by up to the configured jitter in both directions, and fails with 503
+ * with the configured probability. The response echoes the request body, so that the transferred data
+ * is proportional to the real one.
+ */
+public class SimulatedService {
+
+    private final String name;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double errorRate;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public SimulatedService(String name, double latencyMillis, double jitterMillis, double errorRate, int threads)
+            throws IOException {
+        this.name = name;
+        this.latencyNanos = (long) (latencyMillis * TimeUnit.MILLISECONDS.toNanos(1));
+        this.jitterNanos = (long) (jitterMillis * TimeUnit.MILLISECONDS.toNanos(1));
+        this.errorRate = errorRate;
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "simulated-" + name + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the backlog has to accommodate all client threads connecting at once
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), threads * 2);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return a backend that sends each call as a POST request to this service
+     */
+    public Backend backend() {
+        String baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+        return (operation, payload) -> post(baseUrl + operation, payload);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            requests.increment();
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+
+            long delay = latencyNanos;
+            if (jitterNanos > 0) {
+                delay += ThreadLocalRandom.current().nextLong(-jitterNanos, jitterNanos + 1);
+            }
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.increment();
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void post(String url, String payload) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            if (status != 200) {
+                // the error stream has to be consumed in order to reuse the connection
+                try (InputStream error = connection.getErrorStream()) {
+                    if (error != null) {
+                        error.readAllBytes();
+                    }
+                }
+                throw new IllegalStateException(name + " responded with status " + status);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                in.readAllBytes();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Request to " + name + " failed", ex);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public void resetMaxInFlight() {
+        maxInFlight.set(inFlight.get());
+    }
+}
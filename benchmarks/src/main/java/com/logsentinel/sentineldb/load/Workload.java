@@ -0,0 +1,50 @@
+package com.logsentinel.sentineldb.load;
+
+import java.util.Random;
+
+/**
+ * The mixes of operations executed by the load generator. The shares of the operations are in percent.
+ */
+public enum Workload {
+    READ_HEAVY(80, 10, 5, 5),
+    WRITE_HEAVY(20, 10, 40, 30),
+    SEARCH_HEAVY(15, 75, 5, 5);
+
+    public enum Operation {
+        /** SELECT of a row by id, decrypting its encrypted columns */
+        READ,
+        /** SELECT by the searchable encrypted column, using the lookup column */
+        SEARCH,
+        /** INSERT of a row with encrypted columns */
+        INSERT,
+        /** UPDATE of an encrypted column by id */
+        UPDATE
+    }
+
+    private final int[] thresholds;
+
+    Workload(int read, int search, int insert, int update) {
+        if (read + search + insert + update != 100) {
+            throw new IllegalArgumentException("The shares of the operations should add up to 100");
+        }
+        thresholds = new int[] { read, read + search, read + search + insert, 100 };
+    }
+
+    public Operation next(Random random) {
+        int value = random.nextInt(100);
+        Operation[] operations = Operation.values();
+        for (int i = 0; i < thresholds.length; i++) {
+            if (value < thresholds[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    /**
+     * @param name the name of the workload in lower case, with dashes instead of underscores, e.g. read-heavy
+     */
+    public static Workload fromProperty(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,131 @@
+package com.logsentinel.sentineldb;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query to be sent to the audit log. The actor is resolved when the event is created, 
+ * i.e. on the thread that executed the query
+ */
+public class AuditEvent {
+
+    private final String actorId;
+    private final String actorDisplayName;
+    private final String query;
+    private final List<String> columnNames;
+    private final long timestamp;
+
+    public AuditEvent(String actorId, String actorDisplayName, String query, List<String> columnNames, long timestamp) {
+        this.actorId = actorId;
+        this.actorDisplayName = actorDisplayName;
+        this.query = query;
+        this.columnNames = columnNames;
+        this.timestamp = timestamp;
+    }
+
+    public String getActorId() {
+        return actorId;
+    }
+
+    public String getActorDisplayName() {
+        return actorDisplayName;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return the time (in millis) at which the event was created
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Serializes the event for storing it on disk
+     */
+    byte[] toBytes() {
+        byte[] actorIdBytes = encode(actorId);
+        byte[] actorDisplayNameBytes = encode(actorDisplayName);
+        byte[] queryBytes = encode(query);
+        byte[][] columnBytes = null;
+        // timestamp, three strings and the column count
+        int size = 8 + 4 * 4 + length(actorIdBytes) + length(actorDisplayNameBytes) + length(queryBytes);
+        if (columnNames != null) {
+            columnBytes = new byte[columnNames.size()][];
+            for (int i = 0; i < columnBytes.length; i++) {
+                columnBytes[i] = encode(columnNames.get(i));
+                size += 4 + length(columnBytes[i]);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(timestamp);
+        put(buffer, actorIdBytes);
+        put(buffer, actorDisplayNameBytes);
+        put(buffer, queryBytes);
+        if (columnBytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(columnBytes.length);
+            for (byte[] column : columnBytes) {
+                put(buffer, column);
+            }
+        }
+        return buffer.array();
+    }
+
+    static AuditEvent fromBytes(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            long timestamp = in.readLong();
+            String actorId = readString(in);
+            String actorDisplayName = readString(in);
+            String query = readString(in);
+            int columnCount = in.readInt();
+            List<String> columnNames = null;
+            if (columnCount >= 0) {
+                columnNames = new ArrayList<>(columnCount);
+                for (int i = 0; i < columnCount; i++) {
+                    columnNames.add(readString(in));
+                }
+            }
+            return new AuditEvent(actorId, actorDisplayName, query, columnNames, timestamp);
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+
+    private static void put(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,19 +1,37 @@
 package com.logsentinel.sentineldb;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import com.logsentinel.LogSentinelClient;
 import com.logsentinel.LogSentinelClientBuilder;
 import com.logsentinel.model.ActionData;
 import com.logsentinel.model.ActorData;
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.events.AuditBatchEvent;
 
 public class AuditLogService {
 
+    private static final int SENDER_PARALLELISM = 5;
+    // the longest time closing the last connection waits for the pending events to be sent
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    
     private static boolean reportedWarning = false;
     private String organizationId;
     private String secret;
@@ -22,7 +40,25 @@ public class AuditLogService {
     private Method actorDetailsMethod;
     private LogSentinelClient client;
 
-    private ExecutorService executor = Executors.newFixedThreadPool(5);
+    // the entries of a batch are sent in parallel, as there is no bulk logging call
+    private ExecutorService senderExecutor;
+    private AuditPipeline pipeline;
+    
+    private int queueCapacity = AuditPipeline.DEFAULT_CAPACITY;
+    private int batchSize = AuditPipeline.DEFAULT_BATCH_SIZE;
+    private long batchIntervalMillis = AuditPipeline.DEFAULT_BATCH_INTERVAL_MILLIS;
+    private AuditOverflowPolicy overflowPolicy = AuditPipeline.DEFAULT_OVERFLOW_POLICY;
+    private Path spillDirectory;
+    private Path spoolDirectory;
+    private int spoolSegmentBytes = AuditSpool.DEFAULT_SEGMENT_BYTES;
+    private long spoolMaxBytes = AuditSpool.DEFAULT_MAX_BYTES;
+    private DriverMetrics metrics = DriverMetrics.disabled();
+    
+    // a client builder function that can be replaced by tests and benchmarks if needed
+    private static Function<AuditLogService, LogSentinelClient> clientBuilder = service -> {
+        return LogSentinelClientBuilder.create(service.applicationId, service.organizationId, service.secret)
+                .setBasePath(service.url).build();
+    };
 
     public AuditLogService(String organizationId, String secret, String applicationId, String url,
             Method actorDetailsMethod) {
@@ -35,7 +71,26 @@ public class AuditLogService {
 
     public void init() {
         if (organizationId != null) {
-            client = LogSentinelClientBuilder.create(applicationId, organizationId, secret).setBasePath(url).build();
+            client = clientBuilder.apply(this);
+            senderExecutor = Executors.newFixedThreadPool(SENDER_PARALLELISM);
+            AuditSpillFile spillFile = null;
+            AuditSpool spool = null;
+            try {
+                if (spoolDirectory != null) {
+                    spool = new AuditSpool(spoolDirectory, spoolSegmentBytes, spoolMaxBytes);
+                }
+            } catch (IOException ex) {
+                // nothing has been started yet, apart from what has to be stopped here
+                senderExecutor.shutdown();
+                closeQuietly(spool);
+                throw new UncheckedIOException(ex);
+            }
+            if (overflowPolicy == AuditOverflowPolicy.SPILL) {
+                // the file is only created if events overflow
+                spillFile = AuditSpillFile.inDirectory(spillDirectory != null ? spillDirectory : Paths.get(System.getProperty("java.io.tmpdir")));
+            }
+            pipeline = new AuditPipeline(this::sendBatch, queueCapacity, batchSize, batchIntervalMillis, overflowPolicy, spillFile, spool);
+            pipeline.start();
         } else if (!reportedWarning) {
             System.out.println("[WARN] Not using secure logging due to missing configuration properties trailsOrganizationId, trailsSecret and trailsApplicationId");
             reportedWarning = true;
@@ -46,29 +101,162 @@ public class AuditLogService {
         if (client == null) {
             return;
         }
-        executor.submit(() -> {
-            try {
-                ActorData actorData = getActorData();
-                client.getAuditLogActions().log(actorData,
-                        new ActionData<>().details(new QueryDetails(query, columnsReturned)));
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        });
+        // the actor is resolved on the calling thread, as it's usually stored in a thread-local context
+        long start = metrics.start();
+        String[] actorDetails = getActorDetails();
+        pipeline.submit(new AuditEvent(actorDetails[0], actorDetails[1], query, columnsReturned, System.currentTimeMillis()));
+        // the table is not known here, and parsing the query only for that is not worth it
+        metrics.record(Phase.AUDIT_ENQUEUE, null, StatementKind.of(query), start);
     }
 
     public void logQuery(String query) {
-        if (client == null) {
+        logQuery(query, null);
+    }
+
+    /**
+     * Configures the audit pipeline. Must be invoked before init()
+     */
+    public void configurePipeline(int queueCapacity, int batchSize, long batchIntervalMillis, 
+            AuditOverflowPolicy overflowPolicy, Path spillDirectory) {
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.overflowPolicy = overflowPolicy;
+        this.spillDirectory = spillDirectory;
+    }
+    
+    /**
+     * Enables the durable spool, through which all audit events pass, so that they are not lost when
+     * the audit log service is unavailable. Must be invoked before init()
+     */
+    public void configureSpool(Path spoolDirectory, int segmentBytes, long maxBytes) {
+        this.spoolDirectory = spoolDirectory;
+        this.spoolSegmentBytes = segmentBytes;
+        this.spoolMaxBytes = maxBytes;
+    }
+    
+    /**
+     * Sets the registry to which the durations of enqueuing and sending are recorded. Must be invoked before init()
+     */
+    public void setMetrics(DriverMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * @return the pipeline through which audit events are sent, or null if audit logging is not configured
+     */
+    public AuditPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public void shutdown() {
+        // pending log entries are still sent, and the spool is closed when this returns, so that a new context can open it
+        if (pipeline != null) {
+            if (!pipeline.close(SHUTDOWN_TIMEOUT_MILLIS)) {
+                System.err.println("[WARN] Not all audit log entries were sent before shutdown");
+            }
+            senderExecutor.shutdown();
+        }
+    }
+    
+    private static void closeQuietly(AuditSpool spool) {
+        if (spool == null) {
             return;
         }
-        executor.submit(() -> {
+        try {
+            spool.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private List<AuditEvent> sendBatch(List<AuditEvent> batch) {
+        AuditBatchEvent event = new AuditBatchEvent();
+        event.begin();
+        long start = metrics.start();
+        List<AuditEvent> failedEvents = doSendBatch(batch);
+        event.end();
+        if (event.shouldCommit()) {
+            event.events = batch.size();
+            event.failedEvents = failedEvents.size();
+            event.commit();
+        }
+        if (failedEvents.isEmpty()) {
+            metrics.record(Phase.AUDIT_SEND, null, StatementKind.OTHER, start);
+        } else {
+            metrics.recordError(Phase.AUDIT_SEND, null, StatementKind.OTHER);
+        }
+        return failedEvents;
+    }
+    
+    private List<AuditEvent> doSendBatch(List<AuditEvent> batch) {
+        List<AuditEvent> failedEvents = new ArrayList<>();
+        if (batch.size() == 1 || senderExecutor.isShutdown()) {
+            sendSequentially(batch, failedEvents);
+            return failedEvents;
+        }
+        List<Callable<Boolean>> tasks = new ArrayList<>(batch.size());
+        for (AuditEvent event : batch) {
+            tasks.add(() -> send(event));
+        }
+        try {
+            List<Future<Boolean>> results = senderExecutor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                if (!results.get(i).get()) {
+                    failedEvents.add(batch.get(i));
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            sendSequentially(batch, failedEvents);
+        } catch (ExecutionException e) {
+            // not expected, as send doesn't throw
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>(batch);
+        }
+        return failedEvents;
+    }
+    
+    private void sendSequentially(List<AuditEvent> batch, List<AuditEvent> failedEvents) {
+        for (AuditEvent event : batch) {
+            if (!send(event)) {
+                failedEvents.add(event);
+            }
+        }
+    }
+    
+    private boolean send(AuditEvent event) {
+        try {
+            ActorData actorData = new ActorData();
+            actorData.setActorId(event.getActorId());
+            actorData.setActorDisplayName(event.getActorDisplayName());
+            client.getAuditLogActions().log(actorData, 
+                    new ActionData<>().details(new QueryDetails(event.getQuery(), event.getColumnNames())));
+            return true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return false;
+        }
+    }
+    
+    private String[] getActorDetails() {
+        String[] result = new String[2];
+        if (actorDetailsMethod != null) {
             try {
-                ActorData actorData = getActorData();
-                client.getAuditLogActions().log(actorData, new ActionData<>().details(new QueryDetails(query, null)));
-            } catch (Exception ex) {
-                ex.printStackTrace();
+                @SuppressWarnings("unchecked")
+                Optional<String[]> actorDetails = (Optional<String[]>) actorDetailsMethod.invoke(null);
+                actorDetails.ifPresent(s -> {
+                    result[0] = s[0];
+                    if (s.length > 1) {
+                        result[1] = s[1];
+                    }
+                });
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+                e.printStackTrace();
             }
-        });
+        }
+        return result;
     }
 
     @SuppressWarnings("unchecked")
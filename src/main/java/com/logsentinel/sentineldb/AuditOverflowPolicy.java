@@ -0,0 +1,23 @@
+package com.logsentinel.sentineldb;
+
+/**
+ * What happens to audit events when the audit queue is full, e.g. because the audit log service is slow or unavailable
+ */
+public enum AuditOverflowPolicy {
+    /**
+     * The executing thread waits until there is space in the queue, i.e. queries stall for as long as the audit log service is unavailable
+     */
+    BLOCK,
+    /**
+     * The oldest queued events are discarded. The default policy
+     */
+    DROP_OLDEST,
+    /**
+     * The events are written to a file and sent once the queue has been drained
+     */
+    SPILL;
+
+    public static AuditOverflowPolicy fromProperty(String value) {
+        return valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
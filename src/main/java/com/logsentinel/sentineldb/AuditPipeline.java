@@ -0,0 +1,425 @@
+package com.logsentinel.sentineldb;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends audit events in batches. Connections put events into a bounded queue and a single drainer thread
+ * takes them out, sending a batch when it reaches the configured size or when the oldest event in it
+ * has waited for the configured interval. When the queue is full, the overflow policy applies,
+ * so a slow audit log service can't make the heap grow without bounds.
+ *
+ * If a spool is configured, events are written to it instead of the in-memory queue. Events from the spool
+ * are committed only after they are delivered, and undelivered ones are retried, so they are not lost
+ * when the audit log service is unavailable or the application is restarted.
+ */
+public class AuditPipeline {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_BATCH_INTERVAL_MILLIS = 200;
+    // auditing must not stall queries if the audit log service is unavailable
+    public static final AuditOverflowPolicy DEFAULT_OVERFLOW_POLICY = AuditOverflowPolicy.DROP_OLDEST;
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final AuditEventQueue queue;
+    private final BatchSender sender;
+    private final int batchSize;
+    private final long batchIntervalNanos;
+    private final AuditOverflowPolicy overflowPolicy;
+    private final AuditSpillFile spillFile;
+    private final AuditSpool spool;
+    // events read from the spool that are about to be added to the current batch
+    private final ArrayDeque<AuditEvent> spooledEvents = new ArrayDeque<>();
+
+    private final Thread drainer;
+    private volatile boolean running = true;
+    private volatile boolean drainerWaiting;
+    // only set while holding the lock of this
+    private volatile boolean closed;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder sentEvents = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+    private volatile int lastBatchSize;
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    /**
+     * @param sender sends a batch of events
+     * @param capacity the capacity of the queue
+     * @param batchSize the maximum number of events in a batch
+     * @param batchIntervalMillis the maximum time an event waits for its batch to fill up
+     * @param overflowPolicy what to do with events when the queue is full
+     * @param spillFile the file to write overflowing events to; required for the SPILL policy
+     */
+    public AuditPipeline(BatchSender sender, int capacity, int batchSize, long batchIntervalMillis,
+            AuditOverflowPolicy overflowPolicy, AuditSpillFile spillFile) {
+        this(sender, capacity, batchSize, batchIntervalMillis, overflowPolicy, spillFile, null);
+    }
+
+    /**
+     * @param spool the durable spool to write events to instead of the in-memory queue, or null.
+     * When the spool is full, the BLOCK and DROP_OLDEST policies apply; SPILL is not supported with a spool
+     */
+    public AuditPipeline(BatchSender sender, int capacity, int batchSize, long batchIntervalMillis,
+            AuditOverflowPolicy overflowPolicy, AuditSpillFile spillFile, AuditSpool spool) {
+        if (overflowPolicy == AuditOverflowPolicy.SPILL && spool != null) {
+            throw new IllegalArgumentException("The SPILL overflow policy can't be used with a spool");
+        }
+        if (overflowPolicy == AuditOverflowPolicy.SPILL && spillFile == null) {
+            throw new IllegalArgumentException("A spill file is required for the SPILL overflow policy");
+        }
+        this.queue = new AuditEventQueue(spool == null ? capacity : 2);
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.batchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(batchIntervalMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = spillFile;
+        this.spool = spool;
+        this.drainer = new Thread(this::drain, "sentineldb-audit-drainer");
+        this.drainer.setDaemon(true);
+    }
+
+    public void start() {
+        drainer.start();
+    }
+
+    public void submit(AuditEvent event) {
+        if (!running) {
+            dropped.increment();
+            return;
+        }
+        if (spool != null) {
+            appendToSpool(event);
+        } else if (!queue.offer(event)) {
+            overflow(event);
+        }
+        if (drainerWaiting) {
+            drainerWaiting = false;
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    /**
+     * Stops accepting events. The queued events are still sent by the drainer before it exits.
+     * Spooled events that can't be delivered remain in the spool
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(drainer);
+    }
+
+    /**
+     * Waits for the drainer to send the remaining events after shutdown
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        drainer.join(timeoutMillis);
+        return !drainer.isAlive();
+    }
+
+    /**
+     * Shuts down and waits for the drainer to send the remaining events, for at most the given time.
+     * The spill file and the spool are closed before returning even if the drainer is still sending,
+     * so that the spool directory can be opened again right away. Events that were not delivered by then remain in the spool
+     *
+     * @return whether all remaining events were sent
+     */
+    public boolean close(long timeoutMillis) {
+        shutdown();
+        boolean terminated;
+        try {
+            terminated = awaitTermination(timeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            terminated = false;
+        }
+        close();
+        return terminated;
+    }
+
+    private void overflow(AuditEvent event) {
+        switch (overflowPolicy) {
+        case BLOCK:
+            while (!queue.offer(event)) {
+                if (!running) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.unpark(drainer);
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+            break;
+        case DROP_OLDEST:
+            while (!queue.offer(event)) {
+                if (queue.poll() != null) {
+                    dropped.increment();
+                }
+            }
+            break;
+        case SPILL:
+            try {
+                spillFile.append(event);
+                spilled.increment();
+            } catch (IOException ex) {
+                dropped.increment();
+                ex.printStackTrace();
+            }
+            break;
+        }
+    }
+
+    private void appendToSpool(AuditEvent event) {
+        try {
+            while (!spool.append(event)) {
+                if (overflowPolicy == AuditOverflowPolicy.DROP_OLDEST) {
+                    dropped.add(spool.dropOldestSegment());
+                } else if (!running) {
+                    dropped.increment();
+                    return;
+                } else {
+                    LockSupport.unpark(drainer);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+            }
+        } catch (IOException ex) {
+            dropped.increment();
+            ex.printStackTrace();
+        }
+    }
+
+    private void drain() {
+        List<AuditEvent> batch = new ArrayList<>(batchSize);
+        long batchDeadline = 0;
+        while (!closed) {
+            AuditEvent event = poll(batchSize - batch.size());
+            if (event != null) {
+                if (batch.isEmpty()) {
+                    batchDeadline = System.nanoTime() + batchIntervalNanos;
+                }
+                batch.add(event);
+                if (batch.size() >= batchSize && !send(batch)) {
+                    break;
+                }
+                continue;
+            }
+
+            // the queue is empty
+            if (!running) {
+                if (!send(batch) || !sendSpilledEvents(batch)) {
+                    break;
+                }
+                continue;
+            }
+            if (!batch.isEmpty() && System.nanoTime() - batchDeadline >= 0) {
+                send(batch);
+                continue;
+            }
+            if (batch.isEmpty() && sendSpilledEvents(batch)) {
+                continue;
+            }
+
+            long parkNanos = batch.isEmpty() ? batchIntervalNanos : batchDeadline - System.nanoTime();
+            drainerWaiting = true;
+            // an event may have been submitted before the flag was set, so check again before waiting
+            if (isEmpty() && running) {
+                LockSupport.parkNanos(Math.max(1, parkNanos));
+            }
+            drainerWaiting = false;
+        }
+        close();
+    }
+
+    private AuditEvent poll(int maxEvents) {
+        if (spool == null) {
+            return queue.poll();
+        }
+        // at most as many events as fit into the current batch are read, so that committing the batch doesn't commit others
+        if (spooledEvents.isEmpty() && maxEvents > 0) {
+            try {
+                spooledEvents.addAll(spool.read(maxEvents));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return spooledEvents.poll();
+    }
+
+    private boolean isEmpty() {
+        return spool == null ? queue.size() == 0 : !spool.hasUnread();
+    }
+
+    private boolean sendSpilledEvents(List<AuditEvent> batch) {
+        if (spillFile == null || spillFile.getPendingEvents() == 0) {
+            return false;
+        }
+        try {
+            batch.addAll(spillFile.read(batchSize));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return false;
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        send(batch);
+        return true;
+    }
+
+    /**
+     * Sends the batch. Events from the spool are retried until they are delivered
+     *
+     * @return false if the spooled events could not be delivered before shutdown
+     */
+    private boolean send(List<AuditEvent> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        List<AuditEvent> failedEvents = sendSafely(batch);
+        long retryDelay = TimeUnit.MILLISECONDS.toNanos(100);
+        while (spool != null && !failedEvents.isEmpty()) {
+            if (!running) {
+                // the events will be replayed after restart
+                return false;
+            }
+            LockSupport.parkNanos(retryDelay);
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_NANOS);
+            retried.add(failedEvents.size());
+            failedEvents = sendSafely(new ArrayList<>(failedEvents));
+        }
+        failed.add(failedEvents.size());
+        if (spool != null) {
+            commit();
+        }
+
+        long lag = System.currentTimeMillis() - batch.get(0).getTimestamp();
+        lastLagMillis = lag;
+        if (lag > maxLagMillis) {
+            maxLagMillis = lag;
+        }
+        lastBatchSize = batch.size();
+        sentEvents.add(batch.size() - failedEvents.size());
+        sentBatches.increment();
+        batch.clear();
+        return true;
+    }
+
+    private List<AuditEvent> sendSafely(List<AuditEvent> batch) {
+        try {
+            List<AuditEvent> failedEvents = sender.send(batch);
+            return failedEvents != null ? failedEvents : Collections.emptyList();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            return new ArrayList<>(batch);
+        }
+    }
+
+    private synchronized void commit() {
+        // the spool may have been closed while the batch was being sent
+        if (closed) {
+            return;
+        }
+        try {
+            spool.commit();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (spillFile != null) {
+                spillFile.close();
+            }
+            if (spool != null) {
+                spool.close();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public int getQueueDepth() {
+        return spool == null ? queue.size() : (int) spool.getPendingRecords();
+    }
+
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    public long getSpilledEvents() {
+        return spilled.sum();
+    }
+
+    public long getFailedEvents() {
+        return failed.sum();
+    }
+
+    public long getRetriedEvents() {
+        return retried.sum();
+    }
+
+    public long getSentEvents() {
+        return sentEvents.sum();
+    }
+
+    public long getSentBatches() {
+        return sentBatches.sum();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = sentBatches.sum();
+        return batches == 0 ? 0 : (double) sentEvents.sum() / batches;
+    }
+
+    /**
+     * @return the time between the creation of the oldest event of the last batch and the completion of its sending
+     */
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    /**
+     * @return the spool, or null if events are only queued in memory
+     */
+    public AuditSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * Sends a batch of audit events. The batch list is reused, so it must not be retained
+     */
+    public interface BatchSender {
+        /**
+         * @return the events that could not be sent
+         */
+        List<AuditEvent> send(List<AuditEvent> batch);
+    }
+}
@@ -0,0 +1,108 @@
+package com.logsentinel.sentineldb;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file to which audit events are written when the audit queue overflows. The events are read back
+ * (in the order in which they were written) once the queue has been drained, and the file is truncated
+ * when all of them have been read.
+ *
+ * Each record is a length-prefixed serialized event. Unlike the {@link AuditSpool}, the file is not meant
+ * to survive restarts. A spill file in a directory is only created when the first event is spilled, and is deleted
+ * when closed, unless it still has events that have not been read.
+ */
+public class AuditSpillFile {
+
+    private final Path directory;
+    private Path path;
+    private RandomAccessFile file;
+    private long readOffset;
+    private long pendingEvents;
+
+    public AuditSpillFile(Path path) {
+        this.directory = null;
+        this.path = path;
+    }
+
+    private AuditSpillFile(Path directory, Path path) {
+        this.directory = directory;
+        this.path = path;
+    }
+
+    /**
+     * @return a spill file that is created in the given directory when the first event is spilled
+     */
+    public static AuditSpillFile inDirectory(Path directory) {
+        return new AuditSpillFile(directory, null);
+    }
+
+    public synchronized void append(AuditEvent event) throws IOException {
+        byte[] record = event.toBytes();
+        RandomAccessFile file = open();
+        file.seek(file.length());
+        file.writeInt(record.length);
+        file.write(record);
+        pendingEvents++;
+    }
+
+    /**
+     * Reads up to the given number of the spilled events. The events are removed from the file
+     */
+    public synchronized List<AuditEvent> read(int maxEvents) throws IOException {
+        List<AuditEvent> result = new ArrayList<>();
+        if (pendingEvents == 0) {
+            return result;
+        }
+        RandomAccessFile file = open();
+        file.seek(readOffset);
+        while (result.size() < maxEvents && readOffset < file.length()) {
+            byte[] record = new byte[file.readInt()];
+            file.readFully(record);
+            readOffset += 4 + record.length;
+            result.add(AuditEvent.fromBytes(record));
+        }
+        pendingEvents -= result.size();
+        if (readOffset >= file.length()) {
+            file.setLength(0);
+            readOffset = 0;
+            pendingEvents = 0;
+        }
+        return result;
+    }
+
+    public synchronized long getPendingEvents() {
+        return pendingEvents;
+    }
+
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+            if (pendingEvents == 0) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * @return the path of the file, or null if it has not been created yet
+     */
+    public synchronized Path getPath() {
+        return path;
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (path == null) {
+            path = Files.createTempFile(directory, "sentineldb-audit-", ".spill");
+        }
+        if (file == null) {
+            file = new RandomAccessFile(path.toFile(), "rw");
+        }
+        return file;
+    }
+}
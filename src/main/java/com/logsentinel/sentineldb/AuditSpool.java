@@ -0,0 +1,357 @@
+package com.logsentinel.sentineldb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, write-ahead spool of audit events, so that events are not lost when the audit log service
+ * is unreachable or the application is restarted before they are sent.
+ *
+ * Events are appended to fixed-size segment files through memory-mapped buffers. Each record has
+ * a header with its length and the CRC32 of its payload, so torn or corrupted records are detected on reading.
+ * The sender reads events and commits them once they are delivered; the committed position is stored
+ * in a checkpoint file, and everything after it is replayed after a restart. Segments are deleted once
+ * they are fully committed, and the number of segments is limited, which bounds the disk usage.
+ *
+ * Delivery is at-least-once: events that were sent but not yet committed before a crash are sent again.
+ */
+public class AuditSpool {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String LOCK_FILE = "lock";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int CHECKPOINT_BYTES = 20;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final MappedByteBuffer checkpoint;
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private int writePosition;
+
+    private long readSegment;
+    private MappedByteBuffer readBuffer;
+    private int readPosition;
+
+    private long pendingRecords;
+    private long readSinceCommit;
+    private long corruptedRecords;
+
+    /**
+     * Opens the spool in the given directory, recovering the events that were not committed.
+     * A spool directory can't be used by more than one process at a time
+     *
+     * @param directory the spool directory
+     * @param segmentBytes the size of a single segment file
+     * @param maxBytes the maximum total size of the segment files
+     */
+    public AuditSpool(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        // there's always a segment being written and at least one more, to which writing continues
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            // locked within this JVM
+            fileLock = null;
+        }
+        lock = fileLock;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Audit spool directory " + directory + " is used by another process");
+        }
+        try {
+            try (FileChannel channel = FileChannel.open(directory.resolve(CHECKPOINT_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_BYTES);
+            }
+            recover();
+        } catch (IOException | RuntimeException ex) {
+            // the directory must not stay locked by a spool that failed to open
+            lock.release();
+            lockChannel.close();
+            throw ex;
+        }
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if (segments.isEmpty()) {
+            writeSegment = 0;
+            writeBuffer = createSegment(writeSegment);
+            writePosition = 0;
+        } else {
+            writeSegment = segments.lastKey();
+            writeBuffer = map(segments.get(writeSegment));
+            writePosition = scan(writeBuffer, 0, segmentBytes)[0];
+            // remove any partially written record, so that it isn't mistaken for a valid one after appending shorter ones
+            for (int i = writePosition; i < segmentBytes; i++) {
+                writeBuffer.put(i, (byte) 0);
+            }
+        }
+
+        long checkpointSegment = checkpoint.getLong(0);
+        int checkpointPosition = checkpoint.getInt(8);
+        CRC32 crc = new CRC32();
+        crc.update(toBytes(checkpointSegment, checkpointPosition));
+        if (checkpoint.getLong(12) == crc.getValue() && segments.containsKey(checkpointSegment)) {
+            readSegment = checkpointSegment;
+            readPosition = checkpointPosition;
+        } else {
+            // no checkpoint yet, or the checkpointed segment was dropped
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+        readBuffer = readSegment == writeSegment ? writeBuffer.duplicate() : map(segments.get(readSegment));
+        // segments before the checkpoint are leftovers from a crash between committing and deleting
+        while (segments.firstKey() < readSegment) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+
+        pendingRecords = scan(readBuffer, readPosition, readSegment == writeSegment ? writePosition : segmentBytes)[1];
+        for (Map.Entry<Long, Path> segment : segments.tailMap(readSegment, false).entrySet()) {
+            MappedByteBuffer buffer = segment.getKey() == writeSegment ? writeBuffer : map(segment.getValue());
+            pendingRecords += scan(buffer, 0, segment.getKey() == writeSegment ? writePosition : segmentBytes)[1];
+        }
+    }
+
+    /**
+     * Appends an event to the spool
+     *
+     * @return false if the spool is full
+     */
+    public boolean append(AuditEvent event) throws IOException {
+        byte[] payload = event.toBytes();
+        if (payload.length > segmentBytes - RECORD_HEADER_BYTES) {
+            throw new IOException("Audit event of " + payload.length + " bytes doesn't fit into a spool segment");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int checksum = (int) crc.getValue();
+
+        synchronized (this) {
+            if (writePosition + RECORD_HEADER_BYTES + payload.length > segmentBytes) {
+                if (segments.size() >= maxSegments) {
+                    return false;
+                }
+                writeSegment++;
+                writeBuffer = createSegment(writeSegment);
+                writePosition = 0;
+            }
+            writeBuffer.putInt(writePosition + 4, checksum);
+            writeBuffer.position(writePosition + RECORD_HEADER_BYTES);
+            writeBuffer.put(payload);
+            // the length is written last, so a record is never seen partially written
+            writeBuffer.putInt(writePosition, payload.length);
+            writePosition += RECORD_HEADER_BYTES + payload.length;
+            pendingRecords++;
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to the given number of events after the ones that were previously read.
+     * The events remain in the spool until {@link #commit()} is invoked
+     */
+    public List<AuditEvent> read(int maxEvents) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        synchronized (this) {
+            while (payloads.size() < maxEvents) {
+                int limit = readSegment == writeSegment ? writePosition : segmentBytes;
+                byte[] payload = readRecord(limit);
+                if (payload != null) {
+                    payloads.add(payload);
+                    continue;
+                }
+                if (readSegment == writeSegment) {
+                    break;
+                }
+                // the rest of the segment is empty, or corrupted, so continue with the next one
+                readSegment = segments.higherKey(readSegment);
+                readBuffer = readSegment == writeSegment ? writeBuffer.duplicate() : map(segments.get(readSegment));
+                readPosition = 0;
+            }
+        }
+        List<AuditEvent> result = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads) {
+            result.add(AuditEvent.fromBytes(payload));
+        }
+        return result;
+    }
+
+    private byte[] readRecord(int limit) {
+        if (readPosition + RECORD_HEADER_BYTES > limit) {
+            return null;
+        }
+        int length = readBuffer.getInt(readPosition);
+        if (length <= 0 || readPosition + RECORD_HEADER_BYTES + length > limit) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        MappedByteBuffer buffer = readBuffer;
+        buffer.position(readPosition + RECORD_HEADER_BYTES);
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(readPosition + 4)) {
+            corruptedRecords++;
+            // the length can't be trusted either, so the rest of the segment is skipped
+            readPosition = limit;
+            return null;
+        }
+        readPosition += RECORD_HEADER_BYTES + length;
+        readSinceCommit++;
+        return payload;
+    }
+
+    /**
+     * Marks all read events as delivered, so that they are not replayed after a restart,
+     * and deletes the segments that are no longer needed
+     */
+    public synchronized void commit() throws IOException {
+        pendingRecords -= readSinceCommit;
+        readSinceCommit = 0;
+
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(8, readPosition);
+        CRC32 crc = new CRC32();
+        crc.update(toBytes(readSegment, readPosition));
+        checkpoint.putLong(12, crc.getValue());
+
+        while (segments.firstKey() < readSegment) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * Deletes the oldest segment, in order to make space when the spool is full.
+     *
+     * @return the number of events that were dropped
+     */
+    public synchronized long dropOldestSegment() throws IOException {
+        if (segments.size() < 2) {
+            return 0;
+        }
+        long oldest = segments.firstKey();
+        // a segment before the read one has already been read and its events are about to be sent and committed
+        long dropped = 0;
+        if (oldest == readSegment) {
+            dropped = scan(readBuffer, readPosition, segmentBytes)[1];
+            readSegment = segments.higherKey(oldest);
+            readBuffer = readSegment == writeSegment ? writeBuffer.duplicate() : map(segments.get(readSegment));
+            readPosition = 0;
+        }
+        Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        pendingRecords -= dropped;
+        return dropped;
+    }
+
+    /**
+     * @return whether there are events that have not been read yet
+     */
+    public synchronized boolean hasUnread() {
+        return readSegment != writeSegment || readPosition < writePosition;
+    }
+
+    /**
+     * @return the number of events that are not committed yet
+     */
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public synchronized long getCorruptedRecords() {
+        return corruptedRecords;
+    }
+
+    public synchronized long getDiskUsageBytes() {
+        return (long) segments.size() * segmentBytes;
+    }
+
+    public synchronized void close() throws IOException {
+        writeBuffer.force();
+        checkpoint.force();
+        lock.release();
+        lockChannel.close();
+    }
+
+    private MappedByteBuffer createSegment(long segment) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+        segments.put(segment, file);
+        return map(file);
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        // the mapping remains valid after the channel is closed. Mapped files are zero-filled when extended
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    /**
+     * Scans the valid records between the given positions
+     *
+     * @return the position after the last valid record and the number of valid records
+     */
+    private int[] scan(MappedByteBuffer buffer, int from, int limit) {
+        limit = Math.min(limit, segmentBytes);
+        ByteBuffer view = buffer.duplicate();
+        int position = from;
+        int count = 0;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_BYTES <= limit) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > limit) {
+                break;
+            }
+            view.limit(position + RECORD_HEADER_BYTES + length);
+            view.position(position + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(view);
+            view.limit(view.capacity());
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += RECORD_HEADER_BYTES + length;
+            count++;
+        }
+        return new int[] {position, count};
+    }
+
+    private static byte[] toBytes(long segment, int position) {
+        return ByteBuffer.allocate(12).putLong(segment).putInt(position).array();
+    }
+}
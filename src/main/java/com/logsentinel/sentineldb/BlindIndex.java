@@ -0,0 +1,33 @@
+package com.logsentinel.sentineldb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * Computes lookup keys (blind indexes) locally, using the same function as SentinelDB: 
+ * Base64(HMAC-SHA256(blindIndexKey, UTF-8(plaintext))). The result is always 44 characters long,
+ * which matches the lookup columns created by {@link LookupManager}
+ */
+public class BlindIndex {
+
+    private final KeyParameter key;
+
+    public BlindIndex(byte[] blindIndexKey) {
+        this.key = new KeyParameter(blindIndexKey);
+    }
+
+    public String computeLookupKey(String plaintext) {
+        // HMac instances are not thread-safe, but are cheap to create
+        HMac hmac = new HMac(new SHA256Digest());
+        hmac.init(key);
+        byte[] input = plaintext.getBytes(StandardCharsets.UTF_8);
+        hmac.update(input, 0, input.length);
+        byte[] output = new byte[hmac.getMacSize()];
+        hmac.doFinal(output, 0);
+        return Base64.getEncoder().encodeToString(output);
+    }
+}
@@ -0,0 +1,27 @@
+package com.logsentinel.sentineldb;
+
+/**
+ * A symmetric data key used for local encryption, together with the id that is stored in the ciphertext envelope.
+ * Key ids may not contain ':' and '$', as they are used as envelope separators
+ */
+public class DataKey {
+
+    private String keyId;
+    private byte[] key;
+
+    public DataKey(String keyId, byte[] key) {
+        if (keyId.contains(":") || keyId.contains("$")) {
+            throw new IllegalArgumentException("Key ids can't contain ':' or '$'");
+        }
+        this.keyId = keyId;
+        this.key = key;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+}
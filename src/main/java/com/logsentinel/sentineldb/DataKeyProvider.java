@@ -0,0 +1,32 @@
+package com.logsentinel.sentineldb;
+
+import java.util.UUID;
+
+/**
+ * Provides the data keys used for local (envelope) encryption. Implementations typically fetch
+ * the data keys wrapped by a key management service and unwrap them.
+ * Keys are cached by the driver, so implementations don't need to do that.
+ *
+ * Implementations are configured with the dataKeyProvider property (fully-qualified class name)
+ * and need to have a public no-arguments constructor.
+ */
+public interface DataKeyProvider {
+
+    /**
+     * Gets the current data key for encrypting values of the given table column
+     */
+    DataKey getDataKey(UUID datastoreId, String table, String column);
+
+    /**
+     * Gets a data key by its id, in order to decrypt values that were encrypted with it
+     */
+    DataKey getDataKeyById(UUID datastoreId, String keyId);
+
+    /**
+     * Gets the per-datastore key that is used for computing lookup keys (blind indexes) locally. 
+     * Only needed if the lookupMode property is set to local
+     */
+    default byte[] getBlindIndexKey(UUID datastoreId) {
+        throw new UnsupportedOperationException("Blind index keys are not supported by " + getClass().getName());
+    }
+}
@@ -0,0 +1,134 @@
+package com.logsentinel.sentineldb;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+/**
+ * Resolves the metadata of a single table of the current schema through {@link DatabaseMetaData} -
+ * its columns and its primary key, including composite keys. Works with any database whose driver implements
+ * the standard metadata calls, incl. MySQL, MariaDB, PostgreSQL, H2 and SQL Server.
+ */
+public class DatabaseMetadataLoader implements TableMetadata.TableLoader {
+
+    // the names are hashed on the client, as each database has its own hash and aggregation functions
+    static final String FINGERPRINT_QUERY = "SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS "
+            + "WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, COLUMN_NAME";
+
+    @Override
+    public TableDefinition load(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String catalog = connection.getCatalog();
+        String schema = getSchema(connection, DatabaseType.findByName(metaData.getDatabaseProductName()));
+        // unquoted names in queries are stored in the case of the database (e.g. upper case in H2)
+        String storedName = table;
+        if (metaData.storesUpperCaseIdentifiers()) {
+            storedName = table.toUpperCase();
+        } else if (metaData.storesLowerCaseIdentifiers()) {
+            storedName = table.toLowerCase();
+        }
+
+        List<String> columns = new ArrayList<>();
+        try (ResultSet rs = metaData.getColumns(catalog, escape(schema, metaData), escape(storedName, metaData), "%")) {
+            while (rs.next()) {
+                // MySQL on case-insensitive file systems also matches names in a different case
+                storedName = rs.getString("TABLE_NAME");
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        if (columns.isEmpty()) {
+            return null;
+        }
+
+        // the key columns are ordered by name, so they are placed by their sequence number
+        List<String> keyColumns = new ArrayList<>();
+        try (ResultSet rs = metaData.getPrimaryKeys(catalog, schema, storedName)) {
+            while (rs.next()) {
+                int sequence = rs.getInt("KEY_SEQ");
+                while (keyColumns.size() < sequence) {
+                    keyColumns.add(null);
+                }
+                keyColumns.set(sequence - 1, rs.getString("COLUMN_NAME"));
+            }
+        }
+        return new TableDefinition(storedName, columns, keyColumns);
+    }
+
+    /**
+     * Calculates a fingerprint of the database schema, which changes whenever tables or columns are added, removed, 
+     * renamed or change their type.
+     * 
+     * @param query a custom query, e.g. selecting the latest version from the schema history table of a migration tool.
+     * If null, the names and types of the columns of the current schema are read from information_schema
+     * @return the hash of the query results, or null if there is no default query for the database
+     */
+    public static String fingerprint(Connection connection, String query) throws SQLException {
+        DatabaseType databaseType = DatabaseType.findByName(connection.getMetaData().getDatabaseProductName());
+        String schema = null;
+        if (query == null) {
+            if (databaseType != DatabaseType.MYSQL && databaseType != DatabaseType.MARIADB 
+                    && databaseType != DatabaseType.POSTGRESQL && databaseType != DatabaseType.H2 
+                    && databaseType != DatabaseType.MS_SQL_SERVER) {
+                return null;
+            }
+            query = FINGERPRINT_QUERY;
+            schema = getSchema(connection, databaseType);
+            if (schema == null) {
+                // MySQL and MariaDB have no schemas, their databases are the catalogs
+                schema = connection.getCatalog();
+            }
+        }
+        // the results are hashed as they are read, as there is a row per column of the schema
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try (PreparedStatement stm = connection.prepareStatement(query)) {
+            if (schema != null) {
+                stm.setString(1, schema);
+            }
+            try (ResultSet rs = stm.executeQuery()) {
+                int columnCount = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    for (int i = 1; i <= columnCount; i++) {
+                        digest.update((rs.getString(i) + ",").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static String getSchema(Connection connection, DatabaseType databaseType) throws SQLException {
+        String schema;
+        try {
+            schema = connection.getSchema();
+        } catch (AbstractMethodError ex) {
+            // drivers built before JDBC 4.1
+            schema = null;
+        }
+        if (schema == null && databaseType == DatabaseType.POSTGRESQL) {
+            schema = "public";
+        }
+        return schema;
+    }
+
+    /**
+     * Escapes the wildcards in a name (e.g. the common _), so that it is not used as a pattern
+     */
+    private static String escape(String name, DatabaseMetaData metaData) throws SQLException {
+        String escape = metaData.getSearchStringEscape();
+        if (name == null || escape == null || escape.isEmpty()) {
+            return name;
+        }
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+}
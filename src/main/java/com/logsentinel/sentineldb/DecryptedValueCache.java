@@ -0,0 +1,228 @@
+package com.logsentinel.sentineldb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of decrypted values, keyed by the enriched ciphertext. As every write uses a new record id,
+ * a ciphertext always corresponds to the same plaintext, so entries never need to be invalidated, only expired.
+ *
+ * In order to keep decrypted data out of the heap (and heap dumps), the plaintexts are stored in an off-heap arena
+ * that is split into fixed-size blocks. Entries are evicted in least-recently-used order when the arena is full
+ * or when they expire, and the blocks of removed entries are zeroed.
+ */
+public class DecryptedValueCache {
+
+    private static final int BLOCK_SIZE = 64;
+
+    private final ByteBuffer arena;
+    private final long ttlMillis;
+    private final int maxEntryBlocks;
+
+    // stack of free block indexes
+    private final int[] freeBlocks;
+    private int freeBlockCount;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxBytes the size of the off-heap arena
+     * @param ttlMillis the time after which an entry expires, or 0 if entries should not expire
+     */
+    public DecryptedValueCache(int maxBytes, long ttlMillis) {
+        int blockCount = Math.max(1, maxBytes / BLOCK_SIZE);
+        this.arena = ByteBuffer.allocateDirect(blockCount * BLOCK_SIZE);
+        this.ttlMillis = ttlMillis;
+        // a single value can't take more than an eighth of the cache, so that large values don't flush everything else
+        this.maxEntryBlocks = Math.max(1, blockCount / 8);
+        this.freeBlocks = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            freeBlocks[i] = blockCount - i - 1;
+        }
+        this.freeBlockCount = blockCount;
+    }
+
+    public String get(String enrichedCiphertext) {
+        byte[] bytes;
+        synchronized (this) {
+            Entry entry = entries.get(enrichedCiphertext);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                remove(enrichedCiphertext, entry);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            bytes = read(entry);
+        }
+        hits.increment();
+        try {
+            return new String(bytes, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    public void put(String enrichedCiphertext, String plaintext) {
+        byte[] bytes = plaintext.getBytes(StandardCharsets.UTF_8);
+        try {
+            int requiredBlocks = Math.max(1, (bytes.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            if (requiredBlocks > maxEntryBlocks) {
+                return;
+            }
+            synchronized (this) {
+                Entry existing = entries.get(enrichedCiphertext);
+                if (existing != null) {
+                    remove(enrichedCiphertext, existing);
+                }
+                Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+                while (freeBlockCount < requiredBlocks && iterator.hasNext()) {
+                    Entry eldest = iterator.next().getValue();
+                    iterator.remove();
+                    release(eldest);
+                    evictions.increment();
+                }
+                long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+                Entry entry = new Entry(new int[requiredBlocks], bytes.length, expiresAt);
+                for (int i = 0; i < requiredBlocks; i++) {
+                    entry.blocks[i] = freeBlocks[--freeBlockCount];
+                }
+                write(entry, bytes);
+                entries.put(enrichedCiphertext, entry);
+            }
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Removes and wipes all entries
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return (long) (freeBlocks.length - freeBlockCount) * BLOCK_SIZE;
+    }
+
+    public long getCapacityBytes() {
+        return (long) freeBlocks.length * BLOCK_SIZE;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Removes and wipes all expired entries. Expired entries are otherwise only removed when accessed or evicted, 
+     * so this should be invoked periodically
+     */
+    public synchronized void removeExpired() {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isExpired(now)) {
+                iterator.remove();
+                release(entry);
+                expirations.increment();
+            }
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        release(entry);
+    }
+
+    private void release(Entry entry) {
+        for (int block : entry.blocks) {
+            int offset = block * BLOCK_SIZE;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                arena.put(offset + i, (byte) 0);
+            }
+            freeBlocks[freeBlockCount++] = block;
+        }
+    }
+
+    private void write(Entry entry, byte[] bytes) {
+        for (int i = 0; i < entry.blocks.length; i++) {
+            int offset = entry.blocks[i] * BLOCK_SIZE;
+            int start = i * BLOCK_SIZE;
+            int length = Math.min(BLOCK_SIZE, bytes.length - start);
+            for (int j = 0; j < length; j++) {
+                arena.put(offset + j, bytes[start + j]);
+            }
+        }
+    }
+
+    private byte[] read(Entry entry) {
+        byte[] bytes = new byte[entry.length];
+        for (int i = 0; i < entry.blocks.length; i++) {
+            int offset = entry.blocks[i] * BLOCK_SIZE;
+            int start = i * BLOCK_SIZE;
+            int length = Math.min(BLOCK_SIZE, entry.length - start);
+            for (int j = 0; j < length; j++) {
+                bytes[start + j] = arena.get(offset + j);
+            }
+        }
+        return bytes;
+    }
+
+    private static class Entry {
+        private final int[] blocks;
+        private final int length;
+        private final long expiresAt;
+
+        Entry(int[] blocks, int length, long expiresAt) {
+            this.blocks = blocks;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
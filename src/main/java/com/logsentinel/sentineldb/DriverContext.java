@@ -0,0 +1,455 @@
+package com.logsentinel.sentineldb;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+/**
+ * Holds everything that is expensive to create and can be shared between connections to the same
+ * database and datastore - the SentinelDB and Trails clients (and their executors), the cached search schemas,
+ * the table metadata, the lookup column setup and the metrics.
+ *
+ * Contexts are reference-counted - every connection acquires the context when opened and releases it when closed.
+ * When the last connection is closed, the context is shut down and removed.
+ */
+public class DriverContext {
+
+    private static final ConcurrentMap<Key, SharedContext> contexts = new ConcurrentHashMap<>();
+
+    private final Key key;
+    private final ExternalEncryptionService encryptionService;
+    private final AuditLogService auditLogService;
+    private final TableMetadata tableMetadata = new TableMetadata();
+    private final SqlParser sqlParser;
+    private final LookupManager lookupManager;
+    private final DriverMetrics metrics;
+
+    private volatile boolean metadataLoaded;
+
+    // opens connections for the background work, if set
+    private ConnectionFactory connectionFactory;
+    private ExecutorService backgroundExecutor;
+
+    // the persistent metadata snapshot, if enabled
+    private Path snapshotFile;
+    private MetadataSnapshot loadedSnapshot;
+    private String fingerprintQuery;
+    private volatile String fingerprint;
+
+    DriverContext(Key key, ExternalEncryptionService encryptionService, AuditLogService auditLogService) {
+        this(key, encryptionService, auditLogService, SqlParser.DEFAULT_CACHE_SIZE);
+    }
+    
+    DriverContext(Key key, ExternalEncryptionService encryptionService, AuditLogService auditLogService, int sqlCacheSize) {
+        this(key, encryptionService, auditLogService, sqlCacheSize, DriverMetrics.disabled());
+    }
+    
+    DriverContext(Key key, ExternalEncryptionService encryptionService, AuditLogService auditLogService, int sqlCacheSize,
+            DriverMetrics metrics) {
+        this.key = key;
+        this.encryptionService = encryptionService;
+        this.auditLogService = auditLogService;
+        this.sqlParser = new SqlParser(tableMetadata, sqlCacheSize);
+        this.lookupManager = new LookupManager(encryptionService);
+        this.metrics = metrics;
+        // only the tables with sensitive data are resolved, when first referenced by a query
+        tableMetadata.setSensitiveTables(encryptionService::tableConstainsSensitiveData);
+        tableMetadata.setLoader(new DatabaseMetadataLoader());
+        // cached queries are modified based on the searchable columns in the schemas
+        encryptionService.addSchemaChangeListener(sqlParser::clearCache);
+        // newly searchable columns need their lookup columns
+        encryptionService.addSchemaChangeListener(this::provisionLookup);
+        
+        sqlParser.setMetrics(metrics);
+        registerGauges();
+        metrics.register(key.getDatastoreId());
+    }
+    
+    private void registerGauges() {
+        metrics.registerGauge("sqlCacheHits", sqlParser::getCacheHits);
+        metrics.registerGauge("sqlCacheMisses", sqlParser::getCacheMisses);
+        metrics.registerGauge("sqlCacheSize", sqlParser::getCacheSize);
+        metrics.registerGauge("decryptionQueueSize", encryptionService::getDecryptionQueueSize);
+        AuditPipeline pipeline = auditLogService.getPipeline();
+        if (pipeline != null) {
+            metrics.registerGauge("auditQueueDepth", pipeline::getQueueDepth);
+            metrics.registerGauge("auditQueueCapacity", pipeline::getQueueCapacity);
+            metrics.registerGauge("auditSentEvents", pipeline::getSentEvents);
+            metrics.registerGauge("auditDroppedEvents", pipeline::getDroppedEvents);
+            metrics.registerGauge("auditMaxLagMillis", pipeline::getMaxLagMillis);
+        }
+    }
+
+    /**
+     * Gets the existing context for the given key or creates a new one using the supplied factory.
+     * The factory is invoked at most once per key for as long as there are open connections using the context.
+     * It is invoked outside of the contexts map, as it calls remote services, and connections that need the same context
+     * in the meantime wait for it. If the factory fails, they fail too, and the next connection invokes it again
+     */
+    public static DriverContext acquire(Key key, Supplier<DriverContext> factory) {
+        SharedContext created = new SharedContext();
+        SharedContext shared = contexts.compute(key, (k, existing) -> {
+            SharedContext context = existing != null ? existing : created;
+            context.references++;
+            return context;
+        });
+        if (shared == created) {
+            try {
+                created.context.complete(factory.get());
+            } catch (RuntimeException | Error ex) {
+                contexts.remove(key, created);
+                created.context.completeExceptionally(ex);
+                throw ex;
+            }
+        }
+        try {
+            return shared.context.join();
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("Failed to create the driver context", ex.getCause());
+        }
+    }
+
+    /**
+     * Releases the context. If this was the last connection using it, all services are shut down.
+     * The shutdown happens outside of the contexts map, as it flushes files and waits for the audit pipeline
+     */
+    public void release() {
+        boolean[] removed = new boolean[1];
+        contexts.computeIfPresent(key, (k, shared) -> {
+            if (--shared.references > 0) {
+                return shared;
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Sets the factory of the connections to the target database that are used for the background work - provisioning
+     * the lookup columns when the search schemas change, and validating the metadata snapshot
+     */
+    public synchronized void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        this.backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sentineldb-metadata");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Enables the persistent metadata snapshot. The metadata is taken from the given snapshot (if any) 
+     * instead of being prepared on the first connection, and is then validated in the background, 
+     * which requires a {@link #setConnectionFactory(ConnectionFactory) connection factory}.
+     * The snapshot file is rewritten whenever the metadata is prepared again, and when the context is shut down
+     * 
+     * @param file the snapshot file
+     * @param snapshot the snapshot read from the file (already used for the cached search schemas), or null
+     * @param fingerprintQuery the query that fingerprints the database schema, or null for the default one
+     */
+    public synchronized void enableSnapshot(Path file, MetadataSnapshot snapshot, String fingerprintQuery) {
+        this.snapshotFile = file;
+        this.loadedSnapshot = snapshot;
+        this.fingerprintQuery = fingerprintQuery;
+    }
+
+    /**
+     * Prepares the lookup columns, unless that has already been done by another connection using the same context,
+     * or by a previous run, according to the metadata snapshot. The table metadata itself is resolved lazily, table by table
+     */
+    public void initMetadata(Connection connection) throws SQLException {
+        if (metadataLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (metadataLoaded) {
+                return;
+            }
+            long start = metrics.start();
+            MetadataSnapshot snapshot = loadedSnapshot;
+            loadedSnapshot = null;
+            // the snapshot is only valid for the current search schemas, which may have already been refreshed
+            if (snapshot != null && snapshot.isLookupProvisioned() && snapshot.getSchema().equals(encryptionService.getSchema())) {
+                snapshot.getTables().forEach(tableMetadata::putTable);
+                fingerprint = snapshot.getFingerprint();
+                runInBackground(this::validateSnapshot);
+            } else {
+                lookupManager.initLookup(connection);
+                if (snapshotFile != null) {
+                    fingerprint = DatabaseMetadataLoader.fingerprint(connection, fingerprintQuery);
+                    runInBackground(this::writeSnapshot);
+                }
+            }
+            metrics.record(DriverMetrics.Phase.METADATA_LOAD, null, ParameterPlan.StatementKind.OTHER, start);
+            metadataLoaded = true;
+        }
+    }
+
+    /**
+     * Refreshes the metadata of the tables changed by a DDL query (e.g. CREATE or ALTER TABLE). Their resolved metadata 
+     * and cached queries are discarded, and the lookup columns of their searchable columns are provisioned if missing.
+     * The metadata of all other tables stays in use
+     * 
+     * @param tables the created, altered, renamed or dropped tables
+     * @param connection the connection that executed the query
+     */
+    public void refreshTables(Collection<String> tables, Connection connection) {
+        for (String table : tables) {
+            tableMetadata.remove(table);
+            sqlParser.clearCache(table);
+            // only sensitive tables are resolved, and dropped tables are not found
+            TableDefinition definition = tableMetadata.getTable(table, connection);
+            if (definition != null && lookupManager.provisionLookup(definition, connection)) {
+                // the lookup columns are now part of the table
+                tableMetadata.remove(table);
+            }
+        }
+    }
+
+    /**
+     * Marks the metadata as outdated (e.g. after a DDL query that can't be parsed), so that tables are resolved again when next referenced
+     * and the lookup columns are prepared again by the next opened connection
+     */
+    public void invalidateMetadata() {
+        tableMetadata.clear();
+        sqlParser.clearCache();
+        metadataLoaded = false;
+    }
+
+    /**
+     * Checks whether the database schema has changed since the snapshot was taken, and if so, prepares the metadata again
+     */
+    private void validateSnapshot() throws SQLException {
+        try (Connection connection = connectionFactory.connect()) {
+            String currentFingerprint = DatabaseMetadataLoader.fingerprint(connection, fingerprintQuery);
+            if (currentFingerprint == null || !currentFingerprint.equals(fingerprint)) {
+                prepareMetadata(connection, currentFingerprint);
+            }
+        }
+        writeSnapshot();
+    }
+
+    /**
+     * Provisions the lookup columns after the search schemas have changed. That is done in the background if the context
+     * can open connections of its own, and otherwise by the next connection that is opened
+     */
+    private void provisionLookup() {
+        if (!runInBackground(this::refreshMetadata)) {
+            metadataLoaded = false;
+        }
+    }
+
+    private void refreshMetadata() throws SQLException {
+        try (Connection connection = connectionFactory.connect()) {
+            prepareMetadata(connection, snapshotFile != null ? DatabaseMetadataLoader.fingerprint(connection, fingerprintQuery) : null);
+        }
+        writeSnapshot();
+    }
+
+    private synchronized void prepareMetadata(Connection connection, String currentFingerprint) {
+        tableMetadata.clear();
+        sqlParser.clearCache();
+        lookupManager.initLookup(connection);
+        fingerprint = currentFingerprint;
+    }
+
+    private synchronized void writeSnapshot() {
+        // only metadata that is in use is persisted, as otherwise the lookup columns may not be provisioned yet
+        if (snapshotFile == null || !metadataLoaded) {
+            return;
+        }
+        try {
+            new MetadataSnapshot(fingerprint, encryptionService.getSchema(), new ArrayList<>(tableMetadata.getTables()), true)
+                    .write(snapshotFile);
+        } catch (IOException ex) {
+            System.err.println("Failed to write metadata snapshot " + snapshotFile + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @return whether the task was scheduled, which requires a connection factory
+     */
+    private boolean runInBackground(BackgroundTask task) {
+        if (backgroundExecutor == null) {
+            return false;
+        }
+        try {
+            backgroundExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (SQLException | RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            // the context is being shut down
+            return false;
+        }
+    }
+
+    private void shutdown() {
+        if (backgroundExecutor != null) {
+            backgroundExecutor.shutdownNow();
+        }
+        // persist the tables resolved since the snapshot was last written
+        writeSnapshot();
+        metrics.unregister();
+        encryptionService.shutdown();
+        auditLogService.shutdown();
+    }
+
+    public ExternalEncryptionService getEncryptionService() {
+        return encryptionService;
+    }
+
+    public AuditLogService getAuditLogService() {
+        return auditLogService;
+    }
+
+    public TableMetadata getTableMetadata() {
+        return tableMetadata;
+    }
+
+    public SqlParser getSqlParser() {
+        return sqlParser;
+    }
+
+    public LookupManager getLookupManager() {
+        return lookupManager;
+    }
+    
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
+    static int getOpenContextCount() {
+        return contexts.size();
+    }
+
+    /**
+     * A context in the contexts map, which is created after being put there
+     */
+    private static class SharedContext {
+        private final CompletableFuture<DriverContext> context = new CompletableFuture<>();
+
+        // guarded by the contexts map, as it is only modified within compute functions
+        private int references;
+    }
+
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    private interface BackgroundTask {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Identifies a context by the credentials and by all other settings of the shared services,
+     * so that connections with different settings never share a context. Secrets are only kept as hashes
+     */
+    public static class Key {
+        private final String delegatedUrl;
+        private final String databaseUser;
+        private final String databasePasswordHash;
+        private final String datastoreId;
+        private final String sentinelDbOrganizationId;
+        private final String sentinelDbSecretHash;
+        private final String trailsOrganizationId;
+        private final String trailsSecretHash;
+        private final String trailsApplicationId;
+        private final String trailsUrl;
+        private final String actorExtractionFunction;
+        private final Map<String, String> settings;
+
+        public Key(String delegatedUrl, String databaseUser, String databasePassword, String datastoreId,
+                String sentinelDbOrganizationId, String sentinelDbSecret, String trailsOrganizationId,
+                String trailsSecret, String trailsApplicationId, String trailsUrl, String actorExtractionFunction) {
+            this(delegatedUrl, databaseUser, databasePassword, datastoreId, sentinelDbOrganizationId, sentinelDbSecret,
+                    trailsOrganizationId, trailsSecret, trailsApplicationId, trailsUrl, actorExtractionFunction,
+                    Collections.emptyMap());
+        }
+
+        /**
+         * @param settings the other driver properties that are set, by name
+         */
+        public Key(String delegatedUrl, String databaseUser, String databasePassword, String datastoreId,
+                String sentinelDbOrganizationId, String sentinelDbSecret, String trailsOrganizationId,
+                String trailsSecret, String trailsApplicationId, String trailsUrl, String actorExtractionFunction,
+                Map<String, String> settings) {
+            this.delegatedUrl = delegatedUrl;
+            this.databaseUser = databaseUser;
+            this.databasePasswordHash = hash(databasePassword);
+            this.datastoreId = datastoreId;
+            this.sentinelDbOrganizationId = sentinelDbOrganizationId;
+            this.sentinelDbSecretHash = hash(sentinelDbSecret);
+            this.trailsOrganizationId = trailsOrganizationId;
+            this.trailsSecretHash = hash(trailsSecret);
+            this.trailsApplicationId = trailsApplicationId;
+            this.trailsUrl = trailsUrl;
+            this.actorExtractionFunction = actorExtractionFunction;
+            this.settings = Collections.unmodifiableMap(new TreeMap<>(settings));
+        }
+
+        private static String hash(String secret) {
+            return secret != null ? DigestUtils.sha256Hex(secret) : null;
+        }
+
+        public String getDatastoreId() {
+            return datastoreId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(delegatedUrl, databaseUser, databasePasswordHash, datastoreId, sentinelDbOrganizationId,
+                    sentinelDbSecretHash, trailsOrganizationId, trailsSecretHash, trailsApplicationId, trailsUrl,
+                    actorExtractionFunction, settings);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(delegatedUrl, other.delegatedUrl)
+                    && Objects.equals(databaseUser, other.databaseUser)
+                    && Objects.equals(databasePasswordHash, other.databasePasswordHash)
+                    && Objects.equals(datastoreId, other.datastoreId)
+                    && Objects.equals(sentinelDbOrganizationId, other.sentinelDbOrganizationId)
+                    && Objects.equals(sentinelDbSecretHash, other.sentinelDbSecretHash)
+                    && Objects.equals(trailsOrganizationId, other.trailsOrganizationId)
+                    && Objects.equals(trailsSecretHash, other.trailsSecretHash)
+                    && Objects.equals(trailsApplicationId, other.trailsApplicationId)
+                    && Objects.equals(trailsUrl, other.trailsUrl)
+                    && Objects.equals(actorExtractionFunction, other.actorExtractionFunction)
+                    && Objects.equals(settings, other.settings);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.logsentinel.sentineldb;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+
+/**
+ * Latency histograms of the phases of query processing, broken down by table and statement kind,
+ * and gauges of the queues of the driver. All connections sharing a {@link DriverContext} record to the same registry,
+ * which is published as an MXBean and can also be read through {@link #getStatistics()}.
+ *
+ * Recording is lock-free and does not allocate once a histogram for the table and kind exists.
+ * The number of tables with histograms of their own is limited, and the phases of further tables are recorded as {@link #NO_TABLE}.
+ */
+public class DriverMetrics {
+
+    public static final String OBJECT_NAME_PREFIX = "com.logsentinel.sentineldb:type=DriverMetrics";
+    /** the table of phases that are not related to a specific table */
+    public static final String NO_TABLE = "";
+    /** the maximum number of tables with histograms of their own, per phase */
+    public static final int MAX_TABLES = 256;
+
+    private static final DriverMetrics DISABLED = new DriverMetrics(false);
+    private static final AtomicInteger contextCounter = new AtomicInteger();
+
+    public enum Phase {
+        /** parsing of a query by JSqlParser, on a cache miss */
+        PARSE,
+        /** modification of a query before it is passed to the target driver, including the encryption of literals */
+        REWRITE,
+        /** encryption of a single value, remote or local */
+        ENCRYPT,
+        /** decryption of a single value, remote or local, excluding cache hits */
+        DECRYPT,
+        /** calculation of the lookup key of a searched value */
+        LOOKUP_KEY,
+        /** loading of the table metadata and preparation of the lookup columns */
+        METADATA_LOAD,
+        /** submission of an audit event to the pipeline, including any wait for space in the queue */
+        AUDIT_ENQUEUE,
+        /** sending of a batch of audit events to Trails */
+        AUDIT_SEND
+    }
+
+    private final boolean enabled;
+    // table names may be quoted differently in each query, so the histograms of each phase are looked up case-insensitively,
+    // which doesn't allocate, and are stored by the lower case name
+    private final Map<Phase, ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>>> histograms = new EnumMap<>(Phase.class);
+    private final Map<Phase, AtomicInteger> tableCounts = new EnumMap<>(Phase.class);
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    public DriverMetrics() {
+        this(true);
+    }
+
+    private DriverMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER));
+            tableCounts.put(phase, new AtomicInteger());
+        }
+    }
+
+    /**
+     * @return a registry that ignores everything recorded to it, used when metrics are turned off
+     * and by components that are not part of a driver context
+     */
+    public static DriverMetrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time to be passed to {@link #record(Phase, String, StatementKind, long)}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since the given start time
+     */
+    public void record(Phase phase, String table, StatementKind kind, long startNanos) {
+        if (enabled) {
+            getHistogram(phase, table, kind).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void recordError(Phase phase, String table, StatementKind kind) {
+        if (enabled) {
+            getHistogram(phase, table, kind).recordError();
+        }
+    }
+
+    /**
+     * Registers a value that is read whenever the metrics are read, e.g. the size of a queue
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        if (enabled) {
+            gauges.put(name, gauge);
+        }
+    }
+
+    public LatencyHistogram getHistogram(Phase phase, String table, StatementKind kind) {
+        if (table == null) {
+            table = NO_TABLE;
+        }
+        if (kind == null) {
+            kind = StatementKind.OTHER;
+        }
+        ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>> tableHistograms = histograms.get(phase);
+        AtomicReferenceArray<LatencyHistogram> kindHistograms = tableHistograms.get(table);
+        if (kindHistograms == null) {
+            kindHistograms = addTable(phase, tableHistograms, table);
+        }
+        LatencyHistogram histogram = kindHistograms.get(kind.ordinal());
+        if (histogram == null) {
+            kindHistograms.compareAndSet(kind.ordinal(), null, new LatencyHistogram());
+            histogram = kindHistograms.get(kind.ordinal());
+        }
+        return histogram;
+    }
+
+    private AtomicReferenceArray<LatencyHistogram> addTable(Phase phase, 
+            ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>> tableHistograms, String table) {
+        AtomicInteger tableCount = tableCounts.get(phase);
+        if (!table.equals(NO_TABLE) && tableCount.get() >= MAX_TABLES) {
+            // the number of distinct table names is not bounded, e.g. with generated temporary tables
+            table = NO_TABLE;
+            AtomicReferenceArray<LatencyHistogram> kindHistograms = tableHistograms.get(table);
+            if (kindHistograms != null) {
+                return kindHistograms;
+            }
+        }
+        AtomicReferenceArray<LatencyHistogram> kindHistograms = new AtomicReferenceArray<>(StatementKind.values().length);
+        AtomicReferenceArray<LatencyHistogram> existing = tableHistograms.putIfAbsent(table.toLowerCase(), kindHistograms);
+        if (existing != null) {
+            return existing;
+        }
+        if (!table.equals(NO_TABLE)) {
+            tableCount.incrementAndGet();
+        }
+        return kindHistograms;
+    }
+
+    /**
+     * @return the statistics of all histograms that have been recorded to, ordered by phase, table and kind
+     */
+    public List<PhaseStatistics> getStatistics() {
+        List<PhaseStatistics> result = new ArrayList<>();
+        for (Map.Entry<Phase, ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>>> phase : histograms.entrySet()) {
+            for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> table : new TreeMap<>(phase.getValue()).entrySet()) {
+                for (StatementKind kind : StatementKind.values()) {
+                    LatencyHistogram histogram = table.getValue().get(kind.ordinal());
+                    if (histogram != null) {
+                        result.add(new PhaseStatistics(phase.getKey(), table.getKey(), kind, histogram));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the current values of the gauges by name
+     */
+    public Map<String, Long> getGauges() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            result.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (Phase phase : Phase.values()) {
+            histograms.get(phase).clear();
+            tableCounts.get(phase).set(0);
+        }
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server. Failures are logged, as metrics are not essential
+     */
+    public void register(String datastoreId) {
+        if (!enabled) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(OBJECT_NAME_PREFIX + ",datastore=" + ObjectName.quote(String.valueOf(datastoreId))
+                    + ",context=" + contextCounter.incrementAndGet());
+            server.registerMBean(new MXBeanAdapter(this), objectName);
+        } catch (JMException | RuntimeException ex) {
+            System.err.println("Failed to register the driver metrics MBean: " + ex.getMessage());
+            objectName = null;
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            System.err.println("Failed to unregister the driver metrics MBean: " + ex.getMessage());
+        }
+        objectName = null;
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * The statistics of a single histogram at the time they were read. Durations are in microseconds
+     */
+    public static class PhaseStatistics {
+        private final String phase;
+        private final String table;
+        private final String kind;
+        private final long count;
+        private final long errors;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        PhaseStatistics(Phase phase, String table, StatementKind kind, LatencyHistogram histogram) {
+            this.phase = phase.name();
+            this.table = table;
+            this.kind = kind.name();
+            this.count = histogram.getCount();
+            this.errors = histogram.getErrors();
+            this.meanMicros = count > 0 ? toMicros(histogram.getTotalNanos()) / count : 0;
+            this.p50Micros = toMicros(histogram.getValueAtPercentile(50));
+            this.p90Micros = toMicros(histogram.getValueAtPercentile(90));
+            this.p99Micros = toMicros(histogram.getValueAtPercentile(99));
+            this.p999Micros = toMicros(histogram.getValueAtPercentile(99.9));
+            this.maxMicros = toMicros(histogram.getMaxNanos());
+        }
+
+        private static double toMicros(long nanos) {
+            return nanos / 1000.0;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP90Micros() {
+            return p90Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getP999Micros() {
+            return p999Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+
+    public interface DriverMetricsMXBean {
+        List<PhaseStatistics> getStatistics();
+
+        Map<String, Long> getGauges();
+
+        void reset();
+    }
+
+    private static class MXBeanAdapter implements DriverMetricsMXBean {
+        private final DriverMetrics metrics;
+
+        MXBeanAdapter(DriverMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public List<PhaseStatistics> getStatistics() {
+            return metrics.getStatistics();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return metrics.getGauges();
+        }
+
+        @Override
+        public void reset() {
+            metrics.reset();
+        }
+    }
+}
@@ -1,28 +1,48 @@
 package com.logsentinel.sentineldb;
 
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.events.SentinelDBCallEvent;
 import com.logsentinel.sentineldb.model.ExternalEncryptionResult;
-import com.logsentinel.sentineldb.model.SearchSchema;
-import com.logsentinel.sentineldb.model.SearchSchemaField;
 
 public class ExternalEncryptionService {
     
     private static final String ENCRYPTED_FIELD_PREFIX = "sdbenc:";
+    private static final int DECRYPTION_PARALLELISM = 8;
+    private static final int ENCRYPTION_PARALLELISM = 8;
+    public static final int DEFAULT_DECRYPTION_WINDOW_SIZE = 50;
+    public static final int DEFAULT_LOOKUP_CACHE_SIZE = 10000;
+    public static final long DEFAULT_LOOKUP_CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_DATA_KEY_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
     
     private String organizationId;
     private String secret;
@@ -31,10 +51,43 @@ public class ExternalEncryptionService {
     private SentinelDBClient sentinelDBClient;
 
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private ExecutorService decryptionExecutor = Executors.newFixedThreadPool(DECRYPTION_PARALLELISM);
+    private ExecutorService encryptionExecutor = Executors.newFixedThreadPool(ENCRYPTION_PARALLELISM);
     
-    private Map<String, SearchSchema> cachedSchemas = new HashMap<>();
-    private Map<String, Boolean> shouldIndexMap = new HashMap<>();
-    private Map<String, List<String>> indexedColumns = new HashMap<>();
+    // the compiled search schemas, replaced as a whole on every refresh, so that readers never see a partial schema
+    private volatile SchemaSnapshot schema = SchemaSnapshot.EMPTY;
+    private SchemaSnapshot cachedSchema;
+    private SchemaRefresher schemaRefresher;
+    private final Consumer<SchemaSnapshot> schemaSubscriber = this::updateSchema;
+    private long schemaRefreshIntervalMillis = SchemaRefresher.DEFAULT_INTERVAL_MILLIS;
+    
+    // the number of result set rows that are read ahead and decrypted together
+    private int decryptionWindowSize = DEFAULT_DECRYPTION_WINDOW_SIZE;
+    
+    // lookup keys are deterministic per datastore and plaintext, so they are cached. 
+    // Plaintexts are (by default) hashed with a random salt, so that they are not kept as cache keys
+    private LruCache<String, String> lookupKeyCache = new LruCache<>(DEFAULT_LOOKUP_CACHE_SIZE, DEFAULT_LOOKUP_CACHE_TTL_MILLIS);
+    private boolean hashLookupCacheKeys = true;
+    private byte[] lookupCacheSalt = new byte[32];
+    
+    // optional cache of decrypted values
+    private DecryptedValueCache decryptedValueCache;
+    
+    // set when values are encrypted locally with cached data keys rather than by SentinelDB
+    private LocalEncryption localEncryption;
+    private boolean localEncryptionEnabled;
+    
+    // set when lookup keys are computed locally rather than by SentinelDB
+    private DataKeyProvider blindIndexKeyProvider;
+    private BlindIndex blindIndex;
+    
+    // if enabled, queries that can't reference a table with sensitive data are passed to the target database without being parsed.
+    // Disabled by default, as encrypted values read through views would not be decrypted
+    private boolean bypassNonSensitiveQueries;
+    
+    private List<Runnable> schemaChangeListeners = new CopyOnWriteArrayList<>();
+    
+    private DriverMetrics metrics = DriverMetrics.disabled();
     
     // a client builder function that can be replaced by tests if needed
     private static BiFunction<String, String, SentinelDBClient> clientBuilder = (orgId, secret) -> {
@@ -45,41 +98,151 @@ public class ExternalEncryptionService {
         this.organizationId = organizationId;
         this.secret = secret;
         this.datastoreId = datastoreId;
+        new SecureRandom().nextBytes(lookupCacheSalt);
     }
 
     public void init() {
-        sentinelDBClient = clientBuilder.apply(organizationId, secret);
-        Runnable loadCache = () -> {
-            cachedSchemas = sentinelDBClient.getSchemaActions().listSearchSchemas()
-                    .stream().filter(s -> !s.getFields().isEmpty())
-                    .collect(Collectors.toMap(s -> s.getRecordType().toLowerCase(), Function.identity()));
-            
-            shouldIndexMap.clear();
-            for (SearchSchema schema : cachedSchemas.values()) {
-                for (SearchSchemaField field : schema.getFields()) {
-                    shouldIndexMap.put(schema.getRecordType().toLowerCase() + ":" + field.getName(), field.isIndexed());
-                }
-                List<String> indexedNotAnalyzedFields = schema.getFields()
-                        .stream().filter(f -> f.isIndexed() && !f.isAnalyzed()).map(SearchSchemaField::getName)
-                        .collect(Collectors.toList());
-                if (!indexedNotAnalyzedFields.isEmpty()) {
-                    indexedColumns.put(schema.getRecordType().toLowerCase(), indexedNotAnalyzedFields);
+        sentinelDBClient = buildClient(organizationId, secret);
+        if (blindIndexKeyProvider != null) {
+            blindIndex = new BlindIndex(blindIndexKeyProvider.getBlindIndexKey(datastoreId));
+        }
+        if (schemaRefresher == null) {
+            // the schemas are polled once per datastore, however many contexts use it
+            SchemaRefresher.Key refresherKey = new SchemaRefresher.Key(datastoreId, organizationId, secret);
+            String refresherSecret = secret;
+            schemaRefresher = SchemaRefresher.acquire(refresherKey, () -> SchemaRefresher.create(refresherKey, refresherSecret));
+            if (cachedSchema != null) {
+                schema = cachedSchema;
+            }
+            // gets the current schema if it has already been loaded for another context
+            schemaRefresher.subscribe(schemaSubscriber);
+            if (schemaRefresher.getSchema() == null) {
+                if (cachedSchema != null) {
+                    // start with the persisted schema and refresh it in the background, so that startup is not delayed
+                    schemaRefresher.refreshAsync();
+                } else {
+                    // load synchronously
+                    schemaRefresher.refresh();
                 }
-                
             }
-        };
-        // load synchronously
-        loadCache.run();
+            schemaRefresher.schedule(schemaRefreshIntervalMillis);
+        }
         
-        scheduler.scheduleAtFixedRate(loadCache, 10, 10, TimeUnit.MINUTES);
+        if (decryptedValueCache != null) {
+            scheduler.scheduleAtFixedRate(decryptedValueCache::removeExpired, 1, 1, TimeUnit.MINUTES);
+        }
+    }
+    
+    /**
+     * Sets the schema persisted by a previous run, to be used until the schema is loaded. To be invoked before {@link #init()}
+     */
+    public void setCachedSchema(SchemaSnapshot cachedSchema) {
+        this.cachedSchema = cachedSchema;
     }
     
-    public Pair<String, List<String>> encryptString(String plaintext, String tableName, String columnName, Object id) {
-        plaintext = extendPlaintext(plaintext);
-        ExternalEncryptionResult result = sentinelDBClient.getExternalEncryptionActions().encryptData(datastoreId, String.valueOf(id), tableName, columnName, plaintext);
+    /**
+     * Sets the interval at which the search schemas are polled. The schemas of a datastore are polled 
+     * at the shortest interval set by the services that use it. To be invoked before {@link #init()}
+     */
+    public void setSchemaRefreshIntervalMillis(long schemaRefreshIntervalMillis) {
+        this.schemaRefreshIntervalMillis = schemaRefreshIntervalMillis;
+    }
+    
+    /**
+     * Registers a listener to be notified when the search schemas change, e.g. in order to invalidate caches. 
+     * Listeners are invoked after the new schema is published
+     */
+    public void addSchemaChangeListener(Runnable listener) {
+        schemaChangeListeners.add(listener);
+    }
+    
+    /**
+     * Refreshes the search schemas immediately, for all contexts that use the datastore
+     * 
+     * @return whether the schemas have changed
+     */
+    public boolean refreshSchema() {
+        return schemaRefresher.refresh();
+    }
+    
+    private void updateSchema(SchemaSnapshot refreshedSchema) {
+        SchemaSnapshot previousSchema = schema;
+        schema = refreshedSchema;
+        if (!previousSchema.equals(refreshedSchema)) {
+            schemaChangeListeners.forEach(Runnable::run);
+        }
+    }
+    
+    public void shutdown() {
+        if (schemaRefresher != null) {
+            schemaRefresher.unsubscribe(schemaSubscriber);
+            schemaRefresher.release();
+            schemaRefresher = null;
+        }
+        scheduler.shutdownNow();
+        decryptionExecutor.shutdownNow();
+        encryptionExecutor.shutdownNow();
+        if (decryptedValueCache != null) {
+            decryptedValueCache.clear();
+        }
+    }
+    
+    public Pair<String, List<String>> encryptString(String value, String tableName, String columnName, Object id) {
+        String plaintext = extendPlaintext(value);
+        // analyzed columns need their (multiple) lookup keys to be calculated by SentinelDB, so they are always encrypted remotely 
+        if (localEncryptionEnabled && !isAnalyzed(tableName, columnName)) {
+            String ciphertext = localEncryption.encrypt(plaintext, tableName, columnName, String.valueOf(id));
+            List<String> lookupKeys = isSearchable(tableName, columnName) 
+                    ? Collections.singletonList(getLookupKey(plaintext)) : Collections.emptyList();
+            return Pair.of(ENCRYPTED_FIELD_PREFIX + tableName.toLowerCase() + ":" + id + ":" + ciphertext, lookupKeys);
+        }
+        ExternalEncryptionResult result = callSentinelDB(SentinelDBCallEvent.ENCRYPT, tableName, columnName, plaintext, 
+                () -> sentinelDBClient.getExternalEncryptionActions().encryptData(datastoreId, String.valueOf(id), tableName, columnName, plaintext));
+        // the lookup key of exact-match searchable columns is the same as the one used for searching, so warm the cache with it
+        if (lookupKeyCache != null && result.getLookupKeys() != null && result.getLookupKeys().size() == 1 
+                && isSearchable(tableName, columnName)) {
+            lookupKeyCache.put(getLookupCacheKey(plaintext), result.getLookupKeys().get(0));
+        }
         return Pair.of(ENCRYPTED_FIELD_PREFIX + tableName.toLowerCase() + ":" + id + ":" + result.getCiphertext(), result.getLookupKeys());
     }
     
+    /**
+     * Encrypts multiple values, e.g. all sensitive values of a batch. There is no bulk encryption call, 
+     * so the requests are sent in parallel, each with its own record id.
+     * 
+     * @return the encrypted values and their lookup keys, in the order of the requests
+     */
+    public List<Pair<String, List<String>>> encryptStrings(List<EncryptionRequest> requests, StatementKind kind) {
+        List<Pair<String, List<String>>> result = new ArrayList<>(requests.size());
+        if (requests.size() == 1) {
+            result.add(encryptRequest(requests.get(0), kind));
+            return result;
+        }
+        List<CompletableFuture<Pair<String, List<String>>>> futures = new ArrayList<>(requests.size());
+        for (EncryptionRequest request : requests) {
+            futures.add(CompletableFuture.supplyAsync(() -> encryptRequest(request, kind), encryptionExecutor));
+        }
+        try {
+            for (CompletableFuture<Pair<String, List<String>>> future : futures) {
+                result.add(future.join());
+            }
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+        return result;
+    }
+    
+    private Pair<String, List<String>> encryptRequest(EncryptionRequest request, StatementKind kind) {
+        long start = metrics.start();
+        Pair<String, List<String>> result = encryptString(request.getPlaintext(), request.getTableName(), 
+                request.getColumnName(), UUID.randomUUID());
+        metrics.record(Phase.ENCRYPT, request.getTableName(), kind, start);
+        return result;
+    }
+    
     private String extendPlaintext(String plaintext) {
         // TODO extend the plaintext with either salt or a configurable/generated-once value, in case it's to small, which would risk its privacy
         return plaintext;
@@ -90,37 +253,308 @@ public class ExternalEncryptionService {
     }
     
     public String decryptString(String enrichedCiphertext) {
+        if (decryptedValueCache == null) {
+            return decryptRemotely(enrichedCiphertext);
+        }
+        String plaintext = decryptedValueCache.get(enrichedCiphertext);
+        if (plaintext == null) {
+            plaintext = decryptAndCache(enrichedCiphertext);
+        }
+        return plaintext;
+    }
+    
+    /**
+     * Decrypts a value that is known not to be cached, and caches it
+     */
+    private String decryptAndCache(String enrichedCiphertext) {
+        String plaintext = decryptRemotely(enrichedCiphertext);
+        if (decryptedValueCache != null) {
+            decryptedValueCache.put(enrichedCiphertext, plaintext);
+        }
+        return plaintext;
+    }
+    
+    private String decryptRemotely(String enrichedCiphertext) {
         String[] ciphertextElements = enrichedCiphertext.split(":");
         String tableName = ciphertextElements[1];
         String id = ciphertextElements[2];
         String ciphertext = ciphertextElements[3];
         
-        return new String(Base64.getDecoder().decode(
-                sentinelDBClient.getExternalEncryptionActions().decryptData(ciphertext, datastoreId, id, tableName.toLowerCase())), StandardCharsets.UTF_8);
+        long start = metrics.start();
+        try {
+            String plaintext;
+            // values in the local envelope format can be read regardless of the configured encryption mode
+            if (LocalEncryption.isEnvelope(ciphertext)) {
+                if (localEncryption == null) {
+                    throw new IllegalStateException("A data key provider is needed in order to decrypt locally encrypted values");
+                }
+                plaintext = localEncryption.decrypt(ciphertext, tableName, id);
+            } else {
+                plaintext = new String(Base64.getDecoder().decode(callSentinelDB(SentinelDBCallEvent.DECRYPT, tableName, null, ciphertext, 
+                        () -> sentinelDBClient.getExternalEncryptionActions().decryptData(ciphertext, datastoreId, id, tableName.toLowerCase()))), 
+                        StandardCharsets.UTF_8);
+            }
+            // values are only decrypted when read from result sets
+            metrics.record(Phase.DECRYPT, tableName, StatementKind.SELECT, start);
+            return plaintext;
+        } catch (RuntimeException ex) {
+            metrics.recordError(Phase.DECRYPT, tableName, StatementKind.SELECT);
+            throw ex;
+        }
+    }
+    
+    /**
+     * Decrypts multiple values, e.g. all encrypted cells of a number of result set rows. 
+     * Each distinct value is decrypted once and the requests are sent in parallel.
+     * 
+     * @return the plaintexts by the enriched ciphertexts
+     */
+    public Map<String, String> decryptStrings(Collection<String> enrichedCiphertexts) {
+        Set<String> distinctCiphertexts = new LinkedHashSet<>(enrichedCiphertexts);
+        Map<String, String> result = new HashMap<>();
+        if (decryptedValueCache != null) {
+            for (Iterator<String> iterator = distinctCiphertexts.iterator(); iterator.hasNext();) {
+                String enrichedCiphertext = iterator.next();
+                String plaintext = decryptedValueCache.get(enrichedCiphertext);
+                if (plaintext != null) {
+                    result.put(enrichedCiphertext, plaintext);
+                    iterator.remove();
+                }
+            }
+        }
+        if (distinctCiphertexts.isEmpty()) {
+            return result;
+        }
+        if (distinctCiphertexts.size() == 1) {
+            String enrichedCiphertext = distinctCiphertexts.iterator().next();
+            result.put(enrichedCiphertext, decryptAndCache(enrichedCiphertext));
+            return result;
+        }
+        
+        // the remaining values have already missed the cache, so it is not looked up again
+        Map<String, CompletableFuture<String>> futures = new HashMap<>();
+        for (String enrichedCiphertext : distinctCiphertexts) {
+            futures.put(enrichedCiphertext, CompletableFuture.supplyAsync(() -> decryptAndCache(enrichedCiphertext), decryptionExecutor));
+        }
+        try {
+            for (Map.Entry<String, CompletableFuture<String>> entry : futures.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+        return result;
     }
     
     public String getLookupKey(String plaintext) {
-        return sentinelDBClient.getExternalEncryptionActions().getLookupValue(datastoreId, plaintext);
+        // computing the lookup key locally is cheaper than a cache lookup, so there's no need to cache it
+        if (blindIndex != null) {
+            return blindIndex.computeLookupKey(plaintext);
+        }
+        if (lookupKeyCache == null) {
+            return callSentinelDB(SentinelDBCallEvent.LOOKUP_VALUE, null, null, plaintext, 
+                    () -> sentinelDBClient.getExternalEncryptionActions().getLookupValue(datastoreId, plaintext));
+        }
+        String cacheKey = getLookupCacheKey(plaintext);
+        String lookupKey = lookupKeyCache.get(cacheKey);
+        if (lookupKey == null) {
+            lookupKey = callSentinelDB(SentinelDBCallEvent.LOOKUP_VALUE, null, null, plaintext, 
+                    () -> sentinelDBClient.getExternalEncryptionActions().getLookupValue(datastoreId, plaintext));
+            lookupKeyCache.put(cacheKey, lookupKey);
+        }
+        return lookupKey;
     }
     
-    public List<String> getSearchableEncryptedColumns(String table) {
-        List<String> result = indexedColumns.get(table.toLowerCase());
-        if (result == null) {
-            return Collections.emptyList();
+    // builds a client with the replaceable client builder, which the schema refresher uses as well
+    static SentinelDBClient buildClient(String organizationId, String secret) {
+        return clientBuilder.apply(organizationId, secret);
+    }
+    
+    /**
+     * Invokes SentinelDB, recording the call as a flight recorder event. When the event is not enabled, 
+     * only its begin and end checks are executed
+     */
+    static <T> T callSentinelDB(String operation, String table, String column, String value, Supplier<T> call) {
+        SentinelDBCallEvent event = new SentinelDBCallEvent();
+        event.begin();
+        boolean successful = false;
+        try {
+            T result = call.get();
+            successful = true;
+            return result;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.table = table != null ? table.toLowerCase() : null;
+                event.column = column;
+                event.bytes = value != null ? value.getBytes(StandardCharsets.UTF_8).length : 0;
+                event.successful = successful;
+                event.commit();
+            }
         }
-        return result;
+    }
+    
+    private String getLookupCacheKey(String plaintext) {
+        if (!hashLookupCacheKeys) {
+            return plaintext;
+        }
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(lookupCacheSalt);
+        return Base64.getEncoder().encodeToString(digest.digest(plaintext.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    /**
+     * Configures the lookup key cache. A size of 0 disables it. Must be invoked before the service is used
+     */
+    public void configureLookupKeyCache(int size, long ttlMillis, boolean hashKeys) {
+        this.lookupKeyCache = size > 0 ? new LruCache<>(size, ttlMillis) : null;
+        this.hashLookupCacheKeys = hashKeys;
+    }
+    
+    public LruCache<String, String> getLookupKeyCache() {
+        return lookupKeyCache;
+    }
+    
+    public List<String> getSearchableEncryptedColumns(String table) {
+        return schema.getTable(table).getSearchableColumns();
+    }
+    
+    /**
+     * @return the current search schemas. The snapshot is immutable, so it can be used to resolve multiple columns consistently
+     */
+    public SchemaSnapshot getSchema() {
+        return schema;
+    }
+    
+    /**
+     * @return the number of decryption requests waiting for a free decryption thread
+     */
+    public int getDecryptionQueueSize() {
+        return ((ThreadPoolExecutor) decryptionExecutor).getQueue().size();
+    }
+    
+    /**
+     * Sets the registry to which the durations of decryption are recorded. Must be invoked before the service is used
+     */
+    public void setMetrics(DriverMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public int getDecryptionWindowSize() {
+        return decryptionWindowSize;
+    }
+    
+    public void setDecryptionWindowSize(int decryptionWindowSize) {
+        this.decryptionWindowSize = decryptionWindowSize;
+    }
+    
+    /**
+     * Enables caching of decrypted values. Must be invoked before init()
+     */
+    public void setDecryptedValueCache(DecryptedValueCache decryptedValueCache) {
+        this.decryptedValueCache = decryptedValueCache;
+    }
+    
+    public DecryptedValueCache getDecryptedValueCache() {
+        return decryptedValueCache;
+    }
+    
+    /**
+     * Configures local envelope encryption using data keys from the given provider. 
+     * If encryptLocally is false, the keys are only used for decrypting values that were previously encrypted locally
+     */
+    public void configureLocalEncryption(DataKeyProvider dataKeyProvider, long dataKeyTtlMillis, boolean encryptLocally) {
+        this.localEncryption = new LocalEncryption(dataKeyProvider, datastoreId, dataKeyTtlMillis);
+        this.localEncryptionEnabled = encryptLocally;
+    }
+    
+    /**
+     * Enables computing lookup keys locally, with a blind index key obtained from the given provider. Must be invoked before init()
+     */
+    public void setBlindIndexKeyProvider(DataKeyProvider blindIndexKeyProvider) {
+        this.blindIndexKeyProvider = blindIndexKeyProvider;
+    }
+    
+    public boolean isLocalEncryptionEnabled() {
+        return localEncryptionEnabled;
+    }
+    
+    /**
+     * Tells whether a query has to be intercepted, i.e. parsed, rewritten and have its results decrypted, because it may
+     * reference a table with sensitive data. The check is cheap compared to parsing the query
+     */
+    public boolean requiresInterception(String query) {
+        return !bypassNonSensitiveQueries || schema.mayReferenceSensitiveTable(query);
+    }
+    
+    /**
+     * Enables or disables passing queries that don't reference tables with sensitive data to the target database as they are.
+     * Bypassing should only be enabled if encrypted values are not read through views, as the tables of views are unknown
+     */
+    public void setBypassNonSensitiveQueries(boolean bypassNonSensitiveQueries) {
+        this.bypassNonSensitiveQueries = bypassNonSensitiveQueries;
     }
     
     public boolean tableConstainsSensitiveData(String table) {
-        return cachedSchemas.containsKey(table.toLowerCase());
+        return schema.getTable(table).hasSensitiveData();
     }
     
     public boolean isEncrypted(String table, String columnName) {
-        return shouldIndexMap.containsKey(table.toLowerCase() + ":" + columnName);
+        return schema.getColumn(table, columnName).isEncrypted();
     }
     
+    /**
+     * Tells whether a result set column may hold encrypted values. Result set metadata reports names in the case of the database,
+     * so columns are matched ignoring case. Columns without a table (e.g. expressions) may hold any value
+     */
+    public boolean mayBeEncrypted(String table, String columnName) {
+        if (table == null || table.isEmpty()) {
+            return true;
+        }
+        for (SchemaSnapshot.ColumnSchema column : schema.getTable(table).getColumns()) {
+            if (column.getName().equalsIgnoreCase(columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isSearchable(String table, String columnName) {
-        return isEncrypted(table, columnName) && shouldIndexMap.get(table.toLowerCase() + ":" + columnName);
+        return schema.getColumn(table, columnName).isSearchable();
     }
     
+    private boolean isAnalyzed(String table, String columnName) {
+        return schema.getColumn(table, columnName).isAnalyzed();
+    }
+    
+    /**
+     * A value to be encrypted by {@link ExternalEncryptionService#encryptStrings(List, StatementKind)}
+     */
+    public static class EncryptionRequest {
+        private final String plaintext;
+        private final String tableName;
+        private final String columnName;
+        
+        public EncryptionRequest(String plaintext, String tableName, String columnName) {
+            this.plaintext = plaintext;
+            this.tableName = tableName;
+            this.columnName = columnName;
+        }
+        
+        public String getPlaintext() {
+            return plaintext;
+        }
+        
+        public String getTableName() {
+            return tableName;
+        }
+        
+        public String getColumnName() {
+            return columnName;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.logsentinel.sentineldb;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * Envelope encryption performed within the driver. Data keys are obtained from a {@link DataKeyProvider} 
+ * and cached for a limited time, and values are encrypted with AES-GCM locally, 
+ * so that there is no round trip to the key management service for every cell.
+ *
+ * The resulting ciphertext is a versioned envelope: <code>$2$&lt;keyId&gt;$&lt;base64(nonce | ciphertext | tag)&gt;</code>.
+ * It takes the place of the remote ciphertext in the enriched value, so the table name and record id
+ * are stored along with it as usual. They are also used as associated data, so that encrypted values 
+ * can't be moved between tables or records.
+ */
+public class LocalEncryption {
+
+    static final String ENVELOPE_PREFIX = "$2$";
+    private static final String ENVELOPE_SEPARATOR = "$";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final int KEY_CACHE_SIZE = 1000;
+
+    private final DataKeyProvider dataKeyProvider;
+    private final UUID datastoreId;
+    private final LruCache<String, DataKey> dataKeyCache;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param dataKeyProvider the provider of data keys
+     * @param datastoreId the datastore to which the keys belong
+     * @param keyTtlMillis the time for which data keys are cached
+     */
+    public LocalEncryption(DataKeyProvider dataKeyProvider, UUID datastoreId, long keyTtlMillis) {
+        this.dataKeyProvider = dataKeyProvider;
+        this.datastoreId = datastoreId;
+        this.dataKeyCache = new LruCache<>(KEY_CACHE_SIZE, keyTtlMillis);
+    }
+
+    public static boolean isEnvelope(String ciphertext) {
+        return ciphertext.startsWith(ENVELOPE_PREFIX);
+    }
+
+    public String encrypt(String plaintext, String tableName, String columnName, String id) {
+        DataKey dataKey = dataKeyCache.computeIfAbsent("column:" + tableName.toLowerCase() + ":" + columnName.toLowerCase(), 
+                k -> {
+                    DataKey key = dataKeyProvider.getDataKey(datastoreId, tableName.toLowerCase(), columnName);
+                    dataKeyCache.put("id:" + key.getKeyId(), key);
+                    return key;
+                });
+
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        GCMBlockCipher cipher = createCipher(true, dataKey, nonce, tableName, id);
+        byte[] input = plaintext.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[NONCE_LENGTH + cipher.getOutputSize(input.length)];
+        System.arraycopy(nonce, 0, output, 0, NONCE_LENGTH);
+        try {
+            int length = cipher.processBytes(input, 0, input.length, output, NONCE_LENGTH);
+            cipher.doFinal(output, NONCE_LENGTH + length);
+        } catch (InvalidCipherTextException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return ENVELOPE_PREFIX + dataKey.getKeyId() + ENVELOPE_SEPARATOR + Base64.getEncoder().encodeToString(output);
+    }
+
+    public String decrypt(String envelope, String tableName, String id) {
+        int separatorIndex = envelope.indexOf(ENVELOPE_SEPARATOR, ENVELOPE_PREFIX.length());
+        if (!isEnvelope(envelope) || separatorIndex == -1) {
+            throw new IllegalArgumentException("Invalid ciphertext envelope");
+        }
+        String keyId = envelope.substring(ENVELOPE_PREFIX.length(), separatorIndex);
+        DataKey dataKey = dataKeyCache.computeIfAbsent("id:" + keyId, k -> dataKeyProvider.getDataKeyById(datastoreId, keyId));
+        if (dataKey == null) {
+            throw new IllegalStateException("Data key " + keyId + " not found");
+        }
+
+        byte[] input = Base64.getDecoder().decode(envelope.substring(separatorIndex + 1));
+        if (input.length < NONCE_LENGTH) {
+            throw new IllegalArgumentException("Invalid ciphertext envelope");
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        System.arraycopy(input, 0, nonce, 0, NONCE_LENGTH);
+        GCMBlockCipher cipher = createCipher(false, dataKey, nonce, tableName, id);
+        byte[] output = new byte[cipher.getOutputSize(input.length - NONCE_LENGTH)];
+        try {
+            int length = cipher.processBytes(input, NONCE_LENGTH, input.length - NONCE_LENGTH, output, 0);
+            length += cipher.doFinal(output, length);
+            return new String(output, 0, length, StandardCharsets.UTF_8);
+        } catch (InvalidCipherTextException ex) {
+            throw new IllegalStateException("Failed to decrypt value of table " + tableName, ex);
+        }
+    }
+
+    /**
+     * Removes all cached data keys, e.g. after they have been rotated
+     */
+    public void clearKeys() {
+        dataKeyCache.clear();
+    }
+
+    private GCMBlockCipher createCipher(boolean encrypt, DataKey dataKey, byte[] nonce, String tableName, String id) {
+        byte[] associatedData = (tableName.toLowerCase() + ":" + id).getBytes(StandardCharsets.UTF_8);
+        // the cipher is cheap to create and is not thread-safe, so a new one is used for every value
+        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+        cipher.init(encrypt, new AEADParameters(new KeyParameter(dataKey.getKey()), TAG_LENGTH_BITS, nonce, associatedData));
+        return cipher;
+    }
+}
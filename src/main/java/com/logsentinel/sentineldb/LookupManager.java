@@ -1,10 +1,18 @@
 package com.logsentinel.sentineldb;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
+
+import com.logsentinel.sentineldb.SchemaSnapshot.TableSchema;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
 /**
  * Manages the lookup table. The lookup table has lookup_key=hash(encrypt(plaintext)) and 
  * target_id = the target id for each row in a table that has sensitive data.
@@ -20,54 +28,237 @@ public class LookupManager {
     public static final String SENTINELDB_LOOKUP_COLUMN_SUFFIX = "_sentineldb_lookup";
     
     private ExternalEncryptionService encryptionService;
-    private Connection connection;
-    private TableMetadata tableMetadata;
     
-    public LookupManager(ExternalEncryptionService encryptionService, Connection connection, TableMetadata tableMetadata) { 
+    public LookupManager(ExternalEncryptionService encryptionService) { 
         this.encryptionService = encryptionService;
-        this.connection = connection;
-        this.tableMetadata = tableMetadata;
     }
     
-    public void initLookup() {
+    public void initLookup(Connection connection) {
         try {
             try (Statement stm = connection.createStatement()) {
                 stm.executeQuery("SELECT * FROM sentineldb_lookup LIMIT 1");
             } catch (SQLException ex) {
                 try (Statement createStm = connection.createStatement()) {
                     // table not found, create it
-                    createStm.executeUpdate("CREATE TABLE sentineldb_lookup (lookup_key VARCHAR(44) PRIMARY KEY, target_record_id VARCHAR(36))");
+                    // a lookup key of an analyzed value (e.g. a word) may point to multiple records
+                    createStm.executeUpdate("CREATE TABLE sentineldb_lookup (lookup_key VARCHAR(44) NOT NULL, "
+                            + "target_record_id VARCHAR(36) NOT NULL, PRIMARY KEY (lookup_key, target_record_id))");
                 }
             }
+            migrateLookupKey(connection);
             
+            // only the tables in the search schemas can have searchable columns
             try (Statement stm = connection.createStatement()) {
-                appendLookupColumn(tableMetadata.getTables(), stm);
+                for (TableSchema table : encryptionService.getSchema().getTables()) {
+                    appendLookupColumn(table.getName(), table.getSearchableColumns(), stm);
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
     
-    private void appendLookupColumn(List<String> tables, Statement stm) throws SQLException {
-        for (String table : tables) {
-            List<String> searchableColumns = encryptionService.getSearchableEncryptedColumns(table);
-            if (searchableColumns != null) {
-                for (String column : searchableColumns) {
-                    try {
-                        stm.executeUpdate("ALTER TABLE " + table + " ADD " + column + SENTINELDB_LOOKUP_COLUMN_SUFFIX + " VARCHAR(44)");
-                        stm.executeUpdate("CREATE INDEX " + column + "_sentineldb_lookup_idx ON " + table + " (" + column + SENTINELDB_LOOKUP_COLUMN_SUFFIX + ")");
-                    } catch (SQLException ex) {
-                        // ignore failures to create column and index; it means they already exist
-                    }
+    /**
+     * Replaces the primary key of lookup tables created by earlier versions, which allowed a single record 
+     * per lookup key, with (lookup_key, target_record_id). Fails if that is not possible, as the upserts
+     * of the lookup rows would otherwise silently drop the rows of all but the first record, or fail
+     */
+    private void migrateLookupKey(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String table = metaData.storesUpperCaseIdentifiers() ? "SENTINELDB_LOOKUP" : "sentineldb_lookup";
+        List<String> keyColumns = new ArrayList<>();
+        String keyName = null;
+        try (ResultSet rs = metaData.getPrimaryKeys(connection.getCatalog(), null, table)) {
+            while (rs.next()) {
+                keyColumns.add(rs.getString("COLUMN_NAME"));
+                keyName = rs.getString("PK_NAME");
+            }
+        }
+        if (keyColumns.size() != 1 || !keyColumns.get(0).equalsIgnoreCase("lookup_key")) {
+            return;
+        }
+        
+        DatabaseType dbType = DatabaseType.findByName(metaData.getDatabaseProductName());
+        try (Statement stm = connection.createStatement()) {
+            // rows without a record can't be part of the key, and are of no use anyway
+            stm.executeUpdate("DELETE FROM sentineldb_lookup WHERE target_record_id IS NULL");
+            stm.executeUpdate("ALTER TABLE sentineldb_lookup " + getNotNullRecordIdClause(dbType));
+            if (dbType == DatabaseType.MYSQL || dbType == DatabaseType.MARIADB || keyName == null) {
+                stm.executeUpdate("ALTER TABLE sentineldb_lookup DROP PRIMARY KEY");
+            } else {
+                stm.executeUpdate("ALTER TABLE sentineldb_lookup DROP CONSTRAINT " + keyName);
+            }
+            stm.executeUpdate("ALTER TABLE sentineldb_lookup ADD PRIMARY KEY (lookup_key, target_record_id)");
+        } catch (SQLException ex) {
+            throw new IllegalStateException("The primary key of sentineldb_lookup must be changed to "
+                    + "(lookup_key, target_record_id), as lookup keys may point to multiple records", ex);
+        }
+    }
+    
+    private static String getNotNullRecordIdClause(DatabaseType dbType) {
+        if (dbType == null) {
+            return "ALTER COLUMN target_record_id SET NOT NULL";
+        }
+        switch (dbType) {
+        case MYSQL:
+        case MARIADB:
+            return "MODIFY target_record_id VARCHAR(36) NOT NULL";
+        case ORACLE:
+            return "MODIFY target_record_id NOT NULL";
+        case MS_SQL_SERVER:
+            return "ALTER COLUMN target_record_id VARCHAR(36) NOT NULL";
+        default:
+            return "ALTER COLUMN target_record_id SET NOT NULL";
+        }
+    }
+    
+    /**
+     * Adds the missing lookup columns (and their indexes) of the searchable columns of a table, e.g. after the table 
+     * is created or the column becomes searchable
+     * 
+     * @return whether any lookup column was added
+     */
+    public boolean provisionLookup(TableDefinition table, Connection connection) {
+        List<String> missingColumns = new ArrayList<>();
+        for (String column : encryptionService.getSearchableEncryptedColumns(table.getName())) {
+            String lookupColumn = column + SENTINELDB_LOOKUP_COLUMN_SUFFIX;
+            if (table.getColumns().stream().noneMatch(lookupColumn::equalsIgnoreCase)) {
+                missingColumns.add(column);
+            }
+        }
+        if (missingColumns.isEmpty()) {
+            return false;
+        }
+        try (Statement stm = connection.createStatement()) {
+            appendLookupColumn(table.getName(), missingColumns, stm);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+    
+    private void appendLookupColumn(String table, List<String> searchableColumns, Statement stm) {
+        for (String column : searchableColumns) {
+            try {
+                stm.executeUpdate("ALTER TABLE " + table + " ADD " + column + SENTINELDB_LOOKUP_COLUMN_SUFFIX + " VARCHAR(44)");
+                stm.executeUpdate("CREATE INDEX " + column + "_sentineldb_lookup_idx ON " + table + " (" + column + SENTINELDB_LOOKUP_COLUMN_SUFFIX + ")");
+            } catch (SQLException ex) {
+                // ignore failures to create column and index; it means they already exist
+            }
+        }
+    }
+
+    /**
+     * Appends the lookup columns to the column list of an INSERT query, and the given values to each of its rows.
+     * If there is no column list, only the values are appended. The query is scanned rather than parsed and printed, 
+     * so that it is passed to the database as it was written
+     * 
+     * @param rowValues the SQL expressions to append to each row, e.g. parameters or quoted lookup keys
+     * @return the modified query, or the query as it is if its rows do not match the given values
+     */
+    public static String appendLookupColumns(String query, List<String> lookupColumns, List<List<String>> rowValues) {
+        int valuesIndex = indexOfValues(query);
+        if (valuesIndex == -1) {
+            return query;
+        }
+        
+        // the positions of the closing brackets of the rows
+        List<Integer> rowEnds = new ArrayList<>();
+        int depth = 0;
+        for (int i = valuesIndex + "VALUES".length(); i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(query, i);
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    rowEnds.add(i);
+                }
+            } else if (depth == 0 && c != ',' && !Character.isWhitespace(c)) {
+                // the end of the rows, e.g. ON DUPLICATE KEY UPDATE
+                break;
+            }
+        }
+        if (rowEnds.size() != rowValues.size()) {
+            return query;
+        }
+        
+        StringBuilder result = new StringBuilder(query.length() + rowEnds.size() * lookupColumns.size() * 8);
+        int columnListEnd = query.lastIndexOf(')', valuesIndex);
+        int position = 0;
+        if (columnListEnd != -1 && StringUtils.isBlank(query.substring(columnListEnd + 1, valuesIndex))) {
+            result.append(query, 0, columnListEnd);
+            for (String column : lookupColumns) {
+                result.append(',').append(column).append(SENTINELDB_LOOKUP_COLUMN_SUFFIX);
+            }
+            position = columnListEnd;
+        }
+        for (int i = 0; i < rowEnds.size(); i++) {
+            result.append(query, position, rowEnds.get(i));
+            for (String value : rowValues.get(i)) {
+                result.append(',').append(value);
+            }
+            position = rowEnds.get(i);
+        }
+        result.append(query, position, query.length());
+        return result.toString();
+    }
+    
+    /**
+     * @return the index of the VALUES keyword of an INSERT query, outside of quoted identifiers and strings
+     */
+    private static int indexOfValues(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(query, i);
+            } else if (query.regionMatches(true, i, "VALUES", 0, "VALUES".length()) 
+                    && (i == 0 || !isIdentifierPart(query.charAt(i - 1)))
+                    && (i + "VALUES".length() == query.length() || !isIdentifierPart(query.charAt(i + "VALUES".length())))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+    
+    /**
+     * @return the index of the closing quote of the string or identifier starting at the given index. 
+     * Quotes are escaped by doubling them
+     */
+    private static int skipQuoted(String query, int start) {
+        char quote = query.charAt(start);
+        for (int i = start + 1; i < query.length(); i++) {
+            if (query.charAt(i) == quote) {
+                if (i + 1 < query.length() && query.charAt(i + 1) == quote) {
+                    i++;
+                } else {
+                    return i;
                 }
             }
         }
+        return query.length();
     }
 
-    public void storeLookup(List<String> lookupKeys, String table, String column, List<Object> ids, Connection connection) throws SQLException {
-        try (Statement stm = connection.createStatement()) {
-            // TODO
-            // insert into lookup table, decartes multiplication (lookupKeys x ids)
+    /**
+     * Stores the lookup keys of an analyzed value for each of the given records. The rows are written by the writer 
+     * of the connection once the statement is executed, together with the rest of the rows of the transaction
+     * 
+     * @param ids the ids of the records, with the ones set as parameters already resolved to their values
+     */
+    public void storeLookup(List<String> lookupKeys, String table, String column, List<Object> ids, LookupWriter writer) {
+        for (Object id : ids) {
+            if (id == null) {
+                continue;
+            }
+            for (String lookupKey : lookupKeys) {
+                writer.add(lookupKey, id.toString());
+            }
         }
     }
 }
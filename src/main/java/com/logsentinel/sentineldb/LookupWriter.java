@@ -0,0 +1,203 @@
+package com.logsentinel.sentineldb;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Writes the rows of the lookup table of a single connection. Rows are staged while a statement is processed,
+ * become pending once the statement is executed successfully, and are written together with all other pending rows
+ * as a single multi-row upsert (or a batch, where there is none) - immediately in auto-commit mode, 
+ * or just before the transaction is committed.
+ * That way a write costs one additional round trip, regardless of the number of lookup keys and records,
+ * and the lookup rows of rolled back transactions are never written.
+ *
+ * As connections are not used concurrently, the writer is not thread-safe.
+ */
+public class LookupWriter {
+
+    // keeps the number of parameters well below the limits of the databases (e.g. 2100 in SQL Server)
+    static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    private final Connection connection;
+    private final List<LookupRow> stagedRows = new ArrayList<>();
+    private final List<LookupRow> pendingRows = new ArrayList<>();
+    private DatabaseType databaseType;
+
+    public LookupWriter(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Discards the rows staged by a previous statement that has failed. To be invoked before a statement is processed
+     */
+    public void startStatement() {
+        stagedRows.clear();
+    }
+
+    public void add(String lookupKey, String targetRecordId) {
+        stagedRows.add(new LookupRow(lookupKey, targetRecordId));
+    }
+
+    /**
+     * Marks the staged rows as pending, as their statement is executed. In auto-commit mode they are written immediately
+     */
+    public void statementExecuted() throws SQLException {
+        if (stagedRows.isEmpty()) {
+            return;
+        }
+        pendingRows.addAll(stagedRows);
+        stagedRows.clear();
+        if (connection.getAutoCommit()) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending rows. To be invoked before the transaction is committed
+     */
+    public void flush() throws SQLException {
+        if (pendingRows.isEmpty()) {
+            return;
+        }
+        // the same lookup key may be stored for the same record multiple times within a transaction
+        List<LookupRow> rows = new ArrayList<>(new LinkedHashSet<>(pendingRows));
+        pendingRows.clear();
+        DatabaseType dbType = getDatabaseType();
+        if (dbType == DatabaseType.MYSQL || dbType == DatabaseType.MARIADB
+                || dbType == DatabaseType.POSTGRESQL || dbType == DatabaseType.H2) {
+            for (int start = 0; start < rows.size(); start += MAX_ROWS_PER_STATEMENT) {
+                List<LookupRow> chunk = rows.subList(start, Math.min(start + MAX_ROWS_PER_STATEMENT, rows.size()));
+                try (PreparedStatement stm = connection.prepareStatement(getUpsertQuery(dbType, chunk.size()))) {
+                    int index = 1;
+                    for (LookupRow row : chunk) {
+                        stm.setString(index++, row.lookupKey);
+                        stm.setString(index++, row.targetRecordId);
+                    }
+                    stm.executeUpdate();
+                }
+            }
+        } else {
+            insertIfAbsent(dbType, rows);
+        }
+    }
+
+    /**
+     * Inserts the rows that don't exist yet. Other databases have no common syntax for multi-row upserts, 
+     * so the rows are sent as a batch. A row that is inserted concurrently by another transaction fails the batch,
+     * in which case the rows are inserted one by one, skipping the duplicates, so that the transaction can still be committed
+     */
+    private void insertIfAbsent(DatabaseType dbType, List<LookupRow> rows) throws SQLException {
+        try (PreparedStatement stm = connection.prepareStatement(getInsertIfAbsentQuery(dbType))) {
+            try {
+                for (LookupRow row : rows) {
+                    setInsertIfAbsentParameters(stm, row);
+                    stm.addBatch();
+                }
+                stm.executeBatch();
+                return;
+            } catch (BatchUpdateException ex) {
+                stm.clearBatch();
+            }
+            for (LookupRow row : rows) {
+                setInsertIfAbsentParameters(stm, row);
+                try {
+                    stm.executeUpdate();
+                } catch (SQLException ex) {
+                    // the row exists, or can't be written at all, but the lookup rows must not fail the transaction
+                    if (!isDuplicateKey(ex)) {
+                        System.err.println("Failed to write lookup row: " + ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void setInsertIfAbsentParameters(PreparedStatement stm, LookupRow row) throws SQLException {
+        stm.setString(1, row.lookupKey);
+        stm.setString(2, row.targetRecordId);
+        stm.setString(3, row.lookupKey);
+        stm.setString(4, row.targetRecordId);
+    }
+
+    // integrity constraint violations have SQL state class 23
+    private static boolean isDuplicateKey(SQLException ex) {
+        return ex.getSQLState() != null && ex.getSQLState().startsWith("23");
+    }
+
+    /**
+     * Discards the staged and pending rows, as their transaction is rolled back
+     */
+    public void discard() {
+        stagedRows.clear();
+        pendingRows.clear();
+    }
+
+    public int getPendingCount() {
+        return pendingRows.size();
+    }
+
+    static String getUpsertQuery(DatabaseType dbType, int rows) {
+        String values = StringUtils.repeat("(?, ?)", ", ", rows);
+        // existing rows are left as they are, as they hold the same key and record
+        switch (dbType) {
+        case H2:
+            return "MERGE INTO sentineldb_lookup (lookup_key, target_record_id) KEY (lookup_key, target_record_id) VALUES " + values;
+        case POSTGRESQL:
+            return "INSERT INTO sentineldb_lookup (lookup_key, target_record_id) VALUES " + values + " ON CONFLICT DO NOTHING";
+        default:
+            return "INSERT INTO sentineldb_lookup (lookup_key, target_record_id) VALUES " + values
+                    + " ON DUPLICATE KEY UPDATE lookup_key=lookup_key";
+        }
+    }
+
+    static String getInsertIfAbsentQuery(DatabaseType dbType) {
+        // some databases can't select without a table
+        String from = "";
+        if (dbType == DatabaseType.ORACLE) {
+            from = " FROM DUAL";
+        } else if (dbType == DatabaseType.DB2) {
+            from = " FROM SYSIBM.SYSDUMMY1";
+        }
+        return "INSERT INTO sentineldb_lookup (lookup_key, target_record_id) SELECT ?, ?" + from 
+                + " WHERE NOT EXISTS (SELECT 1 FROM sentineldb_lookup WHERE lookup_key=? AND target_record_id=?)";
+    }
+
+    private DatabaseType getDatabaseType() throws SQLException {
+        if (databaseType == null) {
+            databaseType = DatabaseType.findByName(connection.getMetaData().getDatabaseProductName());
+        }
+        return databaseType;
+    }
+
+    private static class LookupRow {
+        private final String lookupKey;
+        private final String targetRecordId;
+
+        LookupRow(String lookupKey, String targetRecordId) {
+            this.lookupKey = lookupKey;
+            this.targetRecordId = targetRecordId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LookupRow)) {
+                return false;
+            }
+            LookupRow other = (LookupRow) obj;
+            return lookupKey.equals(other.lookupKey) && targetRecordId.equals(other.targetRecordId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lookupKey, targetRecordId);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.logsentinel.sentineldb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * A concurrent, size-bounded cache with least-recently-used eviction and optional expiry of entries.
+ * The cache is split into segments, each guarded by its own lock, in order to reduce contention
+ * when many connections use it at the same time.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LruCache<K, V> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long ttlMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruCache(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param ttlMillis the time after which entries expire, or 0 if they should not expire
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        int segmentCount = maxSize < SEGMENT_COUNT ? 1 : SEGMENT_COUNT;
+        int segmentSize = Math.max(1, maxSize / segmentCount);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentSize, evictions);
+        }
+    }
+
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value = null;
+        synchronized (segment) {
+            Node<V> node = segment.get(key);
+            if (node != null) {
+                if (node.isExpired()) {
+                    segment.remove(key);
+                } else {
+                    value = node.value;
+                }
+            }
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value from the cache or computes it. The computation happens outside of the lock,
+     * so a value may occasionally be computed more than once by concurrent callers
+     */
+    public V computeIfAbsent(K key, Function<K, V> function) {
+        V value = get(key);
+        if (value == null) {
+            value = function.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        synchronized (segment) {
+            segment.put(key, new Node<>(value, expiresAt));
+        }
+    }
+
+    /**
+     * Puts the value only if the condition holds. The condition is checked under the lock of the key's segment,
+     * so it can't change between the check and a concurrent removal of the entry
+     *
+     * @return whether the value was put
+     */
+    public boolean putIf(K key, V value, BooleanSupplier condition) {
+        Segment<K, V> segment = segmentFor(key);
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        synchronized (segment) {
+            if (!condition.getAsBoolean()) {
+                return false;
+            }
+            segment.put(key, new Node<>(value, expiresAt));
+            return true;
+        }
+    }
+
+    public void remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes the entries that match the given predicate
+     */
+    public void removeIf(BiPredicate<K, V> predicate) {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.entrySet().removeIf(entry -> predicate.test(entry.getKey(), entry.getValue().value));
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % segments.length];
+    }
+
+    private static class Node<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Node(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != Long.MAX_VALUE && System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, Node<V>> {
+        private static final long serialVersionUID = 6120412924384165283L;
+
+        private final int maxSize;
+        private final transient LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Node<V>> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
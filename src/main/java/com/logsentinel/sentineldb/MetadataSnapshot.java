@@ -0,0 +1,186 @@
+package com.logsentinel.sentineldb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.logsentinel.sentineldb.SchemaSnapshot.ColumnSchema;
+import com.logsentinel.sentineldb.SchemaSnapshot.TableSchema;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+/**
+ * The metadata that a driver context needs before serving queries, persisted to a local file, so that
+ * it is available immediately after a restart - the compiled search schemas, the resolved tables, and whether
+ * the lookup columns of the searchable columns are provisioned in the database.
+ *
+ * The snapshot is tagged with a fingerprint of the database schema, so that it can be validated cheaply
+ * (in the background) instead of being rebuilt. The file has a format version and a CRC32 of its content;
+ * files of other versions and corrupted files are ignored.
+ */
+public class MetadataSnapshot {
+
+    private static final int MAGIC = 0x53444d53;
+    static final int FORMAT_VERSION = 1;
+
+    private final String fingerprint;
+    private final SchemaSnapshot schema;
+    private final Collection<TableDefinition> tables;
+    private final boolean lookupProvisioned;
+
+    public MetadataSnapshot(String fingerprint, SchemaSnapshot schema, Collection<TableDefinition> tables,
+            boolean lookupProvisioned) {
+        this.fingerprint = fingerprint;
+        this.schema = schema;
+        this.tables = tables;
+        this.lookupProvisioned = lookupProvisioned;
+    }
+
+    /**
+     * @return the snapshot stored in the file, or null if there is no file or it can't be used
+     */
+    public static MetadataSnapshot read(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            byte[] content = Files.readAllBytes(file);
+            if (content.length < 4) {
+                throw new IOException("Truncated file");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, content.length - 4);
+            if ((int) crc.getValue() != ByteBuffer.wrap(content, content.length - 4, 4).getInt()) {
+                throw new IOException("Checksum mismatch");
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, content.length - 4));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String fingerprint = readNullableString(in);
+            boolean lookupProvisioned = in.readBoolean();
+
+            int schemaTableCount = in.readInt();
+            List<TableSchema> schemaTables = new ArrayList<>(schemaTableCount);
+            for (int i = 0; i < schemaTableCount; i++) {
+                String name = in.readUTF();
+                int columnCount = in.readInt();
+                List<ColumnSchema> columns = new ArrayList<>(columnCount);
+                for (int j = 0; j < columnCount; j++) {
+                    columns.add(new ColumnSchema(in.readUTF(), in.readBoolean(), in.readBoolean()));
+                }
+                schemaTables.add(new TableSchema(name, columns));
+            }
+
+            int tableCount = in.readInt();
+            List<TableDefinition> tables = new ArrayList<>(tableCount);
+            for (int i = 0; i < tableCount; i++) {
+                tables.add(new TableDefinition(in.readUTF(), readStrings(in), readStrings(in)));
+            }
+            return new MetadataSnapshot(fingerprint, SchemaSnapshot.ofTables(schemaTables), tables, lookupProvisioned);
+        } catch (IOException ex) {
+            System.err.println("Ignoring unreadable metadata snapshot " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file that then replaces the file, so that readers never see a partial file
+     */
+    public void write(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeNullableString(out, fingerprint);
+        out.writeBoolean(lookupProvisioned);
+
+        out.writeInt(schema.getTables().size());
+        for (TableSchema table : schema.getTables()) {
+            out.writeUTF(table.getName());
+            out.writeInt(table.getColumns().size());
+            for (ColumnSchema column : table.getColumns()) {
+                out.writeUTF(column.getName());
+                out.writeBoolean(column.isSearchable());
+                out.writeBoolean(column.isAnalyzed());
+            }
+        }
+
+        out.writeInt(tables.size());
+        for (TableDefinition table : tables) {
+            out.writeUTF(table.getName());
+            writeStrings(out, table.getColumns());
+            writeStrings(out, table.getKeyColumns());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tempFile, bytes.toByteArray());
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(in.readUTF());
+        }
+        return result;
+    }
+
+    /**
+     * @return the fingerprint of the database schema the snapshot was taken for, or null if it couldn't be obtained
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public SchemaSnapshot getSchema() {
+        return schema;
+    }
+
+    public Collection<TableDefinition> getTables() {
+        return Collections.unmodifiableCollection(tables);
+    }
+
+    /**
+     * @return whether the lookup columns of the schema of the snapshot have been provisioned
+     */
+    public boolean isLookupProvisioned() {
+        return lookupProvisioned;
+    }
+}
@@ -0,0 +1,296 @@
+package com.logsentinel.sentineldb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.SqlParser.TableColumn;
+
+/**
+ * The handling of each parameter of a prepared statement, compiled once per query so that setting a parameter
+ * is just an array lookup. Plans are immutable and shared between all statements prepared with the same query.
+ */
+public class ParameterPlan {
+
+    public enum StatementKind {
+        SELECT, INSERT, UPDATE, DELETE, OTHER;
+
+        public static StatementKind of(String query) {
+            // matched in place, as this is invoked for every query when metrics are recorded
+            for (StatementKind kind : values()) {
+                if (query.regionMatches(true, 0, kind.name(), 0, kind.name().length())) {
+                    return kind;
+                }
+            }
+            return OTHER;
+        }
+
+        public boolean isModification() {
+            return this == INSERT || this == UPDATE;
+        }
+    }
+
+    public enum ParameterAction {
+        /** the value is passed to the database as-is */
+        PASS_THROUGH,
+        /** the value is encrypted, and its lookup key (if any) is set to the respective lookup column */
+        ENCRYPT,
+        /** the value is in the WHERE clause and is replaced by its lookup key */
+        LOOKUP_KEY
+    }
+
+    private static final int NO_LOOKUP_COLUMN = -1;
+    private static final String PARAMETER = "?";
+
+    private final StatementKind kind;
+    private final int parameterOffset;
+    // all arrays are indexed by the JDBC parameter index, so the zeroth element is unused
+    private final ParameterAction[] actions;
+    private final TableColumn[] columns;
+    private final int[] lookupColumnIndexes;
+    private final int[] targetIndexes;
+    private final boolean[] idParameters;
+    // the row of each parameter of a multi-row INSERT query
+    private final int[] rows;
+
+    private ParameterPlan(StatementKind kind, int parameterOffset, ParameterAction[] actions, TableColumn[] columns,
+            int[] lookupColumnIndexes, int[] targetIndexes, boolean[] idParameters, int[] rows) {
+        this.kind = kind;
+        this.parameterOffset = parameterOffset;
+        this.actions = actions;
+        this.columns = columns;
+        this.lookupColumnIndexes = lookupColumnIndexes;
+        this.targetIndexes = targetIndexes;
+        this.idParameters = idParameters;
+        this.rows = rows;
+    }
+
+    public static ParameterPlan compile(String query, SqlParseResult parseResult, ExternalEncryptionService encryptionService) {
+        StatementKind kind = StatementKind.of(query);
+        if (parseResult == null) {
+            return new ParameterPlan(kind, 0, new ParameterAction[0], new TableColumn[0], new int[0], new int[0], new boolean[0], new int[0]);
+        }
+
+        List<TableColumn> paramColumns = new ArrayList<>();
+        paramColumns.add(null); // add an empty zeroth element
+        List<TableColumn> allColumns = new ArrayList<>();
+        allColumns.addAll(parseResult.getColumns());
+        allColumns.addAll(parseResult.getWhereColumns());
+        for (TableColumn column : allColumns) {
+            if (PARAMETER.equals(column.getValue())) {
+                paramColumns.add(column);
+            }
+        }
+
+        List<String> searchableColumns = getSearchableQueryColumns(kind, parseResult, encryptionService);
+
+        int count = paramColumns.size();
+        ParameterAction[] actions = new ParameterAction[count];
+        int[] lookupColumnIndexes = new int[count];
+        boolean[] idParameters = new boolean[count];
+        Arrays.fill(actions, ParameterAction.PASS_THROUGH);
+        Arrays.fill(lookupColumnIndexes, NO_LOOKUP_COLUMN);
+        for (int i = 1; i < count; i++) {
+            TableColumn column = paramColumns.get(i);
+            // the ids of the modified records are needed for the lookups of analyzed values
+            idParameters[i] = column.isId();
+            // the original query is modified prior to preparing the statement,
+            // and encrypted columns in the WHERE clause are replaced with their lookup counterparts
+            if (!column.getColumName().toLowerCase().endsWith(LookupManager.SENTINELDB_LOOKUP_COLUMN_SUFFIX)
+                    && !encryptionService.isEncrypted(column.getTableName(), column.getColumName())) {
+                continue;
+            }
+            // in case the parameter is in the where clause, set the value to the lookup key
+            // otherwise (e.g. UPDATE table SET x=?), set it to the encrypted value
+            if (column.isWhereClause()) {
+                actions[i] = ParameterAction.LOOKUP_KEY;
+            } else {
+                actions[i] = ParameterAction.ENCRYPT;
+                int searchableIndex = searchableColumns.indexOf(column.getColumName());
+                if (searchableIndex != -1 && kind == StatementKind.UPDATE) {
+                    // UPDATE queries are modified with prepending the lookup columns
+                    lookupColumnIndexes[i] = searchableIndex + 1;
+                }
+            }
+        }
+
+        // we have to offset all parameters in UPDATE queries with the number of prepended lookup columns
+        int parameterOffset = 0;
+        if (kind == StatementKind.UPDATE) {
+            parameterOffset = searchableColumns.size();
+        }
+        int[] targetIndexes = new int[count];
+        for (int i = 1; i < count; i++) {
+            targetIndexes[i] = i + parameterOffset;
+        }
+        if (kind == StatementKind.INSERT && !searchableColumns.isEmpty()) {
+            mapInsertParameters(parseResult, searchableColumns, targetIndexes, lookupColumnIndexes);
+        }
+        int[] rows = new int[count];
+        if (kind == StatementKind.INSERT) {
+            int parameterIndex = 1;
+            List<List<TableColumn>> queryRows = parseResult.getRows();
+            for (int row = 0; row < queryRows.size(); row++) {
+                for (TableColumn column : queryRows.get(row)) {
+                    if (PARAMETER.equals(column.getValue())) {
+                        rows[parameterIndex++] = row;
+                    }
+                }
+            }
+        }
+
+        return new ParameterPlan(kind, parameterOffset, actions, paramColumns.toArray(new TableColumn[count]),
+                lookupColumnIndexes, targetIndexes, idParameters, rows);
+    }
+
+    /**
+     * INSERT queries are modified with appending the lookup columns to each row, so the parameters of each row
+     * are followed by the lookup parameters of the row. Only the searchable columns that are parameters in a row
+     * get a lookup parameter, the rest are set to NULL in the query (see {@link #getLookupParameters(SqlParseResult, List)})
+     */
+    private static void mapInsertParameters(SqlParseResult parseResult, List<String> searchableColumns,
+            int[] targetIndexes, int[] lookupColumnIndexes) {
+        int parameterIndex = 1;
+        int targetIndex = 1;
+        for (List<TableColumn> row : parseResult.getRows()) {
+            int[] lookupParameters = new int[searchableColumns.size()];
+            for (TableColumn column : row) {
+                if (!PARAMETER.equals(column.getValue())) {
+                    continue;
+                }
+                targetIndexes[parameterIndex] = targetIndex++;
+                int searchableIndex = searchableColumns.indexOf(column.getColumName());
+                if (searchableIndex != -1) {
+                    lookupParameters[searchableIndex] = parameterIndex;
+                }
+                parameterIndex++;
+            }
+            for (int lookupParameter : lookupParameters) {
+                if (lookupParameter != 0) {
+                    lookupColumnIndexes[lookupParameter] = targetIndex++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the values of the lookup columns to be appended to each row of a prepared INSERT query, in the order
+     * of the given searchable columns. Parameters get a lookup parameter, and other values get NULL
+     */
+    public static List<List<String>> getLookupParameters(SqlParseResult parseResult, List<String> searchableColumns) {
+        List<List<String>> rowValues = new ArrayList<>(parseResult.getRowCount());
+        for (List<TableColumn> row : parseResult.getRows()) {
+            List<String> values = new ArrayList<>(searchableColumns.size());
+            for (String searchableColumn : searchableColumns) {
+                String value = "NULL";
+                for (TableColumn column : row) {
+                    if (column.getColumName().equals(searchableColumn) && PARAMETER.equals(column.getValue())) {
+                        value = PARAMETER;
+                    }
+                }
+                values.add(value);
+            }
+            rowValues.add(values);
+        }
+        return rowValues;
+    }
+
+    /**
+     * @return the searchable encrypted columns used in the query. For INSERT and UPDATE queries these are the columns
+     * whose lookup columns are added to the query, in the order in which they are added
+     */
+    public static List<String> getSearchableQueryColumns(StatementKind kind, SqlParseResult parseResult,
+            ExternalEncryptionService encryptionService) {
+        List<String> searchableColumns = new ArrayList<>();
+        // for INSERT and UPDATE queries we need to preserve the order of the columns
+        if (kind.isModification()) {
+            Set<String> queryColumnNames = parseResult.getColumns().stream().map(TableColumn::getColumName)
+                    .collect(Collectors.toSet());
+            for (String column : encryptionService.getSearchableEncryptedColumns(parseResult.getMainTable())) {
+                if (queryColumnNames.contains(column)) {
+                    searchableColumns.add(column);
+                }
+            }
+        } else {
+            for (TableColumn column : parseResult.getColumns()) {
+                if (encryptionService.getSearchableEncryptedColumns(column.getTableName()).contains(column.getColumName())) {
+                    searchableColumns.add(column.getColumName());
+                }
+            }
+        }
+        return searchableColumns;
+    }
+
+    public StatementKind getKind() {
+        return kind;
+    }
+
+    public int getParameterOffset() {
+        return parameterOffset;
+    }
+
+    /**
+     * @return the index of the given parameter in the modified query, which has lookup parameters added
+     */
+    public int getTargetIndex(int parameterIndex) {
+        if (parameterIndex < 1 || parameterIndex >= targetIndexes.length) {
+            return parameterIndex + parameterOffset;
+        }
+        return targetIndexes[parameterIndex];
+    }
+
+    public ParameterAction getAction(int parameterIndex) {
+        if (parameterIndex < 1 || parameterIndex >= actions.length) {
+            return ParameterAction.PASS_THROUGH;
+        }
+        return actions[parameterIndex];
+    }
+
+    public TableColumn getColumn(int parameterIndex) {
+        return columns[parameterIndex];
+    }
+
+    /**
+     * @return the index of the parameter of the lookup column corresponding to the given parameter, or -1 if there is none
+     */
+    public int getLookupColumnIndex(int parameterIndex) {
+        return lookupColumnIndexes[parameterIndex];
+    }
+
+    public boolean hasLookupColumn(int parameterIndex) {
+        return lookupColumnIndexes[parameterIndex] != NO_LOOKUP_COLUMN;
+    }
+
+    /**
+     * @return whether the parameter is the id of the modified records, compared in the WHERE clause,
+     * or the id of the record inserted by its row
+     */
+    public boolean isIdParameter(int parameterIndex) {
+        return parameterIndex >= 1 && parameterIndex < idParameters.length && idParameters[parameterIndex];
+    }
+
+    /**
+     * @return the row of the given parameter in an INSERT query, which is 0 for all parameters of other queries
+     */
+    public int getRow(int parameterIndex) {
+        if (parameterIndex < 1 || parameterIndex >= rows.length) {
+            return 0;
+        }
+        return rows[parameterIndex];
+    }
+
+    /**
+     * @return whether any of the parameters is encrypted, in which case the values are encrypted on execution
+     */
+    public boolean hasEncryptedParameters() {
+        for (ParameterAction action : actions) {
+            if (action == ParameterAction.ENCRYPT) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,234 @@
+package com.logsentinel.sentineldb;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.logsentinel.sentineldb.events.SentinelDBCallEvent;
+import com.logsentinel.sentineldb.model.SearchSchema;
+
+/**
+ * Keeps the search schemas of a datastore up to date. There is a single refresher per datastore (and credentials)
+ * in the JVM, shared by the encryption services of all driver contexts that use the datastore, so the schemas are
+ * polled once regardless of the number of contexts. A refresh can also be triggered on demand, e.g. right after
+ * a column has been made searchable, instead of waiting for the next poll.
+ *
+ * Subscribers are notified only when the compiled schema actually changes.
+ *
+ * Refreshers are reference-counted - every encryption service acquires the refresher when initialized and releases it
+ * when shut down. When the last service is shut down, polling stops and the refresher is removed.
+ */
+public class SchemaRefresher {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ConcurrentMap<Key, SchemaRefresher> refreshers = new ConcurrentHashMap<>();
+
+    private final Key key;
+    private final Supplier<Collection<SearchSchema>> source;
+    private final List<Consumer<SchemaSnapshot>> subscribers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sentineldb-schema-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // null until the schemas are first loaded
+    private volatile SchemaSnapshot schema;
+
+    // guarded by this
+    private ScheduledFuture<?> poll;
+    private long intervalMillis;
+
+    // guarded by the refreshers map, as it is only modified within compute functions
+    private int references;
+
+    /**
+     * @param source lists the search schemas of the datastore
+     */
+    SchemaRefresher(Key key, Supplier<Collection<SearchSchema>> source) {
+        this.key = key;
+        this.source = source;
+    }
+
+    /**
+     * Creates a refresher that lists the schemas with a client of its own. The refresher outlives the service that
+     * creates it if other services use it, so it must not use that service's client
+     */
+    static SchemaRefresher create(Key key, String secret) {
+        SentinelDBClient client = ExternalEncryptionService.buildClient(key.organizationId, secret);
+        return new SchemaRefresher(key, () -> ExternalEncryptionService.callSentinelDB(SentinelDBCallEvent.LIST_SEARCH_SCHEMAS, 
+                null, null, null, () -> client.getSchemaActions().listSearchSchemas()));
+    }
+
+    /**
+     * Gets the existing refresher for the given key or creates a new one using the supplied factory
+     */
+    public static SchemaRefresher acquire(Key key, Supplier<SchemaRefresher> factory) {
+        return refreshers.compute(key, (k, existing) -> {
+            SchemaRefresher refresher = existing != null ? existing : factory.get();
+            refresher.references++;
+            return refresher;
+        });
+    }
+
+    /**
+     * Releases the refresher. If this was the last service using it, polling stops
+     */
+    public void release() {
+        refreshers.computeIfPresent(key, (k, refresher) -> {
+            if (--refresher.references > 0) {
+                return refresher;
+            }
+            refresher.scheduler.shutdownNow();
+            return null;
+        });
+    }
+
+    /**
+     * Refreshes the schemas of the given datastore immediately, in all refreshers that use it (i.e. for all credentials),
+     * e.g. when notified that the search schemas have been modified
+     *
+     * @return whether the schemas have changed
+     */
+    public static boolean refreshDatastore(UUID datastoreId) {
+        boolean changed = false;
+        for (SchemaRefresher refresher : refreshers.values()) {
+            if (refresher.key.datastoreId.equals(datastoreId)) {
+                changed |= refresher.refresh();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Subscribes to schema changes. If the schemas are already loaded, the subscriber is first invoked with the current schema.
+     * Refreshes are serialized with subscribing, so a subscriber never misses a change nor gets an outdated schema last
+     */
+    public synchronized void subscribe(Consumer<SchemaSnapshot> subscriber) {
+        subscribers.add(subscriber);
+        if (schema != null) {
+            subscriber.accept(schema);
+        }
+    }
+
+    public void unsubscribe(Consumer<SchemaSnapshot> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Lists the schemas and, if they have changed, publishes them to the subscribers.
+     * The client has no conditional listing, so the listed schemas are compared to the current ones after compiling them
+     *
+     * @return whether the schemas have changed
+     */
+    public synchronized boolean refresh() {
+        SchemaSnapshot refreshed = SchemaSnapshot.of(source.get());
+        if (refreshed.equals(schema)) {
+            return false;
+        }
+        schema = refreshed;
+        subscribers.forEach(subscriber -> subscriber.accept(refreshed));
+        return true;
+    }
+
+    /**
+     * Refreshes the schemas in the background, without waiting for the next poll
+     */
+    public void refreshAsync() {
+        try {
+            scheduler.execute(this::refreshQuietly);
+        } catch (RejectedExecutionException ex) {
+            // the refresher has been released
+        }
+    }
+
+    /**
+     * Starts polling for schema changes. The schemas are polled at the shortest interval requested by the services using the refresher
+     */
+    public synchronized void schedule(long intervalMillis) {
+        if (poll != null && this.intervalMillis <= intervalMillis) {
+            return;
+        }
+        if (poll != null) {
+            poll.cancel(false);
+        }
+        this.intervalMillis = intervalMillis;
+        try {
+            poll = scheduler.scheduleWithFixedDelay(this::refreshQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // the refresher has been released
+        }
+    }
+
+    private void refreshQuietly() {
+        // a failed refresh must not cancel the following polls
+        try {
+            refresh();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the current schema, or null if the schemas have not been loaded yet
+     */
+    public SchemaSnapshot getSchema() {
+        return schema;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    static int getRefresherCount() {
+        return refreshers.size();
+    }
+
+    /**
+     * Identifies a refresher. Secrets are only kept as hashes
+     */
+    public static class Key {
+        private final UUID datastoreId;
+        private final String organizationId;
+        private final String secretHash;
+
+        public Key(UUID datastoreId, String organizationId, String secret) {
+            this.datastoreId = datastoreId;
+            this.organizationId = organizationId;
+            this.secretHash = secret != null ? DigestUtils.sha256Hex(secret) : null;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(datastoreId, organizationId, secretHash);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(datastoreId, other.datastoreId)
+                    && Objects.equals(organizationId, other.organizationId)
+                    && Objects.equals(secretHash, other.secretHash);
+        }
+    }
+}
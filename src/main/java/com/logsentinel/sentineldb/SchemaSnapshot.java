@@ -0,0 +1,277 @@
+package com.logsentinel.sentineldb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.logsentinel.sentineldb.model.SearchSchema;
+import com.logsentinel.sentineldb.model.SearchSchemaField;
+
+/**
+ * The search schemas of a datastore, compiled into table and column descriptors with precomputed flags.
+ * Snapshots are immutable, so a refreshed schema is published by replacing the snapshot as a whole and queries
+ * never see a partially loaded schema.
+ *
+ * Tables are matched case-insensitively, and columns exactly, as they are named in the schema.
+ */
+public class SchemaSnapshot {
+
+    public static final SchemaSnapshot EMPTY = new SchemaSnapshot(Collections.emptyMap());
+
+    private final Map<String, TableSchema> tables;
+    // table names are looked up as they are written in queries, so they are matched without lower-casing them on each lookup
+    private final Map<String, TableSchema> tablesIgnoringCase = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    // the table names that are valid unquoted identifiers are matched against the identifiers in queries,
+    // and the rest (if any) against the whole query text
+    private final Set<String> identifierTableNames = new HashSet<>();
+    private final List<String> otherTableNames = new ArrayList<>();
+    private final int maxTableNameLength;
+
+    private SchemaSnapshot(Map<String, TableSchema> tables) {
+        this.tables = tables;
+        this.tablesIgnoringCase.putAll(tables);
+        int maxLength = 0;
+        for (String name : tables.keySet()) {
+            if (name.chars().allMatch(c -> isIdentifierPart((char) c))) {
+                identifierTableNames.add(name);
+                maxLength = Math.max(maxLength, name.length());
+            } else {
+                otherTableNames.add(name);
+            }
+        }
+        this.maxTableNameLength = maxLength;
+    }
+
+    /**
+     * Compiles the given schemas. Schemas without fields are skipped, as their tables have no sensitive data
+     */
+    public static SchemaSnapshot of(Collection<SearchSchema> schemas) {
+        Map<String, TableSchema> tables = new HashMap<>();
+        for (SearchSchema schema : schemas) {
+            if (schema.getFields() == null || schema.getFields().isEmpty()) {
+                continue;
+            }
+            List<ColumnSchema> columns = new ArrayList<>();
+            for (SearchSchemaField field : schema.getFields()) {
+                columns.add(new ColumnSchema(field.getName(), field.isIndexed(), field.isIndexed() && field.isAnalyzed()));
+            }
+            String name = schema.getRecordType().toLowerCase();
+            tables.put(name, new TableSchema(name, columns));
+        }
+        return new SchemaSnapshot(Collections.unmodifiableMap(tables));
+    }
+
+    /**
+     * Creates a snapshot of already compiled tables, e.g. as persisted in a {@link MetadataSnapshot}
+     */
+    public static SchemaSnapshot ofTables(Collection<TableSchema> tableSchemas) {
+        Map<String, TableSchema> tables = new HashMap<>();
+        for (TableSchema table : tableSchemas) {
+            tables.put(table.getName(), table);
+        }
+        return new SchemaSnapshot(Collections.unmodifiableMap(tables));
+    }
+
+    /**
+     * @return the descriptor of the table, or {@link TableSchema#NONE} if the table has no sensitive data
+     */
+    public TableSchema getTable(String table) {
+        if (table == null) {
+            return TableSchema.NONE;
+        }
+        return tablesIgnoringCase.getOrDefault(table, TableSchema.NONE);
+    }
+
+    public ColumnSchema getColumn(String table, String column) {
+        return getTable(table).getColumn(column);
+    }
+
+    public Collection<TableSchema> getTables() {
+        return tables.values();
+    }
+
+    /**
+     * Tells whether a query may reference a table with sensitive data, without parsing it. The identifiers of the query
+     * are matched against the table names in a single pass. Columns, aliases or literals named like a table give
+     * false positives, but a query that references a table (quoted or qualified with a schema) is never missed
+     */
+    public boolean mayReferenceSensitiveTable(String query) {
+        if (tables.isEmpty() || query == null) {
+            return false;
+        }
+        for (String name : otherTableNames) {
+            if (StringUtils.containsIgnoreCase(query, name)) {
+                return true;
+            }
+        }
+        int length = query.length();
+        int identifierStart = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && isIdentifierPart(query.charAt(i))) {
+                if (identifierStart == -1) {
+                    identifierStart = i;
+                }
+            } else if (identifierStart != -1) {
+                // longer identifiers can't be table names, so they are not even lower-cased
+                if (i - identifierStart <= maxTableNameLength 
+                        && identifierTableNames.contains(query.substring(identifierStart, i).toLowerCase())) {
+                    return true;
+                }
+                identifierStart = -1;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SchemaSnapshot && tables.equals(((SchemaSnapshot) obj).tables);
+    }
+
+    @Override
+    public int hashCode() {
+        return tables.hashCode();
+    }
+
+    public static class TableSchema {
+        /** the descriptor of all tables without sensitive data */
+        public static final TableSchema NONE = new TableSchema(null, Collections.emptyList());
+
+        private final String name;
+        private final Map<String, ColumnSchema> columns;
+        private final List<String> searchableColumns;
+
+        /**
+         * @param name the lower-case name of the table
+         * @param columns the encrypted columns, in the order of the schema
+         */
+        public TableSchema(String name, List<ColumnSchema> columns) {
+            this.name = name;
+            Map<String, ColumnSchema> columnsByName = new LinkedHashMap<>();
+            List<String> searchableColumns = new ArrayList<>();
+            for (ColumnSchema column : columns) {
+                columnsByName.put(column.getName(), column);
+                // analyzed columns have multiple lookup keys, which are stored in the lookup table rather than a lookup column
+                if (column.isSearchable() && !column.isAnalyzed()) {
+                    searchableColumns.add(column.getName());
+                }
+            }
+            this.columns = Collections.unmodifiableMap(columnsByName);
+            this.searchableColumns = Collections.unmodifiableList(searchableColumns);
+        }
+
+        /**
+         * @return the lower-case name of the table, or null for {@link #NONE}
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the encrypted columns, in the order of the schema
+         */
+        public Collection<ColumnSchema> getColumns() {
+            return columns.values();
+        }
+
+        /**
+         * @return the descriptor of the column, or {@link ColumnSchema#NONE} if the column is not encrypted
+         */
+        public ColumnSchema getColumn(String column) {
+            ColumnSchema result = column != null ? columns.get(column) : null;
+            return result != null ? result : ColumnSchema.NONE;
+        }
+
+        public boolean hasSensitiveData() {
+            return this != NONE;
+        }
+
+        /**
+         * @return the columns that are searched by exact match through their lookup columns, in the order of the schema
+         */
+        public List<String> getSearchableColumns() {
+            return searchableColumns;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TableSchema)) {
+                return false;
+            }
+            TableSchema other = (TableSchema) obj;
+            return Objects.equals(name, other.name) && columns.equals(other.columns)
+                    && searchableColumns.equals(other.searchableColumns);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, columns);
+        }
+    }
+
+    public static class ColumnSchema {
+        /** the descriptor of all columns that are not encrypted */
+        public static final ColumnSchema NONE = new ColumnSchema(null, false, false);
+
+        private final String name;
+        private final boolean searchable;
+        private final boolean analyzed;
+
+        public ColumnSchema(String name, boolean searchable, boolean analyzed) {
+            this.name = name;
+            this.searchable = searchable;
+            this.analyzed = analyzed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isEncrypted() {
+            return this != NONE;
+        }
+
+        /**
+         * @return whether the column is indexed, i.e. has lookup keys
+         */
+        public boolean isSearchable() {
+            return searchable;
+        }
+
+        /**
+         * @return whether the column is indexed by multiple lookup keys (e.g. per word) that are calculated by SentinelDB
+         */
+        public boolean isAnalyzed() {
+            return analyzed;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ColumnSchema)) {
+                return false;
+            }
+            ColumnSchema other = (ColumnSchema) obj;
+            return Objects.equals(name, other.name) && searchable == other.searchable && analyzed == other.analyzed;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, searchable, analyzed);
+        }
+    }
+}
@@ -1,17 +1,14 @@
 package com.logsentinel.sentineldb;
 
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
-import java.sql.Statement;
 import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -19,12 +16,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.ArrayUtils;
 
-import com.logsentinel.sentineldb.proxies.ConnectionInvocationHandler;
+import com.logsentinel.sentineldb.proxies.SentinelDBConnection;
 
 /**
  * A driver proxy that gets registered by simply adding the sentineldb: prefix in the connection string, e.g.:
@@ -47,11 +45,47 @@ public class SentinelDBDriver implements Driver {
     private static final String TRAILS_SECRET = "trailsSecret";
     private static final String TRAILS_ORGANIZATION_ID = "trailsOrganizationId";
     private static final String TRAILS_URL = "trailsUrl";
+    private static final String SQL_CACHE_SIZE = "sqlCacheSize";
+    private static final String DECRYPTION_WINDOW_SIZE = "decryptionWindowSize";
+    private static final String DECRYPTION_CACHE_BYTES = "decryptionCacheBytes";
+    private static final String DECRYPTION_CACHE_TTL_SECONDS = "decryptionCacheTtlSeconds";
+    private static final String LOOKUP_CACHE_SIZE = "lookupCacheSize";
+    private static final String LOOKUP_CACHE_TTL_SECONDS = "lookupCacheTtlSeconds";
+    private static final String LOOKUP_CACHE_HASH_KEYS = "lookupCacheHashKeys";
+    private static final String ENCRYPTION_MODE = "encryptionMode";
+    private static final String DATA_KEY_PROVIDER = "dataKeyProvider";
+    private static final String DATA_KEY_TTL_SECONDS = "dataKeyTtlSeconds";
+    private static final String LOOKUP_MODE = "lookupMode";
+    private static final String LOCAL_MODE = "local";
+    private static final String AUDIT_QUEUE_CAPACITY = "auditQueueCapacity";
+    private static final String AUDIT_BATCH_SIZE = "auditBatchSize";
+    private static final String AUDIT_BATCH_INTERVAL_MILLIS = "auditBatchIntervalMillis";
+    private static final String AUDIT_OVERFLOW_POLICY = "auditOverflowPolicy";
+    private static final String AUDIT_SPILL_DIRECTORY = "auditSpillDirectory";
+    private static final String AUDIT_SPOOL_DIRECTORY = "auditSpoolDirectory";
+    private static final String AUDIT_SPOOL_SEGMENT_BYTES = "auditSpoolSegmentBytes";
+    private static final String AUDIT_SPOOL_MAX_BYTES = "auditSpoolMaxBytes";
+    private static final String METRICS_ENABLED = "metricsEnabled";
+    private static final String METADATA_SNAPSHOT_FILE = "metadataSnapshotFile";
+    private static final String METADATA_FINGERPRINT_QUERY = "metadataFingerprintQuery";
+    private static final String SCHEMA_REFRESH_INTERVAL_SECONDS = "schemaRefreshIntervalSeconds";
+    private static final String BYPASS_NON_SENSITIVE_QUERIES = "bypassNonSensitiveQueries";
     private static final int MAJOR_VERSION = 1;
     private static final int MINOR_VERSION = 0;
     
     private List<String> ALL_PROPERTIES = Arrays.asList(SENTINELDB_ORGANIZATION_ID, SENTINELDB_SECRET, SENTINELDB_DATASTORE_ID, TRAILS_ORGANIZATION_ID, 
-            TRAILS_SECRET, TRAILS_APPLICATION_ID, TRAILS_URL, ACTOR_EXTRACTION_FUNCTION);
+            TRAILS_SECRET, TRAILS_APPLICATION_ID, TRAILS_URL, ACTOR_EXTRACTION_FUNCTION, SQL_CACHE_SIZE, 
+            DECRYPTION_WINDOW_SIZE, DECRYPTION_CACHE_BYTES, DECRYPTION_CACHE_TTL_SECONDS, 
+            LOOKUP_CACHE_SIZE, LOOKUP_CACHE_TTL_SECONDS, LOOKUP_CACHE_HASH_KEYS, 
+            ENCRYPTION_MODE, DATA_KEY_PROVIDER, DATA_KEY_TTL_SECONDS, LOOKUP_MODE, 
+            AUDIT_QUEUE_CAPACITY, AUDIT_BATCH_SIZE, AUDIT_BATCH_INTERVAL_MILLIS, AUDIT_OVERFLOW_POLICY, AUDIT_SPILL_DIRECTORY, 
+            AUDIT_SPOOL_DIRECTORY, AUDIT_SPOOL_SEGMENT_BYTES, AUDIT_SPOOL_MAX_BYTES, METRICS_ENABLED, 
+            METADATA_SNAPSHOT_FILE, METADATA_FINGERPRINT_QUERY, SCHEMA_REFRESH_INTERVAL_SECONDS, 
+            BYPASS_NON_SENSITIVE_QUERIES);
+    
+    // the properties that are part of the context key on their own, the secrets only as hashes
+    private List<String> CREDENTIAL_PROPERTIES = Arrays.asList(SENTINELDB_ORGANIZATION_ID, SENTINELDB_SECRET, SENTINELDB_DATASTORE_ID, 
+            TRAILS_ORGANIZATION_ID, TRAILS_SECRET, TRAILS_APPLICATION_ID, TRAILS_URL, ACTOR_EXTRACTION_FUNCTION);
 
     private static final String CONNECTION_STRING_PREFIX = "sentineldb:"; 
     
@@ -85,45 +119,165 @@ public class SentinelDBDriver implements Driver {
         
         Map<String, String> urlParams = splitParams(url);
         
-        AuditLogService auditLogService = new AuditLogService(getProperty(info, urlParams, TRAILS_ORGANIZATION_ID, false), 
-                getProperty(info, urlParams, TRAILS_SECRET, false), 
-                getProperty(info, urlParams, TRAILS_APPLICATION_ID, false),
-                getProperty(info, urlParams, TRAILS_URL, false),
-                actorExtractionMethod);
-        auditLogService.init();
+        String trailsOrganizationId = getProperty(info, urlParams, TRAILS_ORGANIZATION_ID, false);
+        String trailsSecret = getProperty(info, urlParams, TRAILS_SECRET, false);
+        String trailsApplicationId = getProperty(info, urlParams, TRAILS_APPLICATION_ID, false);
+        String trailsUrl = getProperty(info, urlParams, TRAILS_URL, false);
         
         String sentinelDbOrganizationId = getProperty(info, urlParams, SENTINELDB_ORGANIZATION_ID, true);
         String sentinelDbSecret = getProperty(info, urlParams, SENTINELDB_SECRET, true);
         String sentinelDbDatastoreId = getProperty(info, urlParams, SENTINELDB_DATASTORE_ID, true);
+        String sqlCacheSize = getProperty(info, urlParams, SQL_CACHE_SIZE, false);
+        String decryptionWindowSize = getProperty(info, urlParams, DECRYPTION_WINDOW_SIZE, false);
+        String decryptionCacheBytes = getProperty(info, urlParams, DECRYPTION_CACHE_BYTES, false);
+        String decryptionCacheTtlSeconds = getProperty(info, urlParams, DECRYPTION_CACHE_TTL_SECONDS, false);
+        String lookupCacheSize = getProperty(info, urlParams, LOOKUP_CACHE_SIZE, false);
+        String lookupCacheTtlSeconds = getProperty(info, urlParams, LOOKUP_CACHE_TTL_SECONDS, false);
+        String lookupCacheHashKeys = getProperty(info, urlParams, LOOKUP_CACHE_HASH_KEYS, false);
+        String encryptionMode = getProperty(info, urlParams, ENCRYPTION_MODE, false);
+        String dataKeyProviderFQN = getProperty(info, urlParams, DATA_KEY_PROVIDER, false);
+        String dataKeyTtlSeconds = getProperty(info, urlParams, DATA_KEY_TTL_SECONDS, false);
+        String lookupMode = getProperty(info, urlParams, LOOKUP_MODE, false);
+        String auditQueueCapacity = getProperty(info, urlParams, AUDIT_QUEUE_CAPACITY, false);
+        String auditBatchSize = getProperty(info, urlParams, AUDIT_BATCH_SIZE, false);
+        String auditBatchIntervalMillis = getProperty(info, urlParams, AUDIT_BATCH_INTERVAL_MILLIS, false);
+        String auditOverflowPolicy = getProperty(info, urlParams, AUDIT_OVERFLOW_POLICY, false);
+        String auditSpillDirectory = getProperty(info, urlParams, AUDIT_SPILL_DIRECTORY, false);
+        String auditSpoolDirectory = getProperty(info, urlParams, AUDIT_SPOOL_DIRECTORY, false);
+        String auditSpoolSegmentBytes = getProperty(info, urlParams, AUDIT_SPOOL_SEGMENT_BYTES, false);
+        String auditSpoolMaxBytes = getProperty(info, urlParams, AUDIT_SPOOL_MAX_BYTES, false);
+        String metricsEnabled = getProperty(info, urlParams, METRICS_ENABLED, false);
+        String metadataSnapshotFile = getProperty(info, urlParams, METADATA_SNAPSHOT_FILE, false);
+        String metadataFingerprintQuery = getProperty(info, urlParams, METADATA_FINGERPRINT_QUERY, false);
+        String schemaRefreshIntervalSeconds = getProperty(info, urlParams, SCHEMA_REFRESH_INTERVAL_SECONDS, false);
+        String bypassNonSensitiveQueries = getProperty(info, urlParams, BYPASS_NON_SENSITIVE_QUERIES, false);
         
-        ExternalEncryptionService encryptionService = new ExternalEncryptionService(
-                sentinelDbOrganizationId, sentinelDbSecret,
-                UUID.fromString(sentinelDbDatastoreId));
-        encryptionService.init();
+        boolean encryptLocally = LOCAL_MODE.equalsIgnoreCase(encryptionMode);
+        boolean computeLookupLocally = LOCAL_MODE.equalsIgnoreCase(lookupMode);
+        DataKeyProvider dataKeyProvider = null;
+        if (dataKeyProviderFQN != null && !dataKeyProviderFQN.isEmpty()) {
+            try {
+                dataKeyProvider = (DataKeyProvider) Class.forName(dataKeyProviderFQN).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new RuntimeException(e);
+            }
+        } else if (encryptLocally || computeLookupLocally) {
+            throw new IllegalArgumentException("Property " + DATA_KEY_PROVIDER + " is required for local encryption and lookup");
+        }
         
         delegatedUrl = cleanupParameters(delegatedUrl, urlParams);
         
-        Connection connection = delegatedDriver.connect(delegatedUrl, info);
+        // the services, schemas and metadata are shared between all connections with the same settings
+        Map<String, String> contextSettings = new HashMap<>();
+        for (String property : ALL_PROPERTIES) {
+            String value = getProperty(info, urlParams, property, false);
+            if (value != null && !CREDENTIAL_PROPERTIES.contains(property)) {
+                contextSettings.put(property, value);
+            }
+        }
+        DriverContext.Key contextKey = new DriverContext.Key(delegatedUrl, info.getProperty("user"), info.getProperty("password"), 
+                sentinelDbDatastoreId, sentinelDbOrganizationId, sentinelDbSecret, 
+                trailsOrganizationId, trailsSecret, trailsApplicationId, trailsUrl, actorFunctionFQN, contextSettings);
+        Method actorMethod = actorExtractionMethod;
+        DataKeyProvider keyProvider = dataKeyProvider;
+        String targetUrl = delegatedUrl;
+        DriverContext context = DriverContext.acquire(contextKey, () -> {
+            // metrics are recorded by default, as recording them is cheap
+            DriverMetrics metrics = metricsEnabled == null || Boolean.parseBoolean(metricsEnabled) 
+                    ? new DriverMetrics() : DriverMetrics.disabled();
+            
+            AuditLogService auditLogService = new AuditLogService(trailsOrganizationId, trailsSecret, 
+                    trailsApplicationId, trailsUrl, actorMethod);
+            auditLogService.configurePipeline(
+                    auditQueueCapacity != null ? Integer.parseInt(auditQueueCapacity) : AuditPipeline.DEFAULT_CAPACITY, 
+                    auditBatchSize != null ? Integer.parseInt(auditBatchSize) : AuditPipeline.DEFAULT_BATCH_SIZE, 
+                    auditBatchIntervalMillis != null ? Long.parseLong(auditBatchIntervalMillis) : AuditPipeline.DEFAULT_BATCH_INTERVAL_MILLIS, 
+                    auditOverflowPolicy != null ? AuditOverflowPolicy.fromProperty(auditOverflowPolicy) : AuditPipeline.DEFAULT_OVERFLOW_POLICY, 
+                    auditSpillDirectory != null ? Paths.get(auditSpillDirectory) : null);
+            if (auditSpoolDirectory != null) {
+                auditLogService.configureSpool(Paths.get(auditSpoolDirectory), 
+                        auditSpoolSegmentBytes != null ? Integer.parseInt(auditSpoolSegmentBytes) : AuditSpool.DEFAULT_SEGMENT_BYTES, 
+                        auditSpoolMaxBytes != null ? Long.parseLong(auditSpoolMaxBytes) : AuditSpool.DEFAULT_MAX_BYTES);
+            }
+            auditLogService.setMetrics(metrics);
+            ExternalEncryptionService encryptionService = null;
+            try {
+                auditLogService.init();
+            
+                encryptionService = new ExternalEncryptionService(
+                        sentinelDbOrganizationId, sentinelDbSecret,
+                        UUID.fromString(sentinelDbDatastoreId));
+                if (decryptionWindowSize != null) {
+                    encryptionService.setDecryptionWindowSize(Integer.parseInt(decryptionWindowSize));
+                }
+                // caching decrypted values is opt-in
+                if (decryptionCacheBytes != null) {
+                    long ttlMillis = decryptionCacheTtlSeconds != null ? TimeUnit.SECONDS.toMillis(Long.parseLong(decryptionCacheTtlSeconds)) : 0;
+                    encryptionService.setDecryptedValueCache(new DecryptedValueCache(Integer.parseInt(decryptionCacheBytes), ttlMillis));
+                }
+                if (lookupCacheSize != null || lookupCacheTtlSeconds != null || lookupCacheHashKeys != null) {
+                    encryptionService.configureLookupKeyCache(
+                            lookupCacheSize != null ? Integer.parseInt(lookupCacheSize) : ExternalEncryptionService.DEFAULT_LOOKUP_CACHE_SIZE, 
+                            lookupCacheTtlSeconds != null ? TimeUnit.SECONDS.toMillis(Long.parseLong(lookupCacheTtlSeconds)) 
+                                    : ExternalEncryptionService.DEFAULT_LOOKUP_CACHE_TTL_MILLIS, 
+                            lookupCacheHashKeys == null || Boolean.parseBoolean(lookupCacheHashKeys));
+                }
+                // the data key provider is also used without local encryption in order to read locally encrypted values
+                if (keyProvider != null) {
+                    encryptionService.configureLocalEncryption(keyProvider, 
+                            dataKeyTtlSeconds != null ? TimeUnit.SECONDS.toMillis(Long.parseLong(dataKeyTtlSeconds)) 
+                                    : ExternalEncryptionService.DEFAULT_DATA_KEY_TTL_MILLIS, 
+                            encryptLocally);
+                    if (computeLookupLocally) {
+                        encryptionService.setBlindIndexKeyProvider(keyProvider);
+                    }
+                }
+                encryptionService.setMetrics(metrics);
+                if (schemaRefreshIntervalSeconds != null) {
+                    encryptionService.setSchemaRefreshIntervalMillis(TimeUnit.SECONDS.toMillis(Long.parseLong(schemaRefreshIntervalSeconds)));
+                }
+                if (bypassNonSensitiveQueries != null) {
+                    encryptionService.setBypassNonSensitiveQueries(Boolean.parseBoolean(bypassNonSensitiveQueries));
+                }
+                // the persisted snapshot provides the search schemas and the metadata until they are refreshed in the background
+                MetadataSnapshot snapshot = metadataSnapshotFile != null ? MetadataSnapshot.read(Paths.get(metadataSnapshotFile)) : null;
+                if (snapshot != null) {
+                    encryptionService.setCachedSchema(snapshot.getSchema());
+                }
+                encryptionService.init();
+                DriverContext driverContext = new DriverContext(contextKey, encryptionService, auditLogService, 
+                        sqlCacheSize != null ? Integer.parseInt(sqlCacheSize) : SqlParser.DEFAULT_CACHE_SIZE, metrics);
+                driverContext.setConnectionFactory(() -> delegatedDriver.connect(targetUrl, info));
+                if (metadataSnapshotFile != null) {
+                    driverContext.enableSnapshot(Paths.get(metadataSnapshotFile), snapshot, metadataFingerprintQuery);
+                }
+                return driverContext;
+            } catch (RuntimeException ex) {
+                // the services are not shared yet, so whatever they have started (threads, the spool lock) is stopped
+                if (encryptionService != null) {
+                    encryptionService.shutdown();
+                }
+                auditLogService.shutdown();
+                throw ex;
+            }
+        });
         
-        try (Statement stm = connection.createStatement()) {
-            // TODO periodically reload table data if we assume database changes can happen without an application restart?
-            List<String> tables = listTables(stm);
-            TableMetadata tableMetadata = new TableMetadata();
-            tableMetadata.setTables(tables);
-            tableMetadata.setTableColumns(listTableColumns(tables, stm));
-            tableMetadata.setIdColumns(listIdColumns(tables, stm));
-
-            LookupManager lookupManager = new LookupManager(encryptionService, connection, tableMetadata);
-            lookupManager.initLookup();
+        Connection connection = null;
+        try {
+            connection = delegatedDriver.connect(delegatedUrl, info);
+            context.initMetadata(connection);
             
-            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), 
-                    new Class[] {Connection.class}, 
-                    new ConnectionInvocationHandler(connection, encryptionService, 
-                            auditLogService, new SqlParser(tableMetadata), lookupManager));
+            return new SentinelDBConnection(connection, context);
+        } catch (SQLException | RuntimeException ex) {
+            if (connection != null) {
+                connection.close();
+            }
+            context.release();
+            throw ex;
         }
     }
-
-    private String cleanupParameters(String delegatedUrl, Map<String, String> params) {
+    
+    String cleanupParameters(String delegatedUrl, Map<String, String> params) {
         if (!delegatedUrl.endsWith(";")) {
             delegatedUrl = delegatedUrl + ";";
         }
@@ -133,7 +287,7 @@ public class SentinelDBDriver implements Driver {
             }
         }
         if (delegatedUrl.endsWith(";")) {
-            delegatedUrl = delegatedUrl.substring(0, delegatedUrl.length() - 2);
+            delegatedUrl = delegatedUrl.substring(0, delegatedUrl.length() - 1);
         }
         return delegatedUrl;
         
@@ -154,80 +308,6 @@ public class SentinelDBDriver implements Driver {
         }
     }
 
-    private List<String> listTables(Statement stm) throws SQLException {
-        String database = stm.getConnection().getMetaData().getDatabaseProductName();
-        List<String> result = new ArrayList<>();
-        // if is more readable than switch
-        DatabaseType databaseType = DatabaseType.findByName(database);
-        if (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.MARIADB || databaseType == DatabaseType.H2) {
-            ResultSet rs = stm.executeQuery("SHOW TABLES");
-            while (rs.next()) {
-                result.add(rs.getString(1));
-            }
-        } else if (databaseType == DatabaseType.POSTGRESQL) {
-            ResultSet rs = stm.executeQuery("SELECT table_name FROM information_schema.tables WHERE table_schema = 'public'");
-            while (rs.next()) {
-                result.add(rs.getString(1));
-            }
-        } // TODO
-        return result;
-    }
-    
-    private Map<String, List<String>> listTableColumns(List<String> tables, Statement stm) throws SQLException {
-        String database = stm.getConnection().getMetaData().getDatabaseProductName();
-        DatabaseType databaseType = DatabaseType.findByName(database);
-        Map<String, List<String>> result = new HashMap<>();
-        for (String tableName : tables) {
-            List<String> columns = new ArrayList<>();
-            result.put(tableName, columns);
-            
-            if (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.MARIADB) {
-                ResultSet rs = stm.executeQuery("DESCRIBE " + tableName);
-                while (rs.next()) {
-                    columns.add(rs.getString("Field"));
-                }
-            } else if (databaseType == DatabaseType.POSTGRESQL) {
-                
-            } else if (databaseType == DatabaseType.H2) {
-                ResultSet rs = stm.executeQuery("SHOW COLUMNS FROM " + tableName);
-                while (rs.next()) {
-                    columns.add(rs.getString("FIELD"));
-                }
-                
-            } // TODO
-        }
-        return result;
-    }
-    
-    private Map<String, String> listIdColumns(List<String> tables, Statement sqlStatement) throws SQLException {
-        String database = sqlStatement.getConnection().getMetaData().getDatabaseProductName();
-        DatabaseType databaseType = DatabaseType.findByName(database);
-        Map<String, String> idColumns = new HashMap<>();
-        for (String tableName : tables) {
-            if (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.MARIADB) {
-                ResultSet rs = sqlStatement.executeQuery("DESCRIBE " + tableName);
-                while (rs.next()) {
-                    // TODO composite IDs?
-                    if ("PRI".equals(rs.getString("Key"))) {
-                        idColumns.put(tableName.toLowerCase(), rs.getString("Field"));
-                    }
-                }
-            } else if (databaseType == DatabaseType.POSTGRESQL) {
-                
-            } else if (databaseType == DatabaseType.H2) {
-                ResultSet rs = sqlStatement.executeQuery("SHOW COLUMNS FROM " + tableName);
-                while (rs.next()) {
-                    // TODO composite IDs?
-                    if ("PRI".equals(rs.getString("KEY"))) {
-                        idColumns.put(tableName.toLowerCase(), rs.getString("FIELD"));
-                    }
-                }
-                
-            } // TODO
-        }
-        return idColumns;
-    }
-    
     @Override
     public boolean acceptsURL(String url) throws SQLException {
         if (!url.contains(CONNECTION_STRING_PREFIX)) {
@@ -252,9 +332,41 @@ public class SentinelDBDriver implements Driver {
         DriverPropertyInfo dbOrgIdProperty = new DriverPropertyInfo(SENTINELDB_ORGANIZATION_ID, null);
         DriverPropertyInfo dbSecretProperty = new DriverPropertyInfo(SENTINELDB_SECRET, null);
         DriverPropertyInfo dbDatastoreIdProperty = new DriverPropertyInfo(SENTINELDB_DATASTORE_ID, null);
+        DriverPropertyInfo sqlCacheSizeProperty = new DriverPropertyInfo(SQL_CACHE_SIZE, null);
+        DriverPropertyInfo decryptionWindowSizeProperty = new DriverPropertyInfo(DECRYPTION_WINDOW_SIZE, null);
+        DriverPropertyInfo decryptionCacheBytesProperty = new DriverPropertyInfo(DECRYPTION_CACHE_BYTES, null);
+        DriverPropertyInfo decryptionCacheTtlProperty = new DriverPropertyInfo(DECRYPTION_CACHE_TTL_SECONDS, null);
+        DriverPropertyInfo lookupCacheSizeProperty = new DriverPropertyInfo(LOOKUP_CACHE_SIZE, null);
+        DriverPropertyInfo lookupCacheTtlProperty = new DriverPropertyInfo(LOOKUP_CACHE_TTL_SECONDS, null);
+        DriverPropertyInfo lookupCacheHashKeysProperty = new DriverPropertyInfo(LOOKUP_CACHE_HASH_KEYS, null);
+        DriverPropertyInfo encryptionModeProperty = new DriverPropertyInfo(ENCRYPTION_MODE, null);
+        DriverPropertyInfo dataKeyProviderProperty = new DriverPropertyInfo(DATA_KEY_PROVIDER, null);
+        DriverPropertyInfo dataKeyTtlProperty = new DriverPropertyInfo(DATA_KEY_TTL_SECONDS, null);
+        DriverPropertyInfo lookupModeProperty = new DriverPropertyInfo(LOOKUP_MODE, null);
+        DriverPropertyInfo auditQueueCapacityProperty = new DriverPropertyInfo(AUDIT_QUEUE_CAPACITY, null);
+        DriverPropertyInfo auditBatchSizeProperty = new DriverPropertyInfo(AUDIT_BATCH_SIZE, null);
+        DriverPropertyInfo auditBatchIntervalProperty = new DriverPropertyInfo(AUDIT_BATCH_INTERVAL_MILLIS, null);
+        DriverPropertyInfo auditOverflowPolicyProperty = new DriverPropertyInfo(AUDIT_OVERFLOW_POLICY, null);
+        DriverPropertyInfo auditSpillDirectoryProperty = new DriverPropertyInfo(AUDIT_SPILL_DIRECTORY, null);
+        DriverPropertyInfo auditSpoolDirectoryProperty = new DriverPropertyInfo(AUDIT_SPOOL_DIRECTORY, null);
+        DriverPropertyInfo auditSpoolSegmentBytesProperty = new DriverPropertyInfo(AUDIT_SPOOL_SEGMENT_BYTES, null);
+        DriverPropertyInfo auditSpoolMaxBytesProperty = new DriverPropertyInfo(AUDIT_SPOOL_MAX_BYTES, null);
+        DriverPropertyInfo metricsEnabledProperty = new DriverPropertyInfo(METRICS_ENABLED, null);
+        DriverPropertyInfo metadataSnapshotFileProperty = new DriverPropertyInfo(METADATA_SNAPSHOT_FILE, null);
+        DriverPropertyInfo metadataFingerprintQueryProperty = new DriverPropertyInfo(METADATA_FINGERPRINT_QUERY, null);
+        DriverPropertyInfo schemaRefreshIntervalProperty = new DriverPropertyInfo(SCHEMA_REFRESH_INTERVAL_SECONDS, null);
+        DriverPropertyInfo bypassNonSensitiveQueriesProperty = new DriverPropertyInfo(BYPASS_NON_SENSITIVE_QUERIES, null);
         ArrayUtils.addAll(result, orgIdProperty, orgSecretProperty, appIdProperty, urlProperty, 
                 userExtractionFunctionProperty, 
-                dbOrgIdProperty, dbSecretProperty, dbDatastoreIdProperty);
+                dbOrgIdProperty, dbSecretProperty, dbDatastoreIdProperty, sqlCacheSizeProperty, 
+                decryptionWindowSizeProperty, decryptionCacheBytesProperty, decryptionCacheTtlProperty, 
+                lookupCacheSizeProperty, lookupCacheTtlProperty, lookupCacheHashKeysProperty, 
+                encryptionModeProperty, dataKeyProviderProperty, dataKeyTtlProperty, lookupModeProperty, 
+                auditQueueCapacityProperty, auditBatchSizeProperty, auditBatchIntervalProperty, 
+                auditOverflowPolicyProperty, auditSpillDirectoryProperty, 
+                auditSpoolDirectoryProperty, auditSpoolSegmentBytesProperty, auditSpoolMaxBytesProperty, 
+                metricsEnabledProperty, metadataSnapshotFileProperty, metadataFingerprintQueryProperty, 
+                schemaRefreshIntervalProperty, bypassNonSensitiveQueriesProperty);
         return result;
     }
 
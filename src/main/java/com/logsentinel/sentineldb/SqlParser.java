@@ -9,17 +9,25 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.BinaryExpression;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
 import net.sf.jsqlparser.expression.JdbcParameter;
 import net.sf.jsqlparser.expression.LongValue;
-import net.sf.jsqlparser.expression.NullValue;
 import net.sf.jsqlparser.expression.StringValue;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
@@ -27,11 +35,15 @@ import net.sf.jsqlparser.expression.operators.relational.InExpression;
 import net.sf.jsqlparser.expression.operators.relational.ItemsList;
 import net.sf.jsqlparser.expression.operators.relational.ItemsListVisitorAdapter;
 import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
+import net.sf.jsqlparser.expression.operators.relational.MultiExpressionList;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.alter.Alter;
+import net.sf.jsqlparser.statement.create.table.CreateTable;
 import net.sf.jsqlparser.statement.delete.Delete;
+import net.sf.jsqlparser.statement.drop.Drop;
 import net.sf.jsqlparser.statement.insert.Insert;
 import net.sf.jsqlparser.statement.select.FromItemVisitorAdapter;
 import net.sf.jsqlparser.statement.select.Join;
@@ -46,38 +58,224 @@ import net.sf.jsqlparser.statement.update.Update;
 
 public class SqlParser {
 
-    // TODO change to guava with expiry?
-    private Map<String, String> idColumns = new HashMap<>();
-    private Map<String, List<String>> tableColumns = new HashMap<>();
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+    static final String COMPOSITE_ID_SEPARATOR = ":";
+    private static final Pattern RENAME_TABLE_PATTERN = Pattern.compile("\\s*RENAME\\s+TABLE\\s+(.+?)\\s*;?\\s*", 
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    
+    // the metadata is shared by all connections of a DriverContext, and its tables are resolved 
+    // through the connection of the first parsed query that references them
+    private TableMetadata tableMetadata;
+    
+    // parse results, rewritten queries and parameter plans by query text. ORMs generate a limited number of distinct queries,
+    // so most queries are parsed only once. Queries with literal values are not cached, as they are rarely repeated
+    // and their values (potentially sensitive) would be kept in memory
+    private LruCache<String, CachedQuery> cache;
+    
+    // incremented on every clear, including the clears of single tables. A query is only cached if no clear has happened
+    // since it started being parsed, so an entry parsed with the previous schema or metadata is never cached after the clear
+    private final AtomicLong generation = new AtomicLong();
+    
+    private DriverMetrics metrics = DriverMetrics.disabled();
     
     public SqlParser(TableMetadata tableMetadata) {
-        this.idColumns = tableMetadata.getIdColumns();
-        this.tableColumns = tableMetadata.getTableColumns();
+        this(tableMetadata, DEFAULT_CACHE_SIZE);
+    }
+    
+    public SqlParser(TableMetadata tableMetadata, int cacheSize) {
+        this.tableMetadata = tableMetadata;
+        this.cache = new LruCache<>(cacheSize);
     }
     
     public SqlParseResult parse(String query, Connection connection) {
-        try (java.sql.Statement sqlStatement = connection.createStatement()) {
+        SqlParseResult result = getCachedQuery(query, connection).getParseResult();
+        if (result == null) {
+            return null;
+        }
+        // cached results are shared, so callers get their own copy
+        result = result.copy();
+        
+        // if no id is found in the where clause of an update, it potentially covers more rows
+        // we have to select all affected rows and get their ids
+        if (result.getIdQuery() != null) {
+            try (java.sql.Statement sqlStatement = connection.createStatement(); 
+                    ResultSet resultSet = sqlStatement.executeQuery(result.getIdQuery())) {
+                int columnCount = resultSet.getMetaData().getColumnCount();
+                while (resultSet.next()) {
+                    if (columnCount == 1) {
+                        result.getIds().add(resultSet.getObject(1));
+                    } else {
+                        // the id of a record with a composite key is the concatenation of its key values
+                        StringJoiner id = new StringJoiner(COMPOSITE_ID_SEPARATOR);
+                        for (int i = 1; i <= columnCount; i++) {
+                            id.add(String.valueOf(resultSet.getObject(i)));
+                        }
+                        result.getIds().add(id.toString());
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the query, as modified to be sent to the database (e.g. with lookup columns added), 
+     * computing it with the supplied function if it is not already cached. 
+     * The rewritten query is cached together with the parse result, so the query has to be parsed first
+     */
+    public String getRewrittenQuery(String query, Function<String, String> rewriteFunction) {
+        CachedQuery cachedQuery = cache.get(query);
+        if (cachedQuery == null) {
+            // the query is not cacheable (or no longer cached), and is not parsed again without a connection
+            return rewriteFunction.apply(query);
+        }
+        String rewrittenQuery = cachedQuery.getRewrittenQuery();
+        if (rewrittenQuery == null) {
+            rewrittenQuery = rewriteFunction.apply(query);
+            cachedQuery.setRewrittenQuery(rewrittenQuery);
+        }
+        return rewrittenQuery;
+    }
+    
+    /**
+     * Gets the compiled parameter plan for the given prepared statement query, 
+     * compiling it with the supplied function if it is not already cached.
+     * The plan is cached together with the parse result, so the query has to be parsed first
+     */
+    public ParameterPlan getParameterPlan(String query, Function<String, ParameterPlan> compileFunction) {
+        CachedQuery cachedQuery = cache.get(query);
+        if (cachedQuery == null) {
+            return compileFunction.apply(query);
+        }
+        ParameterPlan parameterPlan = cachedQuery.getParameterPlan();
+        if (parameterPlan == null) {
+            parameterPlan = compileFunction.apply(query);
+            cachedQuery.setParameterPlan(parameterPlan);
+        }
+        return parameterPlan;
+    }
+    
+    /**
+     * Clears all cached queries. To be invoked whenever the table metadata or the search schemas change, 
+     * after the changed schemas are published
+     */
+    public void clearCache() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+    
+    /**
+     * Removes the cached queries that may reference the given table, e.g. after it is altered
+     */
+    public void clearCache(String table) {
+        generation.incrementAndGet();
+        String name = TableMetadata.unquote(table);
+        // matching the query text also covers tables that are only referenced in subqueries or joins
+        cache.removeIf((query, cachedQuery) -> StringUtils.containsIgnoreCase(query, name));
+    }
+    
+    /**
+     * Gets the tables changed by a DDL query, i.e. created, altered, renamed (both names) or dropped
+     * 
+     * @return the changed tables, an empty list if the query changes no table (e.g. CREATE INDEX), 
+     * or null if the query can't be parsed
+     */
+    public static List<String> getDdlTables(String query) {
+        // MySQL's RENAME TABLE old TO new[, old2 TO new2] is not supported by the parser
+        Matcher renameMatcher = RENAME_TABLE_PATTERN.matcher(query);
+        if (renameMatcher.matches()) {
+            List<String> tables = new ArrayList<>();
+            for (String rename : renameMatcher.group(1).split(",")) {
+                for (String table : rename.trim().split("(?i)\\s+TO\\s+")) {
+                    tables.add(table.trim());
+                }
+            }
+            return tables;
+        }
+        try {
             Statement stm = CCJSqlParserUtil.parse(query);
+            if (stm instanceof CreateTable) {
+                return Collections.singletonList(((CreateTable) stm).getTable().getName());
+            } else if (stm instanceof Alter) {
+                return Collections.singletonList(((Alter) stm).getTable().getName());
+            } else if (stm instanceof Drop) {
+                Drop drop = (Drop) stm;
+                return "TABLE".equalsIgnoreCase(drop.getType()) 
+                        ? Collections.singletonList(drop.getName().getName()) : Collections.emptyList();
+            } else {
+                return Collections.emptyList();
+            }
+        } catch (JSQLParserException e) {
+            return null;
+        }
+    }
+    
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+    
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+    
+    public int getCacheSize() {
+        return cache.size();
+    }
+    
+    public void setMetrics(DriverMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * @param connection used to resolve the metadata of the referenced tables
+     */
+    private CachedQuery getCachedQuery(String query, Connection connection) {
+        long currentGeneration = generation.get();
+        CachedQuery cachedQuery = cache.get(query);
+        if (cachedQuery == null) {
+            long start = metrics.start();
+            SqlParseResult result = doParse(query, connection);
+            metrics.record(Phase.PARSE, result != null ? result.getMainTable() : null, StatementKind.of(query), start);
+            cachedQuery = new CachedQuery(result);
+            if (result == null || !result.hasLiteralValues()) {
+                // a clear increments the generation before removing the entries, so an entry put before the removal is removed
+                cache.putIf(query, cachedQuery, () -> generation.get() == currentGeneration);
+            }
+        }
+        return cachedQuery;
+    }
+    
+    private SqlParseResult doParse(String query, Connection connection) {
+        try {
+            Statement stm = CCJSqlParserUtil.parse(query);
+            Function<String, TableDefinition> tables = name -> tableMetadata.getTable(name, connection);
+            Function<String, String> idColumns = name -> {
+                TableDefinition table = tables.apply(name);
+                return table != null ? table.getIdColumn() : null;
+            };
             
             if (stm instanceof Select) {
-                return handleSelect(stm);
+                return handleSelect(stm, idColumns);
             } else if (stm instanceof Insert) {
-                return handleInsert(stm);
+                return handleInsert(stm, tables);
             } else if (stm instanceof Update) {
-                return handleUpdate(stm, sqlStatement);
+                return handleUpdate(stm, tables);
             } else if (stm instanceof Delete) {
-                return handleDelete(stm);
+                return handleDelete(stm, idColumns);
             } else {
                 return null;
             }
-        } catch (JSQLParserException | SQLException e) {
+        } catch (JSQLParserException e) {
             e.printStackTrace();
             return null;
         }
             
     }
 
-    private SqlParseResult handleDelete(Statement stm) {
+    private SqlParseResult handleDelete(Statement stm, Function<String, String> idColumns) {
         Delete delete = (Delete) stm;
         SqlParseResult result = new SqlParseResult();
         result.setMainTable(delete.getTable().getName());
@@ -85,7 +283,7 @@ public class SqlParser {
         return result;
     }
 
-    public SqlParseResult handleSelect(Statement stm) {
+    public SqlParseResult handleSelect(Statement stm, Function<String, String> idColumns) {
         SqlParseResult result = new SqlParseResult();
         Select select = (Select) stm;
         select.getSelectBody().accept(new SelectClauseVisitor(result, idColumns));
@@ -93,7 +291,7 @@ public class SqlParser {
         
     }
 
-    public SqlParseResult handleUpdate(Statement stm, java.sql.Statement sqlStatement) throws SQLException {
+    public SqlParseResult handleUpdate(Statement stm, Function<String, TableDefinition> tables) {
         SqlParseResult result = new SqlParseResult();
         
         Update update = (Update) stm;
@@ -108,6 +306,9 @@ public class SqlParser {
                 values.add(((StringValue) expr).getValue()); 
             } else if (expr instanceof JdbcParameter) {
                 values.add("?");
+            } else {
+                // numbers, functions, etc. are not encrypted, but still need a value to keep the columns aligned
+                values.add(null);
             }
         }
         
@@ -116,69 +317,125 @@ public class SqlParser {
                 .map(c -> new TableColumn(update.getTable().getName(), c.getColumnName(), valuesIterator.next(), false))
                 .collect(Collectors.toList()));
 
-        update.getWhere().accept(new WhereExpressionVisitor(result, Collections.emptyMap(), update.getTable().getName(), idColumns));
+        TableDefinition table = tables.apply(update.getTable().getName());
+        update.getWhere().accept(new WhereExpressionVisitor(result, Collections.emptyMap(), update.getTable().getName(), 
+                name -> table != null && name.equalsIgnoreCase(table.getName()) ? table.getIdColumn() : null));
         // if no id is found in the where clause, this mean the update potentially covers more rows
-        // we have to select all affected rows and get their ids
-        if (result.getIds().isEmpty()) {
+        // the ids of the affected rows are selected with a synthetic query on every execution. 
+        // Ids are only needed for the lookups of the sensitive tables, which are the only resolved ones
+        if (result.getIds().isEmpty() && table != null && !table.getKeyColumns().isEmpty()) {
             // TODO handle prepared statements as well, meaning that setXxx has to be set to the synthetic select statement as well
-            String query = "SELECT " + idColumns.get(update.getTable().getName().toLowerCase()) + " FROM " + update.getTable().getName() + " WHERE " + update.getWhere();
+            String query = "SELECT " + String.join(", ", table.getKeyColumns()) + " FROM " + update.getTable().getName() + " WHERE " + update.getWhere();
             if (query.contains("=?") || query.contains("= ?")) {
                 // TODO handle prepared statements
             } else {
-                ResultSet resultSet = sqlStatement.executeQuery(query);
-                while (resultSet.next()) {
-                    result.getIds().add(resultSet.getObject(1));
-                }
+                result.setIdQuery(query);
             }
         }
         
         return result;
     }
 
-    public SqlParseResult handleInsert(Statement stm) {
+    public SqlParseResult handleInsert(Statement stm, Function<String, TableDefinition> tables) {
         SqlParseResult result = new SqlParseResult();
         
         Insert insert = (Insert) stm;
         result.setMainTable(insert.getTable().getName());
         
+        // tables without sensitive data are not resolved
+        TableDefinition table = tables.apply(insert.getTable().getName());
         List<Column> columns = ((Insert) stm).getColumns();
         if (columns == null || columns.isEmpty()) {
-            // if no columns are specified, fetch from the metadata
-            columns = tableColumns.get(insert.getTable().getName())
+            // if no columns are specified, fetch from the metadata. The values of tables without sensitive data
+            // need no columns, as they are neither encrypted nor looked up
+            columns = table == null ? Collections.emptyList() : table.getColumns()
                     .stream().map(c -> new Column(insert.getTable(), c))
                     .collect(Collectors.toList());
         }
         
+        // a single row is an ExpressionList, while multiple rows (VALUES (..), (..)) are a MultiExpressionList
+        List<ExpressionList> rows = new ArrayList<>();
         ItemsList items = insert.getItemsList();
-        List<String> values = new ArrayList<>();
         items.accept(new ItemsListVisitorAdapter() {
             @Override
             public void visit(ExpressionList expressionList) {
-                List<Expression> expressions = expressionList.getExpressions();
-                for (Expression expr : expressions) {
-                    if (expr instanceof StringValue) {
-                        values.add(((StringValue) expr).getValue()); 
-                    } else if (expr instanceof JdbcParameter) {
-                        // TODO consider adding the number and then extracting it in the PreparedStatement handler, instead of relying on ?
-                        values.add("?");
-                    } else if (expr instanceof NullValue) {
-                        values.add(null);
-                    }
-                }
+                rows.add(expressionList);
+            }
+            
+            @Override
+            public void visit(MultiExpressionList multiExprList) {
+                rows.addAll(multiExprList.getExprList());
             }
         });
         
-        Iterator<String> valuesIterator = values.iterator();
-        result.getColumns().addAll(columns.stream()
-                .map(c -> new TableColumn(insert.getTable().getName(), c.getColumnName(), valuesIterator.next(), false))
-                .collect(Collectors.toList()));
+        // the columns of all rows are added one after another, in the order of their parameters
+        for (ExpressionList row : rows) {
+            List<String> values = new ArrayList<>();
+            for (Expression expr : row.getExpressions()) {
+                if (expr instanceof StringValue) {
+                    values.add(((StringValue) expr).getValue()); 
+                } else if (expr instanceof JdbcParameter) {
+                    // TODO consider adding the number and then extracting it in the PreparedStatement handler, instead of relying on ?
+                    values.add("?");
+                } else {
+                    // NULL, numbers, functions, etc. are not encrypted, but still need a value to keep the columns aligned
+                    values.add(null);
+                }
+            }
+            
+            Iterator<String> valuesIterator = values.iterator();
+            List<TableColumn> rowColumns = columns.stream()
+                    .map(c -> new TableColumn(insert.getTable().getName(), c.getColumnName(), valuesIterator.next(), false))
+                    .collect(Collectors.toList());
+            result.getColumns().addAll(rowColumns);
+            // each row is a record of its own, so there is an id (or null, if it is not known) per row
+            result.getIds().add(getInsertedId(table, row.getExpressions(), rowColumns));
+        }
+        result.setRowCount(Math.max(rows.size(), 1));
         return result;
     }
     
+    /**
+     * @return the id of the record inserted with the given row, "?" if it is set as a parameter, or null if it is 
+     * generated by the database or not a plain value. The id of a record with a composite key is the concatenation 
+     * of its key values, which have to be in the query
+     */
+    private Object getInsertedId(TableDefinition table, List<Expression> expressions, List<TableColumn> rowColumns) {
+        if (table == null || table.getKeyColumns().isEmpty() || expressions.size() != rowColumns.size()) {
+            return null;
+        }
+        StringJoiner compositeId = new StringJoiner(COMPOSITE_ID_SEPARATOR);
+        Object id = null;
+        for (String keyColumn : table.getKeyColumns()) {
+            int index = -1;
+            for (int i = 0; i < rowColumns.size(); i++) {
+                if (rowColumns.get(i).getColumName().equalsIgnoreCase(keyColumn)) {
+                    index = i;
+                }
+            }
+            if (index == -1) {
+                return null;
+            }
+            Expression expr = expressions.get(index);
+            if (expr instanceof StringValue) {
+                id = ((StringValue) expr).getValue();
+            } else if (expr instanceof LongValue) {
+                id = ((LongValue) expr).getValue();
+            } else if (expr instanceof JdbcParameter && table.getKeyColumns().size() == 1) {
+                rowColumns.get(index).setId(true);
+                id = "?";
+            } else {
+                return null;
+            }
+            compositeId.add(String.valueOf(id));
+        }
+        return table.getKeyColumns().size() == 1 ? id : compositeId.toString();
+    }
+    
     public static class SelectClauseVisitor extends SelectVisitorAdapter {
         private SqlParseResult result;
-        private Map<String, String> idColumns;
-        public SelectClauseVisitor(SqlParseResult result, Map<String, String> idColumns) {
+        private Function<String, String> idColumns;
+        public SelectClauseVisitor(SqlParseResult result, Function<String, String> idColumns) {
             this.result = result;
             this.idColumns = idColumns;
         }
@@ -241,8 +498,8 @@ public class SqlParser {
         private SqlParseResult result;
         private Map<String, String> aliases;
         private String tableName;
-        private Map<String, String> idColumns;
-        public WhereExpressionVisitor(SqlParseResult result, Map<String, String> aliases, String tableName, Map<String, String> idColumns) {
+        private Function<String, String> idColumns;
+        public WhereExpressionVisitor(SqlParseResult result, Map<String, String> aliases, String tableName, Function<String, String> idColumns) {
             this.result = result;
             this.aliases = aliases;
             this.tableName = tableName;
@@ -266,7 +523,7 @@ public class SqlParser {
 
         public void visitExpression(BinaryExpression expr) {
             // fetch the ID of the current table
-            fetchIds(expr);
+            boolean id = fetchIds(expr);
 
             // only handle String and prepared statement params for now
             if (expr.getRightExpression() instanceof StringValue || expr.getRightExpression() instanceof JdbcParameter) {
@@ -288,29 +545,37 @@ public class SqlParser {
                     if (aliases.containsKey(currentTableName)) {
                         currentTableName = aliases.get(currentTableName); 
                     }
-                    result.getWhereColumns().add(new TableColumn(currentTableName, columnName, value, true));
+                    TableColumn whereColumn = new TableColumn(currentTableName, columnName, value, true);
+                    whereColumn.setId(id);
+                    result.getWhereColumns().add(whereColumn);
                 }
             }
             // TODO MySQL in standard mode uses " for strings and not for objects as in ANSI_SQL mode, so handle that
         }
 
-        public void fetchIds(BinaryExpression expr) {
-            if (idColumns.containsKey(tableName)) {
-                String idColumnName = idColumns.get(tableName.toLowerCase());
+        /**
+         * @return whether the expression compares the id column of the table
+         */
+        public boolean fetchIds(BinaryExpression expr) {
+            String idColumnName = idColumns.apply(tableName);
+            if (idColumnName != null) {
                 if (expr.getLeftExpression() instanceof Column) {
                     Column column = (Column) expr.getLeftExpression();
                     String columnName = getColumnName(column);
-                    if (columnName.equals(idColumnName)) {
+                    if (columnName.equalsIgnoreCase(idColumnName)) {
                         if (expr.getRightExpression() instanceof StringValue) {
                             result.getIds().add(((StringValue) expr.getRightExpression()).getValue());
                         } else if (expr.getRightExpression() instanceof LongValue) {
                             result.getIds().add(((LongValue) expr.getRightExpression()).getValue());
                         } else if (expr.getRightExpression() instanceof JdbcParameter) {
+                            // the value is only known when the parameter is set
                             result.getIds().add("?");
                         }
+                        return true;
                     }
                 }
             }
+            return false;
         }
 
         public String getColumnName(Column column) {
@@ -327,6 +592,59 @@ public class SqlParser {
         private List<TableColumn> columns = new ArrayList<>();
         private List<TableColumn> whereColumns = new ArrayList<>();
         private List<Object> ids = new ArrayList<>();
+        private String idQuery;
+        // the number of rows of multi-row INSERT queries, whose columns are all in the list of columns
+        private int rowCount = 1;
+        
+        public SqlParseResult copy() {
+            SqlParseResult copy = new SqlParseResult();
+            copy.setMainTable(mainTable);
+            copy.setColumns(new ArrayList<>(columns));
+            copy.setWhereColumns(new ArrayList<>(whereColumns));
+            copy.setIds(new ArrayList<>(ids));
+            copy.setIdQuery(idQuery);
+            copy.setRowCount(rowCount);
+            return copy;
+        }
+        
+        /**
+         * @return whether the query has literal values of the parsed columns or ids, rather than only parameters
+         */
+        public boolean hasLiteralValues() {
+            if (idQuery != null) {
+                return true;
+            }
+            for (Object id : ids) {
+                if (id != null && !"?".equals(id)) {
+                    return true;
+                }
+            }
+            return hasLiteralValues(columns) || hasLiteralValues(whereColumns);
+        }
+        
+        private static boolean hasLiteralValues(List<TableColumn> columns) {
+            for (TableColumn column : columns) {
+                if (column.getValue() != null && !"?".equals(column.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * @return the columns of each row of the query, only more than one for multi-row INSERT queries
+         */
+        public List<List<TableColumn>> getRows() {
+            if (rowCount == 1) {
+                return Collections.singletonList(columns);
+            }
+            List<List<TableColumn>> rows = new ArrayList<>(rowCount);
+            int rowSize = columns.size() / rowCount;
+            for (int i = 0; i < rowCount; i++) {
+                rows.add(columns.subList(i * rowSize, (i + 1) * rowSize));
+            }
+            return rows;
+        }
         
         public List<TableColumn> getColumns() {
             return columns;
@@ -346,12 +664,61 @@ public class SqlParser {
         public void setIds(List<Object> ids) {
             this.ids = ids;
         }
+        /**
+         * @return the id of the record inserted with the given row of an INSERT query, "?" if it is set as a parameter,
+         * or null if it is not known
+         */
+        public Object getInsertedId(int row) {
+            return row < ids.size() ? ids.get(row) : null;
+        }
         public String getMainTable() {
             return mainTable;
         }
         public void setMainTable(String mainTable) {
             this.mainTable = mainTable;
         }
+        public String getIdQuery() {
+            return idQuery;
+        }
+        public void setIdQuery(String idQuery) {
+            this.idQuery = idQuery;
+        }
+        public int getRowCount() {
+            return rowCount;
+        }
+        public void setRowCount(int rowCount) {
+            this.rowCount = rowCount;
+        }
+    }
+    
+    private static class CachedQuery {
+        private final SqlParseResult parseResult;
+        private volatile String rewrittenQuery;
+        private volatile ParameterPlan parameterPlan;
+        
+        CachedQuery(SqlParseResult parseResult) {
+            this.parseResult = parseResult;
+        }
+        
+        SqlParseResult getParseResult() {
+            return parseResult;
+        }
+        
+        String getRewrittenQuery() {
+            return rewrittenQuery;
+        }
+        
+        void setRewrittenQuery(String rewrittenQuery) {
+            this.rewrittenQuery = rewrittenQuery;
+        }
+        
+        ParameterPlan getParameterPlan() {
+            return parameterPlan;
+        }
+        
+        void setParameterPlan(ParameterPlan parameterPlan) {
+            this.parameterPlan = parameterPlan;
+        }
     }
     
     public static class TableColumn {
@@ -359,6 +726,8 @@ public class SqlParser {
         private String tableName;
         private String value;
         private boolean whereClause;
+        // whether the column is the id of the table, compared in the WHERE clause or set by an INSERT
+        private boolean id;
         
         public TableColumn(String tableName, String columName, String value, boolean whereClause) {
             this.tableName = tableName;
@@ -396,6 +765,14 @@ public class SqlParser {
             this.whereClause = whereClause;
         }
 
+        public boolean isId() {
+            return id;
+        }
+
+        public void setId(boolean id) {
+            this.id = id;
+        }
+
         @Override
         public String toString() {
             return "TableColumn [columName=" + columName + ", tableName=" + tableName + ", value=" + value + "]";
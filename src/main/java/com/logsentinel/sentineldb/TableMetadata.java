@@ -1,32 +1,158 @@
 package com.logsentinel.sentineldb;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
 
 /**
- * Holding multiple representations of table metadata
+ * Holds the columns and primary keys of the tables that have sensitive data. Tables are resolved lazily,
+ * the first time they are referenced by a query, so the footprint is proportional to the sensitive tables
+ * rather than to the whole database. Tables without sensitive data are never resolved.
+ *
+ * Table names are matched case-insensitively, ignoring identifier quotes.
  */
 public class TableMetadata {
 
-    private List<String> tables;
-    private Map<String, List<String>> tableColumns;
-    private Map<String, String> idColumns;
-    public List<String> getTables() {
-        return tables;
+    // shared between connections; the case-insensitive ordering avoids lower-casing each looked up name
+    private final ConcurrentMap<String, TableDefinition> tables = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private volatile TableLoader loader;
+    private volatile Predicate<String> sensitiveTables = table -> true;
+
+    /**
+     * @return the metadata of the table if it has already been resolved, or null
+     */
+    public TableDefinition getTable(String name) {
+        return name != null ? tables.get(unquote(name)) : null;
+    }
+
+    /**
+     * @return the metadata of the table, resolving it through the given connection if needed, or null
+     * if the table has no sensitive data, does not exist, or can't be resolved
+     */
+    public TableDefinition getTable(String name, Connection connection) {
+        if (name == null) {
+            return null;
+        }
+        name = unquote(name);
+        TableDefinition table = tables.get(name);
+        if (table != null || connection == null || loader == null || !sensitiveTables.test(name)) {
+            return table;
+        }
+        try {
+            table = loader.load(connection, name);
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+        if (table == null) {
+            return null;
+        }
+        TableDefinition existing = tables.putIfAbsent(name, table);
+        return existing != null ? existing : table;
+    }
+
+    public void putTable(TableDefinition table) {
+        tables.put(table.getName(), table);
+    }
+
+    public Collection<TableDefinition> getTables() {
+        return tables.values();
+    }
+
+    /**
+     * Forgets the table (e.g. after it is altered), so that it is resolved again when next referenced
+     */
+    public void remove(String name) {
+        tables.remove(unquote(name));
+    }
+
+    /**
+     * Forgets all resolved tables, so that they are resolved again when next referenced
+     */
+    public void clear() {
+        tables.clear();
     }
-    public void setTables(List<String> tables) {
-        this.tables = tables;
+
+    public void setLoader(TableLoader loader) {
+        this.loader = loader;
     }
-    public Map<String, List<String>> getTableColumns() {
-        return tableColumns;
+
+    /**
+     * @param sensitiveTables tells whether a table has sensitive data, i.e. has to be resolved
+     */
+    public void setSensitiveTables(Predicate<String> sensitiveTables) {
+        this.sensitiveTables = sensitiveTables;
     }
-    public void setTableColumns(Map<String, List<String>> tableColumns) {
-        this.tableColumns = tableColumns;
+
+    static String unquote(String name) {
+        if (name.length() > 1) {
+            char first = name.charAt(0);
+            if (first == '"' || first == '`' || first == '[') {
+                return name.substring(1, name.length() - 1);
+            }
+        }
+        return name;
     }
-    public Map<String, String> getIdColumns() {
-        return idColumns;
+
+    public interface TableLoader {
+        /**
+         * @return the metadata of the table, or null if it does not exist
+         */
+        TableDefinition load(Connection connection, String table) throws SQLException;
     }
-    public void setIdColumns(Map<String, String> idColumns) {
-        this.idColumns = idColumns;
+
+    /**
+     * The columns and the primary key of a table. Names are interned, as the same column names (e.g. id)
+     * are common to many tables
+     */
+    public static class TableDefinition {
+        private final String name;
+        private final List<String> columns;
+        private final List<String> keyColumns;
+
+        public TableDefinition(String name, List<String> columns, List<String> keyColumns) {
+            this.name = name.intern();
+            this.columns = intern(columns);
+            this.keyColumns = intern(keyColumns);
+        }
+
+        private static List<String> intern(List<String> names) {
+            String[] result = new String[names.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = names.get(i).intern();
+            }
+            return Collections.unmodifiableList(Arrays.asList(result));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the columns in their table order
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * @return the primary key columns in key order, including all columns of composite keys
+         */
+        public List<String> getKeyColumns() {
+            return keyColumns;
+        }
+
+        /**
+         * @return the primary key column, or null if the table has no primary key or a composite one
+         */
+        public String getIdColumn() {
+            return keyColumns.size() == 1 ? keyColumns.get(0) : null;
+        }
     }
 }
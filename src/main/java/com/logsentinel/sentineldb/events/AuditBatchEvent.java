@@ -0,0 +1,26 @@
+package com.logsentinel.sentineldb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The sending of a batch of audit events to Trails by the drainer of the audit pipeline
+ */
+@Name("com.logsentinel.sentineldb.AuditBatch")
+@Label("Audit Batch Flush")
+@Category({ "SentinelDB", "Audit" })
+@Description("Sending of a batch of audit events to Trails")
+@StackTrace(false)
+public class AuditBatchEvent extends Event {
+
+    @Label("Events")
+    public int events;
+
+    @Label("Failed Events")
+    @Description("Events that are to be retried or spilled")
+    public int failedEvents;
+}
@@ -0,0 +1,23 @@
+package com.logsentinel.sentineldb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The reading of a window of result set rows and the decryption of their encrypted cells
+ */
+@Name("com.logsentinel.sentineldb.DecryptionWindow")
+@Label("Decryption Window")
+@Category({ "SentinelDB", "Driver" })
+@Description("Reading ahead a number of result set rows and decrypting their encrypted cells together")
+public class DecryptionWindowEvent extends Event {
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Encrypted Cells")
+    public int cells;
+}
@@ -0,0 +1,79 @@
+package com.logsentinel.sentineldb.events;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.SqlParser.TableColumn;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The processing of a query before it is passed to the target driver - parsing, encryption of literals
+ * and replacement of the searched values by their lookup keys
+ */
+@Name("com.logsentinel.sentineldb.QueryInterception")
+@Label("Query Interception")
+@Category({ "SentinelDB", "Driver" })
+@Description("Parsing and rewriting of a query before it is passed to the target driver")
+@StackTrace(false)
+public class QueryInterceptionEvent extends Event {
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+
+    @Label("SQL Template Id")
+    @Description("Identifies the query with its literals replaced by placeholders")
+    public String sqlTemplateId;
+
+    @Label("SQL Template")
+    @Description("The query with its literals replaced by placeholders, so that it contains no sensitive values")
+    public String sqlTemplate;
+
+    @Label("Statement Kind")
+    public String statementKind;
+
+    @Label("Tables")
+    public String tables;
+
+    @Label("Prepared")
+    public boolean prepared;
+
+    /**
+     * Sets the fields of the event. To be invoked only if the event is to be committed, as it's relatively expensive
+     */
+    public void describe(String query, String kind, SqlParseResult parseResult, boolean prepared) {
+        sqlTemplate = NUMBER_LITERAL.matcher(STRING_LITERAL.matcher(query).replaceAll("?")).replaceAll("?");
+        sqlTemplateId = Integer.toHexString(sqlTemplate.hashCode());
+        statementKind = kind;
+        tables = getTables(parseResult);
+        this.prepared = prepared;
+    }
+
+    private static String getTables(SqlParseResult parseResult) {
+        if (parseResult == null) {
+            return null;
+        }
+        Set<String> tables = new TreeSet<>();
+        if (parseResult.getMainTable() != null) {
+            tables.add(parseResult.getMainTable().toLowerCase());
+        }
+        for (TableColumn column : parseResult.getColumns()) {
+            if (column.getTableName() != null) {
+                tables.add(column.getTableName().toLowerCase());
+            }
+        }
+        for (TableColumn column : parseResult.getWhereColumns()) {
+            if (column.getTableName() != null) {
+                tables.add(column.getTableName().toLowerCase());
+            }
+        }
+        return String.join(",", tables);
+    }
+}
@@ -0,0 +1,41 @@
+package com.logsentinel.sentineldb.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A single request to SentinelDB, e.g. the encryption or decryption of a value or the calculation of a lookup key
+ */
+@Name("com.logsentinel.sentineldb.SentinelDBCall")
+@Label("SentinelDB Call")
+@Category({ "SentinelDB", "Remote" })
+@Description("A request to SentinelDB made by the driver")
+public class SentinelDBCallEvent extends Event {
+
+    public static final String ENCRYPT = "encryptData";
+    public static final String DECRYPT = "decryptData";
+    public static final String LOOKUP_VALUE = "getLookupValue";
+    public static final String LIST_SEARCH_SCHEMAS = "listSearchSchemas";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Table")
+    public String table;
+
+    @Label("Column")
+    @Description("The column of the value, if known")
+    public String column;
+
+    @Label("Bytes")
+    @Description("The length of the value sent in the request")
+    @DataAmount
+    public long bytes;
+
+    @Label("Successful")
+    public boolean successful;
+}
@@ -0,0 +1,197 @@
+package com.logsentinel.sentineldb.proxies;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Converts values buffered with ResultSet.getObject to the types requested by the other getters.
+ * Date and time values without a time zone are buffered as the local date and time of the database, so that
+ * they can be interpreted in the time zone of a calendar later, like the underlying result set does
+ */
+class BufferedValues {
+
+    private static final Set<Class<?>> SUPPORTED_TYPES = new HashSet<>(Arrays.asList(
+            Object.class, String.class, boolean.class, Boolean.class, byte.class, Byte.class, short.class, Short.class,
+            int.class, Integer.class, long.class, Long.class, float.class, Float.class, double.class, Double.class,
+            BigDecimal.class, byte[].class, Date.class, Time.class, Timestamp.class,
+            LocalDate.class, LocalTime.class, LocalDateTime.class, OffsetDateTime.class, OffsetTime.class, Instant.class,
+            UUID.class, Reader.class, InputStream.class));
+
+    private BufferedValues() {
+    }
+
+    static boolean isSupported(Class<?> type) {
+        return SUPPORTED_TYPES.contains(type);
+    }
+
+    static Object convert(Object value, Class<?> type) throws SQLException {
+        return convert(value, type, null);
+    }
+
+    /**
+     * @param calendar the calendar whose time zone date and time values without a time zone are interpreted in, or null for the default time zone
+     */
+    static Object convert(Object value, Class<?> type, Calendar calendar) throws SQLException {
+        if (value == null) {
+            return defaultValue(type);
+        }
+        if (calendar != null && (type == Timestamp.class || type == Date.class || type == Time.class)) {
+            return convertInZone(value, type, calendar.getTimeZone().toZoneId());
+        }
+        if (type == Object.class || (!type.isPrimitive() && type.isInstance(value))) {
+            return value;
+        }
+        try {
+            if (type == String.class) {
+                return value.toString();
+            } else if (type == boolean.class || type == Boolean.class) {
+                return toBoolean(value);
+            } else if (type == byte.class || type == Byte.class) {
+                return toNumber(value).byteValue();
+            } else if (type == short.class || type == Short.class) {
+                return toNumber(value).shortValue();
+            } else if (type == int.class || type == Integer.class) {
+                return toNumber(value).intValue();
+            } else if (type == long.class || type == Long.class) {
+                return toNumber(value).longValue();
+            } else if (type == float.class || type == Float.class) {
+                return toNumber(value).floatValue();
+            } else if (type == double.class || type == Double.class) {
+                return toNumber(value).doubleValue();
+            } else if (type == BigDecimal.class) {
+                return toNumber(value);
+            } else if (type == byte[].class) {
+                return value.toString().getBytes(StandardCharsets.UTF_8);
+            } else if (type == Reader.class) {
+                return new StringReader(value.toString());
+            } else if (type == InputStream.class) {
+                return new ByteArrayInputStream(value.toString().getBytes(StandardCharsets.UTF_8));
+            } else if (type == Timestamp.class || type == LocalDateTime.class) {
+                Timestamp timestamp = toTimestamp(value);
+                return type == Timestamp.class ? timestamp : timestamp.toLocalDateTime();
+            } else if (type == Date.class || type == LocalDate.class) {
+                Date date = value instanceof String ? Date.valueOf((String) value) : new Date(toTimestamp(value).getTime());
+                return type == Date.class ? date : date.toLocalDate();
+            } else if (type == Time.class || type == LocalTime.class) {
+                Time time = value instanceof String ? Time.valueOf((String) value) : new Time(toTimestamp(value).getTime());
+                return type == Time.class ? time : time.toLocalTime();
+            } else if (type == OffsetDateTime.class) {
+                return value instanceof String ? OffsetDateTime.parse((String) value)
+                        : toTimestamp(value).toInstant().atZone(ZoneId.systemDefault()).toOffsetDateTime();
+            } else if (type == OffsetTime.class && value instanceof String) {
+                return OffsetTime.parse((String) value);
+            } else if (type == Instant.class) {
+                return toTimestamp(value).toInstant();
+            } else if (type == UUID.class && value instanceof String) {
+                return UUID.fromString(((String) value).trim());
+            }
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new SQLException("Cannot convert value of type " + value.getClass().getName() + " to " + type.getName(), ex);
+        }
+        throw new SQLException("Cannot convert value of type " + value.getClass().getName() + " to " + type.getName());
+    }
+
+    private static Object convertInZone(Object value, Class<?> type, ZoneId zone) throws SQLException {
+        // values with a time zone denote an instant, so the calendar doesn't apply to them
+        if (value instanceof OffsetDateTime) {
+            return convert(value, type);
+        }
+        try {
+            if (type == Date.class) {
+                LocalDate date = value instanceof String ? LocalDate.parse(((String) value).trim()) : toTimestamp(value).toLocalDateTime().toLocalDate();
+                return new Date(date.atStartOfDay(zone).toInstant().toEpochMilli());
+            } else if (type == Time.class) {
+                LocalTime time = value instanceof String ? LocalTime.parse(((String) value).trim()) : toLocalTime(value);
+                return new Time(time.atDate(LocalDate.of(1970, 1, 1)).atZone(zone).toInstant().toEpochMilli());
+            }
+            return Timestamp.from(toTimestamp(value).toLocalDateTime().atZone(zone).toInstant());
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new SQLException("Cannot convert value of type " + value.getClass().getName() + " to " + type.getName(), ex);
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        }
+        return null;
+    }
+
+    private static BigDecimal toNumber(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+        return new BigDecimal(value.toString().trim());
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        String string = value.toString().trim();
+        return string.equalsIgnoreCase("true") || string.equals("1");
+    }
+
+    private static LocalTime toLocalTime(Object value) {
+        if (value instanceof Time) {
+            return ((Time) value).toLocalTime();
+        } else if (value instanceof LocalTime) {
+            return (LocalTime) value;
+        }
+        return toTimestamp(value).toLocalDateTime().toLocalTime();
+    }
+
+    private static Timestamp toTimestamp(Object value) {
+        if (value instanceof Timestamp) {
+            return (Timestamp) value;
+        } else if (value instanceof OffsetDateTime) {
+            return Timestamp.from(((OffsetDateTime) value).toInstant());
+        } else if (value instanceof java.util.Date) {
+            return new Timestamp(((java.util.Date) value).getTime());
+        } else if (value instanceof LocalDateTime) {
+            return Timestamp.valueOf((LocalDateTime) value);
+        } else if (value instanceof LocalDate) {
+            return Timestamp.valueOf(((LocalDate) value).atStartOfDay());
+        }
+        return Timestamp.valueOf(value.toString().trim());
+    }
+}
@@ -0,0 +1,1490 @@
+package com.logsentinel.sentineldb.proxies;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLType;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+import com.logsentinel.sentineldb.ExternalEncryptionService;
+import com.logsentinel.sentineldb.events.DecryptionWindowEvent;
+
+/**
+ * Decrypts encrypted values in a result set.
+ *
+ * For forward-only, read-only result sets with columns that may be encrypted, rows are read ahead in windows
+ * (of at most the fetch size, if set) and all encrypted values in a window are decrypted together. The getters then
+ * return the buffered values - the strings of the underlying result set, and its objects converted to the requested type.
+ * Result sets without columns that may be encrypted, ones that contain column types that can't be safely buffered (e.g. LOBs),
+ * as well as scrollable or updatable result sets, are decrypted value by value on access instead, and all getters
+ * other than getString are passed directly to the underlying result set.
+ */
+public class DecryptingResultSet implements ResultSet {
+
+    private final ResultSet resultSet;
+    private final Statement statement;
+    private final ExternalEncryptionService encryptionService;
+    private final int windowSize;
+
+    private boolean windowChecked;
+    private boolean windowed;
+    private int[] columnTypes;
+    private List<BufferedRow> window = new ArrayList<>();
+    private int windowPosition;
+    private BufferedRow currentRow;
+    private int rowNumber;
+    private boolean afterLast;
+    private boolean delegateExhausted;
+    private boolean lastValueNull;
+
+    /**
+     * @param statement the statement that produced the result set, returned by getStatement, or null to return the one of the underlying result set
+     */
+    public DecryptingResultSet(ResultSet resultSet, Statement statement, ExternalEncryptionService encryptionService) {
+        this(resultSet, statement, encryptionService, encryptionService.getDecryptionWindowSize());
+    }
+
+    public DecryptingResultSet(ResultSet resultSet, Statement statement, ExternalEncryptionService encryptionService, int windowSize) {
+        this.resultSet = resultSet;
+        this.statement = statement;
+        this.encryptionService = encryptionService;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public void updateRow() throws SQLException {
+        resultSet.updateRow();
+    }
+
+    @Override
+    public void moveToInsertRow() throws SQLException {
+        resultSet.moveToInsertRow();
+    }
+
+    @Override
+    public void insertRow() throws SQLException {
+        resultSet.insertRow();
+    }
+
+    @Override
+    public void moveToCurrentRow() throws SQLException {
+        resultSet.moveToCurrentRow();
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        if (!windowChecked) {
+            windowed = supportsWindow();
+            windowChecked = true;
+        }
+        if (windowed) {
+            return nextInWindow();
+        }
+        return resultSet.next();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        resultSet.close();
+    }
+
+    @Override
+    public boolean wasNull() throws SQLException {
+        return windowed ? lastValueNull : resultSet.wasNull();
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (String) getValue(columnIndex, String.class);
+        }
+        return decrypt(resultSet.getString(columnIndex));
+    }
+
+    @Override
+    public boolean getBoolean(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Boolean) getValue(columnIndex, boolean.class);
+        }
+        return resultSet.getBoolean(columnIndex);
+    }
+
+    @Override
+    public byte getByte(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Byte) getValue(columnIndex, byte.class);
+        }
+        return resultSet.getByte(columnIndex);
+    }
+
+    @Override
+    public short getShort(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Short) getValue(columnIndex, short.class);
+        }
+        return resultSet.getShort(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Integer) getValue(columnIndex, int.class);
+        }
+        return resultSet.getInt(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Long) getValue(columnIndex, long.class);
+        }
+        return resultSet.getLong(columnIndex);
+    }
+
+    @Override
+    public float getFloat(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Float) getValue(columnIndex, float.class);
+        }
+        return resultSet.getFloat(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Double) getValue(columnIndex, double.class);
+        }
+        return resultSet.getDouble(columnIndex);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (BigDecimal) getValue(columnIndex, BigDecimal.class);
+        }
+        return resultSet.getBigDecimal(columnIndex);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (BigDecimal) getValue(columnLabel, BigDecimal.class);
+        }
+        return resultSet.getBigDecimal(columnLabel);
+    }
+
+    @Deprecated
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+        if (windowed) {
+            return withScale((BigDecimal) getValue(columnIndex, BigDecimal.class), scale);
+        }
+        return resultSet.getBigDecimal(columnIndex, scale);
+    }
+
+    @Override
+    public byte[] getBytes(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (byte[]) getValue(columnIndex, byte[].class);
+        }
+        return resultSet.getBytes(columnIndex);
+    }
+
+    @Override
+    public Date getDate(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Date) getValue(columnIndex, Date.class);
+        }
+        return resultSet.getDate(columnIndex);
+    }
+
+    @Override
+    public Time getTime(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Time) getValue(columnIndex, Time.class);
+        }
+        return resultSet.getTime(columnIndex);
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Timestamp) getValue(columnIndex, Timestamp.class);
+        }
+        return resultSet.getTimestamp(columnIndex);
+    }
+
+    @Override
+    public InputStream getAsciiStream(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (InputStream) getValue(columnIndex, InputStream.class);
+        }
+        return resultSet.getAsciiStream(columnIndex);
+    }
+
+    @Deprecated
+    @Override
+    public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (InputStream) getValue(columnIndex, InputStream.class);
+        }
+        return resultSet.getUnicodeStream(columnIndex);
+    }
+
+    @Override
+    public InputStream getBinaryStream(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (InputStream) getValue(columnIndex, InputStream.class);
+        }
+        return resultSet.getBinaryStream(columnIndex);
+    }
+
+    @Override
+    public String getString(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (String) getValue(columnLabel, String.class);
+        }
+        return decrypt(resultSet.getString(columnLabel));
+    }
+
+    @Override
+    public boolean getBoolean(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Boolean) getValue(columnLabel, boolean.class);
+        }
+        return resultSet.getBoolean(columnLabel);
+    }
+
+    @Override
+    public byte getByte(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Byte) getValue(columnLabel, byte.class);
+        }
+        return resultSet.getByte(columnLabel);
+    }
+
+    @Override
+    public short getShort(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Short) getValue(columnLabel, short.class);
+        }
+        return resultSet.getShort(columnLabel);
+    }
+
+    @Override
+    public int getInt(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Integer) getValue(columnLabel, int.class);
+        }
+        return resultSet.getInt(columnLabel);
+    }
+
+    @Override
+    public long getLong(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Long) getValue(columnLabel, long.class);
+        }
+        return resultSet.getLong(columnLabel);
+    }
+
+    @Override
+    public float getFloat(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Float) getValue(columnLabel, float.class);
+        }
+        return resultSet.getFloat(columnLabel);
+    }
+
+    @Override
+    public double getDouble(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Double) getValue(columnLabel, double.class);
+        }
+        return resultSet.getDouble(columnLabel);
+    }
+
+    @Deprecated
+    @Override
+    public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+        if (windowed) {
+            return withScale((BigDecimal) getValue(columnLabel, BigDecimal.class), scale);
+        }
+        return resultSet.getBigDecimal(columnLabel, scale);
+    }
+
+    @Override
+    public byte[] getBytes(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (byte[]) getValue(columnLabel, byte[].class);
+        }
+        return resultSet.getBytes(columnLabel);
+    }
+
+    @Override
+    public Date getDate(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Date) getValue(columnLabel, Date.class);
+        }
+        return resultSet.getDate(columnLabel);
+    }
+
+    @Override
+    public Time getTime(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Time) getValue(columnLabel, Time.class);
+        }
+        return resultSet.getTime(columnLabel);
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Timestamp) getValue(columnLabel, Timestamp.class);
+        }
+        return resultSet.getTimestamp(columnLabel);
+    }
+
+    @Override
+    public InputStream getAsciiStream(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (InputStream) getValue(columnLabel, InputStream.class);
+        }
+        return resultSet.getAsciiStream(columnLabel);
+    }
+
+    @Deprecated
+    @Override
+    public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (InputStream) getValue(columnLabel, InputStream.class);
+        }
+        return resultSet.getUnicodeStream(columnLabel);
+    }
+
+    @Override
+    public InputStream getBinaryStream(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (InputStream) getValue(columnLabel, InputStream.class);
+        }
+        return resultSet.getBinaryStream(columnLabel);
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return resultSet.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        resultSet.clearWarnings();
+    }
+
+    @Override
+    public String getCursorName() throws SQLException {
+        return resultSet.getCursorName();
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return resultSet.getMetaData();
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        if (windowed) {
+            return getValue(columnIndex, Object.class);
+        }
+        return resultSet.getObject(columnIndex);
+    }
+
+    @Override
+    public Statement getStatement() throws SQLException {
+        return statement != null ? statement : resultSet.getStatement();
+    }
+
+    @Override
+    public Object getObject(String columnLabel) throws SQLException {
+        if (windowed) {
+            return getValue(columnLabel, Object.class);
+        }
+        return resultSet.getObject(columnLabel);
+    }
+
+    @Override
+    public int findColumn(String columnLabel) throws SQLException {
+        return resultSet.findColumn(columnLabel);
+    }
+
+    @Override
+    public Reader getCharacterStream(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Reader) getValue(columnIndex, Reader.class);
+        }
+        return resultSet.getCharacterStream(columnIndex);
+    }
+
+    @Override
+    public Reader getCharacterStream(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Reader) getValue(columnLabel, Reader.class);
+        }
+        return resultSet.getCharacterStream(columnLabel);
+    }
+
+    @Override
+    public boolean isBeforeFirst() throws SQLException {
+        if (windowed) {
+            // before reading the first window, the underlying result set is also before the first row
+            return rowNumber == 0 && !afterLast && resultSet.isBeforeFirst();
+        }
+        return resultSet.isBeforeFirst();
+    }
+
+    @Override
+    public boolean isAfterLast() throws SQLException {
+        if (windowed) {
+            return afterLast && rowNumber > 0;
+        }
+        return resultSet.isAfterLast();
+    }
+
+    @Override
+    public boolean isFirst() throws SQLException {
+        if (windowed) {
+            return currentRow != null && rowNumber == 1;
+        }
+        return resultSet.isFirst();
+    }
+
+    @Override
+    public boolean isLast() throws SQLException {
+        if (windowed) {
+            return isLastInWindow();
+        }
+        return resultSet.isLast();
+    }
+
+    @Override
+    public void beforeFirst() throws SQLException {
+        resultSet.beforeFirst();
+    }
+
+    @Override
+    public void afterLast() throws SQLException {
+        resultSet.afterLast();
+    }
+
+    @Override
+    public boolean first() throws SQLException {
+        return resultSet.first();
+    }
+
+    @Override
+    public boolean last() throws SQLException {
+        return resultSet.last();
+    }
+
+    @Override
+    public int getRow() throws SQLException {
+        if (windowed) {
+            return currentRow != null ? rowNumber : 0;
+        }
+        return resultSet.getRow();
+    }
+
+    @Override
+    public boolean absolute(int row) throws SQLException {
+        return resultSet.absolute(row);
+    }
+
+    @Override
+    public boolean previous() throws SQLException {
+        return resultSet.previous();
+    }
+
+    @Override
+    public boolean relative(int rows) throws SQLException {
+        return resultSet.relative(rows);
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        resultSet.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return resultSet.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        resultSet.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return resultSet.getFetchSize();
+    }
+
+    @Override
+    public int getType() throws SQLException {
+        return resultSet.getType();
+    }
+
+    @Override
+    public int getConcurrency() throws SQLException {
+        return resultSet.getConcurrency();
+    }
+
+    @Override
+    public boolean rowUpdated() throws SQLException {
+        return resultSet.rowUpdated();
+    }
+
+    @Override
+    public boolean rowInserted() throws SQLException {
+        return resultSet.rowInserted();
+    }
+
+    @Override
+    public boolean rowDeleted() throws SQLException {
+        return resultSet.rowDeleted();
+    }
+
+    @Override
+    public void updateNull(int columnIndex) throws SQLException {
+        resultSet.updateNull(columnIndex);
+    }
+
+    @Override
+    public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+        resultSet.updateBoolean(columnIndex, x);
+    }
+
+    @Override
+    public void updateByte(int columnIndex, byte x) throws SQLException {
+        resultSet.updateByte(columnIndex, x);
+    }
+
+    @Override
+    public void updateShort(int columnIndex, short x) throws SQLException {
+        resultSet.updateShort(columnIndex, x);
+    }
+
+    @Override
+    public void updateInt(int columnIndex, int x) throws SQLException {
+        resultSet.updateInt(columnIndex, x);
+    }
+
+    @Override
+    public void updateLong(int columnIndex, long x) throws SQLException {
+        resultSet.updateLong(columnIndex, x);
+    }
+
+    @Override
+    public void updateFloat(int columnIndex, float x) throws SQLException {
+        resultSet.updateFloat(columnIndex, x);
+    }
+
+    @Override
+    public void updateDouble(int columnIndex, double x) throws SQLException {
+        resultSet.updateDouble(columnIndex, x);
+    }
+
+    @Override
+    public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+        resultSet.updateBigDecimal(columnIndex, x);
+    }
+
+    @Override
+    public void updateString(int columnIndex, String x) throws SQLException {
+        resultSet.updateString(columnIndex, x);
+    }
+
+    @Override
+    public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+        resultSet.updateBytes(columnIndex, x);
+    }
+
+    @Override
+    public void updateDate(int columnIndex, Date x) throws SQLException {
+        resultSet.updateDate(columnIndex, x);
+    }
+
+    @Override
+    public void updateTime(int columnIndex, Time x) throws SQLException {
+        resultSet.updateTime(columnIndex, x);
+    }
+
+    @Override
+    public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException {
+        resultSet.updateTimestamp(columnIndex, x);
+    }
+
+    @Override
+    public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+        resultSet.updateAsciiStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+        resultSet.updateAsciiStream(columnIndex, x);
+    }
+
+    @Override
+    public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+        resultSet.updateAsciiStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+        resultSet.updateBinaryStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+        resultSet.updateBinaryStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+        resultSet.updateBinaryStream(columnIndex, x);
+    }
+
+    @Override
+    public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+        resultSet.updateCharacterStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateCharacterStream(int columnIndex, Reader x) throws SQLException {
+        resultSet.updateCharacterStream(columnIndex, x);
+    }
+
+    @Override
+    public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException {
+        resultSet.updateCharacterStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+        resultSet.updateObject(columnIndex, x, scaleOrLength);
+    }
+
+    @Override
+    public void updateObject(int columnIndex, Object x) throws SQLException {
+        resultSet.updateObject(columnIndex, x);
+    }
+
+    @Override
+    public void updateNull(String columnLabel) throws SQLException {
+        resultSet.updateNull(columnLabel);
+    }
+
+    @Override
+    public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+        resultSet.updateBoolean(columnLabel, x);
+    }
+
+    @Override
+    public void updateByte(String columnLabel, byte x) throws SQLException {
+        resultSet.updateByte(columnLabel, x);
+    }
+
+    @Override
+    public void updateShort(String columnLabel, short x) throws SQLException {
+        resultSet.updateShort(columnLabel, x);
+    }
+
+    @Override
+    public void updateInt(String columnLabel, int x) throws SQLException {
+        resultSet.updateInt(columnLabel, x);
+    }
+
+    @Override
+    public void updateLong(String columnLabel, long x) throws SQLException {
+        resultSet.updateLong(columnLabel, x);
+    }
+
+    @Override
+    public void updateFloat(String columnLabel, float x) throws SQLException {
+        resultSet.updateFloat(columnLabel, x);
+    }
+
+    @Override
+    public void updateDouble(String columnLabel, double x) throws SQLException {
+        resultSet.updateDouble(columnLabel, x);
+    }
+
+    @Override
+    public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+        resultSet.updateBigDecimal(columnLabel, x);
+    }
+
+    @Override
+    public void updateString(String columnLabel, String x) throws SQLException {
+        resultSet.updateString(columnLabel, x);
+    }
+
+    @Override
+    public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+        resultSet.updateBytes(columnLabel, x);
+    }
+
+    @Override
+    public void updateDate(String columnLabel, Date x) throws SQLException {
+        resultSet.updateDate(columnLabel, x);
+    }
+
+    @Override
+    public void updateTime(String columnLabel, Time x) throws SQLException {
+        resultSet.updateTime(columnLabel, x);
+    }
+
+    @Override
+    public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException {
+        resultSet.updateTimestamp(columnLabel, x);
+    }
+
+    @Override
+    public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+        resultSet.updateAsciiStream(columnLabel, x, length);
+    }
+
+    @Override
+    public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException {
+        resultSet.updateAsciiStream(columnLabel, x, length);
+    }
+
+    @Override
+    public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+        resultSet.updateAsciiStream(columnLabel, x);
+    }
+
+    @Override
+    public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException {
+        resultSet.updateBinaryStream(columnLabel, x, length);
+    }
+
+    @Override
+    public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException {
+        resultSet.updateBinaryStream(columnLabel, x, length);
+    }
+
+    @Override
+    public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+        resultSet.updateBinaryStream(columnLabel, x);
+    }
+
+    @Override
+    public void updateCharacterStream(String columnLabel, Reader reader) throws SQLException {
+        resultSet.updateCharacterStream(columnLabel, reader);
+    }
+
+    @Override
+    public void updateCharacterStream(String columnLabel, Reader reader, long length) throws SQLException {
+        resultSet.updateCharacterStream(columnLabel, reader, length);
+    }
+
+    @Override
+    public void updateCharacterStream(String columnLabel, Reader reader, int length) throws SQLException {
+        resultSet.updateCharacterStream(columnLabel, reader, length);
+    }
+
+    @Override
+    public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+        resultSet.updateObject(columnLabel, x, scaleOrLength);
+    }
+
+    @Override
+    public void updateObject(String columnLabel, Object x) throws SQLException {
+        resultSet.updateObject(columnLabel, x);
+    }
+
+    @Override
+    public void deleteRow() throws SQLException {
+        resultSet.deleteRow();
+    }
+
+    @Override
+    public void refreshRow() throws SQLException {
+        resultSet.refreshRow();
+    }
+
+    @Override
+    public void cancelRowUpdates() throws SQLException {
+        resultSet.cancelRowUpdates();
+    }
+
+    @Override
+    public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+        if (windowed) {
+            return getValue(columnIndex, Object.class);
+        }
+        return resultSet.getObject(columnIndex, map);
+    }
+
+    @Override
+    public Ref getRef(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Ref) getValue(columnIndex, Ref.class);
+        }
+        return resultSet.getRef(columnIndex);
+    }
+
+    @Override
+    public Blob getBlob(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Blob) getValue(columnIndex, Blob.class);
+        }
+        return resultSet.getBlob(columnIndex);
+    }
+
+    @Override
+    public Clob getClob(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Clob) getValue(columnIndex, Clob.class);
+        }
+        return resultSet.getClob(columnIndex);
+    }
+
+    @Override
+    public Array getArray(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Array) getValue(columnIndex, Array.class);
+        }
+        return resultSet.getArray(columnIndex);
+    }
+
+    @Override
+    public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+        if (windowed) {
+            return getValue(columnLabel, Object.class);
+        }
+        return resultSet.getObject(columnLabel, map);
+    }
+
+    @Override
+    public Ref getRef(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Ref) getValue(columnLabel, Ref.class);
+        }
+        return resultSet.getRef(columnLabel);
+    }
+
+    @Override
+    public Blob getBlob(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Blob) getValue(columnLabel, Blob.class);
+        }
+        return resultSet.getBlob(columnLabel);
+    }
+
+    @Override
+    public Clob getClob(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Clob) getValue(columnLabel, Clob.class);
+        }
+        return resultSet.getClob(columnLabel);
+    }
+
+    @Override
+    public Array getArray(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Array) getValue(columnLabel, Array.class);
+        }
+        return resultSet.getArray(columnLabel);
+    }
+
+    @Override
+    public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+        if (windowed) {
+            return (Date) getValue(columnIndex, Date.class, cal);
+        }
+        return resultSet.getDate(columnIndex, cal);
+    }
+
+    @Override
+    public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+        if (windowed) {
+            return (Date) getValue(columnLabel, Date.class, cal);
+        }
+        return resultSet.getDate(columnLabel, cal);
+    }
+
+    @Override
+    public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+        if (windowed) {
+            return (Time) getValue(columnIndex, Time.class, cal);
+        }
+        return resultSet.getTime(columnIndex, cal);
+    }
+
+    @Override
+    public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+        if (windowed) {
+            return (Time) getValue(columnLabel, Time.class, cal);
+        }
+        return resultSet.getTime(columnLabel, cal);
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+        if (windowed) {
+            return (Timestamp) getValue(columnIndex, Timestamp.class, cal);
+        }
+        return resultSet.getTimestamp(columnIndex, cal);
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+        if (windowed) {
+            return (Timestamp) getValue(columnLabel, Timestamp.class, cal);
+        }
+        return resultSet.getTimestamp(columnLabel, cal);
+    }
+
+    @Override
+    public URL getURL(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (URL) getValue(columnIndex, URL.class);
+        }
+        return resultSet.getURL(columnIndex);
+    }
+
+    @Override
+    public URL getURL(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (URL) getValue(columnLabel, URL.class);
+        }
+        return resultSet.getURL(columnLabel);
+    }
+
+    @Override
+    public void updateRef(int columnIndex, Ref x) throws SQLException {
+        resultSet.updateRef(columnIndex, x);
+    }
+
+    @Override
+    public void updateRef(String columnLabel, Ref x) throws SQLException {
+        resultSet.updateRef(columnLabel, x);
+    }
+
+    @Override
+    public void updateBlob(int columnIndex, Blob x) throws SQLException {
+        resultSet.updateBlob(columnIndex, x);
+    }
+
+    @Override
+    public void updateBlob(String columnLabel, Blob x) throws SQLException {
+        resultSet.updateBlob(columnLabel, x);
+    }
+
+    @Override
+    public void updateClob(int columnIndex, Clob x) throws SQLException {
+        resultSet.updateClob(columnIndex, x);
+    }
+
+    @Override
+    public void updateClob(String columnLabel, Clob x) throws SQLException {
+        resultSet.updateClob(columnLabel, x);
+    }
+
+    @Override
+    public void updateArray(int columnIndex, Array x) throws SQLException {
+        resultSet.updateArray(columnIndex, x);
+    }
+
+    @Override
+    public void updateArray(String columnLabel, Array x) throws SQLException {
+        resultSet.updateArray(columnLabel, x);
+    }
+
+    @Override
+    public RowId getRowId(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (RowId) getValue(columnIndex, RowId.class);
+        }
+        return resultSet.getRowId(columnIndex);
+    }
+
+    @Override
+    public RowId getRowId(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (RowId) getValue(columnLabel, RowId.class);
+        }
+        return resultSet.getRowId(columnLabel);
+    }
+
+    @Override
+    public void updateRowId(int columnIndex, RowId x) throws SQLException {
+        resultSet.updateRowId(columnIndex, x);
+    }
+
+    @Override
+    public void updateRowId(String columnLabel, RowId x) throws SQLException {
+        resultSet.updateRowId(columnLabel, x);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return resultSet.getHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return resultSet.isClosed();
+    }
+
+    @Override
+    public void updateNString(int columnIndex, String nString) throws SQLException {
+        resultSet.updateNString(columnIndex, nString);
+    }
+
+    @Override
+    public void updateNString(String columnLabel, String nString) throws SQLException {
+        resultSet.updateNString(columnLabel, nString);
+    }
+
+    @Override
+    public void updateNClob(int columnIndex, NClob nClob) throws SQLException {
+        resultSet.updateNClob(columnIndex, nClob);
+    }
+
+    @Override
+    public void updateNClob(String columnLabel, NClob nClob) throws SQLException {
+        resultSet.updateNClob(columnLabel, nClob);
+    }
+
+    @Override
+    public NClob getNClob(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (NClob) getValue(columnIndex, NClob.class);
+        }
+        return resultSet.getNClob(columnIndex);
+    }
+
+    @Override
+    public NClob getNClob(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (NClob) getValue(columnLabel, NClob.class);
+        }
+        return resultSet.getNClob(columnLabel);
+    }
+
+    @Override
+    public SQLXML getSQLXML(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (SQLXML) getValue(columnIndex, SQLXML.class);
+        }
+        return resultSet.getSQLXML(columnIndex);
+    }
+
+    @Override
+    public SQLXML getSQLXML(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (SQLXML) getValue(columnLabel, SQLXML.class);
+        }
+        return resultSet.getSQLXML(columnLabel);
+    }
+
+    @Override
+    public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException {
+        resultSet.updateSQLXML(columnIndex, xmlObject);
+    }
+
+    @Override
+    public void updateSQLXML(String columnLabel, SQLXML xmlObject) throws SQLException {
+        resultSet.updateSQLXML(columnLabel, xmlObject);
+    }
+
+    @Override
+    public String getNString(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (String) getValue(columnIndex, String.class);
+        }
+        return resultSet.getNString(columnIndex);
+    }
+
+    @Override
+    public String getNString(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (String) getValue(columnLabel, String.class);
+        }
+        return resultSet.getNString(columnLabel);
+    }
+
+    @Override
+    public Reader getNCharacterStream(int columnIndex) throws SQLException {
+        if (windowed) {
+            return (Reader) getValue(columnIndex, Reader.class);
+        }
+        return resultSet.getNCharacterStream(columnIndex);
+    }
+
+    @Override
+    public Reader getNCharacterStream(String columnLabel) throws SQLException {
+        if (windowed) {
+            return (Reader) getValue(columnLabel, Reader.class);
+        }
+        return resultSet.getNCharacterStream(columnLabel);
+    }
+
+    @Override
+    public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+        resultSet.updateNCharacterStream(columnIndex, x, length);
+    }
+
+    @Override
+    public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException {
+        resultSet.updateNCharacterStream(columnIndex, x);
+    }
+
+    @Override
+    public void updateNCharacterStream(String columnLabel, Reader reader, long length) throws SQLException {
+        resultSet.updateNCharacterStream(columnLabel, reader, length);
+    }
+
+    @Override
+    public void updateNCharacterStream(String columnLabel, Reader reader) throws SQLException {
+        resultSet.updateNCharacterStream(columnLabel, reader);
+    }
+
+    @Override
+    public void updateBlob(int columnIndex, InputStream inputStream, long length) throws SQLException {
+        resultSet.updateBlob(columnIndex, inputStream, length);
+    }
+
+    @Override
+    public void updateBlob(int columnIndex, InputStream inputStream) throws SQLException {
+        resultSet.updateBlob(columnIndex, inputStream);
+    }
+
+    @Override
+    public void updateBlob(String columnLabel, InputStream inputStream) throws SQLException {
+        resultSet.updateBlob(columnLabel, inputStream);
+    }
+
+    @Override
+    public void updateBlob(String columnLabel, InputStream inputStream, long length) throws SQLException {
+        resultSet.updateBlob(columnLabel, inputStream, length);
+    }
+
+    @Override
+    public void updateClob(int columnIndex, Reader reader) throws SQLException {
+        resultSet.updateClob(columnIndex, reader);
+    }
+
+    @Override
+    public void updateClob(int columnIndex, Reader reader, long length) throws SQLException {
+        resultSet.updateClob(columnIndex, reader, length);
+    }
+
+    @Override
+    public void updateClob(String columnLabel, Reader reader) throws SQLException {
+        resultSet.updateClob(columnLabel, reader);
+    }
+
+    @Override
+    public void updateClob(String columnLabel, Reader reader, long length) throws SQLException {
+        resultSet.updateClob(columnLabel, reader, length);
+    }
+
+    @Override
+    public void updateNClob(int columnIndex, Reader reader, long length) throws SQLException {
+        resultSet.updateNClob(columnIndex, reader, length);
+    }
+
+    @Override
+    public void updateNClob(int columnIndex, Reader reader) throws SQLException {
+        resultSet.updateNClob(columnIndex, reader);
+    }
+
+    @Override
+    public void updateNClob(String columnLabel, Reader reader) throws SQLException {
+        resultSet.updateNClob(columnLabel, reader);
+    }
+
+    @Override
+    public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException {
+        resultSet.updateNClob(columnLabel, reader, length);
+    }
+
+    @Override
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+        if (windowed) {
+            return type.cast(getValue(columnIndex, type));
+        }
+        return resultSet.getObject(columnIndex, type);
+    }
+
+    @Override
+    public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+        if (windowed) {
+            return type.cast(getValue(columnLabel, type));
+        }
+        return resultSet.getObject(columnLabel, type);
+    }
+
+    @Override
+    public void updateObject(int columnIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+        resultSet.updateObject(columnIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void updateObject(int columnIndex, Object x, SQLType targetSqlType) throws SQLException {
+        resultSet.updateObject(columnIndex, x, targetSqlType);
+    }
+
+    @Override
+    public void updateObject(String columnLabel, Object x, SQLType targetSqlType) throws SQLException {
+        resultSet.updateObject(columnLabel, x, targetSqlType);
+    }
+
+    @Override
+    public void updateObject(String columnLabel, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+        resultSet.updateObject(columnLabel, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return resultSet.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || resultSet.isWrapperFor(iface);
+    }
+
+    private boolean nextInWindow() throws SQLException {
+        if (afterLast) {
+            return false;
+        }
+        windowPosition++;
+        if (windowPosition >= window.size()) {
+            fillWindow();
+            windowPosition = 0;
+        }
+        if (window.isEmpty()) {
+            currentRow = null;
+            afterLast = true;
+            return false;
+        }
+        currentRow = window.get(windowPosition);
+        rowNumber++;
+        return true;
+    }
+
+    private void fillWindow() throws SQLException {
+        window.clear();
+        if (delegateExhausted) {
+            return;
+        }
+        int fetchSize = resultSet.getFetchSize();
+        int size = fetchSize > 0 ? Math.min(windowSize, fetchSize) : windowSize;
+        int columnCount = columnTypes.length;
+
+        DecryptionWindowEvent event = new DecryptionWindowEvent();
+        event.begin();
+        List<String> encryptedValues = new ArrayList<>();
+        while (window.size() < size) {
+            if (!resultSet.next()) {
+                delegateExhausted = true;
+                break;
+            }
+            BufferedRow row = new BufferedRow(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                if (isCharacterType(columnTypes[i])) {
+                    String value = resultSet.getString(i + 1);
+                    row.values[i] = value;
+                    row.strings[i] = value;
+                    if (value != null && encryptionService.isEncrypted(value)) {
+                        encryptedValues.add(value);
+                    }
+                } else {
+                    row.values[i] = getObject(i + 1, columnTypes[i]);
+                    row.strings[i] = resultSet.getString(i + 1);
+                }
+            }
+            window.add(row);
+        }
+
+        if (!encryptedValues.isEmpty()) {
+            Map<String, String> plaintexts = encryptionService.decryptStrings(encryptedValues);
+            for (BufferedRow row : window) {
+                for (int i = 0; i < columnCount; i++) {
+                    if (isCharacterType(columnTypes[i]) && plaintexts.containsKey(row.strings[i])) {
+                        row.values[i] = plaintexts.get(row.strings[i]);
+                        row.strings[i] = (String) row.values[i];
+                    }
+                }
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.rows = window.size();
+            event.cells = encryptedValues.size();
+            event.commit();
+        }
+    }
+
+    private Object getObject(int columnIndex, int columnType) throws SQLException {
+        // the objects returned for values with a time zone are driver-specific, so the JDBC 4.2 types are buffered instead
+        if (columnType == Types.TIMESTAMP_WITH_TIMEZONE) {
+            return resultSet.getObject(columnIndex, OffsetDateTime.class);
+        } else if (columnType == Types.TIME_WITH_TIMEZONE) {
+            return resultSet.getObject(columnIndex, OffsetTime.class);
+        }
+        return resultSet.getObject(columnIndex);
+    }
+
+    private boolean isLastInWindow() throws SQLException {
+        if (currentRow == null || windowPosition < window.size() - 1) {
+            return false;
+        }
+        if (delegateExhausted) {
+            return true;
+        }
+        // the underlying result set is positioned on the last row of the window, which is the current one
+        return resultSet.isLast();
+    }
+
+    // buffered values keep their own scale, so the one requested by the deprecated getters is applied here
+    private static BigDecimal withScale(BigDecimal value, int scale) {
+        return value != null ? value.setScale(scale, RoundingMode.HALF_UP) : null;
+    }
+
+    private Object getValue(String columnLabel, Class<?> targetType) throws SQLException {
+        return getValue(resultSet.findColumn(columnLabel), targetType);
+    }
+
+    private Object getValue(int columnIndex, Class<?> targetType) throws SQLException {
+        return getValue(columnIndex, targetType, null);
+    }
+
+    private Object getValue(String columnLabel, Class<?> targetType, Calendar calendar) throws SQLException {
+        return getValue(resultSet.findColumn(columnLabel), targetType, calendar);
+    }
+
+    private Object getValue(int columnIndex, Class<?> targetType, Calendar calendar) throws SQLException {
+        if (currentRow == null) {
+            throw new SQLException("No current row");
+        }
+        if (columnIndex < 1 || columnIndex > currentRow.values.length) {
+            throw new SQLException("Invalid column index " + columnIndex);
+        }
+        if (!BufferedValues.isSupported(targetType)) {
+            // the underlying result set is already positioned on a different row, so it can't be used
+            throw new SQLFeatureNotSupportedException(targetType.getSimpleName() + " values are not supported for buffered rows");
+        }
+        Object value = currentRow.values[columnIndex - 1];
+        lastValueNull = value == null;
+        if (targetType == String.class || targetType == Reader.class) {
+            // strings are formatted by the underlying result set, rather than by converting its objects
+            return BufferedValues.convert(currentRow.strings[columnIndex - 1], targetType, calendar);
+        }
+        return BufferedValues.convert(value, targetType, calendar);
+    }
+
+    // TODO getBytes / getClob /getCharacterStream / getBlob
+    private String decrypt(String value) {
+        if (value != null && encryptionService.isEncrypted(value)) {
+            return encryptionService.decryptString(value);
+        }
+        return value;
+    }
+
+    private boolean supportsWindow() throws SQLException {
+        if (windowSize <= 1 || resultSet.getType() != ResultSet.TYPE_FORWARD_ONLY
+                || resultSet.getConcurrency() != ResultSet.CONCUR_READ_ONLY) {
+            return false;
+        }
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int[] types = new int[metaData.getColumnCount()];
+        boolean mayBeEncrypted = false;
+        for (int i = 1; i <= types.length; i++) {
+            types[i - 1] = metaData.getColumnType(i);
+            switch (types[i - 1]) {
+            case Types.BLOB:
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.ARRAY:
+            case Types.STRUCT:
+            case Types.REF:
+            case Types.SQLXML:
+            case Types.JAVA_OBJECT:
+            case Types.OTHER:
+                return false;
+            default:
+                break;
+            }
+            if (!mayBeEncrypted && isCharacterType(types[i - 1])) {
+                mayBeEncrypted = encryptionService.mayBeEncrypted(metaData.getTableName(i), metaData.getColumnName(i));
+            }
+        }
+        // there is nothing to decrypt in bulk, so buffering would only cost fidelity
+        if (!mayBeEncrypted) {
+            return false;
+        }
+        columnTypes = types;
+        return true;
+    }
+
+    private static boolean isCharacterType(int columnType) {
+        switch (columnType) {
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * A row read ahead. Encrypted values are replaced by their plaintexts
+     */
+    private static class BufferedRow {
+        private final Object[] values;
+        private final String[] strings;
+
+        BufferedRow(int columnCount) {
+            values = new Object[columnCount];
+            strings = new String[columnCount];
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package com.logsentinel.sentineldb.proxies;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.ShardingKey;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.logsentinel.sentineldb.AuditLogService;
+import com.logsentinel.sentineldb.DriverContext;
+import com.logsentinel.sentineldb.DriverMetrics;
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.ExternalEncryptionService;
+import com.logsentinel.sentineldb.LookupManager;
+import com.logsentinel.sentineldb.LookupWriter;
+import com.logsentinel.sentineldb.ParameterPlan;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.SqlParser;
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.SqlParser.TableColumn;
+import com.logsentinel.sentineldb.events.QueryInterceptionEvent;
+
+/**
+ * Wraps the connection of the target driver. Statements created by it encrypt the values of sensitive columns,
+ * decrypt them in the results and audit the executed queries. All other calls are passed directly
+ * to the target connection.
+ */
+public class SentinelDBConnection implements Connection {
+    private final Connection connection;
+    private final ExternalEncryptionService encryptionService;
+    private final AuditLogService auditLogService;
+    private final SqlParser sqlParser;
+    private final LookupManager lookupManager;
+    // the lookup rows written by the statements of the connection, which are written on commit
+    private final LookupWriter lookupWriter;
+    private DriverContext context;
+    private DriverMetrics metrics = DriverMetrics.disabled();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    
+    public SentinelDBConnection(Connection connection, DriverContext context) {
+        this(connection, context.getEncryptionService(), context.getAuditLogService(), 
+                context.getSqlParser(), context.getLookupManager());
+        this.context = context;
+        this.metrics = context.getMetrics();
+    }
+    
+    public SentinelDBConnection(Connection connection, ExternalEncryptionService encryptionService, 
+            AuditLogService auditLogService, SqlParser sqlParser, LookupManager lookupManager) {
+        this.connection = connection;
+        this.encryptionService = encryptionService;
+        this.auditLogService = auditLogService;
+        this.sqlParser = sqlParser;
+        this.lookupManager = lookupManager;
+        this.lookupWriter = new LookupWriter(connection);
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return connection.getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        connection.setTypeMap(map);
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return wrap(connection.createStatement());
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepare(sql, query -> connection.prepareStatement(query));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return wrap(connection.prepareCall(sql), sql);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return connection.nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (autoCommit) {
+            // enabling auto-commit commits the current transaction
+            lookupWriter.flush();
+        }
+        connection.setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return connection.getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        lookupWriter.flush();
+        connection.commit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        lookupWriter.discard();
+        connection.rollback();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        lookupWriter.discard();
+        try {
+            connection.close();
+        } finally {
+            // release the shared context only once, even if close() is called multiple times
+            if (context != null && closed.compareAndSet(false, true)) {
+                context.release();
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return connection.isClosed();
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return connection.getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        connection.setReadOnly(readOnly);
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        return connection.isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        connection.setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return connection.getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        connection.setTransactionIsolation(level);
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        return connection.getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return connection.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        connection.clearWarnings();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return wrap(connection.createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return prepare(sql, query -> connection.prepareStatement(query, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return wrap(connection.prepareCall(sql, resultSetType, resultSetConcurrency), sql);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        connection.setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return connection.getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        // the rows written before the savepoint are kept if the transaction is rolled back to it
+        lookupWriter.flush();
+        return connection.setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        lookupWriter.flush();
+        return connection.setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        // the pending rows are all added after the last savepoint, so they are rolled back with any of them
+        lookupWriter.discard();
+        connection.rollback(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        connection.releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return wrap(connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return prepare(sql, query -> connection.prepareStatement(query, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return wrap(connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return prepare(sql, query -> connection.prepareStatement(query, autoGeneratedKeys));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return prepare(sql, query -> connection.prepareStatement(query, columnIndexes));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return prepare(sql, query -> connection.prepareStatement(query, columnNames));
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return connection.createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return connection.createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return connection.createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return connection.createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return connection.isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        connection.setClientInfo(name, value);
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        connection.setClientInfo(properties);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return connection.getClientInfo();
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return connection.getClientInfo(name);
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return connection.createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return connection.createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        connection.setSchema(schema);
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return connection.getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        connection.abort(executor);
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        connection.setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return connection.getNetworkTimeout();
+    }
+
+    @Override
+    public void beginRequest() throws SQLException {
+        connection.beginRequest();
+    }
+
+    @Override
+    public void endRequest() throws SQLException {
+        connection.endRequest();
+    }
+
+    @Override
+    public boolean setShardingKeyIfValid(ShardingKey shardingKey, ShardingKey superShardingKey, int timeout) throws SQLException {
+        return connection.setShardingKeyIfValid(shardingKey, superShardingKey, timeout);
+    }
+
+    @Override
+    public boolean setShardingKeyIfValid(ShardingKey shardingKey, int timeout) throws SQLException {
+        return connection.setShardingKeyIfValid(shardingKey, timeout);
+    }
+
+    @Override
+    public void setShardingKey(ShardingKey shardingKey) throws SQLException {
+        connection.setShardingKey(shardingKey);
+    }
+
+    @Override
+    public void setShardingKey(ShardingKey shardingKey, ShardingKey superShardingKey) throws SQLException {
+        connection.setShardingKey(shardingKey, superShardingKey);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return connection.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || connection.isWrapperFor(iface);
+    }
+
+    /**
+     * @return the metrics of the driver context, or a disabled registry if the connection doesn't use one
+     */
+    public DriverMetrics getMetrics() {
+        return metrics;
+    }
+
+    public LookupWriter getLookupWriter() {
+        return lookupWriter;
+    }
+
+    private Statement wrap(Statement statement) {
+        return new SentinelDBStatement(statement, this, encryptionService, auditLogService, sqlParser, lookupManager, context);
+    }
+
+    // for prepared statements we need to add the lookup columns to be inserted together with the rest of the data
+    private PreparedStatement prepare(String sql, StatementFactory factory) throws SQLException {
+        if (!encryptionService.requiresInterception(sql)) {
+            // the statement is not parsed, and all of its parameters are passed through
+            return new SentinelDBPreparedStatement(factory.create(sql), this, sql, 
+                    encryptionService, auditLogService, sqlParser, null, lookupManager);
+        }
+        QueryInterceptionEvent event = new QueryInterceptionEvent();
+        event.begin();
+        SqlParseResult parseResult = parseQuery(sql);
+        String modifiedQuery = modifyQuery(sql, parseResult);
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe(sql, StatementKind.of(sql).name(), parseResult, true);
+            event.commit();
+        }
+        return new SentinelDBPreparedStatement(factory.create(modifiedQuery), this, sql, 
+                encryptionService, auditLogService, sqlParser, getPreParseResult(sql, parseResult), lookupManager);
+    }
+
+    // stored procedure calls are not modified, so they are passed to the target connection as they are
+    private CallableStatement wrap(CallableStatement callableStatement, String sql) throws SQLException {
+        return new SentinelDBCallableStatement(callableStatement, this, sql, 
+                encryptionService, auditLogService, sqlParser, null, lookupManager);
+    }
+
+    private SqlParseResult parseQuery(String query) {
+        try {
+            // pre-parse the query in order to modify it before passing it to the target connection
+            return sqlParser.parse(query, connection);
+        } catch (RuntimeException ex) {
+            System.err.println("Failed to parse insert query " + query);
+            throw ex;
+        }
+    }
+
+    private SqlParseResult getPreParseResult(String query, SqlParseResult parseResult) {
+        return StatementKind.of(query).isModification() ? parseResult : null;
+    }
+
+    /**
+     * @return the query to be prepared by the target connection, with lookup columns added or used instead of encrypted ones
+     */
+    public String modifyQuery(String query, SqlParseResult parseResult) {
+        try {
+            // the modified query only depends on the query and the schema, so it is cached together with the parse result
+            return sqlParser.getRewrittenQuery(query, q -> {
+                long start = metrics.start();
+                String rewrittenQuery = rewriteQuery(q, parseResult);
+                metrics.record(Phase.REWRITE, parseResult != null ? parseResult.getMainTable() : null, StatementKind.of(q), start);
+                return rewrittenQuery;
+            });
+        } catch (RuntimeException ex) {
+            System.err.println("Failed to parse insert query " + query);
+            throw ex;
+        }
+    }
+
+    private String rewriteQuery(String query, SqlParseResult result) {
+        if (query.toUpperCase().startsWith("INSERT")) {
+            // only the searchable columns that are inserted get their lookup columns set
+            List<String> lookupColumns = ParameterPlan.getSearchableQueryColumns(StatementKind.INSERT, result, encryptionService);
+            if (lookupColumns.isEmpty()) {
+                return query;
+            }
+            // add the lookup columns to the insert, with a parameter in each row (or multiple rows) of values. 
+            // If there are no fields specified, only the parameters are added
+            return LookupManager.appendLookupColumns(query, lookupColumns, 
+                    ParameterPlan.getLookupParameters(result, lookupColumns));
+        } else if (query.toUpperCase().startsWith("UPDATE")) {
+            // the lookup columns of searchable columns that are not updated must be left intact
+            List<String> lookupColumns = ParameterPlan.getSearchableQueryColumns(StatementKind.UPDATE, result, encryptionService);
+            if (lookupColumns.isEmpty()) {
+                return query;
+            }
+            Pattern replacement = Pattern.compile("SET ", Pattern.CASE_INSENSITIVE);
+            query = replacement.matcher(query).replaceFirst("SET " + StringUtils.join(lookupColumns
+                    .stream().map(c -> c + LookupManager.SENTINELDB_LOOKUP_COLUMN_SUFFIX + "=?").iterator(), ',') + ",");
+            return query;
+        }
+        
+        // we have to replace the column names in the WHERE clause if lookups by encrypted values are to be used
+        if (query.toUpperCase().contains(" WHERE ")) {
+            // TODO handle more complicated queries with subselects and multiple WHERE clauses
+            String[] parts = Pattern.compile(" WHERE ", Pattern.CASE_INSENSITIVE).split(query);
+            for (TableColumn whereColumn : result.getWhereColumns()) {
+                if (encryptionService.getSearchableEncryptedColumns(whereColumn.getTableName()).contains(whereColumn.getColumName())) {
+                    parts[1] = parts[1].replace(whereColumn.getColumName(), whereColumn.getColumName() + LookupManager.SENTINELDB_LOOKUP_COLUMN_SUFFIX);
+                }
+            }
+            return parts[0] + " WHERE " + parts[1];
+        }
+        return query;
+    }
+
+    private interface StatementFactory {
+        PreparedStatement create(String query) throws SQLException;
+    }
+}
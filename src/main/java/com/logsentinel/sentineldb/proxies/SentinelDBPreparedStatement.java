@@ -0,0 +1,1231 @@
+package com.logsentinel.sentineldb.proxies;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.logsentinel.sentineldb.AuditLogService;
+import com.logsentinel.sentineldb.DriverMetrics;
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.ExternalEncryptionService;
+import com.logsentinel.sentineldb.ExternalEncryptionService.EncryptionRequest;
+import com.logsentinel.sentineldb.LookupManager;
+import com.logsentinel.sentineldb.LookupWriter;
+import com.logsentinel.sentineldb.ParameterPlan;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.ResultUtils;
+import com.logsentinel.sentineldb.SqlParser;
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.SqlParser.TableColumn;
+
+/**
+ * Wraps a prepared statement of the target driver. String parameters of encrypted columns are encrypted
+ * (or replaced by their lookup keys in WHERE clauses) according to the parameter plan of the query,
+ * the executions are audited and their results are decrypted. Parameters of other types are passed directly
+ * to the target statement, only shifted by the lookup parameters added to INSERT and UPDATE queries.
+ *
+ * Encrypted parameters are encrypted only when the statement is executed, so that all values of a row, or of
+ * a whole batch, are encrypted together. For that, the parameters of statements with encrypted parameters are
+ * recorded, and the rows of a batch are only added to the target statement when the batch is executed.
+ */
+public class SentinelDBPreparedStatement implements PreparedStatement {
+    private final PreparedStatement preparedStatement;
+    private final Connection connection;
+    private final String query;
+    private final ExternalEncryptionService encryptionService;
+    private final AuditLogService auditLogService;
+    private final LookupManager lookupManager;
+    private final LookupWriter lookupWriter;
+    private final DriverMetrics metrics;
+    private SqlParseResult parseResult;
+    private ParameterPlan parameterPlan;
+    // whether the query may reference a table with sensitive data, i.e. is parsed and has its results decrypted
+    private final boolean intercepted;
+    private boolean recordParameters;
+    
+    // the parameters set on the target statement by their index in it, and the values of encrypted parameters 
+    // that are yet to be encrypted by their index in the query. Only kept if the query has encrypted parameters
+    private Map<Integer, ParameterSetter> parameters = new HashMap<>();
+    private Map<Integer, String> pendingValues = new TreeMap<>();
+    // the values of the parameters that are ids of the modified records, by their index in the query
+    private Map<Integer, Object> idValues = new TreeMap<>();
+    private final List<BatchRow> batchRows = new ArrayList<>();
+    
+    public SentinelDBPreparedStatement(PreparedStatement preparedStatement, Connection connection, String query, 
+            ExternalEncryptionService encryptionService, AuditLogService auditLogService, 
+            SqlParser sqlParser, SqlParseResult preParseResult, LookupManager lookupManager) throws SQLException {
+        this.preparedStatement = preparedStatement;
+        this.connection = connection;
+        this.query = query;
+        this.encryptionService = encryptionService;
+        this.auditLogService = auditLogService;
+        this.lookupManager = lookupManager;
+        this.metrics = connection instanceof SentinelDBConnection 
+                ? ((SentinelDBConnection) connection).getMetrics() : DriverMetrics.disabled();
+        this.lookupWriter = connection instanceof SentinelDBConnection 
+                ? ((SentinelDBConnection) connection).getLookupWriter() : new LookupWriter(preparedStatement.getConnection());
+        
+        this.intercepted = encryptionService.requiresInterception(query);
+        if (!intercepted) {
+            this.parameterPlan = ParameterPlan.compile(query, null, encryptionService);
+            return;
+        }
+        try {
+            this.parseResult = preParseResult != null ? preParseResult : sqlParser.parse(query, preparedStatement.getConnection());
+            // the plan is shared by all statements prepared with the same query
+            this.parameterPlan = sqlParser.getParameterPlan(query, q -> ParameterPlan.compile(q, parseResult, encryptionService));
+            this.recordParameters = parameterPlan.hasEncryptedParameters();
+        } catch (Exception ex) {
+            System.err.println("Failed to parse query " + query);
+            throw ex;
+        }
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            resultSet = preparedStatement.executeQuery(sql);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            if (resultSet == null) {
+                auditLogService.logQuery(query);
+            }
+        }
+        return auditQuery(resultSet);
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        try {
+            return preparedStatement.executeUpdate(sql);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        preparedStatement.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return preparedStatement.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        preparedStatement.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return preparedStatement.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        preparedStatement.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        preparedStatement.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return preparedStatement.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        preparedStatement.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        preparedStatement.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return preparedStatement.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        preparedStatement.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        preparedStatement.setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        try {
+            return preparedStatement.execute(sql);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return preparedStatement.getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return preparedStatement.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return preparedStatement.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        preparedStatement.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return preparedStatement.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        preparedStatement.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return preparedStatement.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return preparedStatement.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return preparedStatement.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        preparedStatement.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        batchRows.clear();
+        preparedStatement.clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        try {
+            addPendingBatch();
+            int[] result = preparedStatement.executeBatch();
+            lookupWriter.statementExecuted();
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return preparedStatement.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return preparedStatement.getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        try {
+            return preparedStatement.executeUpdate(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        try {
+            return preparedStatement.executeUpdate(sql, columnIndexes);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        try {
+            return preparedStatement.executeUpdate(sql, columnNames);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        try {
+            return preparedStatement.execute(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        try {
+            return preparedStatement.execute(sql, columnIndexes);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        try {
+            return preparedStatement.execute(sql, columnNames);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return preparedStatement.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return preparedStatement.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        preparedStatement.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return preparedStatement.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        preparedStatement.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return preparedStatement.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return preparedStatement.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        preparedStatement.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return preparedStatement.getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        try {
+            addPendingBatch();
+            long[] result = preparedStatement.executeLargeBatch();
+            lookupWriter.statementExecuted();
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        try {
+            return preparedStatement.executeLargeUpdate(sql);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        try {
+            return preparedStatement.executeLargeUpdate(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        try {
+            return preparedStatement.executeLargeUpdate(sql, columnIndexes);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        try {
+            return preparedStatement.executeLargeUpdate(sql, columnNames);
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        ResultSet resultSet = null;
+        try {
+            encryptPendingValues();
+            resultSet = preparedStatement.executeQuery();
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            if (resultSet == null) {
+                auditLogService.logQuery(query);
+            }
+        }
+        return auditQuery(resultSet);
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        try {
+            encryptPendingValues();
+            int result = preparedStatement.executeUpdate();
+            lookupWriter.statementExecuted();
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNull(index, sqlType));
+        } else {
+            preparedStatement.setNull(parameterPlan.getTargetIndex(parameterIndex), sqlType);
+        }
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBoolean(index, x));
+        } else {
+            preparedStatement.setBoolean(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setByte(index, x));
+        } else {
+            preparedStatement.setByte(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setShort(index, x));
+        } else {
+            preparedStatement.setShort(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setInt(index, x));
+        } else {
+            preparedStatement.setInt(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setLong(index, x));
+        } else {
+            preparedStatement.setLong(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setFloat(index, x));
+        } else {
+            preparedStatement.setFloat(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setDouble(index, x));
+        } else {
+            preparedStatement.setDouble(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setBigDecimal(index, x));
+        } else {
+            preparedStatement.setBigDecimal(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+        try {
+            switch (parameterPlan.getAction(parameterIndex)) {
+            case LOOKUP_KEY:
+                long start = metrics.start();
+                x = encryptionService.getLookupKey(normalizeValue(x));
+                metrics.record(Phase.LOOKUP_KEY, parameterPlan.getColumn(parameterIndex).getTableName(), 
+                        parameterPlan.getKind(), start);
+                break;
+            case ENCRYPT:
+                if (x != null) {
+                    // encrypted on execution, together with the other values of the row or batch
+                    pendingValues.put(parameterIndex, x);
+                    parameters.remove(parameterPlan.getTargetIndex(parameterIndex));
+                    return;
+                }
+                if (parameterPlan.hasLookupColumn(parameterIndex)) {
+                    // the lookup column may still hold the key of a previous row
+                    setTargetParameter(parameterPlan.getLookupColumnIndex(parameterIndex), 
+                            (target, index) -> target.setString(index, null), parameters);
+                }
+                break;
+            default:
+                break;
+            }
+            if (recordParameters) {
+                String value = x;
+                setParameter(parameterIndex, value, (target, index) -> target.setString(index, value));
+            } else {
+                preparedStatement.setString(parameterPlan.getTargetIndex(parameterIndex), x);
+            }
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBytes(index, x));
+        } else {
+            preparedStatement.setBytes(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setDate(index, x));
+        } else {
+            preparedStatement.setDate(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setTime(index, x));
+        } else {
+            preparedStatement.setTime(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setTimestamp(index, x));
+        } else {
+            preparedStatement.setTimestamp(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setAsciiStream(index, x, length));
+        } else {
+            preparedStatement.setAsciiStream(parameterPlan.getTargetIndex(parameterIndex), x, length);
+        }
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setAsciiStream(index, x, length));
+        } else {
+            preparedStatement.setAsciiStream(parameterPlan.getTargetIndex(parameterIndex), x, length);
+        }
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setAsciiStream(index, x));
+        } else {
+            preparedStatement.setAsciiStream(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setUnicodeStream(index, x, length));
+        } else {
+            preparedStatement.setUnicodeStream(parameterPlan.getTargetIndex(parameterIndex), x, length);
+        }
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBinaryStream(index, x));
+        } else {
+            preparedStatement.setBinaryStream(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBinaryStream(index, x, length));
+        } else {
+            preparedStatement.setBinaryStream(parameterPlan.getTargetIndex(parameterIndex), x, length);
+        }
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBinaryStream(index, x, length));
+        } else {
+            preparedStatement.setBinaryStream(parameterPlan.getTargetIndex(parameterIndex), x, length);
+        }
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        parameters.clear();
+        pendingValues.clear();
+        idValues.clear();
+        preparedStatement.clearParameters();
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setObject(index, x, targetSqlType));
+        } else {
+            preparedStatement.setObject(parameterPlan.getTargetIndex(parameterIndex), x, targetSqlType);
+        }
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setObject(index, x));
+        } else {
+            preparedStatement.setObject(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setObject(index, x, targetSqlType));
+        } else {
+            preparedStatement.setObject(parameterPlan.getTargetIndex(parameterIndex), x, targetSqlType);
+        }
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        try {
+            encryptPendingValues();
+            boolean result = preparedStatement.execute();
+            lookupWriter.statementExecuted();
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        if (!recordParameters) {
+            preparedStatement.addBatch();
+            return;
+        }
+        // the values of the row are encrypted together with the rest of the batch, once it is executed
+        batchRows.add(new BatchRow(new HashMap<>(parameters), new TreeMap<>(pendingValues), new TreeMap<>(idValues)));
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setCharacterStream(index, reader, length));
+        } else {
+            preparedStatement.setCharacterStream(parameterPlan.getTargetIndex(parameterIndex), reader, length);
+        }
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setCharacterStream(index, reader));
+        } else {
+            preparedStatement.setCharacterStream(parameterPlan.getTargetIndex(parameterIndex), reader);
+        }
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setCharacterStream(index, reader, length));
+        } else {
+            preparedStatement.setCharacterStream(parameterPlan.getTargetIndex(parameterIndex), reader, length);
+        }
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return preparedStatement.getMetaData();
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setDate(index, x, cal));
+        } else {
+            preparedStatement.setDate(parameterPlan.getTargetIndex(parameterIndex), x, cal);
+        }
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setTime(index, x, cal));
+        } else {
+            preparedStatement.setTime(parameterPlan.getTargetIndex(parameterIndex), x, cal);
+        }
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setTimestamp(index, x, cal));
+        } else {
+            preparedStatement.setTimestamp(parameterPlan.getTargetIndex(parameterIndex), x, cal);
+        }
+    }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setURL(index, x));
+        } else {
+            preparedStatement.setURL(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        return preparedStatement.getParameterMetaData();
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setRowId(index, x));
+        } else {
+            preparedStatement.setRowId(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, value, (target, index) -> target.setNString(index, value));
+        } else {
+            preparedStatement.setNString(parameterPlan.getTargetIndex(parameterIndex), value);
+        }
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNCharacterStream(index, value));
+        } else {
+            preparedStatement.setNCharacterStream(parameterPlan.getTargetIndex(parameterIndex), value);
+        }
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNCharacterStream(index, value, length));
+        } else {
+            preparedStatement.setNCharacterStream(parameterPlan.getTargetIndex(parameterIndex), value, length);
+        }
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNClob(index, value));
+        } else {
+            preparedStatement.setNClob(parameterPlan.getTargetIndex(parameterIndex), value);
+        }
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setClob(index, reader, length));
+        } else {
+            preparedStatement.setClob(parameterPlan.getTargetIndex(parameterIndex), reader, length);
+        }
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setClob(index, reader));
+        } else {
+            preparedStatement.setClob(parameterPlan.getTargetIndex(parameterIndex), reader);
+        }
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBlob(index, inputStream, length));
+        } else {
+            preparedStatement.setBlob(parameterPlan.getTargetIndex(parameterIndex), inputStream, length);
+        }
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBlob(index, inputStream));
+        } else {
+            preparedStatement.setBlob(parameterPlan.getTargetIndex(parameterIndex), inputStream);
+        }
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNClob(index, reader));
+        } else {
+            preparedStatement.setNClob(parameterPlan.getTargetIndex(parameterIndex), reader);
+        }
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNClob(index, reader, length));
+        } else {
+            preparedStatement.setNClob(parameterPlan.getTargetIndex(parameterIndex), reader, length);
+        }
+    }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setSQLXML(index, xmlObject));
+        } else {
+            preparedStatement.setSQLXML(parameterPlan.getTargetIndex(parameterIndex), xmlObject);
+        }
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setObject(index, x, targetSqlType, scaleOrLength));
+        } else {
+            preparedStatement.setObject(parameterPlan.getTargetIndex(parameterIndex), x, targetSqlType, scaleOrLength);
+        }
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, x, (target, index) -> target.setObject(index, x, targetSqlType, scaleOrLength));
+        } else {
+            preparedStatement.setObject(parameterPlan.getTargetIndex(parameterIndex), x, targetSqlType, scaleOrLength);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        try {
+            encryptPendingValues();
+            long result = preparedStatement.executeLargeUpdate();
+            lookupWriter.statementExecuted();
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            logException(ex);
+            throw ex;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setArray(index, x));
+        } else {
+            preparedStatement.setArray(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setNull(index, sqlType, typeName));
+        } else {
+            preparedStatement.setNull(parameterPlan.getTargetIndex(parameterIndex), sqlType, typeName);
+        }
+    }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setRef(index, x));
+        } else {
+            preparedStatement.setRef(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setBlob(index, x));
+        } else {
+            preparedStatement.setBlob(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+        if (recordParameters) {
+            setParameter(parameterIndex, (target, index) -> target.setClob(index, x));
+        } else {
+            preparedStatement.setClob(parameterPlan.getTargetIndex(parameterIndex), x);
+        }
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return preparedStatement.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || preparedStatement.isWrapperFor(iface);
+    }
+
+    public String normalizeValue(String value) {
+        // handle LIKE syntax
+        if (value.startsWith("%")) {
+            value = value.substring(1);
+        }
+        if (value.endsWith("%")) {
+           value = value.substring(0, value.length() - 1); 
+        }
+        return value;
+    }
+
+    private void setParameter(int parameterIndex, ParameterSetter setter) throws SQLException {
+        setParameter(parameterIndex, null, setter);
+    }
+
+    /**
+     * @param value the value of the parameter, kept if it is the id of the modified records
+     */
+    private void setParameter(int parameterIndex, Object value, ParameterSetter setter) throws SQLException {
+        if (recordParameters) {
+            pendingValues.remove(parameterIndex);
+            if (parameterPlan.isIdParameter(parameterIndex)) {
+                idValues.put(parameterIndex, value);
+            }
+        }
+        setTargetParameter(parameterPlan.getTargetIndex(parameterIndex), setter, parameters);
+    }
+
+    private void setTargetParameter(int index, ParameterSetter setter, Map<Integer, ParameterSetter> recordedParameters) 
+            throws SQLException {
+        setter.set(preparedStatement, index);
+        if (recordParameters) {
+            recordedParameters.put(index, setter);
+        }
+    }
+
+    /**
+     * Encrypts the values of the encrypted parameters that are set and sets them to the target statement
+     */
+    private void encryptPendingValues() throws SQLException {
+        lookupWriter.startStatement();
+        if (pendingValues.isEmpty()) {
+            return;
+        }
+        List<EncryptionRequest> requests = new ArrayList<>(pendingValues.size());
+        for (Map.Entry<Integer, String> entry : pendingValues.entrySet()) {
+            requests.add(createEncryptionRequest(entry.getKey(), entry.getValue()));
+        }
+        List<Pair<String, List<String>>> results = encryptionService.encryptStrings(requests, parameterPlan.getKind());
+        int i = 0;
+        for (Integer parameterIndex : pendingValues.keySet()) {
+            setEncryptedParameter(parameterIndex, results.get(i++), parameters, idValues);
+        }
+        pendingValues.clear();
+    }
+
+    /**
+     * Encrypts the values of all rows of the batch together and adds the rows to the target statement
+     */
+    private void addPendingBatch() throws SQLException {
+        lookupWriter.startStatement();
+        if (batchRows.isEmpty()) {
+            return;
+        }
+        try {
+            List<EncryptionRequest> requests = new ArrayList<>();
+            for (BatchRow row : batchRows) {
+                for (Map.Entry<Integer, String> entry : row.pendingValues.entrySet()) {
+                    requests.add(createEncryptionRequest(entry.getKey(), entry.getValue()));
+                }
+            }
+            List<Pair<String, List<String>>> results = requests.isEmpty() ? new ArrayList<>()
+                    : encryptionService.encryptStrings(requests, parameterPlan.getKind());
+            int i = 0;
+            for (BatchRow row : batchRows) {
+                for (Map.Entry<Integer, ParameterSetter> parameter : row.parameters.entrySet()) {
+                    parameter.getValue().set(preparedStatement, parameter.getKey());
+                }
+                for (Integer parameterIndex : row.pendingValues.keySet()) {
+                    setEncryptedParameter(parameterIndex, results.get(i++), row.parameters, row.idValues);
+                }
+                preparedStatement.addBatch();
+            }
+        } finally {
+            batchRows.clear();
+        }
+    }
+
+    private EncryptionRequest createEncryptionRequest(int parameterIndex, String value) {
+        TableColumn column = parameterPlan.getColumn(parameterIndex);
+        return new EncryptionRequest(value, column.getTableName(), column.getColumName());
+    }
+
+    private void setEncryptedParameter(int parameterIndex, Pair<String, List<String>> encryptionResult, 
+            Map<Integer, ParameterSetter> recordedParameters, Map<Integer, Object> rowIdValues) throws SQLException {
+        TableColumn column = parameterPlan.getColumn(parameterIndex);
+        List<String> lookupKeys = encryptionResult.getValue();
+        if (parameterPlan.getKind().isModification() && lookupKeys != null && !lookupKeys.isEmpty()) {
+            if (lookupKeys.size() > 1) {
+                lookupManager.storeLookup(lookupKeys, column.getTableName(), 
+                    column.getColumName(), getIds(parameterIndex, rowIdValues), lookupWriter);
+            } else if (parameterPlan.hasLookupColumn(parameterIndex)) {
+                // the lookup columns are added to INSERT and UPDATE queries, so set the appropriate lookup value
+                String lookupKey = lookupKeys.iterator().next();
+                setTargetParameter(parameterPlan.getLookupColumnIndex(parameterIndex), 
+                        (target, index) -> target.setString(index, lookupKey), recordedParameters);
+            }
+        }
+        String ciphertext = encryptionResult.getKey(); // check extended comment in SentinelDBStatement
+        setTargetParameter(parameterPlan.getTargetIndex(parameterIndex), 
+                (target, index) -> target.setString(index, ciphertext), recordedParameters);
+    }
+
+    /**
+     * @return the ids of the records modified with the given parameter - the ones in the query (or selected by the id query),
+     * followed by the values of the id parameters of the row. For INSERT queries that is the id of the record 
+     * inserted by the row of the parameter
+     */
+    private List<Object> getIds(int parameterIndex, Map<Integer, Object> rowIdValues) {
+        if (parameterPlan.getKind() == StatementKind.INSERT) {
+            int row = parameterPlan.getRow(parameterIndex);
+            Object id = parseResult.getInsertedId(row);
+            if ("?".equals(id)) {
+                id = null;
+                for (Map.Entry<Integer, Object> idValue : rowIdValues.entrySet()) {
+                    if (parameterPlan.getRow(idValue.getKey()) == row) {
+                        id = idValue.getValue();
+                    }
+                }
+            }
+            return Collections.singletonList(id);
+        }
+        List<Object> ids = new ArrayList<>(parseResult.getIds().size());
+        for (Object id : parseResult.getIds()) {
+            if (!"?".equals(id)) {
+                ids.add(id);
+            }
+        }
+        ids.addAll(rowIdValues.values());
+        return ids;
+    }
+
+    private ResultSet auditQuery(ResultSet resultSet) throws SQLException {
+        List<String> columnNames = ResultUtils.getColumns(resultSet);
+        auditLogService.logQuery(query, columnNames);
+        
+        // wrapping the result in a decrypting result set, unless it can't have encrypted values
+        return intercepted ? new DecryptingResultSet(resultSet, this, encryptionService) : resultSet;
+    }
+
+    private void logException(Exception ex) {
+        System.out.println("Exception for query " + query);
+        ex.printStackTrace();
+    }
+
+    private interface ParameterSetter {
+        void set(PreparedStatement target, int index) throws SQLException;
+    }
+
+    private static class BatchRow {
+        private final Map<Integer, ParameterSetter> parameters;
+        private final Map<Integer, String> pendingValues;
+        private final Map<Integer, Object> idValues;
+
+        BatchRow(Map<Integer, ParameterSetter> parameters, Map<Integer, String> pendingValues, Map<Integer, Object> idValues) {
+            this.parameters = parameters;
+            this.pendingValues = pendingValues;
+            this.idValues = idValues;
+        }
+    }
+}
@@ -0,0 +1,643 @@
+package com.logsentinel.sentineldb.proxies;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.logsentinel.sentineldb.AuditLogService;
+import com.logsentinel.sentineldb.DatabaseType;
+import com.logsentinel.sentineldb.DriverContext;
+import com.logsentinel.sentineldb.DriverMetrics;
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.ExternalEncryptionService;
+import com.logsentinel.sentineldb.ExternalEncryptionService.EncryptionRequest;
+import com.logsentinel.sentineldb.LookupManager;
+import com.logsentinel.sentineldb.LookupWriter;
+import com.logsentinel.sentineldb.ParameterPlan;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.ResultUtils;
+import com.logsentinel.sentineldb.SqlParser;
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.SqlParser.TableColumn;
+import com.logsentinel.sentineldb.events.QueryInterceptionEvent;
+
+/**
+ * Wraps a statement of the target driver. The values of encrypted columns in queries are encrypted (or replaced
+ * by their lookup keys in WHERE clauses), the queries are audited and their results are decrypted.
+ */
+public class SentinelDBStatement implements Statement {
+    private final Statement statement;
+    private final Connection connection;
+    private final ExternalEncryptionService encryptionService;
+    private final AuditLogService auditLogService;
+    private final SqlParser sqlParser;
+    private final LookupManager lookupManager;
+    private final LookupWriter lookupWriter;
+    private final DriverContext context;
+    private final DriverMetrics metrics;
+    // queries added to the batch, which are processed together when the batch is executed
+    private final List<String> batch = new ArrayList<>();
+    
+    SentinelDBStatement(Statement statement, SentinelDBConnection connection, ExternalEncryptionService encryptionService, 
+            AuditLogService auditLogService, SqlParser sqlParser, LookupManager lookupManager, DriverContext context) {
+        this.statement = statement;
+        this.connection = connection;
+        this.encryptionService = encryptionService;
+        this.auditLogService = auditLogService;
+        this.sqlParser = sqlParser;
+        this.lookupManager = lookupManager;
+        this.lookupWriter = connection.getLookupWriter();
+        this.context = context;
+        this.metrics = context != null ? context.getMetrics() : DriverMetrics.disabled();
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        boolean intercepted = encryptionService.requiresInterception(sql);
+        String query = processQuery(sql, intercepted);
+        ResultSet resultSet = null;
+        try {
+            resultSet = statement.executeQuery(query);
+            refreshMetadataOnDdl(query);
+        } finally {
+            if (resultSet == null) {
+                auditLogService.logQuery(query);
+            }
+        }
+        return auditQuery(query, resultSet, intercepted);
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        String query = processQuery(sql);
+        try {
+            int result = statement.executeUpdate(query);
+            refreshMetadataOnDdl(query);
+            lookupWriter.statementExecuted();
+            return result;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        statement.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return statement.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        statement.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return statement.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        statement.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        statement.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return statement.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        statement.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        statement.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return statement.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        statement.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        statement.setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        boolean result = statement.execute(sql);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return statement.getResultSet();
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return statement.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return statement.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        statement.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return statement.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        statement.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return statement.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return statement.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return statement.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        // the values of all queries of the batch are encrypted together when it is executed
+        batch.add(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        batch.clear();
+        statement.clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        addPendingBatch();
+        int[] result = statement.executeBatch();
+        lookupWriter.statementExecuted();
+        return result;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return statement.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return statement.getGeneratedKeys();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        String query = processQuery(sql);
+        try {
+            int result = statement.executeUpdate(query, autoGeneratedKeys);
+            refreshMetadataOnDdl(query);
+            lookupWriter.statementExecuted();
+            return result;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        String query = processQuery(sql);
+        try {
+            int result = statement.executeUpdate(query, columnIndexes);
+            refreshMetadataOnDdl(query);
+            lookupWriter.statementExecuted();
+            return result;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        String query = processQuery(sql);
+        try {
+            int result = statement.executeUpdate(query, columnNames);
+            refreshMetadataOnDdl(query);
+            lookupWriter.statementExecuted();
+            return result;
+        } finally {
+            auditLogService.logQuery(query);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        boolean result = statement.execute(sql, autoGeneratedKeys);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        boolean result = statement.execute(sql, columnIndexes);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        boolean result = statement.execute(sql, columnNames);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return statement.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return statement.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        statement.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return statement.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        statement.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return statement.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return statement.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        statement.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return statement.getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        addPendingBatch();
+        long[] result = statement.executeLargeBatch();
+        lookupWriter.statementExecuted();
+        return result;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        long result = statement.executeLargeUpdate(sql);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        long result = statement.executeLargeUpdate(sql, autoGeneratedKeys);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        long result = statement.executeLargeUpdate(sql, columnIndexes);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        long result = statement.executeLargeUpdate(sql, columnNames);
+        refreshMetadataOnDdl(sql);
+        return result;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return statement.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || statement.isWrapperFor(iface);
+    }
+
+    /**
+     * Processes the queries of the batch and adds them to the target statement. The sensitive values of all queries
+     * are encrypted in parallel, rather than one by one
+     */
+    private void addPendingBatch() throws SQLException {
+        lookupWriter.startStatement();
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            List<SqlParseResult> parseResults = new ArrayList<>(batch.size());
+            StatementKind batchKind = StatementKind.of(batch.get(0));
+            for (String sql : batch) {
+                parseResults.add(encryptionService.requiresInterception(sql) ? sqlParser.parse(sql, statement.getConnection()) : null);
+                if (StatementKind.of(sql) != batchKind) {
+                    batchKind = StatementKind.OTHER;
+                }
+            }
+            List<List<Pair<String, List<String>>>> encryptedValues = encryptValues(parseResults, batchKind);
+            
+            for (int i = 0; i < batch.size(); i++) {
+                // queries that are not parsed (or can't be) are not rewritten
+                String query = parseResults.get(i) != null 
+                        ? processQuery(batch.get(i), parseResults.get(i), encryptedValues.get(i)) : batch.get(i);
+                try {
+                    statement.addBatch(query);
+                } finally {
+                    auditLogService.logQuery(query);
+                }
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Encrypts the values of the encrypted columns of all given queries (or all rows of a multi-row INSERT) together.
+     * Values are kept by position rather than by column, as parse results may share their columns (e.g. the same 
+     * query added to a batch twice)
+     * 
+     * @return the encrypted values and lookup keys of each query, by the index of the column in its parse result 
+     * (null for the columns that are not encrypted)
+     */
+    private List<List<Pair<String, List<String>>>> encryptValues(List<SqlParseResult> parseResults, StatementKind kind) {
+        List<List<Pair<String, List<String>>>> encryptedValues = new ArrayList<>(parseResults.size());
+        List<int[]> positions = new ArrayList<>();
+        List<EncryptionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < parseResults.size(); i++) {
+            SqlParseResult parseResult = parseResults.get(i);
+            if (parseResult == null) {
+                encryptedValues.add(Collections.emptyList());
+                continue;
+            }
+            List<TableColumn> columns = parseResult.getColumns();
+            encryptedValues.add(new ArrayList<>(Collections.nCopies(columns.size(), null)));
+            for (int j = 0; j < columns.size(); j++) {
+                TableColumn column = columns.get(j);
+                if (column.getValue() != null && encryptionService.isEncrypted(column.getTableName(), column.getColumName())) {
+                    positions.add(new int[] { i, j });
+                    requests.add(new EncryptionRequest(column.getValue(), column.getTableName(), column.getColumName()));
+                }
+            }
+        }
+        
+        if (!requests.isEmpty()) {
+            List<Pair<String, List<String>>> results = encryptionService.encryptStrings(requests, kind);
+            for (int i = 0; i < positions.size(); i++) {
+                int[] position = positions.get(i);
+                encryptedValues.get(position[0]).set(position[1], results.get(i));
+            }
+        }
+        return encryptedValues;
+    }
+
+    private String processQuery(String query) throws SQLException {
+        return processQuery(query, encryptionService.requiresInterception(query));
+    }
+
+    /**
+     * @param intercepted whether the query may reference a table with sensitive data. If not, it is passed as it is,
+     * without being parsed
+     */
+    private String processQuery(String query, boolean intercepted) throws SQLException {
+        lookupWriter.startStatement();
+        return intercepted ? processQuery(query, null, null) : query;
+    }
+
+    /**
+     * @param batchParseResult the parse result of a batched query, or null if the query is to be parsed
+     * @param encryptedValues the encrypted values of a batched query, or null if the values of the query are to be encrypted
+     */
+    private String processQuery(String query, SqlParseResult batchParseResult, 
+            List<Pair<String, List<String>>> encryptedValues) throws SQLException {
+        StatementKind kind = StatementKind.of(query);
+        QueryInterceptionEvent event = new QueryInterceptionEvent();
+        event.begin();
+        long start = metrics.start();
+        SqlParseResult parseResult = batchParseResult;
+        try {
+            if (parseResult == null) {
+                parseResult = sqlParser.parse(query, statement.getConnection());
+            }
+            if (encryptedValues == null) {
+                encryptedValues = encryptValues(Collections.singletonList(parseResult), kind).get(0);
+            }
+            String processedQuery = rewriteQuery(query, parseResult, kind, encryptedValues);
+            metrics.record(Phase.REWRITE, parseResult != null ? parseResult.getMainTable() : null, kind, start);
+            return processedQuery;
+        } catch (SQLException | RuntimeException ex) {
+            metrics.recordError(Phase.REWRITE, parseResult != null ? parseResult.getMainTable() : null, kind);
+            throw ex;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.describe(query, kind.name(), parseResult, false);
+                event.commit();
+            }
+        }
+    }
+
+    private String rewriteQuery(String query, SqlParseResult parseResult, StatementKind kind, 
+            List<Pair<String, List<String>>> encryptedValues) throws SQLException {
+        // TODO for INSERT INTO queries without a field list, there should be automatically appended (and set) as many values as there are additionally created columns
+        
+        if (parseResult != null) {
+            // the lookup keys of inserted values by column index, which are appended to their rows
+            Map<Integer, String> lookupValues = new HashMap<>();
+            List<TableColumn> columns = parseResult.getColumns();
+            for (int i = 0; i < columns.size(); i++) {
+                TableColumn column = columns.get(i);
+                // "getColumns" returns columns for INSERT and UPDATE queries
+                // for them, we generate an ID every time. We don't need to preserve the recordId across updates, as the ID is used to identify the record 
+                // when the key is fetched in the key-management service. It is entirely acceptable to have multiple fields in the same record with different recordIds
+                // as they are individually decrypted based on the ID stored in the column itself
+                // The added bonus of that approach is that is serves as re-encryption (using a new key for every update)
+                // the only downside is that in update-heavy databases there will be a lot of unused keys in the key management system
+                // However, keys are cheap and there can be a scheduled job that collects all active IDs and deletes dormant keys (TODO)
+                
+                if (column.getValue() != null && encryptionService.isEncrypted(column.getTableName(), column.getColumName())) {
+                    Pair<String, List<String>> result = encryptedValues.get(i);
+                    query = query.replace(quote(column.getValue()), quote(result.getLeft()));
+                    // do the same in case double-quotes are enabled for MySQL
+                    DatabaseType dbType = DatabaseType.findByName(statement.getConnection().getMetaData().getDatabaseProductName());
+                    if (dbType == DatabaseType.MYSQL || dbType == DatabaseType.MARIADB) {
+                        query = query.replace(doubleQuote(column.getValue()), doubleQuote(result.getLeft()));
+                    }
+                    List<String> lookupKeys = result.getRight();
+                    if (kind != StatementKind.INSERT) {
+                        lookupManager.storeLookup(lookupKeys, column.getTableName(), column.getColumName(), parseResult.getIds(), lookupWriter);
+                    } else if (lookupKeys != null && lookupKeys.size() == 1) {
+                        lookupValues.put(i, lookupKeys.get(0));
+                    } else if (lookupKeys != null) {
+                        // each row of an INSERT is a record of its own, and the columns of all rows are one after another
+                        Object id = parseResult.getInsertedId(i / (columns.size() / parseResult.getRowCount()));
+                        lookupManager.storeLookup(lookupKeys, column.getTableName(), column.getColumName(), 
+                                Collections.singletonList(id), lookupWriter);
+                    }
+                }
+            }
+            if (kind == StatementKind.INSERT) {
+                query = appendLookupValues(query, parseResult, lookupValues);
+            }
+
+            for (TableColumn whereColumn : parseResult.getWhereColumns()) {
+                // only searchable encrypted columns have lookup columns, so there is no need to fetch lookup keys for the rest
+                if (!encryptionService.getSearchableEncryptedColumns(whereColumn.getTableName()).contains(whereColumn.getColumName())) {
+                    continue;
+                }
+                // replace: /where x="y"/where x_sentineldb_lookup=hash(enc(y))/ to make queries work
+                long lookupStart = metrics.start();
+                String lookupKey = encryptionService.getLookupKey(whereColumn.getValue());
+                metrics.record(Phase.LOOKUP_KEY, whereColumn.getTableName(), kind, lookupStart);
+                query = query.replace(quote(whereColumn.getValue()), quote(lookupKey));
+                DatabaseType dbType = DatabaseType.findByName(statement.getConnection().getMetaData().getDatabaseProductName());
+                if (dbType == DatabaseType.MYSQL || dbType == DatabaseType.MARIADB) {
+                    query = query.replace(doubleQuote(whereColumn.getValue()), doubleQuote(lookupKey));
+                }
+                query = query.replace(whereColumn.getColumName() + "=", whereColumn.getColumName() + LookupManager.SENTINELDB_LOOKUP_COLUMN_SUFFIX + "=");
+                query = query.replace(whereColumn.getColumName() + " =", whereColumn.getColumName() + LookupManager.SENTINELDB_LOOKUP_COLUMN_SUFFIX + " =");
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Adds the lookup columns of the searchable columns to an INSERT query, with the lookup key of the value in each row
+     */
+    private String appendLookupValues(String query, SqlParseResult parseResult, Map<Integer, String> lookupValues) {
+        List<String> lookupColumns = ParameterPlan.getSearchableQueryColumns(StatementKind.INSERT, parseResult, encryptionService);
+        if (lookupColumns.isEmpty()) {
+            return query;
+        }
+        List<List<String>> rowValues = new ArrayList<>(parseResult.getRowCount());
+        List<List<TableColumn>> rows = parseResult.getRows();
+        for (int i = 0; i < rows.size(); i++) {
+            List<TableColumn> row = rows.get(i);
+            // the columns of all rows are one after another in the parse result
+            int rowOffset = i * row.size();
+            List<String> values = new ArrayList<>(lookupColumns.size());
+            for (String lookupColumn : lookupColumns) {
+                String value = "NULL";
+                for (int j = 0; j < row.size(); j++) {
+                    if (row.get(j).getColumName().equals(lookupColumn) && lookupValues.containsKey(rowOffset + j)) {
+                        value = quote(lookupValues.get(rowOffset + j));
+                    }
+                }
+                values.add(value);
+            }
+            rowValues.add(values);
+        }
+        return LookupManager.appendLookupColumns(query, lookupColumns, rowValues);
+    }
+
+    private ResultSet auditQuery(String query, ResultSet resultSet, boolean intercepted) throws SQLException {
+        List<String> columnNames = ResultUtils.getColumns(resultSet);
+        auditLogService.logQuery(query, columnNames);
+        
+        // wrapping the result in a decrypting result set, unless it can't have encrypted values
+        return intercepted ? new DecryptingResultSet(resultSet, this, encryptionService) : resultSet;
+    }
+
+    private void refreshMetadataOnDdl(String query) throws SQLException {
+        if (context != null && isDdl(query)) {
+            List<String> tables = SqlParser.getDdlTables(query);
+            if (tables == null) {
+                // the changed tables are unknown, so all of the shared table metadata is outdated
+                context.invalidateMetadata();
+            } else if (!tables.isEmpty()) {
+                // only the changed tables are refreshed. The target connection is used, so that adding lookup columns
+                // is not intercepted
+                context.refreshTables(tables, statement.getConnection());
+            }
+        }
+    }
+    
+    private boolean isDdl(String query) {
+        if (query == null) {
+            return false;
+        }
+        query = query.trim().toUpperCase();
+        return query.startsWith("CREATE") || query.startsWith("ALTER") 
+                || query.startsWith("DROP") || query.startsWith("RENAME");
+    }
+    
+    private String quote(String string) {
+        return "'" + string + "'";
+    }
+    private String doubleQuote(String string) {
+        return "\"" + string + "\"";
+    }
+}
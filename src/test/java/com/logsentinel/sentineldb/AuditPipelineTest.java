@@ -0,0 +1,148 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AuditPipelineTest {
+
+    @Test
+    public void batchBySizeTest() throws Exception {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        AuditPipeline pipeline = new AuditPipeline(batch -> {
+            batchSizes.add(batch.size());
+            return Collections.emptyList();
+        },
+                64, 10, TimeUnit.HOURS.toMillis(1), AuditOverflowPolicy.BLOCK, null);
+        pipeline.start();
+        for (int i = 0; i < 30; i++) {
+            pipeline.submit(event("SELECT " + i));
+        }
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(5000));
+
+        assertThat(batchSizes, equalTo(Arrays.asList(10, 10, 10)));
+        assertThat(pipeline.getSentEvents(), equalTo(30L));
+        assertThat(pipeline.getAverageBatchSize(), equalTo(10d));
+    }
+
+    @Test
+    public void batchByTimeTest() throws Exception {
+        CountDownLatch sent = new CountDownLatch(1);
+        AtomicInteger batchSize = new AtomicInteger();
+        AuditPipeline pipeline = new AuditPipeline(batch -> {
+            batchSize.set(batch.size());
+            sent.countDown();
+            return Collections.emptyList();
+        }, 64, 100, 20, AuditOverflowPolicy.BLOCK, null);
+        pipeline.start();
+        pipeline.submit(event("SELECT 1"));
+
+        // the batch is not full, so it's sent after the interval
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertThat(batchSize.get(), equalTo(1));
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void dropOldestTest() throws Exception {
+        List<String> queries = new CopyOnWriteArrayList<>();
+        // the drainer is not started, so the queue fills up
+        AuditPipeline pipeline = new AuditPipeline(batch -> {
+            batch.forEach(e -> queries.add(e.getQuery()));
+            return Collections.emptyList();
+        },
+                4, 10, 10, AuditOverflowPolicy.DROP_OLDEST, null);
+        for (int i = 0; i < 6; i++) {
+            pipeline.submit(event("SELECT " + i));
+        }
+        assertThat(pipeline.getQueueDepth(), equalTo(4));
+        assertThat(pipeline.getDroppedEvents(), equalTo(2L));
+
+        pipeline.start();
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(5000));
+        assertThat(queries, equalTo(Arrays.asList("SELECT 2", "SELECT 3", "SELECT 4", "SELECT 5")));
+    }
+
+    @Test
+    public void spillTest() throws Exception {
+        Path spillPath = Files.createTempFile("sentineldb-audit-test", ".spill");
+        List<AuditEvent> events = new CopyOnWriteArrayList<>();
+        AuditPipeline pipeline = new AuditPipeline(batch -> {
+            events.addAll(batch);
+            return Collections.emptyList();
+        }, 2, 10, 10,
+                AuditOverflowPolicy.SPILL, new AuditSpillFile(spillPath));
+        List<String> columns = new ArrayList<>(Arrays.asList("id", "name"));
+        for (int i = 0; i < 5; i++) {
+            pipeline.submit(new AuditEvent("actor", null, "SELECT " + i, columns, System.currentTimeMillis()));
+        }
+        assertThat(pipeline.getSpilledEvents(), equalTo(3L));
+
+        pipeline.start();
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(5000));
+        assertThat(events.size(), equalTo(5));
+        assertThat(events.get(4).getQuery(), equalTo("SELECT 4"));
+        assertThat(events.get(4).getColumnNames(), equalTo(columns));
+        assertThat(events.get(4).getActorId(), equalTo("actor"));
+        assertThat(pipeline.getDroppedEvents(), equalTo(0L));
+    }
+
+    @Test
+    public void spillFileIsCreatedOnOverflowTest() throws Exception {
+        Path directory = Files.createTempDirectory("sentineldb-audit-test");
+        AuditSpillFile unusedSpillFile = AuditSpillFile.inDirectory(directory);
+        AuditPipeline pipeline = new AuditPipeline(batch -> Collections.emptyList(), 4, 10, 10,
+                AuditOverflowPolicy.SPILL, unusedSpillFile);
+        pipeline.start();
+        pipeline.submit(event("SELECT 1"));
+        assertThat(pipeline.close(5000), equalTo(true));
+        // no event overflowed, so no file has been created
+        assertThat(unusedSpillFile.getPath(), equalTo(null));
+
+        AuditSpillFile spillFile = AuditSpillFile.inDirectory(directory);
+        pipeline = new AuditPipeline(batch -> Collections.emptyList(), 2, 10, 10, AuditOverflowPolicy.SPILL, spillFile);
+        for (int i = 0; i < 5; i++) {
+            pipeline.submit(event("SELECT " + i));
+        }
+        assertThat(spillFile.getPath().getParent(), equalTo(directory));
+        assertTrue(Files.exists(spillFile.getPath()));
+        pipeline.start();
+        assertThat(pipeline.close(5000), equalTo(true));
+        // all spilled events have been sent, so the file is deleted
+        assertThat(Files.exists(spillFile.getPath()), equalTo(false));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void queueTest() {
+        AuditEventQueue queue = new AuditEventQueue(3);
+        assertThat(queue.capacity(), equalTo(4));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(event("SELECT " + i)));
+        }
+        assertThat(queue.offer(event("SELECT 4")), equalTo(false));
+        assertThat(queue.poll().getQuery(), equalTo("SELECT 0"));
+        assertTrue(queue.offer(event("SELECT 4")));
+        assertThat(queue.size(), equalTo(4));
+    }
+
+    private AuditEvent event(String query) {
+        return new AuditEvent(null, null, query, null, System.currentTimeMillis());
+    }
+}
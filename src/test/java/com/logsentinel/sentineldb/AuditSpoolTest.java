@@ -0,0 +1,204 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AuditSpoolTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sentineldb-spool-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void replayAfterRestartTest() throws IOException {
+        AuditSpool spool = new AuditSpool(directory, 4096, 64 * 1024);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(spool.append(event("SELECT " + i)));
+        }
+        assertThat(queries(spool.read(2)), equalTo(Arrays.asList("SELECT 0", "SELECT 1")));
+        spool.commit();
+        // read, but not committed, so it is replayed
+        spool.read(1);
+        assertThat(spool.getPendingRecords(), equalTo(3L));
+        spool.close();
+
+        spool = new AuditSpool(directory, 4096, 64 * 1024);
+        assertThat(spool.getPendingRecords(), equalTo(3L));
+        assertThat(queries(spool.read(10)), equalTo(Arrays.asList("SELECT 2", "SELECT 3", "SELECT 4")));
+        spool.commit();
+        assertThat(spool.getPendingRecords(), equalTo(0L));
+        spool.close();
+    }
+
+    @Test
+    public void rotationAndBoundTest() throws IOException {
+        // two segments, each fitting a few events
+        AuditSpool spool = new AuditSpool(directory, 256, 512);
+        int appended = 0;
+        while (spool.append(event("SELECT " + appended))) {
+            appended++;
+        }
+        assertTrue(appended > 2);
+        assertThat(spool.getDiskUsageBytes(), equalTo(512L));
+
+        assertThat(spool.read(appended).size(), equalTo(appended));
+        spool.commit();
+        // the first segment is deleted, so there is space again
+        assertTrue(spool.append(event("SELECT")));
+        spool.close();
+    }
+
+    @Test
+    public void dropOldestSegmentTest() throws IOException {
+        AuditSpool spool = new AuditSpool(directory, 256, 512);
+        int appended = 0;
+        while (spool.append(event("SELECT " + appended))) {
+            appended++;
+        }
+        long dropped = spool.dropOldestSegment();
+        assertTrue(dropped > 0);
+        assertThat(spool.read(appended).size(), equalTo((int) (appended - dropped)));
+        spool.close();
+    }
+
+    @Test
+    public void corruptedRecordTest() throws IOException {
+        AuditSpool spool = new AuditSpool(directory, 256, 64 * 1024);
+        int appended = 0;
+        // fill the first segment and start a second one
+        while (spool.getDiskUsageBytes() < 512) {
+            spool.append(event("SELECT " + appended++));
+        }
+        spool.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(String.format("audit-%020d.spool", 0)).toFile(), "rw")) {
+            // a byte in the payload of the first record
+            file.seek(20);
+            file.write(file.read() ^ 0xFF);
+        }
+
+        // the rest of the corrupted segment is skipped
+        spool = new AuditSpool(directory, 256, 64 * 1024);
+        assertThat(queries(spool.read(appended)), equalTo(Arrays.asList("SELECT " + (appended - 1))));
+        assertThat(spool.getCorruptedRecords(), equalTo(1L));
+        spool.close();
+    }
+
+    /**
+     * A record that was only partially written before a crash is discarded and overwritten
+     */
+    @Test
+    public void tornRecordTest() throws IOException {
+        AuditSpool spool = new AuditSpool(directory, 4096, 64 * 1024);
+        spool.append(event("SELECT 0"));
+        spool.append(event("SELECT 1"));
+        spool.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(String.format("audit-%020d.spool", 0)).toFile(), "rw")) {
+            // the length of the second record, which is written last
+            file.seek(0);
+            int firstLength = file.readInt();
+            file.seek(8 + firstLength);
+            file.writeInt(0);
+        }
+
+        spool = new AuditSpool(directory, 4096, 64 * 1024);
+        spool.append(event("SELECT 2"));
+        assertThat(queries(spool.read(10)), equalTo(Arrays.asList("SELECT 0", "SELECT 2")));
+        spool.close();
+    }
+
+    @Test
+    public void pipelineRetriesSpooledEventsTest() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<AuditEvent> delivered = new CopyOnWriteArrayList<>();
+        AuditPipeline pipeline = new AuditPipeline(batch -> {
+            // the audit log service is unavailable for the first attempt
+            if (attempts.incrementAndGet() == 1) {
+                return batch;
+            }
+            delivered.addAll(batch);
+            return Collections.emptyList();
+        }, 0, 10, 10, AuditOverflowPolicy.BLOCK, null, new AuditSpool(directory, 4096, 64 * 1024));
+        pipeline.submit(event("SELECT 1"));
+        pipeline.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(5000));
+        assertThat(queries(delivered), equalTo(Arrays.asList("SELECT 1")));
+        assertThat(pipeline.getRetriedEvents(), equalTo(1L));
+        assertThat(pipeline.getQueueDepth(), equalTo(0));
+    }
+
+    @Test
+    public void closedPipelineReleasesSpoolTest() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch unavailable = new CountDownLatch(1);
+        AuditPipeline pipeline = new AuditPipeline(batch -> {
+            // the audit log service doesn't respond
+            sending.countDown();
+            try {
+                unavailable.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.emptyList();
+        }, 0, 10, 10, AuditOverflowPolicy.BLOCK, null, new AuditSpool(directory, 4096, 64 * 1024));
+        pipeline.submit(event("SELECT 1"));
+        pipeline.start();
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        // the spool is closed although the drainer is still sending, so it can be opened again right away
+        assertThat(pipeline.close(100), equalTo(false));
+        AuditSpool spool = new AuditSpool(directory, 4096, 64 * 1024);
+        unavailable.countDown();
+        assertTrue(pipeline.awaitTermination(5000));
+        // the event was not committed, so it is delivered again
+        assertThat(queries(spool.read(10)), equalTo(Arrays.asList("SELECT 1")));
+        spool.close();
+    }
+
+    private List<String> queries(List<AuditEvent> events) {
+        return events.stream().map(AuditEvent::getQuery).collect(Collectors.toList());
+    }
+
+    private AuditEvent event(String query) {
+        return new AuditEvent("actor", null, query, Arrays.asList("id"), System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,57 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class BlindIndexTest {
+
+    // the expected values are the RFC 4231 HMAC-SHA256 test cases 1 and 2 (Base64-encoded), not values returned by SentinelDB.
+    // They verify the HMAC, which is the function SentinelDB uses for lookup values
+    @Test
+    public void hmacTestVectorsTest() {
+        byte[] key = new byte[20];
+        Arrays.fill(key, (byte) 0x0b);
+        assertThat(new BlindIndex(key).computeLookupKey("Hi There"), 
+                equalTo("sDRMYdjbOFNcqK/OrwvxK4gdwgDJgz2nJuk3bC4yz/c="));
+        assertThat(new BlindIndex("Jefe".getBytes(StandardCharsets.US_ASCII)).computeLookupKey("what do ya want for nothing?"), 
+                equalTo("W9zBRr9gdU5qBCQmCJV1x1oAPwidJzmDnexYuWTsOEM="));
+    }
+
+    // checks the lookup keys against an independent HMAC-SHA256 implementation (the JDK's), with a key of the size 
+    // of blind index keys and plaintexts like the ones stored in lookup columns
+    @Test
+    public void jdkHmacCompatibilityTest() throws Exception {
+        byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (0xff - i);
+        }
+        BlindIndex blindIndex = new BlindIndex(key);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        for (String plaintext : Arrays.asList("", "john@example.com", "Jöhn Dœ", "+359 888 123 456", "日本語")) {
+            String expected = Base64.getEncoder().encodeToString(mac.doFinal(plaintext.getBytes(StandardCharsets.UTF_8)));
+            assertThat(blindIndex.computeLookupKey(plaintext), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void nonAsciiPlaintextTest() {
+        byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+        String lookupKey = new BlindIndex(key).computeLookupKey("jöhn@example.com");
+        assertThat(lookupKey, equalTo("iyiA51zlkJmOoSMaM6/QxFJVuLE3b9Tch6A+8ueB42M="));
+        // fits the lookup columns
+        assertThat(lookupKey.length(), equalTo(44));
+    }
+}
@@ -0,0 +1,66 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+public class DatabaseMetadataLoaderTest {
+
+    @Test
+    public void loadTableTest() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:metadata")) {
+            try (Statement stm = conn.createStatement()) {
+                stm.executeUpdate("CREATE TABLE person (id INT PRIMARY KEY, name VARCHAR(100), email VARCHAR(100))");
+                stm.executeUpdate("CREATE TABLE membership (group_id INT, person_id INT, role VARCHAR(20), "
+                        + "PRIMARY KEY (person_id, group_id))");
+                stm.executeUpdate("CREATE TABLE log_entry (message VARCHAR(200))");
+            }
+
+            DatabaseMetadataLoader loader = new DatabaseMetadataLoader();
+            TableDefinition person = loader.load(conn, "person");
+            assertThat(person.getColumns(), equalTo(Arrays.asList("ID", "NAME", "EMAIL")));
+            assertThat(person.getIdColumn(), equalTo("ID"));
+
+            TableDefinition membership = loader.load(conn, "Membership");
+            assertThat(membership.getName(), equalTo("MEMBERSHIP"));
+            assertThat(membership.getKeyColumns(), equalTo(Arrays.asList("PERSON_ID", "GROUP_ID")));
+            assertThat(membership.getIdColumn(), nullValue());
+
+            TableDefinition logEntry = loader.load(conn, "log_entry");
+            assertThat(logEntry.getKeyColumns().isEmpty(), equalTo(true));
+            assertThat(loader.load(conn, "missing"), nullValue());
+        }
+    }
+
+    @Test
+    public void lazyResolutionTest() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:lazy_metadata")) {
+            try (Statement stm = conn.createStatement()) {
+                stm.executeUpdate("CREATE TABLE person (id INT PRIMARY KEY, name VARCHAR(100))");
+                stm.executeUpdate("CREATE TABLE session (id INT PRIMARY KEY, data VARCHAR(100))");
+            }
+
+            TableMetadata tableMetadata = new TableMetadata();
+            tableMetadata.setLoader(new DatabaseMetadataLoader());
+            tableMetadata.setSensitiveTables(table -> table.equalsIgnoreCase("person"));
+            assertThat(tableMetadata.getTable("person"), nullValue());
+
+            TableDefinition person = tableMetadata.getTable("`Person`", conn);
+            assertThat(person, notNullValue());
+            assertThat(tableMetadata.getTable("PERSON"), sameInstance(person));
+            assertThat(tableMetadata.getTable("session", conn), nullValue());
+            assertThat(tableMetadata.getTables().size(), equalTo(1));
+        }
+    }
+}
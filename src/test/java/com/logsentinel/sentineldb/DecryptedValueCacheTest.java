@@ -0,0 +1,63 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class DecryptedValueCacheTest {
+
+    @Test
+    public void getAndPutTest() {
+        DecryptedValueCache cache = new DecryptedValueCache(64 * 1024, 0);
+        String longValue = StringUtils.repeat("ünïcode", 50);
+        cache.put("sdbenc:table:1:a", "plaintext");
+        cache.put("sdbenc:table:2:b", longValue);
+
+        assertThat(cache.get("sdbenc:table:1:a"), equalTo("plaintext"));
+        assertThat(cache.get("sdbenc:table:2:b"), equalTo(longValue));
+        assertThat(cache.get("sdbenc:table:3:c"), nullValue());
+        assertThat(cache.getHits(), equalTo(2L));
+        assertThat(cache.getMisses(), equalTo(1L));
+        assertThat(cache.size(), equalTo(2));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvictionTest() {
+        // 16 blocks, so at most eight entries of two blocks each
+        DecryptedValueCache cache = new DecryptedValueCache(16 * 64, 0);
+        String value = StringUtils.repeat("x", 2 * 64);
+        for (int i = 0; i < 8; i++) {
+            cache.put("k" + i, value);
+        }
+        cache.get("k0");
+        cache.put("k8", value);
+
+        assertThat(cache.get("k1"), nullValue());
+        assertThat(cache.get("k0"), equalTo(value));
+        assertThat(cache.get("k8"), equalTo(value));
+        assertThat(cache.getEvictions(), equalTo(1L));
+        assertThat(cache.getUsedBytes(), equalTo(16 * 64L));
+    }
+
+    @Test
+    public void oversizedValuesAreNotCachedTest() {
+        // a single value can take at most an eighth of the cache
+        DecryptedValueCache cache = new DecryptedValueCache(16 * 64, 0);
+        cache.put("a", StringUtils.repeat("x", 2 * 64 + 1));
+        assertThat(cache.get("a"), nullValue());
+    }
+
+    @Test
+    public void expirationTest() throws Exception {
+        DecryptedValueCache cache = new DecryptedValueCache(64 * 1024, 1);
+        cache.put("a", "plaintext");
+        Thread.sleep(10);
+        cache.removeExpired();
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getUsedBytes(), equalTo(0L));
+        assertThat(cache.getExpirations(), equalTo(1L));
+    }
+}
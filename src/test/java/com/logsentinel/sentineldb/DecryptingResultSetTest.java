@@ -0,0 +1,180 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.proxies.DecryptingResultSet;
+
+public class DecryptingResultSetTest {
+
+    private ResultSet resultSet;
+    private ResultSetMetaData metaData;
+    private ExternalEncryptionService encryptionService;
+
+    @Before
+    public void setUp() throws SQLException {
+        resultSet = mock(ResultSet.class);
+        when(resultSet.getType()).thenReturn(ResultSet.TYPE_FORWARD_ONLY);
+        when(resultSet.getConcurrency()).thenReturn(ResultSet.CONCUR_READ_ONLY);
+        metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(2);
+        when(metaData.getColumnType(1)).thenReturn(Types.VARCHAR);
+        when(metaData.getColumnType(2)).thenReturn(Types.INTEGER);
+        when(resultSet.getMetaData()).thenReturn(metaData);
+        when(resultSet.next()).thenReturn(true, true, false);
+
+        encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.isEncrypted(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).startsWith("enc:"));
+        when(encryptionService.decryptString(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).substring(4));
+    }
+
+    @Test
+    public void decryptOnAccessTest() throws SQLException {
+        when(resultSet.getString(1)).thenReturn("enc:foo");
+        when(resultSet.getInt(2)).thenReturn(42);
+
+        DecryptingResultSet decryptingResultSet = new DecryptingResultSet(resultSet, null, encryptionService, 1);
+        assertTrue(decryptingResultSet.next());
+        assertThat(decryptingResultSet.getString(1), equalTo("foo"));
+        // other getters are passed to the underlying result set
+        assertThat(decryptingResultSet.getInt(2), equalTo(42));
+    }
+
+    @Test
+    public void windowedDecryptionTest() throws SQLException {
+        when(encryptionService.mayBeEncrypted(any(), any())).thenReturn(true);
+        when(resultSet.getString(1)).thenReturn("enc:foo", "bar");
+        when(resultSet.getObject(2)).thenReturn(1, null);
+        when(resultSet.getString(2)).thenReturn("1", null);
+        Map<String, String> plaintexts = new HashMap<>();
+        plaintexts.put("enc:foo", "foo");
+        when(encryptionService.decryptStrings(any())).thenReturn(plaintexts);
+
+        DecryptingResultSet decryptingResultSet = new DecryptingResultSet(resultSet, null, encryptionService, 10);
+        assertTrue(decryptingResultSet.next());
+        assertThat(decryptingResultSet.getString(1), equalTo("foo"));
+        assertThat(decryptingResultSet.getLong(2), equalTo(1L));
+        assertThat(decryptingResultSet.isFirst(), equalTo(true));
+
+        assertTrue(decryptingResultSet.next());
+        assertThat(decryptingResultSet.getString(1), equalTo("bar"));
+        assertThat(decryptingResultSet.getInt(2), equalTo(0));
+        assertThat(decryptingResultSet.wasNull(), equalTo(true));
+        assertThat(decryptingResultSet.isLast(), equalTo(true));
+
+        assertThat(decryptingResultSet.next(), equalTo(false));
+        assertThat(decryptingResultSet.isAfterLast(), equalTo(true));
+    }
+
+    @Test
+    public void resultSetWithoutEncryptedColumnsIsNotWindowedTest() throws SQLException {
+        when(resultSet.getString(1)).thenReturn("foo");
+        when(resultSet.getInt(2)).thenReturn(42);
+
+        DecryptingResultSet decryptingResultSet = new DecryptingResultSet(resultSet, null, encryptionService, 10);
+        assertTrue(decryptingResultSet.next());
+        assertThat(decryptingResultSet.getString(1), equalTo("foo"));
+        assertThat(decryptingResultSet.getInt(2), equalTo(42));
+        verify(resultSet, never()).getObject(anyInt());
+    }
+
+    @Test
+    public void windowedTemporalValuesTest() throws SQLException {
+        when(encryptionService.mayBeEncrypted(any(), any())).thenReturn(true);
+        when(metaData.getColumnType(2)).thenReturn(Types.TIMESTAMP);
+        String id = UUID.randomUUID().toString();
+        when(resultSet.getString(1)).thenReturn(id);
+        LocalDateTime dateTime = LocalDateTime.of(2020, 1, 2, 3, 4, 5, 123456789);
+        when(resultSet.getObject(2)).thenReturn(Timestamp.valueOf(dateTime));
+        when(resultSet.getString(2)).thenReturn("2020-01-02 03:04:05.123456789");
+        when(resultSet.findColumn("created")).thenReturn(2);
+        when(resultSet.next()).thenReturn(true, false);
+
+        DecryptingResultSet decryptingResultSet = new DecryptingResultSet(resultSet, null, encryptionService, 10);
+        assertTrue(decryptingResultSet.next());
+        // strings are formatted by the underlying result set
+        assertThat(decryptingResultSet.getString(2), equalTo("2020-01-02 03:04:05.123456789"));
+
+        // the local date and time is interpreted in the time zone of the calendar
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        assertThat(decryptingResultSet.getTimestamp(2, calendar), equalTo(Timestamp.from(dateTime.toInstant(ZoneOffset.UTC))));
+        assertThat(decryptingResultSet.getTimestamp("created", calendar).getNanos(), equalTo(123456789));
+        assertThat(decryptingResultSet.getDate(2, calendar).getTime(),
+                equalTo(dateTime.toLocalDate().atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli()));
+        assertThat(decryptingResultSet.getTime(2, calendar).getTime(),
+                equalTo(LocalDateTime.of(LocalDate.of(1970, 1, 1), dateTime.toLocalTime()).toInstant(ZoneOffset.UTC).toEpochMilli()));
+        assertThat(decryptingResultSet.getTimestamp(2, null), equalTo(Timestamp.valueOf(dateTime)));
+
+        // JDBC 4.2 types
+        assertThat(decryptingResultSet.getObject(2, LocalDateTime.class), equalTo(dateTime));
+        assertThat(decryptingResultSet.getObject(2, Instant.class), equalTo(Timestamp.valueOf(dateTime).toInstant()));
+        assertThat(decryptingResultSet.getObject(2, OffsetDateTime.class).toInstant(), equalTo(Timestamp.valueOf(dateTime).toInstant()));
+        assertThat(decryptingResultSet.getObject(1, UUID.class), equalTo(UUID.fromString(id)));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void windowedBigDecimalScaleTest() throws SQLException {
+        when(encryptionService.mayBeEncrypted(any(), any())).thenReturn(true);
+        when(metaData.getColumnType(2)).thenReturn(Types.DECIMAL);
+        when(resultSet.getString(1)).thenReturn("foo", "bar");
+        when(resultSet.getObject(2)).thenReturn(new BigDecimal("1.235"), null);
+        when(resultSet.getString(2)).thenReturn("1.235", null);
+        when(resultSet.findColumn("amount")).thenReturn(2);
+
+        DecryptingResultSet decryptingResultSet = new DecryptingResultSet(resultSet, null, encryptionService, 10);
+        assertTrue(decryptingResultSet.next());
+        // the requested scale is applied to the buffered value
+        assertThat(decryptingResultSet.getBigDecimal(2, 2), equalTo(new BigDecimal("1.24")));
+        assertThat(decryptingResultSet.getBigDecimal("amount", 1), equalTo(new BigDecimal("1.2")));
+
+        assertTrue(decryptingResultSet.next());
+        assertThat(decryptingResultSet.getBigDecimal(2, 2), equalTo(null));
+        assertThat(decryptingResultSet.wasNull(), equalTo(true));
+    }
+
+    @Test
+    public void unwrapTest() throws SQLException {
+        Statement statement = mock(Statement.class);
+        when(resultSet.isWrapperFor(Clob.class)).thenReturn(true);
+        when(resultSet.unwrap(Clob.class)).thenReturn(mock(Clob.class));
+
+        DecryptingResultSet decryptingResultSet = new DecryptingResultSet(resultSet, statement, encryptionService, 1);
+        // the wrapper implements ResultSet itself, so it must not be bypassed
+        assertThat(decryptingResultSet.unwrap(ResultSet.class) == decryptingResultSet, equalTo(true));
+        assertThat(decryptingResultSet.isWrapperFor(ResultSet.class), equalTo(true));
+        assertThat(decryptingResultSet.isWrapperFor(Clob.class), equalTo(true));
+        assertThat(decryptingResultSet.unwrap(Clob.class) != null, equalTo(true));
+        assertThat(decryptingResultSet.getStatement() == statement, equalTo(true));
+    }
+}
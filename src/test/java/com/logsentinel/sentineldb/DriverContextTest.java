@@ -0,0 +1,193 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class DriverContextTest {
+
+    @Test
+    public void contextIsSharedAndReleasedWithLastConnectionTest() {
+        DriverContext.Key key = createKey("secret");
+        ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+        AuditLogService auditLogService = mock(AuditLogService.class);
+        AtomicInteger created = new AtomicInteger();
+
+        DriverContext first = DriverContext.acquire(key, () -> {
+            created.incrementAndGet();
+            return new DriverContext(key, encryptionService, auditLogService);
+        });
+        DriverContext second = DriverContext.acquire(createKey("secret"), () -> {
+            created.incrementAndGet();
+            return new DriverContext(key, encryptionService, auditLogService);
+        });
+
+        assertThat(second, sameInstance(first));
+        assertThat(created.get(), equalTo(1));
+
+        first.release();
+        verify(encryptionService, never()).shutdown();
+
+        second.release();
+        verify(encryptionService, times(1)).shutdown();
+        verify(auditLogService, times(1)).shutdown();
+        assertThat(DriverContext.getOpenContextCount(), equalTo(0));
+    }
+
+    @Test
+    public void contextIsShutDownOutsideOfContextsMapTest() {
+        DriverContext.Key key = createKey("secret");
+        AuditLogService auditLogService = mock(AuditLogService.class);
+        DriverContext context = DriverContext.acquire(key,
+                () -> new DriverContext(key, mock(ExternalEncryptionService.class), auditLogService));
+
+        // a connection that is opened while the released context is shutting down gets a new context
+        DriverContext[] reopened = new DriverContext[1];
+        doAnswer(invocation -> {
+            reopened[0] = DriverContext.acquire(key,
+                    () -> new DriverContext(key, mock(ExternalEncryptionService.class), mock(AuditLogService.class)));
+            return null;
+        }).when(auditLogService).shutdown();
+        context.release();
+
+        assertThat(reopened[0] == context, equalTo(false));
+        assertThat(DriverContext.getOpenContextCount(), equalTo(1));
+        reopened[0].release();
+        assertThat(DriverContext.getOpenContextCount(), equalTo(0));
+    }
+
+    @Test
+    public void differentCredentialsGetDifferentContextsTest() {
+        DriverContext.Key key1 = createKey("secret1");
+        DriverContext.Key key2 = createKey("secret2");
+        DriverContext first = DriverContext.acquire(key1,
+                () -> new DriverContext(key1, mock(ExternalEncryptionService.class), mock(AuditLogService.class)));
+        DriverContext second = DriverContext.acquire(key2,
+                () -> new DriverContext(key2, mock(ExternalEncryptionService.class), mock(AuditLogService.class)));
+
+        assertThat(second == first, equalTo(false));
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void failedContextIsCreatedAgainTest() {
+        DriverContext.Key key = createKey("secret");
+        try {
+            DriverContext.acquire(key, () -> {
+                throw new IllegalStateException("SentinelDB is unavailable");
+            });
+            fail("The context must not be created");
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage(), equalTo("SentinelDB is unavailable"));
+        }
+        assertThat(DriverContext.getOpenContextCount(), equalTo(0));
+
+        DriverContext context = DriverContext.acquire(key,
+                () -> new DriverContext(key, mock(ExternalEncryptionService.class), mock(AuditLogService.class)));
+        assertThat(DriverContext.getOpenContextCount(), equalTo(1));
+        context.release();
+    }
+
+    @Test
+    public void differentSettingsGetDifferentContextsTest() {
+        DriverContext.Key local = createKey("secret", Collections.singletonMap("encryptionMode", "local"));
+        DriverContext.Key remote = createKey("secret", Collections.singletonMap("encryptionMode", "remote"));
+
+        assertThat(local.equals(remote), equalTo(false));
+        assertThat(local.equals(createKey("secret", Collections.singletonMap("encryptionMode", "local"))), equalTo(true));
+        assertThat(createKey("secret").equals(createKey("secret", Collections.emptyMap())), equalTo(true));
+    }
+
+    @Test
+    public void ddlRefreshesChangedTablesTest() throws Exception {
+        ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.tableConstainsSensitiveData(anyString())).thenReturn(false);
+        when(encryptionService.tableConstainsSensitiveData("person")).thenReturn(true);
+        when(encryptionService.getSearchableEncryptedColumns(anyString())).thenReturn(Arrays.asList("email"));
+        DriverContext.Key key = createKey("secret");
+        DriverContext context = DriverContext.acquire(key, () -> new DriverContext(key, encryptionService, mock(AuditLogService.class)));
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:ddl");
+                Statement stm = conn.createStatement()) {
+            stm.executeUpdate("CREATE TABLE person (id INT PRIMARY KEY, email VARCHAR(100))");
+            stm.executeUpdate("CREATE TABLE session (id INT PRIMARY KEY, data VARCHAR(100))");
+            context.refreshTables(Arrays.asList("person", "session"), conn);
+
+            // the lookup column is provisioned, and the table is resolved again with it
+            assertThat(context.getTableMetadata().getTable("person", conn).getColumns(), 
+                    equalTo(Arrays.asList("ID", "EMAIL", "EMAIL_SENTINELDB_LOOKUP")));
+            assertThat(context.getTableMetadata().getTable("session", conn), nullValue());
+
+            stm.executeUpdate("ALTER TABLE person ADD notes VARCHAR(100)");
+            context.refreshTables(Arrays.asList("person"), conn);
+            assertThat(context.getTableMetadata().getTable("person", conn).getColumns().size(), equalTo(4));
+        } finally {
+            context.release();
+        }
+    }
+
+    @Test
+    public void newlySearchableColumnGetsLookupColumnTest() throws Exception {
+        ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.getSchema()).thenReturn(SchemaSnapshot.EMPTY);
+        DriverContext.Key key = createKey("secret");
+        DriverContext context = DriverContext.acquire(key, () -> new DriverContext(key, encryptionService, mock(AuditLogService.class)));
+        ArgumentCaptor<Runnable> listeners = ArgumentCaptor.forClass(Runnable.class);
+        verify(encryptionService, atLeastOnce()).addSchemaChangeListener(listeners.capture());
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:provision");
+                Statement stm = conn.createStatement()) {
+            context.setConnectionFactory(() -> DriverManager.getConnection("jdbc:h2:mem:provision"));
+            stm.executeUpdate("CREATE TABLE person (id INT PRIMARY KEY, email VARCHAR(100))");
+            context.initMetadata(conn);
+
+            // the column is made searchable without a metadata snapshot
+            when(encryptionService.getSchema()).thenReturn(SchemaSnapshot.ofTables(Arrays.asList(
+                    new SchemaSnapshot.TableSchema("person", Arrays.asList(new SchemaSnapshot.ColumnSchema("email", true, false))))));
+            listeners.getAllValues().forEach(Runnable::run);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            boolean provisioned = false;
+            while (!provisioned && System.currentTimeMillis() < deadline) {
+                try (ResultSet rs = conn.getMetaData().getColumns(null, null, "PERSON", "EMAIL_SENTINELDB_LOOKUP")) {
+                    provisioned = rs.next();
+                }
+                Thread.sleep(10);
+            }
+            assertThat(provisioned, equalTo(true));
+        } finally {
+            context.release();
+        }
+    }
+
+    private DriverContext.Key createKey(String secret) {
+        return new DriverContext.Key("jdbc:h2:mem:test", "sa", "", "ab40b113-8538-4cd9-996e-c269ba1e9aa2",
+                "org", secret, null, null, null, null, null);
+    }
+
+    private DriverContext.Key createKey(String secret, Map<String, String> settings) {
+        return new DriverContext.Key("jdbc:h2:mem:test", "sa", "", "ab40b113-8538-4cd9-996e-c269ba1e9aa2",
+                "org", secret, null, null, null, null, null, settings);
+    }
+}
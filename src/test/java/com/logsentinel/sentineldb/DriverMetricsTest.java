@@ -0,0 +1,138 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.DriverMetrics.Phase;
+import com.logsentinel.sentineldb.DriverMetrics.PhaseStatistics;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+
+public class DriverMetricsTest {
+
+    @Test
+    public void bucketBoundsTest() {
+        for (long value : new long[] { 0, 1, 3, 4, 5, 7, 8, 15, 1000, 123456789, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            // the bound is at most a quarter above the value
+            assertTrue(LatencyHistogram.bucketUpperBound(index) - value <= value / 4);
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertThat(histogram.getCount(), equalTo(1000L));
+        assertThat(histogram.getMaxNanos(), equalTo(1000000L));
+        assertWithinBucket(histogram.getValueAtPercentile(50), 500000);
+        assertWithinBucket(histogram.getValueAtPercentile(99), 990000);
+        assertThat(histogram.getValueAtPercentile(100), equalTo(1000000L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), equalTo(0L));
+        assertThat(histogram.getValueAtPercentile(50), equalTo(0L));
+    }
+
+    private void assertWithinBucket(long actual, long expected) {
+        assertTrue(actual >= expected && actual <= expected + expected / 4);
+    }
+
+    @Test
+    public void breakdownByTableAndKindTest() {
+        DriverMetrics metrics = new DriverMetrics();
+        metrics.record(Phase.ENCRYPT, "Users", StatementKind.INSERT, metrics.start());
+        metrics.record(Phase.ENCRYPT, "users", StatementKind.INSERT, metrics.start());
+        metrics.record(Phase.ENCRYPT, "users", StatementKind.UPDATE, metrics.start());
+        metrics.recordError(Phase.DECRYPT, "orders", StatementKind.SELECT);
+        metrics.record(Phase.AUDIT_SEND, null, null, metrics.start());
+
+        List<PhaseStatistics> statistics = metrics.getStatistics();
+        assertThat(statistics.size(), equalTo(4));
+        assertStatistics(statistics.get(0), "ENCRYPT", "users", "INSERT", 2, 0);
+        assertStatistics(statistics.get(1), "ENCRYPT", "users", "UPDATE", 1, 0);
+        assertStatistics(statistics.get(2), "DECRYPT", "orders", "SELECT", 0, 1);
+        assertStatistics(statistics.get(3), "AUDIT_SEND", DriverMetrics.NO_TABLE, "OTHER", 1, 0);
+
+        metrics.reset();
+        assertThat(metrics.getStatistics().size(), equalTo(0));
+    }
+
+    private void assertStatistics(PhaseStatistics statistics, String phase, String table, String kind, long count, long errors) {
+        assertThat(statistics.getPhase(), equalTo(phase));
+        assertThat(statistics.getTable(), equalTo(table));
+        assertThat(statistics.getKind(), equalTo(kind));
+        assertThat(statistics.getCount(), equalTo(count));
+        assertThat(statistics.getErrors(), equalTo(errors));
+    }
+
+    @Test
+    public void tableCountIsBoundedTest() {
+        DriverMetrics metrics = new DriverMetrics();
+        for (int i = 0; i < DriverMetrics.MAX_TABLES + 10; i++) {
+            metrics.record(Phase.PARSE, "TMP_" + i, StatementKind.SELECT, metrics.start());
+        }
+        // the tables that already have histograms are still recorded by name, in any case
+        metrics.record(Phase.PARSE, "tmp_0", StatementKind.SELECT, metrics.start());
+
+        List<PhaseStatistics> statistics = metrics.getStatistics();
+        assertThat(statistics.size(), equalTo(DriverMetrics.MAX_TABLES + 1));
+        assertStatistics(statistics.get(0), "PARSE", DriverMetrics.NO_TABLE, "SELECT", 10, 0);
+        assertStatistics(statistics.get(1), "PARSE", "tmp_0", "SELECT", 2, 0);
+
+        metrics.reset();
+        metrics.record(Phase.PARSE, "other", StatementKind.SELECT, metrics.start());
+        assertStatistics(metrics.getStatistics().get(0), "PARSE", "other", "SELECT", 1, 0);
+    }
+
+    @Test
+    public void disabledMetricsTest() {
+        DriverMetrics metrics = DriverMetrics.disabled();
+        metrics.record(Phase.PARSE, "users", StatementKind.SELECT, metrics.start());
+        metrics.registerGauge("queue", () -> 1);
+        metrics.register("datastore");
+        assertThat(metrics.getStatistics().size(), equalTo(0));
+        assertThat(metrics.getGauges().size(), equalTo(0));
+        assertThat(metrics.getObjectName() == null, equalTo(true));
+    }
+
+    @Test
+    public void mbeanTest() throws Exception {
+        DriverMetrics metrics = new DriverMetrics();
+        metrics.record(Phase.PARSE, "users", StatementKind.SELECT, metrics.start());
+        metrics.registerGauge("auditQueueDepth", () -> 42);
+        metrics.register("datastore");
+        try {
+            assertThat(metrics.getObjectName(), notNullValue());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            CompositeData[] statistics = (CompositeData[]) server.getAttribute(metrics.getObjectName(), "Statistics");
+            assertThat(statistics.length, equalTo(1));
+            assertThat(statistics[0].get("phase"), equalTo("PARSE"));
+            assertThat(statistics[0].get("table"), equalTo("users"));
+            assertThat(statistics[0].get("count"), equalTo(1L));
+
+            server.invoke(metrics.getObjectName(), "reset", null, null);
+            assertThat(metrics.getStatistics().size(), equalTo(0));
+            assertThat(metrics.getGauges().get("auditQueueDepth"), equalTo(42L));
+        } finally {
+            metrics.unregister();
+        }
+        assertThat(metrics.getObjectName() == null, equalTo(true));
+    }
+}
@@ -30,6 +30,7 @@ import com.logsentinel.sentineldb.api.SearchSchemaApi;
 import com.logsentinel.sentineldb.model.ExternalEncryptionResult;
 import com.logsentinel.sentineldb.model.SearchSchema;
 import com.logsentinel.sentineldb.model.SearchSchemaField;
+import com.logsentinel.sentineldb.proxies.DecryptingResultSet;
 
 public class EmbeddedDatabaseTest {
 
@@ -53,7 +54,7 @@ public class EmbeddedDatabaseTest {
         when(externalEncryptionApi.encryptData(any(), anyString(), anyString(), anyString(), anyString())).thenAnswer(i -> createEncryptionResult(i.getArgument(4), i.getArgument(3)));
         when(externalEncryptionApi.decryptData(anyString(), any(), anyString(), anyString())).thenAnswer(i -> i.getArgument(0).toString());
         when(externalEncryptionApi.getLookupValue(any(), anyString())).thenReturn(LOOKUP_KEY);
-        when(schemaApi.listSearchSchemas()).thenReturn(Collections.singletonList(createTestSchema()));
+        when(schemaApi.listSearchSchemas()).thenReturn(Arrays.asList(createTestSchema(), createAnalyzedSchema()));
         
         try (Connection connection = DriverManager.getConnection(CONNECTION_STRING)) {
             // DDL to create the table with sensitive data
@@ -107,6 +108,125 @@ public class EmbeddedDatabaseTest {
                     pstm.executeUpdate();
                 }
                 testCurrentData(conn2, connRaw, "sensitive", "sensitive_searchable", "non_sensitive");
+                
+                // batches are encrypted when executed, both for prepared and regular statements
+                try (PreparedStatement pstm = conn2.prepareStatement("INSERT INTO sensitive(sensitive_field, searchable_sensitive_field, non_sensitive_field) VALUES (?, ?, ?)")) {
+                    for (int i = 0; i < 3; i++) {
+                        pstm.setString(1, "batch" + i);
+                        pstm.setString(2, "batch_searchable" + i);
+                        pstm.setString(3, "batch_non_sensitive" + i);
+                        pstm.addBatch();
+                    }
+                    assertThat(pstm.executeBatch().length, equalTo(3));
+                }
+                try (Statement stm = conn2.createStatement()) {
+                    for (int i = 3; i < 5; i++) {
+                        stm.addBatch("INSERT INTO sensitive(sensitive_field, searchable_sensitive_field, non_sensitive_field) VALUES ('batch" + i 
+                                + "', 'batch_searchable" + i + "', 'batch_non_sensitive" + i + "')");
+                    }
+                    assertThat(stm.executeBatch().length, equalTo(2));
+                }
+                testInsertedRows(conn2, connRaw, 5);
+                
+                // multi-row inserts get the lookup columns appended to every row
+                try (PreparedStatement pstm = conn2.prepareStatement("INSERT INTO sensitive(sensitive_field, searchable_sensitive_field, non_sensitive_field) VALUES (?, ?, ?), (?, ?, ?)")) {
+                    for (int i = 5; i < 7; i++) {
+                        int offset = (i - 5) * 3;
+                        pstm.setString(offset + 1, "batch" + i);
+                        pstm.setString(offset + 2, "batch_searchable" + i);
+                        pstm.setString(offset + 3, "batch_non_sensitive" + i);
+                    }
+                    assertThat(pstm.executeUpdate(), equalTo(2));
+                }
+                try (Statement stm = conn2.createStatement()) {
+                    assertThat(stm.executeUpdate("INSERT INTO sensitive(sensitive_field, searchable_sensitive_field, non_sensitive_field) VALUES "
+                            + "('batch7', 'batch_searchable7', 'batch_non_sensitive7'), ('batch8', 'batch_searchable8', 'batch_non_sensitive8')"), equalTo(2));
+                }
+                testInsertedRows(conn2, connRaw, 9);
+                
+                // the same query can be added to a batch more than once, and each of its rows is encrypted
+                try (Statement stm = conn2.createStatement()) {
+                    for (int i = 0; i < 2; i++) {
+                        stm.addBatch("INSERT INTO sensitive(sensitive_field, searchable_sensitive_field, non_sensitive_field) "
+                                + "VALUES ('duplicate', 'duplicate_searchable', 'duplicate_non_sensitive')");
+                    }
+                    assertThat(stm.executeBatch().length, equalTo(2));
+                    ResultSet rs = stm.executeQuery("SELECT * FROM sensitive WHERE non_sensitive_field='duplicate_non_sensitive'");
+                    for (int i = 0; i < 2; i++) {
+                        assertThat(rs.next(), equalTo(true));
+                        assertThat(rs.getString(2), equalTo("duplicate"));
+                        assertThat(rs.getString(3), equalTo("duplicate_searchable"));
+                    }
+                    assertThat(rs.next(), equalTo(false));
+                }
+                
+                // the lookup keys of analyzed values are stored for the inserted records, whose ids are set in the query
+                try (Statement stm = conn2.createStatement()) {
+                    stm.executeUpdate("CREATE TABLE notes (id INT PRIMARY KEY, content VARCHAR(100))");
+                    stm.executeUpdate("INSERT INTO notes (id, content) VALUES (1, 'first note'), (2, 'second note')");
+                }
+                try (PreparedStatement pstm = conn2.prepareStatement("INSERT INTO notes (id, content) VALUES (?, ?)")) {
+                    pstm.setInt(1, 3);
+                    pstm.setString(2, "third note");
+                    pstm.executeUpdate();
+                }
+                try (Statement stm = connRaw.createStatement(); 
+                        ResultSet rs = stm.executeQuery("SELECT lookup_key, target_record_id FROM sentineldb_lookup "
+                                + "WHERE lookup_key <> '" + LOOKUP_KEY + "' ORDER BY lookup_key, target_record_id")) {
+                    List<String> lookupRows = new ArrayList<>();
+                    while (rs.next()) {
+                        lookupRows.add(rs.getString(1) + ":" + rs.getString(2));
+                    }
+                    assertThat(lookupRows, equalTo(Arrays.asList("first:1", "note:1", "note:2", "note:3", "second:2", "third:3")));
+                }
+                
+                // by default all queries are intercepted, as encrypted values may be read through views
+                try (Statement stm = conn2.createStatement()) {
+                    stm.executeUpdate("CREATE TABLE session (id INT PRIMARY KEY, data VARCHAR(100))");
+                    stm.executeUpdate("INSERT INTO session (id, data) VALUES (1, 'plain')");
+                    ResultSet rs = stm.executeQuery("SELECT data FROM session WHERE id=1");
+                    assertThat(rs instanceof DecryptingResultSet, equalTo(true));
+                    assertThat(rs.next(), equalTo(true));
+                    assertThat(rs.getString(1), equalTo("plain"));
+                }
+                
+                // if enabled, queries of tables without sensitive data are passed through, and their results are not wrapped
+                try (Connection bypassingConn = DriverManager.getConnection(CONNECTION_STRING + ";bypassNonSensitiveQueries=true")) {
+                    try (Statement stm = bypassingConn.createStatement()) {
+                        ResultSet rs = stm.executeQuery("SELECT data FROM session WHERE id=1");
+                        assertThat(rs instanceof DecryptingResultSet, equalTo(false));
+                        assertThat(rs.next(), equalTo(true));
+                        assertThat(rs.getString(1), equalTo("plain"));
+                    }
+                    try (PreparedStatement pstm = bypassingConn.prepareStatement("SELECT data FROM session WHERE data=?")) {
+                        pstm.setString(1, "plain");
+                        ResultSet rs = pstm.executeQuery();
+                        assertThat(rs instanceof DecryptingResultSet, equalTo(false));
+                        assertThat(rs.next(), equalTo(true));
+                    }
+                }
+            }
+        }
+    }
+
+    private void testInsertedRows(Connection conn2, Connection connRaw, int rows) throws SQLException {
+        try (Statement stm = conn2.createStatement(); 
+                ResultSet rs = stm.executeQuery("SELECT * FROM sensitive WHERE non_sensitive_field LIKE 'batch%' ORDER BY id")) {
+            for (int i = 0; i < rows; i++) {
+                assertThat(rs.next(), equalTo(true));
+                assertThat(rs.getString(2), equalTo("batch" + i));
+                assertThat(rs.getString(3), equalTo("batch_searchable" + i));
+                assertThat(rs.getString(4), equalTo("batch_non_sensitive" + i));
+            }
+            assertThat(rs.next(), equalTo(false));
+        }
+        try (Statement stm = connRaw.createStatement(); 
+                ResultSet rs = stm.executeQuery("SELECT * FROM sensitive WHERE non_sensitive_field LIKE 'batch%' ORDER BY id")) {
+            for (int i = 0; i < rows; i++) {
+                assertThat(rs.next(), equalTo(true));
+                assertThat(rs.getString(2), endsWith(Base64.getEncoder().encodeToString(("batch" + i).getBytes())));
+                assertThat(rs.getString(3), endsWith(Base64.getEncoder().encodeToString(("batch_searchable" + i).getBytes())));
+                assertThat(rs.getString(5), equalTo(LOOKUP_KEY));
             }
         }
     }
@@ -157,6 +277,9 @@ public class EmbeddedDatabaseTest {
         result.setCiphertext(Base64.getEncoder().encodeToString(plaintext.toString().getBytes()));
         if (fieldName.equals("searchable_sensitive_field")) {
             result.setLookupKeys(Arrays.asList(LOOKUP_KEY));
+        } else if (fieldName.equals("content")) {
+            // an analyzed value has a lookup key per word
+            result.setLookupKeys(Arrays.asList(plaintext.toString().split(" ")));
         } else {
             result.setLookupKeys(Collections.emptyList());
         }
@@ -181,4 +304,15 @@ public class EmbeddedDatabaseTest {
         schema.setFields(fields);
         return schema;
     }
+
+    private SearchSchema createAnalyzedSchema() {
+        SearchSchema schema = new SearchSchema();
+        schema.setRecordType("notes");
+        SearchSchemaField field = new SearchSchemaField();
+        field.setIndexed(true);
+        field.setAnalyzed(true);
+        field.setName("content");
+        schema.setFields(Collections.singletonList(field));
+        return schema;
+    }
 }
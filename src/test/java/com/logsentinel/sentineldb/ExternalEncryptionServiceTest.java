@@ -0,0 +1,198 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.logsentinel.sentineldb.api.ExternalEncryptionApi;
+import com.logsentinel.sentineldb.api.SearchSchemaApi;
+import com.logsentinel.sentineldb.model.ExternalEncryptionResult;
+import com.logsentinel.sentineldb.model.SearchSchema;
+import com.logsentinel.sentineldb.model.SearchSchemaField;
+
+public class ExternalEncryptionServiceTest {
+
+    private static final UUID DATASTORE_ID = UUID.fromString("ab40b113-8538-4cd9-996e-c269ba1e9aa2");
+
+    private ExternalEncryptionApi externalEncryptionApi;
+    private ExternalEncryptionService encryptionService;
+
+    @Before
+    public void setUp() {
+        SentinelDBClient mockClient = mock(SentinelDBClient.class);
+        BiFunction<String, String, SentinelDBClient> builder = (orgId, secret) -> mockClient;
+        ReflectionTestUtils.setField(ExternalEncryptionService.class, "clientBuilder", builder);
+        externalEncryptionApi = mock(ExternalEncryptionApi.class);
+        SearchSchemaApi schemaApi = mock(SearchSchemaApi.class);
+        when(mockClient.getExternalEncryptionActions()).thenReturn(externalEncryptionApi);
+        when(mockClient.getSchemaActions()).thenReturn(schemaApi);
+        when(schemaApi.listSearchSchemas()).thenReturn(Collections.singletonList(createTestSchema()));
+
+        encryptionService = new ExternalEncryptionService("org", "secret", DATASTORE_ID);
+        encryptionService.init();
+    }
+
+    @After
+    public void tearDown() {
+        encryptionService.shutdown();
+    }
+
+    @Test
+    public void lookupKeysAreCachedTest() {
+        when(externalEncryptionApi.getLookupValue(any(), eq("john@example.com"))).thenReturn("LOOKUP1");
+
+        assertThat(encryptionService.getLookupKey("john@example.com"), equalTo("LOOKUP1"));
+        assertThat(encryptionService.getLookupKey("john@example.com"), equalTo("LOOKUP1"));
+        verify(externalEncryptionApi, times(1)).getLookupValue(any(), anyString());
+        assertThat(encryptionService.getLookupKeyCache().getHits(), equalTo(1L));
+    }
+
+    @Test
+    public void lookupKeyCacheIsWarmedByEncryptionTest() {
+        ExternalEncryptionResult result = new ExternalEncryptionResult();
+        result.setCiphertext("ciphertext");
+        result.setLookupKeys(Arrays.asList("LOOKUP2"));
+        when(externalEncryptionApi.encryptData(any(), anyString(), anyString(), anyString(), anyString())).thenReturn(result);
+
+        encryptionService.encryptString("jane@example.com", "person", "email", UUID.randomUUID());
+
+        assertThat(encryptionService.getLookupKey("jane@example.com"), equalTo("LOOKUP2"));
+        verify(externalEncryptionApi, never()).getLookupValue(any(), anyString());
+    }
+
+    @Test
+    public void disabledLookupKeyCacheTest() {
+        encryptionService.configureLookupKeyCache(0, 0, true);
+        when(externalEncryptionApi.getLookupValue(any(), anyString())).thenReturn("LOOKUP3");
+
+        encryptionService.getLookupKey("john@example.com");
+        encryptionService.getLookupKey("john@example.com");
+        verify(externalEncryptionApi, times(2)).getLookupValue(any(), anyString());
+    }
+
+    @Test
+    public void localEncryptionTest() {
+        InMemoryDataKeyProvider keyProvider = new InMemoryDataKeyProvider();
+        encryptionService.configureLocalEncryption(keyProvider, ExternalEncryptionService.DEFAULT_DATA_KEY_TTL_MILLIS, true);
+        when(externalEncryptionApi.getLookupValue(any(), eq("john@example.com"))).thenReturn("LOOKUP4");
+
+        Pair<String, List<String>> first = encryptionService.encryptString("john@example.com", "person", "email", UUID.randomUUID());
+        Pair<String, List<String>> second = encryptionService.encryptString("john@example.com", "person", "email", UUID.randomUUID());
+
+        assertThat(first.getLeft(), startsWith("sdbenc:person:"));
+        assertThat(first.getLeft(), not(equalTo(second.getLeft())));
+        assertThat(first.getRight(), equalTo(Collections.singletonList("LOOKUP4")));
+        assertThat(encryptionService.decryptString(first.getLeft()), equalTo("john@example.com"));
+        assertThat(encryptionService.decryptString(second.getLeft()), equalTo("john@example.com"));
+        // the data key is fetched once and nothing is encrypted or decrypted remotely
+        assertThat(keyProvider.requests, equalTo(1));
+        verify(externalEncryptionApi, never()).encryptData(any(), anyString(), anyString(), anyString(), anyString());
+        verify(externalEncryptionApi, never()).decryptData(anyString(), any(), anyString(), anyString());
+    }
+
+    @Test
+    public void remotelyEncryptedValuesInLocalModeTest() {
+        encryptionService.configureLocalEncryption(new InMemoryDataKeyProvider(), ExternalEncryptionService.DEFAULT_DATA_KEY_TTL_MILLIS, true);
+        when(externalEncryptionApi.decryptData(eq("remote"), any(), eq("1"), eq("person")))
+            .thenReturn(Base64.getEncoder().encodeToString("jane@example.com".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(encryptionService.decryptString("sdbenc:person:1:remote"), equalTo("jane@example.com"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void locallyEncryptedValueCantBeMovedTest() {
+        encryptionService.configureLocalEncryption(new InMemoryDataKeyProvider(), ExternalEncryptionService.DEFAULT_DATA_KEY_TTL_MILLIS, true);
+        String encrypted = encryptionService.encryptString("secret", "person", "name", "1").getLeft();
+        encryptionService.decryptString(encrypted.replace(":1:", ":2:"));
+    }
+
+    @Test
+    public void localLookupKeysTest() {
+        encryptionService.setBlindIndexKeyProvider(new InMemoryDataKeyProvider());
+        encryptionService.init();
+
+        String lookupKey = encryptionService.getLookupKey("john@example.com");
+        assertThat(lookupKey.length(), equalTo(44));
+        assertThat(encryptionService.getLookupKey("john@example.com"), equalTo(lookupKey));
+        assertThat(encryptionService.getLookupKey("jane@example.com"), not(equalTo(lookupKey)));
+        verify(externalEncryptionApi, never()).getLookupValue(any(), anyString());
+    }
+
+    @Test
+    public void batchDecryptionCountsEachMissOnceTest() {
+        encryptionService.setDecryptedValueCache(new DecryptedValueCache(64 * 1024, 0));
+        when(externalEncryptionApi.decryptData(anyString(), any(), anyString(), eq("person"))).thenAnswer(invocation -> 
+                Base64.getEncoder().encodeToString(invocation.getArgument(0, String.class).getBytes(StandardCharsets.UTF_8)));
+
+        // a single miss is decrypted in the calling thread, and multiple misses in parallel
+        encryptionService.decryptStrings(Arrays.asList("sdbenc:person:1:a"));
+        encryptionService.decryptStrings(Arrays.asList("sdbenc:person:1:a", "sdbenc:person:2:b", "sdbenc:person:3:c"));
+        Map<String, String> plaintexts = encryptionService.decryptStrings(Arrays.asList("sdbenc:person:2:b", "sdbenc:person:3:c"));
+
+        assertThat(plaintexts.get("sdbenc:person:3:c"), equalTo("c"));
+        assertThat(encryptionService.getDecryptedValueCache().getMisses(), equalTo(3L));
+        assertThat(encryptionService.getDecryptedValueCache().getHits(), equalTo(3L));
+        verify(externalEncryptionApi, times(3)).decryptData(anyString(), any(), anyString(), anyString());
+    }
+
+    private SearchSchema createTestSchema() {
+        SearchSchema schema = new SearchSchema();
+        schema.setRecordType("person");
+        List<SearchSchemaField> fields = new ArrayList<>();
+        SearchSchemaField field = new SearchSchemaField();
+        field.setIndexed(true);
+        field.setAnalyzed(false);
+        field.setName("email");
+        fields.add(field);
+        schema.setFields(fields);
+        return schema;
+    }
+
+    private static class InMemoryDataKeyProvider implements DataKeyProvider {
+        private Map<String, DataKey> keys = new HashMap<>();
+        private int requests;
+
+        @Override
+        public DataKey getDataKey(UUID datastoreId, String table, String column) {
+            requests++;
+            return keys.computeIfAbsent(table + "-" + column, 
+                    keyId -> new DataKey(keyId, Arrays.copyOf(keyId.getBytes(StandardCharsets.UTF_8), 32)));
+        }
+
+        @Override
+        public DataKey getDataKeyById(UUID datastoreId, String keyId) {
+            return keys.get(keyId);
+        }
+
+        @Override
+        public byte[] getBlindIndexKey(UUID datastoreId) {
+            return Arrays.copyOf(datastoreId.toString().getBytes(StandardCharsets.UTF_8), 32);
+        }
+    }
+}
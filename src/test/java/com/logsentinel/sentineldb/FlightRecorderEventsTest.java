@@ -0,0 +1,83 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.api.ExternalEncryptionApi;
+import com.logsentinel.sentineldb.api.SearchSchemaApi;
+import com.logsentinel.sentineldb.events.QueryInterceptionEvent;
+import com.logsentinel.sentineldb.events.SentinelDBCallEvent;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void sentinelDBCallsAreRecordedTest() throws Exception {
+        SentinelDBClient mockClient = mock(SentinelDBClient.class);
+        BiFunction<String, String, SentinelDBClient> builder = (orgId, secret) -> mockClient;
+        ReflectionTestUtils.setField(ExternalEncryptionService.class, "clientBuilder", builder);
+        ExternalEncryptionApi externalEncryptionApi = mock(ExternalEncryptionApi.class);
+        SearchSchemaApi schemaApi = mock(SearchSchemaApi.class);
+        when(mockClient.getExternalEncryptionActions()).thenReturn(externalEncryptionApi);
+        when(mockClient.getSchemaActions()).thenReturn(schemaApi);
+        when(schemaApi.listSearchSchemas()).thenReturn(Collections.emptyList());
+        when(externalEncryptionApi.getLookupValue(any(), eq("john@example.com"))).thenReturn("LOOKUP1");
+
+        ExternalEncryptionService encryptionService = new ExternalEncryptionService("org", "secret", UUID.randomUUID());
+        Path file = Files.createTempFile("sentineldb", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(SentinelDBCallEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            encryptionService.init();
+            encryptionService.getLookupKey("john@example.com");
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals("com.logsentinel.sentineldb.SentinelDBCall"))
+                    .collect(Collectors.toList());
+            assertThat(events.size(), equalTo(2));
+            assertThat(events.get(0).getString("operation"), equalTo(SentinelDBCallEvent.LIST_SEARCH_SCHEMAS));
+            assertThat(events.get(1).getString("operation"), equalTo(SentinelDBCallEvent.LOOKUP_VALUE));
+            assertThat(events.get(1).getLong("bytes"), equalTo(16L));
+            assertThat(events.get(1).getBoolean("successful"), equalTo(true));
+        } finally {
+            encryptionService.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void queryTemplateTest() {
+        SqlParseResult parseResult = new SqlParseResult();
+        parseResult.setMainTable("Users");
+        QueryInterceptionEvent event = new QueryInterceptionEvent();
+        event.describe("SELECT * FROM users WHERE email='john@example.com' AND age > 42", "SELECT", parseResult, false);
+        assertThat(event.sqlTemplate, equalTo("SELECT * FROM users WHERE email=? AND age > ?"));
+        assertThat(event.tables, equalTo("users"));
+
+        QueryInterceptionEvent otherEvent = new QueryInterceptionEvent();
+        otherEvent.describe("SELECT * FROM users WHERE email='jane@example.com' AND age > 7", "SELECT", parseResult, false);
+        assertThat(otherEvent.sqlTemplateId, equalTo(event.sqlTemplateId));
+    }
+}
@@ -0,0 +1,84 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LookupManagerTest {
+
+    private static final List<String> LOOKUP_COLUMNS = Collections.singletonList("email");
+
+    @Test
+    public void appendToRowsTest() {
+        String query = "INSERT INTO person (name, email) VALUES ('O''Brien (jr)', 'a'), ('x', CONCAT('b', 'c')) ON DUPLICATE KEY UPDATE name='y'";
+        String modified = LookupManager.appendLookupColumns(query, LOOKUP_COLUMNS, 
+                Arrays.asList(Arrays.asList("'key1'"), Arrays.asList("NULL")));
+        assertThat(modified, equalTo("INSERT INTO person (name, email,email_sentineldb_lookup) "
+                + "VALUES ('O''Brien (jr)', 'a','key1'), ('x', CONCAT('b', 'c'),NULL) ON DUPLICATE KEY UPDATE name='y'"));
+    }
+
+    @Test
+    public void appendWithoutColumnListTest() {
+        String query = "insert into person values (?, ?)";
+        String modified = LookupManager.appendLookupColumns(query, LOOKUP_COLUMNS, Arrays.asList(Arrays.asList("?")));
+        assertThat(modified, equalTo("insert into person values (?, ?,?)"));
+    }
+
+    @Test
+    public void migrateLookupKeyTest() throws SQLException {
+        ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.getSchema()).thenReturn(SchemaSnapshot.EMPTY);
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:lookupKey");
+                Statement stm = connection.createStatement()) {
+            // the lookup table of earlier versions allowed a single record per lookup key
+            stm.executeUpdate("CREATE TABLE sentineldb_lookup (lookup_key VARCHAR(44) PRIMARY KEY, target_record_id VARCHAR(36))");
+            stm.executeUpdate("INSERT INTO sentineldb_lookup VALUES ('key', '1')");
+
+            new LookupManager(encryptionService).initLookup(connection);
+            List<String> keyColumns = new ArrayList<>();
+            try (ResultSet rs = connection.getMetaData().getPrimaryKeys(null, null, "SENTINELDB_LOOKUP")) {
+                while (rs.next()) {
+                    keyColumns.add(rs.getString("COLUMN_NAME").toLowerCase());
+                }
+            }
+            assertThat(keyColumns, hasItems("lookup_key", "target_record_id"));
+
+            // the key now points to both records
+            try (PreparedStatement upsert = connection.prepareStatement(LookupWriter.getUpsertQuery(DatabaseType.H2, 2))) {
+                upsert.setString(1, "key");
+                upsert.setString(2, "1");
+                upsert.setString(3, "key");
+                upsert.setString(4, "2");
+                upsert.executeUpdate();
+            }
+            try (ResultSet rs = stm.executeQuery("SELECT COUNT(*) FROM sentineldb_lookup WHERE lookup_key='key'")) {
+                rs.next();
+                assertThat(rs.getInt(1), equalTo(2));
+            }
+        }
+    }
+
+    @Test
+    public void mismatchedRowsTest() {
+        // the query is left as it is if the rows are not recognized
+        String query = "INSERT INTO person (name, email) VALUES ('a', 'b')";
+        String modified = LookupManager.appendLookupColumns(query, LOOKUP_COLUMNS, 
+                Arrays.asList(Arrays.asList("?"), Arrays.asList("?")));
+        assertThat(modified, equalTo(query));
+    }
+}
@@ -0,0 +1,150 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.proxies.SentinelDBConnection;
+
+public class LookupWriterTest {
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:lookup");
+        try (Statement stm = connection.createStatement()) {
+            stm.executeUpdate("CREATE TABLE sentineldb_lookup (lookup_key VARCHAR(44), target_record_id VARCHAR(36), "
+                    + "PRIMARY KEY (lookup_key, target_record_id))");
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Statement stm = connection.createStatement()) {
+            stm.executeUpdate("DROP TABLE sentineldb_lookup");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void autoCommitTest() throws SQLException {
+        Connection spyConnection = spy(connection);
+        LookupWriter writer = new LookupWriter(spyConnection);
+        writer.startStatement();
+        for (int i = 0; i < 10; i++) {
+            writer.add("key" + (i % 5), "1");
+            writer.add("key" + (i % 5), "2");
+        }
+        // nothing is written before the statement is executed
+        assertThat(countRows(), equalTo(0));
+        writer.statementExecuted();
+        // the duplicates are written once, with a single statement
+        assertThat(countRows(), equalTo(10));
+        verify(spyConnection, times(1)).prepareStatement(anyString());
+        assertThat(writer.getPendingCount(), equalTo(0));
+
+        // rows that are already stored are ignored
+        writer.startStatement();
+        writer.add("key0", "1");
+        writer.add("key5", "1");
+        writer.statementExecuted();
+        assertThat(countRows(), equalTo(11));
+    }
+
+    @Test
+    public void failedStatementTest() throws SQLException {
+        LookupWriter writer = new LookupWriter(connection);
+        writer.startStatement();
+        writer.add("key1", "1");
+        // the statement failed, so the next one discards its rows
+        writer.startStatement();
+        writer.add("key2", "2");
+        writer.statementExecuted();
+        assertThat(countRows(), equalTo(1));
+    }
+
+    @Test
+    public void transactionTest() throws SQLException {
+        SentinelDBConnection sentinelConnection = new SentinelDBConnection(connection, null, null, null, null);
+        sentinelConnection.setAutoCommit(false);
+        LookupWriter writer = sentinelConnection.getLookupWriter();
+        writer.startStatement();
+        writer.add("key1", "1");
+        writer.statementExecuted();
+        assertThat(writer.getPendingCount(), equalTo(1));
+        sentinelConnection.rollback();
+        assertThat(writer.getPendingCount(), equalTo(0));
+        assertThat(countRows(), equalTo(0));
+
+        writer.startStatement();
+        writer.add("key2", "2");
+        writer.statementExecuted();
+        sentinelConnection.commit();
+        assertThat(countRows(), equalTo(1));
+        sentinelConnection.setAutoCommit(true);
+    }
+
+    @Test
+    public void insertIfAbsentTest() throws SQLException {
+        // databases without a multi-row upsert get the rows that don't exist yet, and fall back to single rows
+        // if another transaction inserts one of them in the meantime
+        Connection spyConnection = spy(connection);
+        DatabaseMetaData metaData = spy(connection.getMetaData());
+        when(metaData.getDatabaseProductName()).thenReturn(DatabaseType.MS_SQL_SERVER.getProviderName());
+        when(spyConnection.getMetaData()).thenReturn(metaData);
+        LookupWriter writer = new LookupWriter(spyConnection);
+        writer.startStatement();
+        writer.add("key0", "1");
+        writer.statementExecuted();
+
+        doAnswer(invocation -> {
+            PreparedStatement stm = spy(connection.prepareStatement(invocation.getArgument(0)));
+            doThrow(new BatchUpdateException()).when(stm).executeBatch();
+            return stm;
+        }).when(spyConnection).prepareStatement(anyString());
+        writer.startStatement();
+        writer.add("key0", "1");
+        writer.add("key1", "1");
+        writer.statementExecuted();
+        assertThat(countRows(), equalTo(2));
+    }
+
+    @Test
+    public void upsertQueryTest() {
+        assertThat(LookupWriter.getUpsertQuery(DatabaseType.POSTGRESQL, 2), equalTo(
+                "INSERT INTO sentineldb_lookup (lookup_key, target_record_id) VALUES (?, ?), (?, ?) ON CONFLICT DO NOTHING"));
+        assertThat(LookupWriter.getUpsertQuery(DatabaseType.MYSQL, 1), equalTo(
+                "INSERT INTO sentineldb_lookup (lookup_key, target_record_id) VALUES (?, ?) ON DUPLICATE KEY UPDATE lookup_key=lookup_key"));
+        assertThat(LookupWriter.getInsertIfAbsentQuery(DatabaseType.ORACLE), equalTo(
+                "INSERT INTO sentineldb_lookup (lookup_key, target_record_id) SELECT ?, ? FROM DUAL "
+                + "WHERE NOT EXISTS (SELECT 1 FROM sentineldb_lookup WHERE lookup_key=? AND target_record_id=?)"));
+    }
+
+    private int countRows() throws SQLException {
+        try (Statement stm = connection.createStatement(); 
+                ResultSet rs = stm.executeQuery("SELECT COUNT(*) FROM sentineldb_lookup")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
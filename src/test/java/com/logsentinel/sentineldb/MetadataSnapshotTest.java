@@ -0,0 +1,128 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.SchemaSnapshot.ColumnSchema;
+import com.logsentinel.sentineldb.SchemaSnapshot.TableSchema;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+public class MetadataSnapshotTest {
+
+    @Test
+    public void writeAndReadTest() throws Exception {
+        Path file = Files.createTempFile("sentineldb", ".snapshot");
+        try {
+            SchemaSnapshot schema = createSchema();
+            new MetadataSnapshot("fingerprint", schema, Arrays.asList(createTable()), true).write(file);
+
+            MetadataSnapshot snapshot = MetadataSnapshot.read(file);
+            assertThat(snapshot.getFingerprint(), equalTo("fingerprint"));
+            assertThat(snapshot.isLookupProvisioned(), equalTo(true));
+            assertThat(snapshot.getSchema(), equalTo(schema));
+            assertThat(snapshot.getSchema().getTable("person").getSearchableColumns(), equalTo(Arrays.asList("email")));
+            TableDefinition table = snapshot.getTables().iterator().next();
+            assertThat(table.getName(), equalTo("PERSON"));
+            assertThat(table.getColumns(), equalTo(Arrays.asList("ID", "NAME", "EMAIL")));
+            assertThat(table.getIdColumn(), equalTo("ID"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void corruptedSnapshotIsIgnoredTest() throws Exception {
+        Path file = Files.createTempFile("sentineldb", ".snapshot");
+        try {
+            new MetadataSnapshot(null, createSchema(), Collections.emptyList(), true).write(file);
+            byte[] content = Files.readAllBytes(file);
+            content[content.length / 2] ^= 1;
+            Files.write(file, content);
+            assertThat(MetadataSnapshot.read(file), nullValue());
+
+            Files.delete(file);
+            assertThat(MetadataSnapshot.read(file), nullValue());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void fingerprintTest() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:fingerprint");
+                Statement stm = conn.createStatement()) {
+            stm.executeUpdate("CREATE TABLE person (id INT PRIMARY KEY, name VARCHAR(100))");
+            String fingerprint = DatabaseMetadataLoader.fingerprint(conn, null);
+            assertThat(fingerprint, notNullValue());
+            assertThat(DatabaseMetadataLoader.fingerprint(conn, null), equalTo(fingerprint));
+
+            stm.executeUpdate("ALTER TABLE person ADD email VARCHAR(100)");
+            String addedFingerprint = DatabaseMetadataLoader.fingerprint(conn, null);
+            assertThat(addedFingerprint.equals(fingerprint), equalTo(false));
+
+            // changes that keep the number of tables and columns are detected as well
+            stm.executeUpdate("ALTER TABLE person ALTER COLUMN email RENAME TO phone");
+            String renamedFingerprint = DatabaseMetadataLoader.fingerprint(conn, null);
+            assertThat(renamedFingerprint.equals(addedFingerprint), equalTo(false));
+            stm.executeUpdate("ALTER TABLE person ALTER COLUMN phone INT");
+            assertThat(DatabaseMetadataLoader.fingerprint(conn, null).equals(renamedFingerprint), equalTo(false));
+        }
+    }
+
+    @Test
+    public void snapshotReplacesLookupProvisioningTest() throws Exception {
+        Path file = Files.createTempFile("sentineldb", ".snapshot");
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:snapshot")) {
+            try (Statement stm = conn.createStatement()) {
+                stm.executeUpdate("CREATE TABLE person (id INT PRIMARY KEY, name VARCHAR(100), email VARCHAR(100))");
+            }
+            SchemaSnapshot schema = createSchema();
+            MetadataSnapshot snapshot = new MetadataSnapshot(DatabaseMetadataLoader.fingerprint(conn, null), schema,
+                    Arrays.asList(createTable()), true);
+            ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+            when(encryptionService.getSchema()).thenReturn(schema);
+
+            DriverContext.Key key = new DriverContext.Key("jdbc:h2:mem:snapshot", "sa", "", "ab40b113-8538-4cd9-996e-c269ba1e9aa2",
+                    "org", "secret", null, null, null, null, null);
+            DriverContext context = DriverContext.acquire(key, () -> new DriverContext(key, encryptionService, mock(AuditLogService.class)));
+            context.setConnectionFactory(() -> DriverManager.getConnection("jdbc:h2:mem:snapshot"));
+            context.enableSnapshot(file, snapshot, null);
+            context.initMetadata(conn);
+
+            // the tables are taken from the snapshot, and the lookup table is not even checked
+            assertThat(context.getTableMetadata().getTable("person").getColumns(), equalTo(Arrays.asList("ID", "NAME", "EMAIL")));
+            try (ResultSet rs = conn.getMetaData().getTables(null, null, "SENTINELDB_LOOKUP", null)) {
+                assertThat(rs.next(), equalTo(false));
+            }
+
+            context.release();
+            assertThat(MetadataSnapshot.read(file).getTables().size(), equalTo(1));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private SchemaSnapshot createSchema() {
+        return SchemaSnapshot.ofTables(Arrays.asList(new TableSchema("person", Arrays.asList(
+                new ColumnSchema("name", false, false), new ColumnSchema("email", true, false)))));
+    }
+
+    private TableDefinition createTable() {
+        return new TableDefinition("PERSON", Arrays.asList("ID", "NAME", "EMAIL"), Arrays.asList("ID"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.ParameterPlan.ParameterAction;
+import com.logsentinel.sentineldb.ParameterPlan.StatementKind;
+import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+
+public class ParameterPlanTest {
+
+    private SqlParser parser;
+    private ExternalEncryptionService encryptionService;
+    private Connection connection = mock(Connection.class);
+
+    @Before
+    public void setUp() {
+        TableMetadata tableMetadata = new TableMetadata();
+        tableMetadata.putTable(new TableDefinition("person", Arrays.asList("id", "name", "email", "notes"), Arrays.asList("id")));
+        parser = new SqlParser(tableMetadata);
+
+        encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.isEncrypted(anyString(), anyString())).thenReturn(false);
+        when(encryptionService.isEncrypted(eq("person"), eq("email"))).thenReturn(true);
+        when(encryptionService.isEncrypted(eq("person"), eq("notes"))).thenReturn(true);
+        when(encryptionService.getSearchableEncryptedColumns(anyString())).thenReturn(Arrays.asList("email"));
+    }
+
+    @Test
+    public void insertPlanTest() {
+        String query = "INSERT INTO person (name, email, notes) VALUES (?, ?, ?)";
+        ParameterPlan plan = compile(query);
+        assertThat(plan.getKind(), equalTo(StatementKind.INSERT));
+        assertThat(plan.getParameterOffset(), equalTo(0));
+        assertThat(plan.getAction(1), equalTo(ParameterAction.PASS_THROUGH));
+        assertThat(plan.getAction(2), equalTo(ParameterAction.ENCRYPT));
+        assertThat(plan.getAction(3), equalTo(ParameterAction.ENCRYPT));
+        // the lookup column is appended after the three regular parameters
+        assertThat(plan.getLookupColumnIndex(2), equalTo(4));
+        assertThat(plan.hasLookupColumn(3), equalTo(false));
+    }
+
+    @Test
+    public void multiRowInsertPlanTest() {
+        String query = "INSERT INTO person (name, email, notes) VALUES (?, ?, ?), (?, 'john@example.com', ?), (?, ?, ?)";
+        ParameterPlan plan = compile(query);
+        // the lookup parameter follows the parameters of each row
+        assertThat(plan.getTargetIndex(2), equalTo(2));
+        assertThat(plan.getLookupColumnIndex(2), equalTo(4));
+        assertThat(plan.getTargetIndex(3), equalTo(3));
+        // the second row has a literal email, so its lookup column is NULL rather than a parameter
+        assertThat(plan.getTargetIndex(4), equalTo(5));
+        assertThat(plan.getTargetIndex(5), equalTo(6));
+        assertThat(plan.hasLookupColumn(5), equalTo(false));
+        assertThat(plan.getTargetIndex(6), equalTo(7));
+        assertThat(plan.getAction(7), equalTo(ParameterAction.ENCRYPT));
+        assertThat(plan.getTargetIndex(7), equalTo(8));
+        assertThat(plan.getLookupColumnIndex(7), equalTo(10));
+        assertThat(plan.getTargetIndex(8), equalTo(9));
+    }
+
+    @Test
+    public void insertIdPlanTest() {
+        ParameterPlan plan = compile("INSERT INTO person (id, email) VALUES (?, ?), (?, ?)");
+        // the analyzed values of each row are looked up by the id of the record inserted by the row
+        assertThat(plan.isIdParameter(1), equalTo(true));
+        assertThat(plan.isIdParameter(2), equalTo(false));
+        assertThat(plan.getRow(2), equalTo(0));
+        assertThat(plan.isIdParameter(3), equalTo(true));
+        assertThat(plan.getRow(4), equalTo(1));
+    }
+
+    @Test
+    public void updatePlanTest() {
+        String query = "UPDATE person SET email=?, name=? WHERE id=?";
+        ParameterPlan plan = compile(query);
+        assertThat(plan.getKind(), equalTo(StatementKind.UPDATE));
+        // the lookup column is prepended, so all parameters are offset
+        assertThat(plan.getParameterOffset(), equalTo(1));
+        assertThat(plan.getAction(1), equalTo(ParameterAction.ENCRYPT));
+        assertThat(plan.getLookupColumnIndex(1), equalTo(1));
+        assertThat(plan.getTargetIndex(1), equalTo(2));
+        assertThat(plan.getAction(2), equalTo(ParameterAction.PASS_THROUGH));
+        assertThat(plan.getAction(3), equalTo(ParameterAction.PASS_THROUGH));
+        // the id of the updated record is needed for the lookups of analyzed values
+        assertThat(plan.isIdParameter(3), equalTo(true));
+        assertThat(plan.isIdParameter(2), equalTo(false));
+    }
+
+    @Test
+    public void updateWithoutSearchableColumnPlanTest() {
+        // the lookup column is only prepended if the searchable column is updated
+        ParameterPlan plan = compile("UPDATE person SET notes=? WHERE id=?");
+        assertThat(plan.getParameterOffset(), equalTo(0));
+        assertThat(plan.getAction(1), equalTo(ParameterAction.ENCRYPT));
+        assertThat(plan.hasLookupColumn(1), equalTo(false));
+    }
+
+    @Test
+    public void selectPlanTest() {
+        ParameterPlan plan = compile("SELECT * FROM person WHERE email_sentineldb_lookup=? AND name=?");
+        assertThat(plan.getKind(), equalTo(StatementKind.SELECT));
+        assertThat(plan.getAction(1), equalTo(ParameterAction.LOOKUP_KEY));
+        assertThat(plan.getAction(2), equalTo(ParameterAction.PASS_THROUGH));
+        // out of range parameters are passed through
+        assertThat(plan.getAction(5), equalTo(ParameterAction.PASS_THROUGH));
+    }
+
+    @Test
+    public void planIsSharedTest() {
+        String query = "SELECT * FROM person WHERE email_sentineldb_lookup=?";
+        ParameterPlan plan = compile(query);
+        assertThat(compile(query) == plan, equalTo(true));
+    }
+
+    private ParameterPlan compile(String query) {
+        SqlParseResult parseResult = parser.parse(query, connection);
+        return parser.getParameterPlan(query, q -> ParameterPlan.compile(q, parseResult, encryptionService));
+    }
+}
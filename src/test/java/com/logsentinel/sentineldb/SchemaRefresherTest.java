@@ -0,0 +1,156 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.logsentinel.sentineldb.api.SearchSchemaApi;
+import com.logsentinel.sentineldb.model.SearchSchema;
+import com.logsentinel.sentineldb.model.SearchSchemaField;
+
+public class SchemaRefresherTest {
+
+    private SearchSchemaApi schemaApi;
+
+    @Before
+    public void setUp() {
+        SentinelDBClient mockClient = mock(SentinelDBClient.class);
+        BiFunction<String, String, SentinelDBClient> builder = (orgId, secret) -> mockClient;
+        ReflectionTestUtils.setField(ExternalEncryptionService.class, "clientBuilder", builder);
+        schemaApi = mock(SearchSchemaApi.class);
+        when(mockClient.getSchemaActions()).thenReturn(schemaApi);
+        when(schemaApi.listSearchSchemas()).thenReturn(Collections.singletonList(createSchema("email")));
+    }
+
+    @Test
+    public void refresherIsSharedPerDatastoreTest() {
+        UUID datastoreId = UUID.randomUUID();
+        int refresherCount = SchemaRefresher.getRefresherCount();
+        ExternalEncryptionService first = new ExternalEncryptionService("org", "secret", datastoreId);
+        first.setSchemaRefreshIntervalMillis(60000);
+        first.init();
+        ExternalEncryptionService second = new ExternalEncryptionService("org", "secret", datastoreId);
+        second.setSchemaRefreshIntervalMillis(30000);
+        second.init();
+
+        // the schemas are loaded once, and polled at the shortest interval
+        verify(schemaApi, times(1)).listSearchSchemas();
+        assertThat(second.getSchema(), sameInstance(first.getSchema()));
+        assertThat(SchemaRefresher.getRefresherCount(), equalTo(refresherCount + 1));
+
+        first.shutdown();
+        assertThat(SchemaRefresher.getRefresherCount(), equalTo(refresherCount + 1));
+        second.shutdown();
+        assertThat(SchemaRefresher.getRefresherCount(), equalTo(refresherCount));
+    }
+
+    @Test
+    public void refreshNotifiesOnlyChangesTest() {
+        UUID datastoreId = UUID.randomUUID();
+        ExternalEncryptionService first = new ExternalEncryptionService("org", "secret", datastoreId);
+        first.init();
+        ExternalEncryptionService second = new ExternalEncryptionService("org", "secret", datastoreId);
+        second.init();
+        AtomicInteger changes = new AtomicInteger();
+        first.addSchemaChangeListener(changes::incrementAndGet);
+        second.addSchemaChangeListener(changes::incrementAndGet);
+        try {
+            assertThat(first.refreshSchema(), equalTo(false));
+            assertThat(changes.get(), equalTo(0));
+
+            // a newly searchable column is picked up by all services immediately, rather than on the next poll
+            when(schemaApi.listSearchSchemas()).thenReturn(Collections.singletonList(createSchema("email", "phone")));
+            assertThat(SchemaRefresher.refreshDatastore(datastoreId), equalTo(true));
+            assertThat(changes.get(), equalTo(2));
+            assertThat(second.isSearchable("person", "phone"), equalTo(true));
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void refresherUsesItsOwnClientTest() {
+        List<SentinelDBClient> clients = new ArrayList<>();
+        BiFunction<String, String, SentinelDBClient> builder = (orgId, secret) -> {
+            SentinelDBClient client = mock(SentinelDBClient.class);
+            when(client.getSchemaActions()).thenReturn(schemaApi);
+            clients.add(client);
+            return client;
+        };
+        ReflectionTestUtils.setField(ExternalEncryptionService.class, "clientBuilder", builder);
+        UUID datastoreId = UUID.randomUUID();
+        ExternalEncryptionService first = new ExternalEncryptionService("org", "secret", datastoreId);
+        first.init();
+        ExternalEncryptionService second = new ExternalEncryptionService("org", "secret", datastoreId);
+        second.init();
+        try {
+            // the services and the refresher each have a client, and the services' clients are not used for polling
+            assertThat(clients.size(), equalTo(3));
+            first.shutdown();
+            second.refreshSchema();
+            verify(clients.get(0), never()).getSchemaActions();
+            verify(clients.get(2), never()).getSchemaActions();
+            verify(clients.get(1), times(2)).getSchemaActions();
+        } finally {
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void cachedQueriesAreInvalidatedOnChangeTest() {
+        UUID datastoreId = UUID.randomUUID();
+        ExternalEncryptionService encryptionService = new ExternalEncryptionService("org", "secret", datastoreId);
+        encryptionService.init();
+        DriverContext.Key key = new DriverContext.Key("jdbc:h2:mem:refresh", "sa", "", datastoreId.toString(),
+                "org", "secret", null, null, null, null, null);
+        DriverContext context = new DriverContext(key, encryptionService, mock(AuditLogService.class));
+        SqlParser sqlParser = context.getSqlParser();
+        try {
+            String query = "SELECT * FROM person WHERE phone=?";
+            sqlParser.parse(query, null);
+            sqlParser.getRewrittenQuery(query, q -> q + " rewritten");
+            encryptionService.refreshSchema();
+            assertThat(sqlParser.getCacheSize(), equalTo(1));
+
+            when(schemaApi.listSearchSchemas()).thenReturn(Collections.singletonList(createSchema("email", "phone")));
+            encryptionService.refreshSchema();
+            assertThat(sqlParser.getCacheSize(), equalTo(0));
+            assertThat(sqlParser.getRewrittenQuery(query, q -> q + " rewritten again"), equalTo(query + " rewritten again"));
+        } finally {
+            encryptionService.shutdown();
+        }
+    }
+
+    private SearchSchema createSchema(String... searchableColumns) {
+        SearchSchema schema = new SearchSchema();
+        schema.setRecordType("person");
+        List<SearchSchemaField> fields = new ArrayList<>();
+        for (String column : Arrays.asList(searchableColumns)) {
+            SearchSchemaField field = new SearchSchemaField();
+            field.setIndexed(true);
+            field.setAnalyzed(false);
+            field.setName(column);
+            fields.add(field);
+        }
+        schema.setFields(fields);
+        return schema;
+    }
+}
@@ -0,0 +1,88 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.logsentinel.sentineldb.SchemaSnapshot.ColumnSchema;
+import com.logsentinel.sentineldb.SchemaSnapshot.TableSchema;
+import com.logsentinel.sentineldb.model.SearchSchema;
+import com.logsentinel.sentineldb.model.SearchSchemaField;
+
+public class SchemaSnapshotTest {
+
+    @Test
+    public void columnFlagsTest() {
+        SchemaSnapshot snapshot = SchemaSnapshot.of(Arrays.asList(createSchema("Person"), createSchema("empty")));
+        
+        TableSchema table = snapshot.getTable("PERSON");
+        assertThat(table.hasSensitiveData(), equalTo(true));
+        assertThat(table.getName(), equalTo("person"));
+        // the same descriptor is returned for any spelling of the table
+        assertThat(snapshot.getTable("person") == table, equalTo(true));
+        assertThat(snapshot.getTable("Person") == table, equalTo(true));
+        
+        assertThat(snapshot.getColumn("person", "email").isEncrypted(), equalTo(true));
+        assertThat(snapshot.getColumn("person", "email").isSearchable(), equalTo(true));
+        assertThat(snapshot.getColumn("person", "email").isAnalyzed(), equalTo(false));
+        assertThat(snapshot.getColumn("person", "bio").isAnalyzed(), equalTo(true));
+        assertThat(snapshot.getColumn("person", "notes").isEncrypted(), equalTo(true));
+        assertThat(snapshot.getColumn("person", "notes").isSearchable(), equalTo(false));
+        assertThat(snapshot.getColumn("person", "name"), equalTo(ColumnSchema.NONE));
+        // only the exact-match searchable columns have lookup columns
+        assertThat(table.getSearchableColumns(), equalTo(Collections.singletonList("email")));
+        
+        // schemas without fields are skipped
+        assertThat(snapshot.getTable("empty"), equalTo(TableSchema.NONE));
+        assertThat(snapshot.getTable(null).getSearchableColumns().isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void equalityTest() {
+        SchemaSnapshot snapshot = SchemaSnapshot.of(Collections.singletonList(createSchema("person")));
+        assertThat(snapshot.equals(SchemaSnapshot.of(Collections.singletonList(createSchema("PERSON")))), equalTo(true));
+        
+        SearchSchema changed = createSchema("person");
+        changed.getFields().get(2).setIndexed(true);
+        assertThat(snapshot.equals(SchemaSnapshot.of(Collections.singletonList(changed))), equalTo(false));
+        assertThat(snapshot.equals(SchemaSnapshot.EMPTY), equalTo(false));
+    }
+
+    @Test
+    public void sensitiveTableClassificationTest() {
+        SchemaSnapshot snapshot = SchemaSnapshot.of(Arrays.asList(createSchema("person"), createSchema("audit entry")));
+        assertThat(snapshot.mayReferenceSensitiveTable("SELECT * FROM person WHERE id=1"), equalTo(true));
+        assertThat(snapshot.mayReferenceSensitiveTable("UPDATE \"PUBLIC\".\"PERSON\" SET email=?"), equalTo(true));
+        assertThat(snapshot.mayReferenceSensitiveTable("SELECT s.id FROM session s JOIN `Person` p ON p.id=s.person_id"), equalTo(true));
+        assertThat(snapshot.mayReferenceSensitiveTable("DELETE FROM [audit entry]"), equalTo(true));
+        
+        // identifiers that merely contain the name of a table don't match
+        assertThat(snapshot.mayReferenceSensitiveTable("SELECT person_id FROM session WHERE id=?"), equalTo(false));
+        assertThat(snapshot.mayReferenceSensitiveTable("INSERT INTO persons (id) VALUES (1)"), equalTo(false));
+        assertThat(SchemaSnapshot.EMPTY.mayReferenceSensitiveTable("SELECT * FROM person"), equalTo(false));
+    }
+
+    private SearchSchema createSchema(String recordType) {
+        SearchSchema schema = new SearchSchema();
+        schema.setRecordType(recordType);
+        if (recordType.equals("empty")) {
+            schema.setFields(Collections.emptyList());
+            return schema;
+        }
+        schema.setFields(Arrays.asList(createField("email", true, false), createField("bio", true, true), 
+                createField("notes", false, false)));
+        return schema;
+    }
+
+    private SearchSchemaField createField(String name, boolean indexed, boolean analyzed) {
+        SearchSchemaField field = new SearchSchemaField();
+        field.setName(name);
+        field.setIndexed(indexed);
+        field.setAnalyzed(analyzed);
+        return field;
+    }
+}
@@ -0,0 +1,29 @@
+package com.logsentinel.sentineldb;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SentinelDBDriverTest {
+
+    private SentinelDBDriver driver = new SentinelDBDriver();
+
+    @Test
+    public void cleanupParametersTest() {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("sentineldbOrganizationId", "org");
+        params.put("sentineldbSecret", "secret");
+        params.put("MODE", "MySQL");
+
+        // the driver properties are removed and the properties of the target database are kept intact
+        assertThat(driver.cleanupParameters("jdbc:h2:mem:test;MODE=MySQL;sentineldbOrganizationId=org;sentineldbSecret=secret", params), 
+                equalTo("jdbc:h2:mem:test;MODE=MySQL"));
+        assertThat(driver.cleanupParameters("jdbc:h2:mem:test;sentineldbOrganizationId=org;MODE=MySQL;", params), 
+                equalTo("jdbc:h2:mem:test;MODE=MySQL"));
+        assertThat(driver.cleanupParameters("jdbc:h2:mem:test", params), equalTo("jdbc:h2:mem:test"));
+    }
+}
@@ -12,13 +12,13 @@ import static org.mockito.Mockito.any;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -29,7 +29,8 @@ import org.mockito.MockitoAnnotations;
 
 import com.logsentinel.sentineldb.SqlParser.SqlParseResult;
 import com.logsentinel.sentineldb.SqlParser.TableColumn;
-import com.logsentinel.sentineldb.proxies.ConnectionInvocationHandler;
+import com.logsentinel.sentineldb.TableMetadata.TableDefinition;
+import com.logsentinel.sentineldb.proxies.SentinelDBConnection;
 
 public class SqlParserTest {
 
@@ -37,10 +38,7 @@ public class SqlParserTest {
     
     private static SqlParser createSqlParser() {
         TableMetadata tableMetadata = new TableMetadata();
-        tableMetadata.setTables(Arrays.asList("table"));
-        Map<String, String> idColumns = new HashMap<>();
-        idColumns.put("table", "id");
-        tableMetadata.setIdColumns(idColumns);
+        tableMetadata.putTable(new TableDefinition("table", Arrays.asList("id", "col1", "col2"), Arrays.asList("id")));
         return new SqlParser(tableMetadata);
     }
     
@@ -52,6 +50,9 @@ public class SqlParserTest {
         MockitoAnnotations.initMocks(this);
         Statement mockStatement = mock(Statement.class);
         ResultSet mockResultSet = mock(ResultSet.class);
+        ResultSetMetaData mockMetaData = mock(ResultSetMetaData.class);
+        when(mockMetaData.getColumnCount()).thenReturn(1);
+        when(mockResultSet.getMetaData()).thenReturn(mockMetaData);
         when(mockStatement.executeQuery(anyString())).thenReturn(mockResultSet);
         when(connection.createStatement()).thenReturn(mockStatement);
     }
@@ -105,6 +106,32 @@ public class SqlParserTest {
         assertThat(result.getWhereColumns().isEmpty(), equalTo(true));
     }
     
+    @Test
+    public void insertWithNumbersTest() {
+        SqlParseResult result = parser.parse("INSERT INTO table (id, col1, col2) VALUES (42, 'val1', NULL)", connection);
+        // the values stay aligned with their columns even if they are not strings
+        assertThat(getList(result.getColumns(), TableColumn::getValue), equalTo(Arrays.asList(null, "val1", null)));
+    }
+    
+    @Test
+    public void multiRowInsertTest() {
+        SqlParseResult result = parser.parse("INSERT INTO table (col1, col2) VALUES ('val1', ?), (42, 'val2'), (?, ?)", connection);
+        assertThat(result.getRowCount(), equalTo(3));
+        assertThat(getList(result.getColumns(), TableColumn::getColumName), 
+                equalTo(Arrays.asList("col1", "col2", "col1", "col2", "col1", "col2")));
+        assertThat(getList(result.getColumns(), TableColumn::getValue), 
+                equalTo(Arrays.asList("val1", "?", null, "val2", "?", "?")));
+        assertThat(getList(result.getRows().get(1), TableColumn::getValue), equalTo(Arrays.asList(null, "val2")));
+    }
+    
+    @Test
+    public void updateWithNumbersTest() {
+        SqlParseResult result = parser.parse("UPDATE table SET id=42, col1=UPPER(col2), col2='val2' WHERE id=?", connection);
+        // the values stay aligned with their columns even if they are not strings
+        assertThat(getList(result.getColumns(), TableColumn::getColumName), equalTo(Arrays.asList("id", "col1", "col2")));
+        assertThat(getList(result.getColumns(), TableColumn::getValue), equalTo(Arrays.asList(null, null, "val2")));
+    }
+    
     @Test
     public void updateTest() {
         SqlParseResult result = parser.parse("UPDATE table SET col1='val1' WHERE col2='val2'", connection);
@@ -123,6 +150,41 @@ public class SqlParserTest {
         assertThat(result.getIds().iterator().next(), equalTo(2L));
     }
     
+    @Test
+    public void updateCompositeKeyTest() {
+        TableMetadata tableMetadata = new TableMetadata();
+        tableMetadata.putTable(new TableDefinition("membership", Arrays.asList("group_id", "person_id", "role"), 
+                Arrays.asList("person_id", "group_id")));
+        SqlParser compositeKeyParser = new SqlParser(tableMetadata);
+        
+        SqlParseResult result = compositeKeyParser.parse("UPDATE membership SET role='admin' WHERE role='user'", connection);
+        assertThat(result.getIdQuery(), equalTo("SELECT person_id, group_id FROM membership WHERE role = 'user'"));
+    }
+    
+    @Test
+    public void ddlTablesTest() {
+        assertThat(SqlParser.getDdlTables("CREATE TABLE person (id INT PRIMARY KEY, email VARCHAR(100))"), 
+                equalTo(Arrays.asList("person")));
+        assertThat(SqlParser.getDdlTables("ALTER TABLE person ADD notes VARCHAR(100)"), equalTo(Arrays.asList("person")));
+        assertThat(SqlParser.getDdlTables("DROP TABLE person"), equalTo(Arrays.asList("person")));
+        assertThat(SqlParser.getDdlTables("rename table person to customer, orders to purchases"), 
+                equalTo(Arrays.asList("person", "customer", "orders", "purchases")));
+        assertThat(SqlParser.getDdlTables("CREATE INDEX email_idx ON person (email)"), equalTo(Collections.emptyList()));
+        assertThat(SqlParser.getDdlTables("DROP INDEX email_idx"), equalTo(Collections.emptyList()));
+        assertThat(SqlParser.getDdlTables("CREATE TABLE"), equalTo(null));
+    }
+    
+    @Test
+    public void insertExtractIdTest() {
+        // each row has the id of its record, unless it is generated by the database
+        SqlParseResult result = parser.parse("INSERT INTO table (id, col1) VALUES (1, 'val1'), ('2', 'val2'), (?, ?)", connection);
+        assertThat(result.getIds(), equalTo(Arrays.asList(1L, "2", "?")));
+        assertThat(result.getRows().get(2).get(0).isId(), equalTo(true));
+        
+        result = parser.parse("INSERT INTO table (col1) VALUES ('val1')", connection);
+        assertThat(result.getInsertedId(0), equalTo(null));
+    }
+    
     @Test
     public void tableAliasTest() {
         String query = "select distinct owner0_.id as id1_0_0_, pets1_.id as id1_1_1_, owner0_.first_name as first_na2_0_0_, owner0_.last_name as last_nam3_0_0_, owner0_.address as address4_0_0_, owner0_.city as city5_0_0_, owner0_.telephone as telephon6_0_0_, pets1_.name as name2_1_1_, pets1_.birth_date as birth_da3_1_1_, pets1_.owner_id as owner_id4_1_1_, pets1_.type_id as type_id5_1_1_, pets1_.owner_id as owner_id4_1_0__, pets1_.id as id1_1_0__ from owners owner0_ left outer join pets pets1_ on owner0_.id=pets1_.owner_id WHERE owner0_.last_name like ?";
@@ -145,10 +207,144 @@ public class SqlParserTest {
         String query = "select distinct owner0_.id as id1_0_0_, pets1_.id as id1_1_1_, owner0_.first_name as first_na2_0_0_, owner0_.last_name as last_nam3_0_0_, owner0_.address as address4_0_0_, owner0_.city as city5_0_0_, owner0_.telephone as telephon6_0_0_, pets1_.name as name2_1_1_, pets1_.birth_date as birth_da3_1_1_, pets1_.owner_id as owner_id4_1_1_, pets1_.type_id as type_id5_1_1_, pets1_.owner_id as owner_id4_1_0__, pets1_.id as id1_1_0__ from owners owner0_ left outer join pets pets1_ on owner0_.id=pets1_.owner_id WHERE owner0_.last_name like ?";
         ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
         when(encryptionService.getSearchableEncryptedColumns(any())).thenReturn(Collections.singletonList("last_name"));
-        ConnectionInvocationHandler handler = new ConnectionInvocationHandler(connection, encryptionService, null, parser, null);
-        Object[] args = new Object[] {query};
-        handler.handleQueryModifications(args);
-        assertThat(args[0].toString().endsWith("owner0_.last_name_sentineldb_lookup like ?"), equalTo(true));
+        SentinelDBConnection sentinelConnection = new SentinelDBConnection(connection, encryptionService, null, parser, null);
+        String modifiedQuery = sentinelConnection.modifyQuery(query, parser.parse(query, connection));
+        assertThat(modifiedQuery.endsWith("owner0_.last_name_sentineldb_lookup like ?"), equalTo(true));
+    }
+    
+    @Test
+    public void multiRowInsertPreparsingTest() {
+        String query = "INSERT INTO owners (first_name, last_name) VALUES (?, ?), ('John', 'Smith'), (?, ?)";
+        ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.getSearchableEncryptedColumns(any())).thenReturn(Collections.singletonList("last_name"));
+        SentinelDBConnection sentinelConnection = new SentinelDBConnection(connection, encryptionService, null, parser, null);
+        String modifiedQuery = sentinelConnection.modifyQuery(query, parser.parse(query, connection));
+        // rows with a literal value get no lookup parameter, as the value is not set through the statement
+        assertThat(modifiedQuery, equalTo("INSERT INTO owners (first_name, last_name,last_name_sentineldb_lookup) "
+                + "VALUES (?, ?,?), ('John', 'Smith',NULL), (?, ?,?)"));
+    }
+    
+    @Test
+    public void lookupColumnsOnlyForQueryColumnsTest() {
+        ExternalEncryptionService encryptionService = mock(ExternalEncryptionService.class);
+        when(encryptionService.getSearchableEncryptedColumns(any())).thenReturn(Arrays.asList("last_name", "telephone"));
+        SentinelDBConnection sentinelConnection = new SentinelDBConnection(connection, encryptionService, null, parser, null);
+        
+        // only the searchable columns that are set get lookup columns, as there are no parameters for the others
+        String insert = "INSERT INTO owners (first_name, telephone) VALUES (?, ?)";
+        assertThat(sentinelConnection.modifyQuery(insert, parser.parse(insert, connection)), 
+                equalTo("INSERT INTO owners (first_name, telephone,telephone_sentineldb_lookup) VALUES (?, ?,?)"));
+        String update = "UPDATE owners SET first_name=? WHERE id=?";
+        assertThat(sentinelConnection.modifyQuery(update, parser.parse(update, connection)), equalTo(update));
+    }
+    
+    @Test
+    public void parseCacheTest() {
+        String query = "SELECT * FROM table WHERE column2=?";
+        SqlParseResult first = parser.parse(query, connection);
+        SqlParseResult second = parser.parse(query, connection);
+        assertThat(parser.getCacheMisses(), equalTo(1L));
+        assertThat(parser.getCacheHits(), equalTo(1L));
+        // each caller gets its own copy of the cached result
+        assertThat(first == second, equalTo(false));
+        assertThat(getList(second.getWhereColumns(), TableColumn::getValue), hasItems("?"));
+        
+        parser.clearCache();
+        parser.parse(query, connection);
+        assertThat(parser.getCacheMisses(), equalTo(2L));
+    }
+    
+    @Test
+    public void queryWithLiteralValuesIsNotCachedTest() {
+        String query = "SELECT * FROM table WHERE column2='foo'";
+        SqlParseResult first = parser.parse(query, connection);
+        SqlParseResult second = parser.parse(query, connection);
+        assertThat(parser.getCacheSize(), equalTo(0));
+        // the values are still extracted on every parse
+        assertThat(getList(first.getWhereColumns(), TableColumn::getValue), hasItems("foo"));
+        assertThat(getList(second.getWhereColumns(), TableColumn::getValue), hasItems("foo"));
+        
+        parser.parse("UPDATE table SET col1=? WHERE id=5", connection);
+        parser.parse("INSERT INTO table (id, col1) VALUES (?, 'bar')", connection);
+        assertThat(parser.getCacheSize(), equalTo(0));
+        parser.parse("INSERT INTO table (id, col1) VALUES (?, ?)", connection);
+        assertThat(parser.getCacheSize(), equalTo(1));
+    }
+    
+    @Test
+    public void rewrittenQueryCacheTest() {
+        String query = "SELECT * FROM table WHERE column2=?";
+        parser.parse(query, connection);
+        assertThat(parser.getRewrittenQuery(query, q -> q + " rewritten"), equalTo(query + " rewritten"));
+        // the cached value is used, rather than rewriting the query again
+        assertThat(parser.getRewrittenQuery(query, q -> q + " rewritten again"), equalTo(query + " rewritten"));
+    }
+    
+    @Test
+    public void unparsedQueryIsNotCachedTest() {
+        TableMetadata tableMetadata = new TableMetadata();
+        SqlParser sqlParser = new SqlParser(tableMetadata);
+        AtomicInteger loads = new AtomicInteger();
+        tableMetadata.setLoader((conn, table) -> {
+            loads.incrementAndGet();
+            return null;
+        });
+        // a query that has not been parsed with a connection is neither parsed without one, nor cached
+        String query = "SELECT * FROM person WHERE email=?";
+        assertThat(sqlParser.getRewrittenQuery(query, q -> q + " rewritten"), equalTo(query + " rewritten"));
+        assertThat(sqlParser.getParameterPlan(query, q -> null), equalTo(null));
+        assertThat(sqlParser.getCacheSize(), equalTo(0));
+        assertThat(loads.get(), equalTo(0));
+        
+        sqlParser.parse(query, connection);
+        assertThat(loads.get(), equalTo(1));
+        assertThat(sqlParser.getRewrittenQuery(query, q -> q + " rewritten"), equalTo(query + " rewritten"));
+        assertThat(sqlParser.getRewrittenQuery(query, q -> q + " rewritten again"), equalTo(query + " rewritten"));
+    }
+    
+    @Test
+    public void entryParsedBeforeClearIsNotUsedTest() {
+        TableMetadata tableMetadata = new TableMetadata();
+        SqlParser sqlParser = new SqlParser(tableMetadata);
+        AtomicInteger loads = new AtomicInteger();
+        // the schema changes while the query is being parsed, so its parse result is outdated when it is cached
+        tableMetadata.setLoader((conn, table) -> {
+            if (loads.incrementAndGet() == 1) {
+                sqlParser.clearCache();
+            }
+            return null;
+        });
+        String query = "SELECT * FROM person WHERE email=?";
+        sqlParser.parse(query, connection);
+        sqlParser.parse(query, connection);
+        assertThat(loads.get(), equalTo(2));
+        sqlParser.parse(query, connection);
+        assertThat(loads.get(), equalTo(2));
+    }
+    
+    @Test
+    public void entryParsedBeforeTableClearIsNotUsedTest() {
+        TableMetadata tableMetadata = new TableMetadata();
+        SqlParser sqlParser = new SqlParser(tableMetadata);
+        AtomicInteger loads = new AtomicInteger();
+        // the table is altered while the query is being parsed
+        tableMetadata.setLoader((conn, table) -> {
+            if (loads.incrementAndGet() == 1) {
+                sqlParser.clearCache("person");
+            }
+            return null;
+        });
+        String query = "SELECT * FROM person WHERE email=?";
+        sqlParser.parse(query, connection);
+        assertThat(sqlParser.getCacheSize(), equalTo(0));
+        sqlParser.parse(query, connection);
+        assertThat(sqlParser.getCacheSize(), equalTo(1));
+        
+        // the queries of other tables are kept
+        sqlParser.clearCache("orders");
+        assertThat(sqlParser.getCacheSize(), equalTo(1));
+        sqlParser.clearCache("PERSON");
+        assertThat(sqlParser.getCacheSize(), equalTo(0));
     }
     
     public List<String> getList(List<TableColumn> columns, Function<TableColumn, String> supplierFunction) {